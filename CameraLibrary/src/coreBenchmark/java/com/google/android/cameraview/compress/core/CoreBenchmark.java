@@ -0,0 +1,150 @@
+package com.google.android.cameraview.compress.core;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ * @fileName CoreBenchmark
+ * @describe 纯Java压缩核心在JVM上的吞吐量测试，CI中在普通Linux上运行：./gradlew :CameraLibrary:coreBenchmark
+ * <p>
+ * 用固定的合成图片(渐变、细线条和伪随机噪声)分别测面积平均缩放、Lanczos缩放和JPEG编码的每秒百万像素数，
+ * 并用ImageIO解码编码结果，检查和原图的PSNR。低于阈值时以非0退出。参数都是系统属性：
+ * <ul>
+ * <li>core.width / core.height：测试图片尺寸，默认4000x3000</li>
+ * <li>core.rounds：每项计时次数，取中位数，默认5</li>
+ * <li>core.minAreaMps / core.minLanczosMps / core.minJpegMps：吞吐量下限，默认0不检查</li>
+ * <li>core.minPsnr：JPEG质量90时的PSNR下限，默认30dB</li>
+ * </ul>
+ */
+
+
+public final class CoreBenchmark {
+    private static final int QUALITY = 90;
+
+    public static void main(String[] args) throws IOException {
+        int width = Integer.getInteger("core.width", 4000);
+        int height = Integer.getInteger("core.height", 3000);
+        int rounds = Math.max(1, Integer.getInteger("core.rounds", 5));
+        double megapixels = (double) width * height / 1000000;
+        final PixelBuffer image = synthetic(width, height);
+        final int dstWidth = width / 4;
+        final int dstHeight = height / 4;
+        final JpegEncoder encoder = new JpegEncoder(QUALITY, true);
+        final ByteArrayOutputStream jpeg = new ByteArrayOutputStream(width * height / 4);
+
+        double area = megapixels / time(rounds, new Task() {
+            @Override
+            public void run() {
+                Resampler.areaAverage(image, dstWidth, dstHeight);
+            }
+        });
+        double lanczos = megapixels / time(rounds, new Task() {
+            @Override
+            public void run() {
+                Resampler.lanczos(image, dstWidth, dstHeight);
+            }
+        });
+        double encode = megapixels / time(rounds, new Task() {
+            @Override
+            public void run() throws IOException {
+                jpeg.reset();
+                encoder.encode(image, jpeg);
+            }
+        });
+        double psnr = psnr(image, jpeg.toByteArray());
+
+        System.out.println(String.format(Locale.US, "image %dx%d, %d rounds", width, height, rounds));
+        System.out.println(String.format(Locale.US, "areaAverage  %8.2f MP/s", area));
+        System.out.println(String.format(Locale.US, "lanczos      %8.2f MP/s", lanczos));
+        System.out.println(String.format(Locale.US, "jpeg q%d     %8.2f MP/s, %d bytes, PSNR %.2f dB", QUALITY, encode, jpeg.size(), psnr));
+
+        boolean failed = check("areaAverage", area, Double.parseDouble(System.getProperty("core.minAreaMps", "0")))
+                | check("lanczos", lanczos, Double.parseDouble(System.getProperty("core.minLanczosMps", "0")))
+                | check("jpeg", encode, Double.parseDouble(System.getProperty("core.minJpegMps", "0")))
+                | check("psnr", psnr, Double.parseDouble(System.getProperty("core.minPsnr", "30")));
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean check(String name, double value, double min) {
+        if (value < min) {
+            System.err.println(String.format(Locale.US, "FAILED: %s %.2f < %.2f", name, value, min));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 先运行一次预热，返回之后rounds次耗时的中位数(秒)
+     */
+    private static double time(int rounds, Task task) throws IOException {
+        task.run();
+        long[] costs = new long[rounds];
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            task.run();
+            costs[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(costs);
+        return costs[rounds / 2] / 1e9;
+    }
+
+    /**
+     * 解码JPEG后按RGB三个通道计算PSNR
+     */
+    private static double psnr(PixelBuffer original, byte[] jpeg) throws IOException {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+        if (decoded == null || decoded.getWidth() != original.getWidth() || decoded.getHeight() != original.getHeight()) {
+            throw new IOException("JPEG decode failed");
+        }
+        double error = 0;
+        for (int y = 0; y < original.getHeight(); y++) {
+            for (int x = 0; x < original.getWidth(); x++) {
+                int a = original.get(x, y);
+                int b = decoded.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int diff = ((a >> shift) & 0xFF) - ((b >> shift) & 0xFF);
+                    error += diff * diff;
+                }
+            }
+        }
+        double mse = error / ((double) original.getWidth() * original.getHeight() * 3);
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+    }
+
+    /**
+     * 每次运行结果相同的测试图片，内容接近照片：平滑的渐变为主，加上细节和少量噪声
+     */
+    private static PixelBuffer synthetic(int width, int height) {
+        PixelBuffer image = new PixelBuffer(width, height);
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                seed ^= seed << 13;
+                seed ^= seed >>> 7;
+                seed ^= seed << 17;
+                int noise = (int) (seed & 7) - 4;
+                int r = 128 + (int) (100 * Math.sin(x * 0.004)) + noise;
+                int g = y * 255 / height + noise;
+                int b = ((x / 40 + y / 40) % 2 == 0 ? 60 : 190) + noise;
+                image.set(x, y, 0xFF000000 | clamp(r) << 16 | clamp(g) << 8 | clamp(b));
+            }
+        }
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+}
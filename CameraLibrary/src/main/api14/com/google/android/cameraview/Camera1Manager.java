@@ -29,6 +29,7 @@ import android.media.MediaRecorder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v4.util.SparseArrayCompat;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -39,11 +40,13 @@ import com.google.android.cameraview.callback.CameraManagerCallBack;
 import com.google.android.cameraview.compress.CompressUtils;
 import com.google.android.cameraview.configs.CameraConfig;
 import com.google.android.cameraview.configs.CameraViewOptions;
+import com.google.android.cameraview.helper.BitmapPool;
 import com.google.android.cameraview.helper.CameraUtils;
 import com.google.android.cameraview.helper.Exif;
 import com.google.android.cameraview.helper.FileUtils;
 import com.google.android.cameraview.logs.CameraLog;
 import com.google.android.cameraview.model.AspectRatio;
+import com.google.android.cameraview.model.CaptureTimeline;
 import com.google.android.cameraview.model.Size;
 
 import java.io.IOException;
@@ -91,6 +94,11 @@ class Camera1Manager extends CameraManager {
     private boolean mShowingPreview;
     private final AtomicBoolean isPictureCaptureInProgress = new AtomicBoolean(false);
     private final AtomicBoolean isAutoFocusInProgress = new AtomicBoolean(false);
+    //连续对焦模式下镜头是否已经停下来(对焦完成)，由AutoFocusMoveCallback更新，拍照时可以跳过autoFocus
+    private final AtomicBoolean isFocusConverged = new AtomicBoolean(false);
+    //连拍剩余张数和间隔，只在主线程中访问
+    private int mBurstRemaining;
+    private long mBurstInterval;
 
     private Handler mHandler = new Handler();
     private Camera.AutoFocusCallback mAutofocusCallback;//这个貌似并没有起到作用，后期考虑删除
@@ -136,9 +144,11 @@ class Camera1Manager extends CameraManager {
             mHandler.removeCallbacksAndMessages(null);
         }
         mShowingPreview = false;
+        mBurstRemaining = 0;
         isPictureCaptureInProgress.set(false);
         isAutoFocusInProgress.set(false);
         releaseCamera();
+        BitmapPool.getInstance().clear();
     }
 
     // Suppresses Camera#setPreviewTexture
@@ -271,8 +281,15 @@ class Camera1Manager extends CameraManager {
             CameraLog.i(TAG, "Camera is not ready, call startCamera() before takePicture()");
             return;
         }
+        if (!isPictureCaptureInProgress.get() && !isAutoFocusInProgress.get()) {
+            startTimeline();
+        }
 
-        if (getAutoFocus()) {
+        if (getAutoFocus() && isFocusReady()) {
+            //连续对焦已经停下来了，再调用autoFocus只会多等一次对焦回调(部分机型还会重新扫一遍)，直接拍照
+            CameraLog.i(TAG, "takePicture, focus converged => takePictureInternal");
+            takePictureInternal();
+        } else if (getAutoFocus()) {
             CameraLog.i(TAG, "takePicture => autofocus");
             mCamera.cancelAutoFocus();
             //mCamera.autoFocus进行自动对焦，对焦好了之后再拍照，魅族MX6手机上对焦比较慢，导致这里可能需要等待好几秒才拍照成功
@@ -285,6 +302,7 @@ class Camera1Manager extends CameraManager {
                         if (isAutoFocusInProgress.get()) {
                             CameraLog.i(TAG, "takePicture, auto focus => takePictureInternal");
                             isAutoFocusInProgress.set(false);
+                            markTimeline(CaptureTimeline.STAGE_AF_LOCKED);
                             takePictureInternal();
                         }
                     }
@@ -314,6 +332,67 @@ class Camera1Manager extends CameraManager {
         }
     }
 
+    @Override
+    public void takePictureBurst(int count, long intervalMs) {
+        if (!isCameraOpened()) {
+            CameraLog.i(TAG, "Camera is not ready, call startCamera() before takePictureBurst()");
+            return;
+        }
+        if (count <= 0 || mBurstRemaining > 0) {
+            return;
+        }
+        CameraLog.i(TAG, "takePictureBurst, count = %d, interval = %d", count, intervalMs);
+        mBurstRemaining = count;
+        mBurstInterval = Math.max(0, intervalMs);
+        takeBurstShot();
+    }
+
+    private final Runnable mBurstShotRunnable = new Runnable() {
+        @Override
+        public void run() {
+            takeBurstShot();
+        }
+    };
+
+    /**
+     * Camera1没有连拍接口，一张出图后立刻重启预览再触发下一张；不逐张对焦，保存交给有界队列
+     */
+    private void takeBurstShot() {
+        if (!isCameraOpened() || mBurstRemaining <= 0) {
+            return;
+        }
+        if (!mSaveQueue.hasCapacity() || isPictureCaptureInProgress.getAndSet(true)) {
+            mHandler.postDelayed(mBurstShotRunnable, BURST_RETRY_DELAY);
+            return;
+        }
+        final long shotTime = SystemClock.uptimeMillis();
+        final CaptureTimeline timeline = newTimeline();
+        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_SHUTTER);
+        try {
+            mCamera.takePicture(null, null, null, new Camera.PictureCallback() {
+                @Override
+                public void onPictureTaken(byte[] data, Camera camera) {
+                    CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_IMAGE_AVAILABLE);
+                    isPictureCaptureInProgress.set(false);
+                    mBurstRemaining--;
+                    CameraLog.i(TAG, "takeBurstShot, onPictureTaken, remain = %d", mBurstRemaining);
+                    if (!mSaveQueue.offer(mContext, data, mCameraOption, timeline)) {
+                        compressImage(data, mCameraOption, timeline);
+                    }
+                    camera.startPreview();
+                    if (mBurstRemaining > 0) {
+                        long delay = mBurstInterval - (SystemClock.uptimeMillis() - shotTime);
+                        mHandler.postDelayed(mBurstShotRunnable, Math.max(0, delay));
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            CameraLog.e(TAG, "takeBurstShot, takePicture fail", e);
+            isPictureCaptureInProgress.set(false);
+            mBurstRemaining = 0;
+        }
+    }
+
     //上面的mCamera.autoFocus中的onAutoFocus这个回调会被调用两次，所以takePictureInternal方法中使用isPictureCaptureInProgress来控制takePicture的调用
     private void takePictureInternal() {
         if (isCameraOpened() && !isPictureCaptureInProgress.getAndSet(true)) {
@@ -321,8 +400,11 @@ class Camera1Manager extends CameraManager {
                 @Override
                 public void onPictureTaken(byte[] data, Camera camera) {
                     CameraLog.i(TAG, "takePictureInternal, onPictureTaken");
+                    //Camera1拿不到传感器时间戳，STAGE_SENSOR不记录
+                    CaptureTimeline timeline = takeTimeline();
+                    CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_IMAGE_AVAILABLE);
                     isPictureCaptureInProgress.set(false);
-                    compressImage(data, mCameraOption);
+                    compressImage(data, mCameraOption, timeline);
                     camera.cancelAutoFocus();
                     camera.startPreview();
                 }
@@ -376,6 +458,7 @@ class Camera1Manager extends CameraManager {
         }
         mCamera = Camera.open(mCameraId);
         mCameraParameters = mCamera.getParameters();
+        attachFocusMoveCallback();
 
         // Supported preview sizes
         mPreviewSizes.clear();
@@ -435,6 +518,8 @@ class Camera1Manager extends CameraManager {
         // Always re-apply camera parameters
         //final Size pictureSize = mPictureSizes.sizes(mAspectRatio).last();// Largest picture size in this ratio
         Size pictureSize = choosePictureSize();
+        //onPictureTaken的byte[]由系统分配无法复用，解码和旋转的Bitmap按拍照尺寸复用
+        BitmapPool.getInstance().setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
 
         if (mShowingPreview) {
             mCamera.stopPreview();//在重新设置CameraParameters之前需要停止预览
@@ -547,11 +632,48 @@ class Camera1Manager extends CameraManager {
     }
 
 
+    /**
+     * 连续对焦时监听镜头的移动，用来判断拍照前是否还需要再对焦一次
+     */
+    private void attachFocusMoveCallback() {
+        isFocusConverged.set(false);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+        try {
+            mCamera.setAutoFocusMoveCallback(new Camera.AutoFocusMoveCallback() {
+                @Override
+                public void onAutoFocusMoving(boolean start, Camera camera) {
+                    isFocusConverged.set(!start);
+                }
+            });
+        } catch (Exception error) {
+            //部分机型不支持，不影响拍照，只是每次都会走autoFocus
+            CameraLog.e(TAG, "attachFocusMoveCallback, setAutoFocusMoveCallback fail", error);
+        }
+    }
+
+    /**
+     * 连续对焦已经完成，并且不需要闪光灯时才可以跳过拍照前的autoFocus
+     * <p>
+     * 闪光灯打开或自动时autoFocus可能会触发预闪/对焦辅助灯，这时仍然走原来的流程
+     */
+    private boolean isFocusReady() {
+        if (!isFocusConverged.get()) {
+            return false;
+        }
+        if (!Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE.equals(mCameraParameters.getFocusMode())) {
+            return false;
+        }
+        return mFlash == CameraConfig.FLASH_OFF || mFlash == CameraConfig.FLASH_TORCH;
+    }
+
     /**
      * 设置自动对焦
      */
     private boolean setAutoFocusInternal(boolean autoFocus) {
         mAutoFocus = autoFocus;
+        isFocusConverged.set(false);//对焦模式可能变了，等下一次镜头停下来的回调
         if (isCameraOpened()) {
             final List<String> modes = mCameraParameters.getSupportedFocusModes();
             if (autoFocus && modes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
@@ -614,6 +736,8 @@ class Camera1Manager extends CameraManager {
             public boolean onTouch(View v, MotionEvent event) {
                 if (event.getAction() == MotionEvent.ACTION_UP) {
                     if (mCamera != null) {
+                        //点击对焦会切换到FOCUS_MODE_AUTO，恢复连续对焦之后等镜头重新停下来再走快速拍照
+                        isFocusConverged.set(false);
                         Camera.Parameters parameters = mCamera.getParameters();
                         String focusMode = parameters.getFocusMode();
                         Rect rect = calculateFocusArea(event.getX(), event.getY());
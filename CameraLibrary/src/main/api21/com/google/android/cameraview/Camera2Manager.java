@@ -25,6 +25,7 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
@@ -33,6 +34,9 @@ import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
 import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import android.util.SparseIntArray;
@@ -41,12 +45,15 @@ import android.view.Surface;
 import android.view.View;
 
 import com.google.android.cameraview.callback.CameraManagerCallBack;
+import com.google.android.cameraview.compress.CompressUtils;
 import com.google.android.cameraview.configs.CameraConfig;
 import com.google.android.cameraview.configs.CameraViewOptions;
+import com.google.android.cameraview.helper.BitmapPool;
 import com.google.android.cameraview.helper.CameraUtils;
 import com.google.android.cameraview.helper.FileUtils;
 import com.google.android.cameraview.logs.CameraLog;
 import com.google.android.cameraview.model.AspectRatio;
+import com.google.android.cameraview.model.CaptureTimeline;
 import com.google.android.cameraview.model.Size;
 
 import java.io.IOException;
@@ -56,6 +63,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Camera2是使用Camera 2 API实现的CameraView，从Android 5.0系统以上使用的是这个CameraView的实现
@@ -86,13 +94,32 @@ class Camera2Manager extends CameraManager {
     private int mFacing;
     private int mFlash;
     private boolean mAutoFocus;
+    //本次拍照是否发送过AF_TRIGGER_START，快速拍照没有锁对焦，拍完之后也就不需要取消
+    private boolean mFocusLocked;
     private int mDisplayOrientation;
 
     private AspectRatio mAspectRatio = CameraConfig.DEFAULT_ASPECT_RATIO;
     private final SizeMap mPreviewSizes = new SizeMap();
     private final SizeMap mPictureSizes = new SizeMap();
 
-    private ImageReader mImageReader;
+    private volatile ImageReader mImageReader;
+
+    //ZSL模式下缓存的最近几帧，未开启时为null。只在后台线程中放入、取出和清空
+    private volatile ZslRingBuffer mZslRing;
+    //ZSL缓存为空时按下快门的时间，下一帧到达时直接保存
+    private long mZslPendingShutter = -1;
+    //传感器时间戳是否与SystemClock.elapsedRealtimeNanos同一时基
+    private boolean mRealtimeTimestamp;
+
+    //连拍剩余张数，大于0时ImageReader出的图进入保存队列
+    private final AtomicInteger mBurstRemaining = new AtomicInteger();
+    //ZSL模式下连拍的间隔，以及下一帧允许的最早时间戳
+    private long mBurstIntervalNs;
+    private long mBurstNextTimestamp;
+    //连拍的请求、间隔，以及还没有提交的张数，只在主线程中使用
+    private CaptureRequest mBurstRequest;
+    private long mBurstIntervalMs;
+    private int mBurstToSubmit;
 
     public Camera2Manager(CameraManagerCallBack callback, CameraPreview preview, Context context,CameraViewOptions options) {
         super(callback, preview,context,options);
@@ -126,6 +153,9 @@ class Camera2Manager extends CameraManager {
 
     @Override
     public void stopCamera() {
+        mBurstRemaining.set(0);
+        mBurstToSubmit = 0;
+        mUiHandler.removeCallbacks(mSubmitBurstRunnable);
         if (mCaptureSession != null) {
             mCaptureSession.close();
             mCaptureSession = null;
@@ -134,10 +164,8 @@ class Camera2Manager extends CameraManager {
             mCamera.close();
             mCamera = null;
         }
-        if (mImageReader != null) {
-            mImageReader.close();
-            mImageReader = null;
-        }
+        releaseImageReader();
+        BitmapPool.getInstance().clear();
     }
 
     @Override
@@ -255,7 +283,24 @@ class Camera2Manager extends CameraManager {
             return;
         }
 
-        if (mAutoFocus) {
+        if (mBurstRemaining.get() > 0) {
+            CameraLog.i(TAG, "takePicture, burst in progress");
+            return;
+        }
+        startTimeline();
+
+        if (mZslRing != null && mCaptureSession != null) {
+            CameraLog.i(TAG, "takePicture => takeZslPicture");
+            takeZslPicture(zslNow());
+            return;
+        }
+
+        if (mAutoFocus && isReadyForCapture()) {
+            //预览帧的对焦和曝光都已经收敛，不用再走锁对焦/预测光的流程
+            CameraLog.i(TAG, "takePicture, 3A converged => captureStillPicture");
+            mCaptureCallback.setState(PictureCaptureCallback.STATE_CAPTURING);
+            captureStillPicture();
+        } else if (mAutoFocus) {
             CameraLog.i(TAG, "takePicture => lockFocus");
             lockFocus();
         } else {
@@ -264,10 +309,138 @@ class Camera2Manager extends CameraManager {
         }
     }
 
+    @Override
+    public void takePictureBurst(int count, long intervalMs) {
+        if (!isCameraOpened() || mCaptureSession == null) {
+            CameraLog.i(TAG, "Camera is not ready, call startCamera() before takePictureBurst()");
+            return;
+        }
+        if (count <= 0 || mBurstRemaining.get() > 0) {
+            return;
+        }
+        CameraLog.i(TAG, "takePictureBurst, count = %d, interval = %d", count, intervalMs);
+        if (mZslRing != null) {
+            //ZSL模式下预览帧就是全尺寸图像，直接按间隔取后面的count帧
+            mBurstIntervalNs = Math.max(0, intervalMs) * 1000000L;
+            mBurstNextTimestamp = 0;
+            mBurstRemaining.set(count);
+            return;
+        }
+        try {
+            mBurstRequest = createStillCaptureRequest().build();
+        } catch (CameraAccessException e) {
+            CameraLog.e(TAG, "takePictureBurst, fail to create request", e);
+            return;
+        }
+        mBurstIntervalMs = Math.max(0, intervalMs);
+        mBurstToSubmit = count;
+        mBurstRemaining.set(count);
+        submitBurst();
+    }
+
+    private final Runnable mSubmitBurstRunnable = new Runnable() {
+        @Override
+        public void run() {
+            submitBurst();
+        }
+    };
+
+    /**
+     * 在主线程中按保存队列的空位提交连拍请求，已经提交还没出图的帧也要占一个空位。
+     * 队列满时暂停触发，稍后再试，不在出图时阻塞相机的后台线程。
+     * 没有间隔时一次用captureBurst提交空位数量的请求(连拍请求和预览请求交替执行)，这一组结束后再提交下一组；
+     * 有间隔时captureBurst没有间隔参数，按间隔逐张提交
+     */
+    private void submitBurst() {
+        if (mCaptureSession == null || mBurstRequest == null || mBurstToSubmit <= 0 || mBurstRemaining.get() <= 0) {
+            return;
+        }
+        int inFlight = mBurstRemaining.get() - mBurstToSubmit;
+        int free = mSaveQueue.getRemainingCapacity() - inFlight;
+        if (free <= 0) {
+            mUiHandler.postDelayed(mSubmitBurstRunnable, BURST_RETRY_DELAY);
+            return;
+        }
+        int count = mBurstIntervalMs > 0 ? 1 : Math.min(mBurstToSubmit, free);
+        try {
+            if (count == 1) {
+                mCaptureSession.capture(mBurstRequest, mBurstCaptureCallback, null);
+            } else {
+                List<CaptureRequest> requests = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    requests.add(mBurstRequest);
+                }
+                mCaptureSession.captureBurst(requests, mBurstCaptureCallback, null);
+            }
+        } catch (CameraAccessException | IllegalStateException e) {
+            mBurstRemaining.set(0);
+            mBurstToSubmit = 0;
+            CameraLog.e(TAG, "submitBurst, fail to capture", e);
+            return;
+        }
+        mBurstToSubmit -= count;
+        if (mBurstToSubmit > 0 && mBurstIntervalMs > 0) {
+            mUiHandler.postDelayed(mSubmitBurstRunnable, mBurstIntervalMs);
+        }
+    }
+
+    /**
+     * handler为null，回调在提交请求的主线程中
+     */
+    private final CameraCaptureSession.CaptureCallback mBurstCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            //这一帧不会再出图，不扣掉的话后面的单拍也会进入连拍队列
+            CameraLog.e(TAG, "mBurstCaptureCallback, onCaptureFailed, reason = %d", failure.getReason());
+            decrementBurst();
+        }
+
+        @Override
+        public void onCaptureBufferLost(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull Surface target, long frameNumber) {
+            //API 24开始：只丢了预览的缓冲区时ImageReader仍会出图
+            ImageReader reader = mImageReader;
+            if (reader != null && target == reader.getSurface()) {
+                CameraLog.e(TAG, "mBurstCaptureCallback, onCaptureBufferLost, frame = %d", frameNumber);
+                decrementBurst();
+            }
+        }
+
+        @Override
+        public void onCaptureSequenceCompleted(@NonNull CameraCaptureSession session, int sequenceId, long frameNumber) {
+            if (mBurstIntervalMs <= 0) {
+                submitBurst();
+            }
+        }
+
+        @Override
+        public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
+            //会话关闭或abortCaptures，这一组都不会出图，连拍到此结束
+            CameraLog.e(TAG, "mBurstCaptureCallback, onCaptureSequenceAborted");
+            mBurstRemaining.set(0);
+            mBurstToSubmit = 0;
+        }
+    };
+
+    private void decrementBurst() {
+        int remaining;
+        do {
+            remaining = mBurstRemaining.get();
+        } while (remaining > 0 && !mBurstRemaining.compareAndSet(remaining, remaining - 1));
+    }
+
     @Override
     public void setDisplayOrientation(int displayOrientation) {
         mDisplayOrientation = displayOrientation;
         mPreview.setDisplayOrientation(mDisplayOrientation);
+        if (mZslRing != null && mCaptureSession != null && mPreviewRequestBuilder != null) {
+            //ZSL的帧来自预览请求，方向变化后需要更新预览请求的JPEG方向
+            mPreviewRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, getJpegOrientation());
+            try {
+                mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+            } catch (CameraAccessException e) {
+                CameraLog.e(TAG, "setDisplayOrientation, fail to update zsl orientation", e);
+            }
+        }
     }
 
     /**
@@ -416,15 +589,56 @@ class Camera2Manager extends CameraManager {
 
     //ImageReader和mAspectRatio的值有关，如果mAspectRatio改变了的话需要重新创建ImageReader
     private void prepareImageReader() {
-        if (mImageReader != null) {
-            mImageReader.close();
-        }
+        releaseImageReader();
         Size outputSize = choosePictureSize();
-        mImageReader = ImageReader.newInstance(outputSize.getWidth(), outputSize.getHeight(), ImageFormat.JPEG, /* maxImages */ 2);
-        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, null);
+        BitmapPool.getInstance().setPictureSize(outputSize.getWidth(), outputSize.getHeight());
+        int maxImages = 2;
+        if (mCameraOption.isZslEnabled()) {
+            //按JPEG缓冲区大小估算每帧内存，帧数不能超过内存上限；多留两张给正在获取和正在保存的帧
+            long frameBytes = (long) outputSize.getWidth() * outputSize.getHeight() * 3 / 2;
+            int depth = (int) Math.min(mCameraOption.getZslDepth(), mCameraOption.getZslMaxMemory() / frameBytes);
+            if (depth > 0) {
+                mZslRing = new ZslRingBuffer(depth, mCameraOption.getZslMaxMemory());
+                mZslPendingShutter = -1;
+                maxImages = depth + 2;
+                mRealtimeTimestamp = isRealtimeTimestamp();
+            }
+            CameraLog.i(TAG, "prepareImageReader, zsl depth = %d", depth);
+        }
+        mImageReader = ImageReader.newInstance(outputSize.getWidth(), outputSize.getHeight(), ImageFormat.JPEG, maxImages);
+        //回调放在后台线程，直接写盘时不占用主线程
+        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mBackgroundHandler);
         CameraLog.i(TAG, "prepareImageReader, size: %d x %d", outputSize.getWidth(), outputSize.getHeight());
     }
 
+    /**
+     * 关闭ImageReader和ZSL缓存。缓存的帧在后台线程中取出并保存，关闭也放到后台线程，排在正在进行的保存之后，
+     * 不会关掉正在写盘的Image
+     */
+    private void releaseImageReader() {
+        final ZslRingBuffer ring = mZslRing;
+        final ImageReader reader = mImageReader;
+        mZslRing = null;
+        mImageReader = null;
+        if (reader == null) {
+            return;
+        }
+        reader.setOnImageAvailableListener(null, null);
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                if (ring != null) {
+                    ring.clear();
+                }
+                reader.close();
+            }
+        };
+        Handler handler = mBackgroundHandler;
+        if (handler == null || !handler.post(release)) {
+            release.run();
+        }
+    }
+
     /**
      * 这里可以针对具体需求调整最合适的宽高比和输出图片大小
      * 对于不同的手机而言，大部分都支持16:9(4:3)的比例，同时大部分也都支持输出1920x1080(800x600)的图片大小，图片文件大小大概在500KB(200KB)左右
@@ -545,6 +759,13 @@ class Camera2Manager extends CameraManager {
             //先后调用Camera的createCaptureRequest和createCaptureSession方法
             mPreviewRequestBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             mPreviewRequestBuilder.addTarget(surface);
+            if (mZslRing != null) {
+                //ZSL模式下预览请求同时输出全尺寸图像到ImageReader，每一帧都要做一次全尺寸JPEG编码。
+                //不生成Exif缩略图，省掉每帧额外的一次缩小和编码，ZSL照片的CameraUtils.thumbnailBitmap会返回null
+                mPreviewRequestBuilder.addTarget(mImageReader.getSurface());
+                mPreviewRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, getJpegOrientation());
+                mPreviewRequestBuilder.set(CaptureRequest.JPEG_THUMBNAIL_SIZE, new android.util.Size(0, 0));
+            }
             mCamera.createCaptureSession(Arrays.asList(surface, mImageReader.getSurface()), mSessionCallback, null);
             //capture的图像内容将输出到Preview的surface和ImageReader的surface中，在mSessionCallback中处理createCaptureSession的回调
         } catch (CameraAccessException e) {
@@ -566,6 +787,7 @@ class Camera2Manager extends CameraManager {
             }
             CameraLog.i(TAG, "mSessionCallback, onConfigured, CameraCaptureSession created");
             mCaptureSession = session;
+            mCaptureCallback.clearLastState();
             updateAutoFocus();
             updateFlash();
             try {
@@ -744,6 +966,7 @@ class Camera2Manager extends CameraManager {
     private void lockFocus() {
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START);
         CameraLog.i(TAG, "lockFocus, set CONTROL_AF_TRIGGER = CONTROL_AF_TRIGGER_START");
+        mFocusLocked = true;
         try {
             mCaptureCallback.setState(PictureCaptureCallback.STATE_LOCKING);
             mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
@@ -753,45 +976,49 @@ class Camera2Manager extends CameraManager {
         }
     }
 
+    /**
+     * 拍照请求，单拍和连拍共用
+     */
+    private CaptureRequest.Builder createStillCaptureRequest() throws CameraAccessException {
+        CaptureRequest.Builder captureRequestBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+        captureRequestBuilder.addTarget(mImageReader.getSurface());
+        captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, mPreviewRequestBuilder.get(CaptureRequest.CONTROL_AF_MODE));
+        CameraLog.d(TAG, "captureStillPicture, AF_MODE = " + captureRequestBuilder.get(CaptureRequest.CONTROL_AF_MODE));
+        switch (mFlash) {
+            case CameraConfig.FLASH_OFF:
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+                captureRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
+                CameraLog.d(TAG, "captureStillPicture, AE_MODE = CONTROL_AE_MODE_ON, FLASH_MODE = FLASH_MODE_OFF");
+                break;
+            case CameraConfig.FLASH_ON:
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
+                CameraLog.d(TAG, "captureStillPicture, AE_MODE = CONTROL_AE_MODE_ON_ALWAYS_FLASH");
+                break;
+            case CameraConfig.FLASH_TORCH:
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+                captureRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_TORCH);
+                CameraLog.d(TAG, "captureStillPicture, AE_MODE = CONTROL_AE_MODE_ON, FLASH_MODE = FLASH_MODE_TORCH");
+                break;
+            case CameraConfig.FLASH_AUTO:
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                CameraLog.d(TAG, "captureStillPicture, AE_MODE = CONTROL_AE_MODE_ON_AUTO_FLASH");
+                break;
+            case CameraConfig.FLASH_RED_EYE:
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                CameraLog.d(TAG, "captureStillPicture, AE_MODE = CONTROL_AE_MODE_ON_AUTO_FLASH");
+                break;
+        }
+
+        captureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, getJpegOrientation());
+        return captureRequestBuilder;
+    }
+
     /**
      * 拍照
      */
     private void captureStillPicture() {
         try {
-            CaptureRequest.Builder captureRequestBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-            captureRequestBuilder.addTarget(mImageReader.getSurface());
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, mPreviewRequestBuilder.get(CaptureRequest.CONTROL_AF_MODE));
-            CameraLog.d(TAG, "captureStillPicture, AF_MODE = " + captureRequestBuilder.get(CaptureRequest.CONTROL_AF_MODE));
-            switch (mFlash) {
-                case CameraConfig.FLASH_OFF:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
-                    captureRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
-                    CameraLog.d(TAG, "captureStillPicture, AE_MODE = CONTROL_AE_MODE_ON, FLASH_MODE = FLASH_MODE_OFF");
-                    break;
-                case CameraConfig.FLASH_ON:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
-                    CameraLog.d(TAG, "captureStillPicture, AE_MODE = CONTROL_AE_MODE_ON_ALWAYS_FLASH");
-                    break;
-                case CameraConfig.FLASH_TORCH:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
-                    captureRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_TORCH);
-                    CameraLog.d(TAG, "captureStillPicture, AE_MODE = CONTROL_AE_MODE_ON, FLASH_MODE = FLASH_MODE_TORCH");
-                    break;
-                case CameraConfig.FLASH_AUTO:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-                    CameraLog.d(TAG, "captureStillPicture, AE_MODE = CONTROL_AE_MODE_ON_AUTO_FLASH");
-                    break;
-                case CameraConfig.FLASH_RED_EYE:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-                    CameraLog.d(TAG, "captureStillPicture, AE_MODE = CONTROL_AE_MODE_ON_AUTO_FLASH");
-                    break;
-            }
-
-            // Calculate JPEG orientation.
-            @SuppressWarnings("ConstantConditions")
-            int sensorOrientation = mCameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-            captureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION,
-                    (sensorOrientation + mDisplayOrientation * (mFacing == CameraConfig.FACING_FRONT ? 1 : -1) + 360) % 360);
+            CaptureRequest.Builder captureRequestBuilder = createStillCaptureRequest();
 
             // Stop preview and capture a still picture.
             mCaptureSession.stopRepeating();
@@ -808,16 +1035,90 @@ class Camera2Manager extends CameraManager {
         }
     }
 
+    /**
+     * Calculate JPEG orientation.
+     */
+    private int getJpegOrientation() {
+        @SuppressWarnings("ConstantConditions")
+        int sensorOrientation = mCameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        return (sensorOrientation + mDisplayOrientation * (mFacing == CameraConfig.FACING_FRONT ? 1 : -1) + 360) % 360;
+    }
+
+    /**
+     * ZSL拍照：从缓存中取时间戳最接近按下快门时刻的一帧，缓存为空时保存下一帧
+     */
+    private void takeZslPicture(final long shutterTimestamp) {
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ZslRingBuffer ring = mZslRing;
+                if (ring == null) {
+                    return;
+                }
+                Image image = ring.takeClosest(shutterTimestamp);
+                if (image == null) {
+                    CameraLog.i(TAG, "takeZslPicture, ring is empty, wait for next frame");
+                    mZslPendingShutter = shutterTimestamp;
+                    return;
+                }
+                saveImage(image);
+            }
+        });
+    }
+
+    /**
+     * 与传感器时间戳同一时基的当前时间
+     */
+    private long zslNow() {
+        return mRealtimeTimestamp ? SystemClock.elapsedRealtimeNanos() : System.nanoTime();
+    }
+
+    /**
+     * 把传感器时间戳换算到时间线使用的elapsedRealtimeNanos时基
+     * <p>
+     * 非REALTIME的时间戳实际是CLOCK_MONOTONIC(System.nanoTime)，拍照期间不会休眠，两个时钟只差一个固定偏移
+     */
+    private long toTimelineNanos(long sensorTimestamp) {
+        if (mRealtimeTimestamp) {
+            return sensorTimestamp;
+        }
+        return sensorTimestamp + SystemClock.elapsedRealtimeNanos() - System.nanoTime();
+    }
+
+    private boolean isRealtimeTimestamp() {
+        if (Build.VERSION.SDK_INT < 23) {
+            return false;
+        }
+        Integer source = mCameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        return source != null && source == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+    }
+
+    /**
+     * 最近一帧预览结果中对焦已经完成、曝光已经收敛，并且不需要闪光灯时可以直接拍照
+     * <p>
+     * 强制闪光/防红眼需要预闪测光，仍然走lockFocus和precapture的流程
+     */
+    private boolean isReadyForCapture() {
+        if (mFlash == CameraConfig.FLASH_ON || mFlash == CameraConfig.FLASH_RED_EYE) {
+            return false;
+        }
+        return mCaptureCallback.isConverged();
+    }
+
     /**
      * 解锁自动对焦并重启相机预览 (一般是拍照之后调用)
      * <p>
      * Unlocks the auto-focus and restart camera preview. This is supposed to be called after capturing a still picture.
      */
     private void unlockFocus() {
-        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
-        CameraLog.d(TAG, "unlockFocus, set CONTROL_AF_TRIGGER = CONTROL_AF_TRIGGER_CANCEL");
         try {
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+            if (mFocusLocked) {
+                //快速拍照时没有锁对焦，这里再发CANCEL会让连续对焦重新扫一遍
+                mFocusLocked = false;
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
+                CameraLog.d(TAG, "unlockFocus, set CONTROL_AF_TRIGGER = CONTROL_AF_TRIGGER_CANCEL");
+                mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+            }
             updateAutoFocus();
             updateFlash();
             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
@@ -835,6 +1136,16 @@ class Camera2Manager extends CameraManager {
      */
     private PictureCaptureCallback mCaptureCallback = new PictureCaptureCallback() {
 
+        @Override
+        public void onFocusLocked() {
+            markTimeline(CaptureTimeline.STAGE_AF_LOCKED);
+        }
+
+        @Override
+        public void onPrecaptureCompleted() {
+            markTimeline(CaptureTimeline.STAGE_PRECAPTURED);
+        }
+
         @Override
         public void onPrecaptureRequired() {
             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
@@ -871,10 +1182,33 @@ class Camera2Manager extends CameraManager {
         static final int STATE_CAPTURING = 5;
 
         private int mState;
+        //预览帧上报的最近一次AF/AE状态，partial result中可能没有，只在有值时更新
+        private Integer mLastAfState;
+        private Integer mLastAeState;
 
         PictureCaptureCallback() {
         }
 
+        void clearLastState() {
+            mLastAfState = null;
+            mLastAeState = null;
+        }
+
+        /**
+         * 连续对焦已经对上焦，并且曝光已经收敛(或已锁定)
+         * <p>
+         * AE需要闪光灯时返回false，由lockFocus之后的precapture处理。
+         * 还没有收到过AE状态(刚开始预览或设备不上报)时也返回false，不能确定曝光已经收敛
+         */
+        boolean isConverged() {
+            Integer af = mLastAfState;
+            Integer ae = mLastAeState;
+            if (af == null || (af != CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED && af != CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED)) {
+                return false;
+            }
+            return ae != null && (ae == CaptureResult.CONTROL_AE_STATE_CONVERGED || ae == CaptureResult.CONTROL_AE_STATE_LOCKED);
+        }
+
         void setState(int state) {
             mState = state;
             CameraLog.i(TAG, "PictureCaptureCallback, set state = %d", mState);
@@ -893,6 +1227,14 @@ class Camera2Manager extends CameraManager {
         }
 
         private void process(@NonNull CaptureResult result) {
+            Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+            if (afState != null) {
+                mLastAfState = afState;
+            }
+            Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+            if (aeState != null) {
+                mLastAeState = aeState;
+            }
             switch (mState) {
                 case STATE_LOCKING: {
                     Integer af = result.get(CaptureResult.CONTROL_AF_STATE);
@@ -900,6 +1242,7 @@ class Camera2Manager extends CameraManager {
                         break;
                     }
                     if (af == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED || af == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
+                        onFocusLocked();
                         Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
                         if (ae == null || ae == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
                             setState(STATE_CAPTURING);
@@ -923,6 +1266,7 @@ class Camera2Manager extends CameraManager {
                     Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
                     if (ae == null || ae != CaptureResult.CONTROL_AE_STATE_PRECAPTURE) {
                         setState(STATE_CAPTURING);
+                        onPrecaptureCompleted();
                         onReady();
                     }
                     break;
@@ -940,6 +1284,18 @@ class Camera2Manager extends CameraManager {
          */
         public abstract void onPrecaptureRequired();
 
+        /**
+         * 对焦已锁定，用于记录拍照时间线
+         */
+        public void onFocusLocked() {
+        }
+
+        /**
+         * 预测光完成，用于记录拍照时间线
+         */
+        public void onPrecaptureCompleted() {
+        }
+
     }
 
     /**
@@ -949,23 +1305,99 @@ class Camera2Manager extends CameraManager {
 
         @Override
         public void onImageAvailable(ImageReader reader) {
-            try (Image image = reader.acquireNextImage()) {
-                CameraLog.i(TAG, "ImageReader, onImageAvailable, image size = %d x %d, time = %s", image.getWidth(), image.getHeight(), String.valueOf(image.getTimestamp()));
+            ZslRingBuffer ring = mZslRing;
+            Image image = reader.acquireNextImage();
+            if (image == null) {
+                return;
+            }
+            if (reader != mImageReader) {
+                //已经在关闭的ImageReader，帧不能再放进新的缓存
+                image.close();
+                return;
+            }
+            if (ring == null) {
+                if (mBurstRemaining.get() > 0) {
+                    queueBurstImage(image);
+                } else {
+                    saveImage(image);
+                }
+                return;
+            }
+            //保存队列满时这一帧照常进入缓存，等有空位后再取连拍的下一帧
+            if (mBurstRemaining.get() > 0 && image.getTimestamp() >= mBurstNextTimestamp && mSaveQueue.hasCapacity()) {
+                mBurstNextTimestamp = image.getTimestamp() + mBurstIntervalNs;
+                queueBurstImage(image);
+            } else if (mZslPendingShutter >= 0) {
+                mZslPendingShutter = -1;
+                saveImage(image);
+            } else {
+                ring.add(image);
+            }
+        }
 
-                Image.Plane[] planes = image.getPlanes();
-                if (planes.length > 0) {
-                    ByteBuffer buffer = planes[0].getBuffer();
-                    byte[] data = new byte[buffer.remaining()];
-                    buffer.get(data);
+    };
 
-//                    mCallback.onPictureTaken(data);
+    /**
+     * 连拍的帧：拷贝后立刻关闭Image让ImageReader继续出图。触发时已经按队列的空位暂停，
+     * 仍然放不下时交给压缩调度器，不阻塞后台线程(预览、ZSL等所有相机回调都在这个线程)
+     */
+    private void queueBurstImage(Image image) {
+        byte[] data;
+        long timestamp;
+        try (Image img = image) {
+            timestamp = img.getTimestamp();
+            ByteBuffer buffer = img.getPlanes()[0].getBuffer();
+            data = new byte[buffer.remaining()];
+            buffer.get(data);
+        }
+        decrementBurst();
+        CameraLog.i(TAG, "queueBurstImage, remain = %d, pending = %d", mBurstRemaining.get(), mSaveQueue.getPendingCount());
+        //连拍的帧没有单独的快门时间，从出图开始记录
+        CaptureTimeline timeline = newTimeline();
+        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_SENSOR, toTimelineNanos(timestamp));
+        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_IMAGE_AVAILABLE);
+        if (!mSaveQueue.offer(mContext, data, mCameraOption, timeline)) {
+            compressImage(data, mCameraOption, timeline);
+        }
+    }
 
-                    compressImage(data,mCameraOption);
+    /**
+     * 保存一帧图像并关闭它
+     */
+    private void saveImage(Image img) {
+        if (img == null) {
+            return;
+        }
+        try (Image image = img) {
+            CameraLog.i(TAG, "ImageReader, onImageAvailable, image size = %d x %d, time = %s", image.getWidth(), image.getHeight(), String.valueOf(image.getTimestamp()));
+            CaptureTimeline timeline = takeTimeline();
+            CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_SENSOR, toTimelineNanos(image.getTimestamp()));
+            CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_IMAGE_AVAILABLE);
+
+            Image.Plane[] planes = image.getPlanes();
+            if (planes.length > 0) {
+                ByteBuffer buffer = planes[0].getBuffer();
+                if (mCameraOption.isSaveOriginalJpeg() && !mCameraOption.isLosslessRotate()) {
+                    //原图不需要处理时，把plane的ByteBuffer通过FileChannel直接写盘，不再拷贝到堆上。
+                    //在相机线程中直接写入，不在IO线程排队，也不在这里落盘，落盘在压缩线程中进行
+                    String path = FileUtils.getLocalPath(mContext);
+                    if (CompressUtils.saveBuffer(buffer, path, CameraConfig.SYNC_NONE)) {
+                        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_FILE_WRITTEN);
+                        image.close();
+                        compressSavedImage(path, mCameraOption, timeline);
+                        return;
+                    }
+                    buffer.rewind();
                 }
+                byte[] data = new byte[buffer.remaining()];
+                buffer.get(data);
+
+//                    mCallback.onPictureTaken(data);
+
+                compressImage(data, mCameraOption, timeline);
             }
         }
-
-    };
+    }
 
 
     @Override
@@ -0,0 +1,96 @@
+package com.google.android.cameraview;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+
+import com.google.android.cameraview.logs.CameraLog;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * @fileName ZslRingBuffer
+ * @describe ZSL(零延时拍照)模式下缓存最近几帧全尺寸图像，按帧数和内存上限淘汰最旧的帧
+ * <p>
+ * 放入、取出和清空都在相机的后台线程中，清空排在正在进行的保存之后。方法仍然做了同步，getDepth/size可以在其他线程调用
+ */
+@TargetApi(21)
+class ZslRingBuffer {
+
+    private static final String TAG = "ZslRingBuffer";
+
+    private final ArrayDeque<Image> mImages = new ArrayDeque<>();
+    private final int mDepth;
+    private final long mMaxBytes;
+    private long mBytes;
+
+    ZslRingBuffer(int depth, long maxBytes) {
+        mDepth = depth;
+        mMaxBytes = maxBytes;
+    }
+
+    int getDepth() {
+        return mDepth;
+    }
+
+    synchronized int size() {
+        return mImages.size();
+    }
+
+    /**
+     * 放入一帧，超过帧数或内存上限时关闭最旧的帧
+     */
+    synchronized void add(Image image) {
+        long bytes = sizeOf(image);
+        while (!mImages.isEmpty() && (mImages.size() >= mDepth || mBytes + bytes > mMaxBytes)) {
+            Image oldest = mImages.pollFirst();
+            mBytes -= sizeOf(oldest);
+            oldest.close();
+        }
+        mImages.addLast(image);
+        mBytes += bytes;
+    }
+
+    /**
+     * 取出时间戳与timestamp最接近的一帧，调用方负责close
+     *
+     * @return 缓存为空时返回null
+     */
+    synchronized Image takeClosest(long timestamp) {
+        Image closest = null;
+        long minDistance = Long.MAX_VALUE;
+        for (Image image : mImages) {
+            long distance = Math.abs(image.getTimestamp() - timestamp);
+            if (distance < minDistance) {
+                minDistance = distance;
+                closest = image;
+            }
+        }
+        if (closest != null) {
+            mImages.remove(closest);
+            mBytes -= sizeOf(closest);
+            CameraLog.i(TAG, "takeClosest, delta = %d us, remain = %d", minDistance / 1000, mImages.size());
+        }
+        return closest;
+    }
+
+    /**
+     * 关闭所有缓存的帧，ImageReader关闭或重建之前必须调用
+     */
+    synchronized void clear() {
+        Iterator<Image> iterator = mImages.iterator();
+        while (iterator.hasNext()) {
+            iterator.next().close();
+            iterator.remove();
+        }
+        mBytes = 0;
+    }
+
+    private static long sizeOf(Image image) {
+        long bytes = 0;
+        for (Image.Plane plane : image.getPlanes()) {
+            bytes += plane.getBuffer().capacity();
+        }
+        return bytes;
+    }
+}
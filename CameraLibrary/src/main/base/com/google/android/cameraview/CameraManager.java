@@ -1,7 +1,6 @@
 package com.google.android.cameraview;
 
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.media.CamcorderProfile;
 import android.media.MediaRecorder;
 import android.os.Build;
@@ -14,9 +13,10 @@ import android.view.View;
 
 import com.google.android.cameraview.callback.CameraManagerCallBack;
 import com.google.android.cameraview.compress.CompressUtils;
+import com.google.android.cameraview.compress.PictureSaveQueue;
 import com.google.android.cameraview.configs.CameraConfig;
 import com.google.android.cameraview.configs.CameraViewOptions;
-import com.google.android.cameraview.helper.CameraUtils;
+import com.google.android.cameraview.model.CaptureTimeline;
 import com.google.android.cameraview.model.Size;
 
 
@@ -30,6 +30,10 @@ abstract class CameraManager implements ManagerInterface {
     public static final int FOCUS_AREA_SIZE_DEFAULT = 300;
     public static final int FOCUS_METERING_AREA_WEIGHT_DEFAULT = 1000;
     public static final int DELAY_MILLIS_BEFORE_RESETTING_FOCUS = 3000;
+    //连拍时等待编码保存的最大帧数，队列满了相机暂停出图
+    public static final int BURST_QUEUE_CAPACITY = 3;
+    //连拍时保存队列满了或上一张还没出图，稍后再触发
+    static final long BURST_RETRY_DELAY = 30;
 
     protected final CameraManagerCallBack mCallback;
     protected final CameraPreview mPreview;
@@ -44,6 +48,11 @@ abstract class CameraManager implements ManagerInterface {
     Handler mBackgroundHandler;
     Handler mUiHandler = new Handler(Looper.getMainLooper());
 
+    //连拍的编码/保存队列
+    final PictureSaveQueue mSaveQueue = new PictureSaveQueue(BURST_QUEUE_CAPACITY);
+    //当前单拍的时间线，主线程按下快门时创建，出图的线程取走，没有设置CaptureTimelineListener时为null
+    volatile CaptureTimeline mTimeline;
+
     String videoPath;
     boolean mIsVideoRecording = false;
 
@@ -123,6 +132,7 @@ abstract class CameraManager implements ManagerInterface {
     @Override
     public void releaseCameraManager() {
         //        this.mContext = null;
+        mSaveQueue.quit();
         stopBackgroundThread();
     }
 
@@ -134,8 +144,50 @@ abstract class CameraManager implements ManagerInterface {
 
     @Override
     public void compressImage(byte[] data, CameraViewOptions mCameraOption) {
-        Bitmap bitmap = CameraUtils.rotationBitmap(data);
-        CompressUtils.ansyPictrueCompress(mContext, bitmap, mCameraOption);
+        compressImage(data, mCameraOption, null);
+    }
+
+    /**
+     * 相机输出的JPEG先原样写盘再排队，摆正(解码后重新编码或者无损旋转)和压缩都在压缩线程中进行，队列满时不会丢失照片
+     */
+    protected void compressImage(byte[] data, CameraViewOptions mCameraOption, CaptureTimeline timeline) {
+        CompressUtils.ansyPictrueCompress(mContext, data, mCameraOption, timeline);
+    }
+
+    /**
+     * 原图已经由相机实现直接写入localPath(没有落盘)，这里在压缩线程中按SyncPolicy落盘后再压缩和刷新相册
+     */
+    protected void compressSavedImage(String localPath, CameraViewOptions mCameraOption, CaptureTimeline timeline) {
+        CompressUtils.ansyPictrueCompress(mContext, localPath, mCameraOption, timeline, mCameraOption.getSyncPolicy());
+    }
+
+    /**
+     * 设置了CaptureTimelineListener时创建一条新的时间线，否则返回null
+     */
+    CaptureTimeline newTimeline() {
+        return mCameraOption.getCaptureTimelineListener() == null ? null : new CaptureTimeline();
+    }
+
+    /**
+     * 按下快门：开始记录这次单拍的时间线
+     */
+    void startTimeline() {
+        CaptureTimeline timeline = newTimeline();
+        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_SHUTTER);
+        mTimeline = timeline;
+    }
+
+    void markTimeline(int stage) {
+        CaptureTimeline.mark(mTimeline, stage);
+    }
+
+    /**
+     * 出图时取走当前的时间线，之后的阶段由保存流程记录
+     */
+    CaptureTimeline takeTimeline() {
+        CaptureTimeline timeline = mTimeline;
+        mTimeline = null;
+        return timeline;
     }
 
 
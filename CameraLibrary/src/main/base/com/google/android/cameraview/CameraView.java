@@ -36,6 +36,7 @@ import com.google.android.cameraview.callback.CameraControlListener;
 import com.google.android.cameraview.callback.CameraManagerCallBack;
 import com.google.android.cameraview.callback.CameraPictureListener;
 import com.google.android.cameraview.callback.CameraVideoRecorderListener;
+import com.google.android.cameraview.compress.CaptureJournal;
 import com.google.android.cameraview.configs.CameraConfig;
 import com.google.android.cameraview.configs.CameraViewOptions;
 import com.google.android.cameraview.helper.CameraHelper;
@@ -146,6 +147,16 @@ public class CameraView extends FrameLayout implements CameraManagerCallBack {
                 return true;
             }
         });
+
+        //上次进程被杀时没有处理完的拍照，post到setCameraOption之后，按调用方的压缩配置继续处理
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (options.isCaptureJournal()) {
+                    CaptureJournal.get(getContext()).replay(getContext(), options);
+                }
+            }
+        });
     }
 
     //@NonNull
@@ -384,6 +395,16 @@ public class CameraView extends FrameLayout implements CameraManagerCallBack {
         mCameraManager.takePicture();
     }
 
+    /**
+     * 连拍，编码保存在有界队列中依次进行，相机不用等前面的照片写完
+     *
+     * @param count      张数
+     * @param intervalMs 相邻两张的间隔(毫秒)，0表示尽可能快
+     */
+    public void takePictureBurst(int count, long intervalMs) {
+        mCameraManager.takePictureBurst(count, intervalMs);
+    }
+
 
     /**
      * CameraView的保存状态数据(SavedState)
@@ -43,6 +43,11 @@ public interface ManagerInterface {
 
     void takePicture();
 
+    /**
+     * 连拍count张，intervalMs为相邻两张的间隔，0表示尽可能快
+     */
+    void takePictureBurst(int count, long intervalMs);
+
     void setDisplayOrientation(int displayOrientation);
 
     boolean prepareVideoRecorder();
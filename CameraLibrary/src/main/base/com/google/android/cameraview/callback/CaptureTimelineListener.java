@@ -0,0 +1,13 @@
+package com.google.android.cameraview.callback;
+
+import com.google.android.cameraview.model.CaptureTimeline;
+
+/**
+ * @fileName CaptureTimelineListener
+ * @describe 每次拍照结束(压缩成功或失败)后在主线程回调这次拍照各阶段的时间点
+ */
+
+
+public interface CaptureTimelineListener {
+    void onCaptureTimeline(CaptureTimeline timeline);
+}
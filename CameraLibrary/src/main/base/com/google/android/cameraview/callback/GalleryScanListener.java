@@ -0,0 +1,16 @@
+package com.google.android.cameraview.callback;
+
+/**
+ * @fileName GalleryScanListener
+ * @describe 相册扫描队列的积压变化时在主线程回调
+ */
+
+
+public interface GalleryScanListener {
+
+    /**
+     * @param queued   等待合并提交的文件数
+     * @param scanning 已经提交给MediaScanner、还没有扫描完的文件数
+     */
+    void onScanBacklog(int queued, int scanning);
+}
@@ -0,0 +1,13 @@
+package com.google.android.cameraview.callback;
+
+import com.google.android.cameraview.model.MemoryDecision;
+
+/**
+ * @fileName MemoryDecisionListener
+ * @describe 压缩流程因为内存紧张做出调整(降低并发、缩小解码、推迟生成各尺寸)时在主线程回调
+ */
+
+
+public interface MemoryDecisionListener {
+    void onMemoryDecision(MemoryDecision decision);
+}
@@ -0,0 +1,19 @@
+package com.google.android.cameraview.callback;
+
+import com.google.android.cameraview.configs.CameraConfig;
+
+import java.util.Map;
+
+/**
+ * @fileName RenditionListener
+ * @describe 配置了RenditionSpec时，各个尺寸生成后在主线程回调输出路径(在onCompressSuccess之后)
+ */
+
+
+public interface RenditionListener {
+
+    /**
+     * @param renditionPaths RenditionSpec的名称 -> 输出路径，按配置的顺序，编码失败的不包含在内
+     */
+    void onRenditionsSuccess(@CameraConfig.MediaAction int action, String localPath, Map<String, String> renditionPaths);
+}
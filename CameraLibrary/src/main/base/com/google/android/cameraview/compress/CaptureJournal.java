@@ -0,0 +1,353 @@
+package com.google.android.cameraview.compress;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.android.cameraview.configs.CameraViewOptions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @fileName CaptureJournal
+ * @describe 拍照处理的日志：记录每张原图还没有完成的处理阶段，进程在保存和压缩之间被杀时，下次创建CameraView后继续处理
+ * <p>
+ * 日志是files目录下只追加的文本文件，每行一条记录：
+ * <ul>
+ * <li>B 阶段 重试次数 路径：开始处理一张原图</li>
+ * <li>D 阶段 路径：这些阶段已经完成</li>
+ * </ul>
+ * begin/complete只把记录放进内存并唤醒日志线程，不等待写盘。日志线程每次把积攒的所有记录一次写入并落盘(组提交)，
+ * 连拍时多张照片的记录合并成一次force。原图是原子重命名写入的，原图不存在说明还没写完，这样的记录直接丢弃。
+ * 日志在加载时以及超过{@link #COMPACT_BYTES}时重写为只包含未完成的记录
+ */
+public class CaptureJournal {
+    private static final String TAG = "CaptureJournal";
+    private static final String FILE_NAME = "capture.journal";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    public static final int STAGE_COMPRESS = 1;
+    public static final int STAGE_RENDITIONS = 1 << 1;
+    public static final int STAGE_SCAN = 1 << 2;
+    public static final int STAGE_ALL = STAGE_COMPRESS | STAGE_RENDITIONS | STAGE_SCAN;
+
+    //重试这么多次还没完成的(例如每次都在解码时崩溃)不再处理
+    private static final int MAX_ATTEMPTS = 3;
+    //一次恢复提交的任务数，不超过调度器的队列容量，剩下的等下次启动
+    private static final int MAX_REPLAY = CompressScheduler.DEFAULT_CAPACITY / 2;
+    private static final long COMPACT_BYTES = 64 * 1024;
+    //日志线程空闲这么久后退出
+    private static final long IDLE_TIMEOUT_MS = 10 * 1000;
+
+    private static CaptureJournal sInstance;
+
+    private final File mFile;
+    private final Map<String, Entry> mPending = new LinkedHashMap<>();
+    //还没写入的记录
+    private final StringBuilder mRecords = new StringBuilder();
+    private Thread mWorker;
+    private boolean mLoaded;
+    private boolean mReplayRequested;
+    private Context mReplayContext;
+    private CameraViewOptions mReplayOption;
+    //只在日志线程中使用
+    private FileOutputStream mOut;
+    private long mBytes;
+
+    public static synchronized CaptureJournal get(Context mContext) {
+        if (sInstance == null) {
+            sInstance = new CaptureJournal(new File(mContext.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    private CaptureJournal(File file) {
+        mFile = file;
+    }
+
+    /**
+     * 记录一张原图开始处理，不等待写盘
+     *
+     * @param path   原图路径，可以还没有写完
+     * @param stages 需要完成的阶段，STAGE_*的组合
+     */
+    public synchronized void begin(String path, int stages) {
+        if (path == null || stages == 0) {
+            return;
+        }
+        mPending.put(path, new Entry(stages, 0));
+        appendBegin(path, stages, 0);
+        wake();
+    }
+
+    /**
+     * 记录这些阶段已经完成，所有阶段都完成后这张原图不再恢复
+     */
+    public synchronized void complete(String path, int stages) {
+        Entry entry = path == null ? null : mPending.get(path);
+        if (entry == null || (entry.stages & stages) == 0) {
+            return;
+        }
+        entry.stages &= ~stages;
+        if (entry.stages == 0) {
+            mPending.remove(path);
+        }
+        appendDone(path, stages);
+        wake();
+    }
+
+    /**
+     * 把之前的进程没有处理完的原图按mCameraOption重新提交到压缩调度器，每个进程只执行一次
+     */
+    public synchronized void replay(Context mContext, CameraViewOptions mCameraOption) {
+        if (mReplayRequested) {
+            return;
+        }
+        mReplayRequested = true;
+        mReplayContext = mContext.getApplicationContext();
+        mReplayOption = mCameraOption;
+        wake();
+    }
+
+    private void appendBegin(String path, int stages, int attempts) {
+        mRecords.append("B ").append(stages).append(' ').append(attempts).append(' ').append(path).append('\n');
+    }
+
+    private void appendDone(String path, int stages) {
+        mRecords.append("D ").append(stages).append(' ').append(path).append('\n');
+    }
+
+    private void wake() {
+        if (mWorker == null) {
+            mWorker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    work();
+                }
+            }, TAG);
+            mWorker.start();
+        } else {
+            notifyAll();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            String records;
+            Context context = null;
+            CameraViewOptions option = null;
+            synchronized (this) {
+                if (mLoaded && mRecords.length() == 0 && mReplayOption == null) {
+                    try {
+                        wait(IDLE_TIMEOUT_MS);
+                    } catch (InterruptedException ignore) {
+                    }
+                    if (mRecords.length() == 0 && mReplayOption == null) {
+                        closeQuietly();
+                        mWorker = null;
+                        return;
+                    }
+                }
+                if (mLoaded && mReplayOption != null) {
+                    context = mReplayContext;
+                    option = mReplayOption;
+                    mReplayContext = null;
+                    mReplayOption = null;
+                }
+                records = mRecords.toString();
+                mRecords.setLength(0);
+            }
+            if (!mLoaded) {
+                //第一次启动时加载，加载时重写的日志已经包含了这些记录
+                load();
+                continue;
+            }
+            //这段时间积攒的记录一次写入、一次落盘
+            if (!records.isEmpty()) {
+                write(records);
+            }
+            if (option != null) {
+                resume(context, option);
+            }
+            if (mBytes > COMPACT_BYTES) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * 在日志线程中执行：读取之前的进程留下的日志，合并后重写
+     */
+    private void load() {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        if (mFile.isFile()) {
+            try {
+                String text = new String(readFully(mFile), "UTF-8");
+                //最后一行没有换行说明写到一半被杀，丢弃
+                int end = text.lastIndexOf('\n');
+                for (String line : text.substring(0, end + 1).split("\n")) {
+                    parse(line, entries);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "load ERROR!!:" + e.getMessage());
+            }
+        }
+        synchronized (this) {
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                if (!mPending.containsKey(item.getKey())) {
+                    item.getValue().recovered = true;
+                    mPending.put(item.getKey(), item.getValue());
+                }
+            }
+            mLoaded = true;
+        }
+        Log.d(TAG, "load, recovered = " + entries.size());
+        compact();
+    }
+
+    private static void parse(String line, Map<String, Entry> entries) {
+        String[] fields = line.split(" ", line.startsWith("B ") ? 4 : 3);
+        try {
+            if (fields.length == 4 && "B".equals(fields[0])) {
+                entries.put(fields[3], new Entry(Integer.parseInt(fields[1]), Integer.parseInt(fields[2])));
+            } else if (fields.length == 3 && "D".equals(fields[0])) {
+                Entry entry = entries.get(fields[2]);
+                if (entry != null) {
+                    entry.stages &= ~Integer.parseInt(fields[1]);
+                    if (entry.stages == 0) {
+                        entries.remove(fields[2]);
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "parse, bad record: " + line);
+        }
+    }
+
+    /**
+     * 在日志线程中执行：只保留未完成的记录，写临时文件后原子重命名
+     */
+    private void compact() {
+        StringBuilder snapshot = new StringBuilder();
+        synchronized (this) {
+            for (Map.Entry<String, Entry> item : mPending.entrySet()) {
+                snapshot.append("B ").append(item.getValue().stages).append(' ').append(item.getValue().attempts).append(' ').append(item.getKey()).append('\n');
+            }
+            //还没写入的记录已经体现在快照中
+            mRecords.setLength(0);
+        }
+        closeQuietly();
+        File temp = new File(mFile.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(snapshot.toString().getBytes("UTF-8"));
+            out.getChannel().force(false);
+        } catch (IOException e) {
+            Log.e(TAG, "compact ERROR!!:" + e.getMessage());
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(mFile)) {
+            Log.e(TAG, "compact rename fail:" + temp + " -> " + mFile);
+            temp.delete();
+            return;
+        }
+        mBytes = mFile.length();
+    }
+
+    private void write(String records) {
+        try {
+            if (mOut == null) {
+                mOut = new FileOutputStream(mFile, true);
+                mBytes = mFile.length();
+            }
+            byte[] bytes = records.getBytes("UTF-8");
+            mOut.write(bytes);
+            mOut.getChannel().force(false);
+            mBytes += bytes.length;
+        } catch (IOException e) {
+            //丢失的只是这一组记录，下次重写日志时按内存中的状态恢复
+            Log.e(TAG, "write ERROR!!:" + e.getMessage());
+            closeQuietly();
+        }
+    }
+
+    /**
+     * 在日志线程中执行：原图不存在或者重试次数用完的丢弃，其余的重试次数加一后提交
+     */
+    private void resume(Context context, CameraViewOptions option) {
+        List<String> paths = new ArrayList<>();
+        List<Integer> stages = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Entry>> iterator = mPending.entrySet().iterator();
+            while (iterator.hasNext() && paths.size() < MAX_REPLAY) {
+                Map.Entry<String, Entry> item = iterator.next();
+                Entry entry = item.getValue();
+                if (!entry.recovered) {
+                    continue;
+                }
+                entry.recovered = false;
+                if (entry.attempts >= MAX_ATTEMPTS || !new File(item.getKey()).isFile()) {
+                    Log.w(TAG, "resume, drop: " + item.getKey() + ", attempts = " + entry.attempts);
+                    iterator.remove();
+                    appendDone(item.getKey(), entry.stages);
+                    continue;
+                }
+                entry.attempts++;
+                appendBegin(item.getKey(), entry.stages, entry.attempts);
+                paths.add(item.getKey());
+                stages.add(entry.stages);
+            }
+        }
+        for (int i = 0; i < paths.size(); i++) {
+            Log.d(TAG, "resume: " + paths.get(i) + ", stages = " + stages.get(i));
+            CompressUtils.resumePicture(context, paths.get(i), stages.get(i), option);
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private void closeQuietly() {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.close();
+        } catch (IOException ignore) {
+        }
+        mOut = null;
+    }
+
+    private static final class Entry {
+        //还没完成的阶段
+        int stages;
+        int attempts;
+        //之前的进程留下的，还没有提交恢复
+        boolean recovered;
+
+        Entry(int stages, int attempts) {
+            this.stages = stages;
+            this.attempts = attempts;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.google.android.cameraview.compress;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.cameraview.compress.inter.CacheableCompress;
+import com.google.android.cameraview.helper.FileUtils;
+import com.google.android.cameraview.helper.LruDiskCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * @fileName CompressCache
+ * @describe 压缩结果的磁盘缓存，key是源的标识加上压缩参数，重拍重发、同一张图片再次分享时不再重新压缩
+ * <p>
+ * 拍摄流程用文件的身份({@link #identity(String)}，路径、大小和修改时间)作为标识，不读取内容；
+ * 内容哈希按块流式计算SHA-1，不把整个文件读进内存。相机回调的JPEG数据刚拍出来不可能命中，不经过缓存。
+ * 缓存文件可能随时被淘汰，命中时复制到调用方的输出路径
+ */
+public class CompressCache {
+    private static final String TAG = "CompressCache";
+    private static final String DIRECTORY = "/compress";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static LruDiskCache sCache;
+
+    private final LruDiskCache mCache;
+
+    private CompressCache(LruDiskCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * @param maxBytes 缓存大小上限，<=0时返回null表示不缓存
+     */
+    public static CompressCache get(Context mContext, long maxBytes) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        synchronized (CompressCache.class) {
+            if (sCache == null) {
+                sCache = new LruDiskCache(new File(FileUtils.getCacheDir(mContext) + DIRECTORY), maxBytes);
+            }
+            sCache.setMaxBytes(maxBytes);
+            return new CompressCache(sCache);
+        }
+    }
+
+    /**
+     * 结果key，压缩器没有实现{@link CacheableCompress}时参数未知，返回null不缓存
+     *
+     * @param sourceHash {@link #identity(String)}、{@link #hash(byte[])}或{@link #hash(String)}的结果
+     */
+    public static String key(String sourceHash, Object compress, int quality) {
+        return key(sourceHash, compress, quality, -1);
+    }
+
+    /**
+     * @param format 图片的输出格式，同样的参数输出不同格式时结果不同
+     */
+    public static String key(String sourceHash, Object compress, int quality, int format) {
+        if (sourceHash == null || !(compress instanceof CacheableCompress)) {
+            return null;
+        }
+        String params = compress.getClass().getName() + "|" + ((CacheableCompress) compress).getCacheKey() + "|" + quality + "|" + format;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(sourceHash.getBytes("UTF-8"));
+            digest.update(params.getBytes("UTF-8"));
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 文件的身份：路径、大小和修改时间，只查询文件属性不读取内容。拍摄的文件写完后不再修改，
+     * 同一个文件再次提交(例如进程重启后继续处理)时命中，文件不存在返回null
+     */
+    public static String identity(String path) {
+        File file = new File(path);
+        if (!file.isFile()) {
+            return null;
+        }
+        return path + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    public static String hash(byte[] data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(data);
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 流式计算文件内容的哈希，读取失败返回null
+     */
+    public static String hash(String path) {
+        try (InputStream in = new FileInputStream(path)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            Log.e(TAG, "hash ERROR!!:" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 命中时把缓存的结果复制到outPath
+     *
+     * @return 命中返回outPath，否则返回null
+     */
+    public String lookup(String key, String outPath) {
+        if (key == null) {
+            return null;
+        }
+        File cached = mCache.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (!copy(cached, new File(outPath))) {
+            new File(outPath).delete();
+            return null;
+        }
+        Log.d(TAG, "lookup hit:" + key + " -> " + outPath);
+        return outPath;
+    }
+
+    /**
+     * 把压缩结果复制一份放入缓存
+     */
+    public void store(String key, String resultPath) {
+        if (key == null || resultPath == null) {
+            return;
+        }
+        File temp = mCache.newTempFile(key);
+        if (copy(new File(resultPath), temp)) {
+            mCache.commit(key, temp);
+        } else {
+            temp.delete();
+        }
+    }
+
+    private static boolean copy(File from, File to) {
+        try (FileInputStream in = new FileInputStream(from); FileOutputStream out = new FileOutputStream(to)) {
+            FileChannel source = in.getChannel();
+            long size = source.size();
+            long done = 0;
+            while (done < size) {
+                long count = source.transferTo(done, size - done, out.getChannel());
+                if (count <= 0) {
+                    return false;
+                }
+                done += count;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "copy ERROR!!:" + e.getMessage());
+            return false;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = digits[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = digits[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
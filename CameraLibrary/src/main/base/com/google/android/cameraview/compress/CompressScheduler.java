@@ -0,0 +1,414 @@
+package com.google.android.cameraview.compress;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * @fileName CompressScheduler
+ * @describe 压缩任务调度：固定数量的工作线程、有界的优先级队列，替代每次拍照都在Schedulers.io()上开一个任务
+ * <p>
+ * 连拍时io线程池会不断新建线程，每个线程各拿着一张全尺寸Bitmap。这里同时运行的任务数不超过workerCount，
+ * 等待的任务按优先级(相同时按提交顺序)执行，队列满时拒绝新任务。
+ * 相同key的任务在等待或运行中时不会重复执行，后来的订阅者共享同一个结果。
+ * submit返回的Disposable用来取消：还在排队的任务直接移出队列，正在运行的任务会被中断，结果不再回调
+ */
+public class CompressScheduler {
+    private static final String TAG = "CompressScheduler";
+    private static final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    //缩略图等需要尽快拿到的结果
+    public static final int PRIORITY_HIGH = 0;
+    //照片
+    public static final int PRIORITY_NORMAL = 1;
+    //视频转码等耗时的任务
+    public static final int PRIORITY_LOW = 2;
+    private static final int PRIORITY_COUNT = 3;
+
+    public static final int DEFAULT_WORKER_COUNT = 2;
+    public static final int DEFAULT_CAPACITY = 16;
+    //工作线程空闲这么久后退出
+    private static final long IDLE_TIMEOUT_MS = 30 * 1000;
+
+    private static final CompressScheduler sDefault = new CompressScheduler(DEFAULT_WORKER_COUNT, DEFAULT_CAPACITY);
+
+    private final int mWorkerCount;
+    private final int mCapacity;
+    private final PriorityQueue<Job> mQueue = new PriorityQueue<>();
+    //等待和运行中的带key的任务
+    private final Map<String, Job> mKeyedJobs = new HashMap<>();
+    //同时运行的任务数上限，内存紧张时调低，不超过mWorkerCount
+    private int mConcurrency;
+    private int mWorkers;
+    private int mRunning;
+    private long mSequence;
+
+    private long mSubmitted;
+    private long mCompleted;
+    private long mFailed;
+    private long mCancelled;
+    private long mCoalesced;
+    private long mRejected;
+    private int mMaxQueued;
+
+    public static CompressScheduler getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * @param workerCount 同时运行的任务数
+     * @param capacity    排队的任务数上限，不包括正在运行的
+     */
+    public CompressScheduler(int workerCount, int capacity) {
+        mWorkerCount = Math.max(1, workerCount);
+        mCapacity = Math.max(1, capacity);
+        mConcurrency = mWorkerCount;
+    }
+
+    public int getWorkerCount() {
+        return mWorkerCount;
+    }
+
+    public synchronized int getConcurrency() {
+        return mConcurrency;
+    }
+
+    /**
+     * 调整同时运行的任务数，不超过workerCount。调低时正在运行的任务不受影响，之后的任务等到运行数降下来再开始
+     */
+    public synchronized void setConcurrency(int concurrency) {
+        concurrency = Math.max(1, Math.min(mWorkerCount, concurrency));
+        if (concurrency == mConcurrency) {
+            return;
+        }
+        Log.d(TAG, "setConcurrency, " + mConcurrency + " -> " + concurrency);
+        mConcurrency = concurrency;
+        for (int i = 0; i < mWorkerCount; i++) {
+            ensureWorker();
+        }
+        notifyAll();
+    }
+
+    /**
+     * 提交一个任务，observer的onSubscribe在调用线程中回调，onNext/onError在主线程中回调
+     *
+     * @param key      相同key的任务在等待或运行中时合并为一个，为null时不合并
+     * @param priority {@link #PRIORITY_HIGH}、{@link #PRIORITY_NORMAL}、{@link #PRIORITY_LOW}
+     * @return 取消用的句柄
+     */
+    public Disposable submit(String key, int priority, Task task, Observer<String> observer) {
+        priority = Math.max(PRIORITY_HIGH, Math.min(PRIORITY_LOW, priority));
+        Subscription subscription;
+        boolean rejected = false;
+        boolean coalesced = false;
+        synchronized (this) {
+            mSubmitted++;
+            Job job = key == null ? null : mKeyedJobs.get(key);
+            if (job != null && !job.cancelled) {
+                coalesced = true;
+                mCoalesced++;
+                if (priority < job.priority && mQueue.remove(job)) {
+                    //排队中的任务按更高的优先级重新排
+                    job.priority = priority;
+                    mQueue.add(job);
+                }
+            } else {
+                job = new Job(key, priority, mSequence++, task);
+                if (mQueue.size() >= mCapacity) {
+                    rejected = true;
+                    mRejected++;
+                } else {
+                    mQueue.add(job);
+                    if (key != null) {
+                        mKeyedJobs.put(key, job);
+                    }
+                    mMaxQueued = Math.max(mMaxQueued, mQueue.size());
+                    ensureWorker();
+                    notifyAll();
+                }
+            }
+            subscription = new Subscription(job, observer);
+            if (!rejected) {
+                job.subscriptions.add(subscription);
+            }
+        }
+        observer.onSubscribe(subscription);
+        if (coalesced) {
+            //新任务不需要执行，释放它持有的数据
+            task.onDropped();
+        } else if (rejected) {
+            Log.w(TAG, "submit, queue full, rejected: " + key);
+            task.onDropped();
+            subscription.deliver(null, new RejectedExecutionException("compress queue full"));
+        }
+        return subscription;
+    }
+
+    /**
+     * 当前的队列和计数快照
+     */
+    public synchronized Metrics getMetrics() {
+        int[] queued = new int[PRIORITY_COUNT];
+        for (Job job : mQueue) {
+            queued[job.priority]++;
+        }
+        return new Metrics(queued, mRunning, mWorkers, mConcurrency, mSubmitted, mCompleted, mFailed, mCancelled, mCoalesced, mRejected, mMaxQueued);
+    }
+
+    private void ensureWorker() {
+        if (mWorkers >= mConcurrency || mWorkers >= mRunning + mQueue.size()) {
+            return;
+        }
+        mWorkers++;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                Job job;
+                while ((job = take()) != null) {
+                    execute(job);
+                }
+            }
+        }, TAG + "-" + mWorkers).start();
+    }
+
+    /**
+     * 取出下一个任务，空闲超时返回null，工作线程退出。运行数达到并发上限时也等待
+     */
+    private synchronized Job take() {
+        long deadline = System.currentTimeMillis() + IDLE_TIMEOUT_MS;
+        while (mQueue.isEmpty() || mRunning >= mConcurrency) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                mWorkers--;
+                return null;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException ignore) {
+                //取消任务时的中断，已经由execute清除
+            }
+        }
+        Job job = mQueue.poll();
+        job.thread = Thread.currentThread();
+        mRunning++;
+        return job;
+    }
+
+    private void execute(Job job) {
+        String result = null;
+        Throwable error = null;
+        try {
+            result = job.task.run();
+            if (result == null || "".equals(result)) {
+                error = new Throwable("compress fail");
+            }
+        } catch (Throwable e) {
+            error = e;
+        }
+        List<Subscription> subscriptions;
+        synchronized (this) {
+            job.thread = null;
+            mRunning--;
+            //并发数调低时等待的工作线程
+            notifyAll();
+            if (job.key != null && mKeyedJobs.get(job.key) == job) {
+                mKeyedJobs.remove(job.key);
+            }
+            if (job.cancelled) {
+                mCancelled++;
+            } else if (error == null) {
+                mCompleted++;
+            } else {
+                mFailed++;
+            }
+            subscriptions = new ArrayList<>(job.subscriptions);
+        }
+        //取消正在运行的任务时设置的中断标记不能留给下一个任务
+        Thread.interrupted();
+        if (error != null && !job.cancelled) {
+            Log.e(TAG, "execute ERROR!!:" + error);
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.deliver(result, error);
+        }
+    }
+
+    private void cancel(Subscription subscription) {
+        Job job = subscription.job;
+        boolean dropped = false;
+        synchronized (this) {
+            if (!job.subscriptions.remove(subscription) || !job.subscriptions.isEmpty() || job.cancelled) {
+                //还有其他订阅者等着这个结果
+                return;
+            }
+            job.cancelled = true;
+            if (mQueue.remove(job)) {
+                dropped = true;
+                mCancelled++;
+                if (job.key != null && mKeyedJobs.get(job.key) == job) {
+                    mKeyedJobs.remove(job.key);
+                }
+            } else if (job.thread != null) {
+                job.thread.interrupt();
+            }
+        }
+        if (dropped) {
+            job.task.onDropped();
+        }
+    }
+
+    /**
+     * 在工作线程中执行的压缩任务
+     */
+    public abstract static class Task {
+        /**
+         * @return 结果路径，返回null或""表示失败。任务被取消时线程会被中断
+         */
+        protected abstract String run() throws Exception;
+
+        /**
+         * 任务没有执行就被取消、拒绝或者合并，在这里释放它持有的数据(例如放回BitmapPool的Bitmap)
+         */
+        protected void onDropped() {
+        }
+    }
+
+    private static final class Job implements Comparable<Job> {
+        final String key;
+        final long sequence;
+        final Task task;
+        final List<Subscription> subscriptions = new ArrayList<>(1);
+        int priority;
+        Thread thread;
+        volatile boolean cancelled;
+
+        Job(String key, int priority, long sequence, Task task) {
+            this.key = key;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private final class Subscription implements Disposable {
+        final Job job;
+        final Observer<String> observer;
+        volatile boolean disposed;
+
+        Subscription(Job job, Observer<String> observer) {
+            this.job = job;
+            this.observer = observer;
+        }
+
+        void deliver(final String result, final Throwable error) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (disposed) {
+                        return;
+                    }
+                    disposed = true;
+                    if (error == null) {
+                        observer.onNext(result);
+                        observer.onComplete();
+                    } else {
+                        observer.onError(error);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void dispose() {
+            if (!disposed) {
+                disposed = true;
+                cancel(this);
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return disposed;
+        }
+    }
+
+    /**
+     * 调度器的状态快照
+     */
+    public static final class Metrics {
+        private final int[] mQueued;
+        public final int running;
+        public final int workers;
+        public final int concurrency;
+        public final long submitted;
+        public final long completed;
+        public final long failed;
+        public final long cancelled;
+        public final long coalesced;
+        public final long rejected;
+        //历史最大排队数
+        public final int maxQueued;
+
+        Metrics(int[] queued, int running, int workers, int concurrency, long submitted, long completed, long failed,
+                long cancelled, long coalesced, long rejected, int maxQueued) {
+            mQueued = queued;
+            this.running = running;
+            this.workers = workers;
+            this.concurrency = concurrency;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.failed = failed;
+            this.cancelled = cancelled;
+            this.coalesced = coalesced;
+            this.rejected = rejected;
+            this.maxQueued = maxQueued;
+        }
+
+        /**
+         * 排队中的任务数
+         */
+        public int getQueued() {
+            int total = 0;
+            for (int count : mQueued) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * 某个优先级排队中的任务数
+         */
+        public int getQueued(int priority) {
+            return priority >= 0 && priority < mQueued.length ? mQueued[priority] : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics{queued=" + getQueued() + " (high=" + mQueued[PRIORITY_HIGH] + ", normal=" + mQueued[PRIORITY_NORMAL]
+                    + ", low=" + mQueued[PRIORITY_LOW] + "), running=" + running + ", workers=" + workers + ", concurrency=" + concurrency
+                    + ", submitted=" + submitted + ", completed=" + completed + ", failed=" + failed
+                    + ", cancelled=" + cancelled + ", coalesced=" + coalesced + ", rejected=" + rejected
+                    + ", maxQueued=" + maxQueued + "}";
+        }
+    }
+}
@@ -4,25 +4,40 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.media.ExifInterface;
-import android.media.MediaScannerConnection;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import com.google.android.cameraview.compress.inter.FormatPictureCompress;
+import com.google.android.cameraview.compress.inter.PictureCompress;
+import com.google.android.cameraview.compress.inter.StreamPictureCompress;
 import com.google.android.cameraview.configs.CameraConfig;
 import com.google.android.cameraview.configs.CameraViewOptions;
+import com.google.android.cameraview.configs.RenditionSpec;
+import com.google.android.cameraview.helper.BitmapPool;
+import com.google.android.cameraview.helper.CameraUtils;
+import com.google.android.cameraview.helper.Exif;
 import com.google.android.cameraview.helper.FileUtils;
+import com.google.android.cameraview.helper.JpegTransform;
+import com.google.android.cameraview.helper.MediaCache;
+import com.google.android.cameraview.helper.MediaStorage;
+import com.google.android.cameraview.helper.TiledDownscaler;
+import com.google.android.cameraview.model.CaptureTimeline;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileOutputStream;
-
-import io.reactivex.Observable;
-import io.reactivex.ObservableEmitter;
-import io.reactivex.ObservableOnSubscribe;
 import io.reactivex.Observer;
-import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
-import io.reactivex.schedulers.Schedulers;
+import io.reactivex.disposables.Disposables;
 
 /**
  * @fileName CompressUtils
@@ -36,169 +51,732 @@ public class CompressUtils {
     private static final Handler mHandler = new Handler(Looper.getMainLooper());
 
 
-    public static void ansyPictrueCompress(final Context mContext, final Bitmap bitmap, final CameraViewOptions mCameraOption) {
+    public static Disposable ansyPictrueCompress(final Context mContext, final Bitmap bitmap, final CameraViewOptions mCameraOption) {
+        return ansyPictrueCompress(mContext, bitmap, mCameraOption, null, false);
+    }
+
+    public static Disposable ansyPictrueCompress(final Context mContext, final Bitmap bitmap, final CameraViewOptions mCameraOption, final CaptureTimeline timeline) {
+        return ansyPictrueCompress(mContext, bitmap, mCameraOption, timeline, false);
+    }
+
+    /**
+     * @param pooled bitmap是{@link CameraUtils#rotationBitmap(byte[], CaptureTimeline)}解码出来的，保存和压缩完之后放回BitmapPool，调用方不能再使用
+     */
+    public static Disposable ansyPictrueCompress(final Context mContext, final Bitmap bitmap, final CameraViewOptions mCameraOption, final CaptureTimeline timeline, final boolean pooled) {
         if (mContext == null || mCameraOption == null || bitmap == null) {
             if (null != mCameraOption && null != mCameraOption.getCompressListener())
                 mCameraOption.getCompressListener().onCompressFail();
-            return;
+            return Disposables.disposed();
         }
         final String path = FileUtils.getLocalPath(mContext);
+        final Map<String, String> renditions = new LinkedHashMap<>();
+        //原图先交给IO线程编码写入再记录日志，排队的只有可以从原图重做的压缩和各尺寸，任务被拒绝或者进程被杀都不会丢失照片
+        final MediaStorage.Pending original = MediaStorage.getDefault().writeAsync(path, mCameraOption.getSyncPolicy(),
+                bitmapWriter(bitmap, 100, CameraConfig.PICTURE_FORMAT_JPEG));
+        beginJournal(mContext, mCameraOption, path);
 
-        Observable.create(new ObservableOnSubscribe<String>() {
+        return mCameraOption.getCompressScheduler().submit(null, CompressScheduler.PRIORITY_NORMAL, new CompressScheduler.Task() {
             @Override
-            public void subscribe(ObservableEmitter<String> e) throws Exception {
+            protected String run() throws Exception {
 
-                String cachePath = FileUtils.getPictureCacheDirPath(mContext);
+                MemoryGovernor.Plan plan = MemoryGovernor.get(mContext).plan(mCameraOption, path, false);
 
-                //原图存储
-                boolean normal = saveBitmap(bitmap, path, 100);
+                //压缩器可能回收传入的bitmap，等原图写完再压缩
+                boolean normal = original.await();
+                Log.d(TAG, "saveBitmap:" + path + "  success:" + normal);
+                CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_FILE_WRITTEN);
+                String result = normal ? path : null;
                 if (mCameraOption.isCompress() && mCameraOption.getPictureCompress() != null) {
-                    cachePath = mCameraOption.getPictureCompress().compress(mContext, bitmap, cachePath, mCameraOption.getQuality());
-
-                    if (cachePath != null && !"".equals(cachePath)) {
-                        e.onNext(cachePath);
-                    } else {
-                        e.onError(new Throwable("ansyPictrueCompress fail"));
-                    }
-                } else {
+                    //输出路径在压缩时才分配，不压缩时不在输出目录的索引中预留
+                    String cachePath = getCompressPath(mContext, mCameraOption);
+                    result = compressBitmap(mContext, bitmap, cachePath, mCameraOption);
+                    recordOutput(mContext, mCameraOption, cachePath);
+                    CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_COMPRESS);
+                }
+                if (plan.deferRenditions) {
                     if (normal) {
-                        e.onNext(path);
-                    } else {
-                        e.onError(new Throwable("ansyPictrueCompress fail"));
+                        deferRenditions(mContext, path, mCameraOption, plan);
                     }
+                } else {
+                    encodeRenditions(mContext, bitmap, path, mCameraOption, renditions);
                 }
-                refreshSystemGallery(mContext, path);
+                if (pooled) {
+                    BitmapPool.getInstance().release(bitmap);
+                }
+                //先提交扫描再发结果，时间线回调时各阶段都已经记录完
+                refreshSystemGallery(mContext, path, mCameraOption);
+                CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_SCAN_QUEUED);
+                completeJournal(mContext, mCameraOption, path, normal && plan.deferRenditions);
+                return result;
+            }
 
+            @Override
+            protected void onDropped() {
+                //原图还在写时bitmap仍在使用，不放回BitmapPool，由GC回收
+                if (pooled && original.isDone()) {
+                    BitmapPool.getInstance().release(bitmap);
+                }
+                //原图照常写入，没完成的阶段留在日志中，下次启动继续
             }
-        }).subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(new Observer<String>() {
-                    @Override
-                    public void onSubscribe(Disposable d) {
-                        Log.d(TAG, "ansyPictrueCompress onSubscribe");
-                        mHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (null != mCameraOption.getCompressListener())
-                                    mCameraOption.getCompressListener().onStartCompress();
-                            }
-                        });
-                    }
+        }, pictureCompressObserver(path, mCameraOption, timeline, renditions));
+    }
 
-                    @Override
-                    public void onNext(String s) {
-                        if (mCameraOption.getCompressListener() != null)
-                            mCameraOption.getCompressListener().onCompressSuccess(CameraConfig.MEDIA_ACTION_PHOTO, path, s);
-                    }
+    /**
+     * 在io线程中处理相机输出的JPEG数据，见{@link #compressPicture(Context, byte[], String, CameraViewOptions)}
+     */
+    public static Disposable ansyPictrueCompress(final Context mContext, final byte[] data, final CameraViewOptions mCameraOption) {
+        return ansyPictrueCompress(mContext, data, mCameraOption, null);
+    }
 
-                    @Override
-                    public void onError(Throwable e) {
-                        Log.d(TAG, "ansyPictrueCompress onError:" + e.getMessage());
-                        if (mCameraOption.getCompressListener() != null)
-                            mCameraOption.getCompressListener().onCompressFail();
+    public static Disposable ansyPictrueCompress(final Context mContext, final byte[] data, final CameraViewOptions mCameraOption, final CaptureTimeline timeline) {
+        if (mContext == null || mCameraOption == null || data == null) {
+            if (null != mCameraOption && null != mCameraOption.getCompressListener())
+                mCameraOption.getCompressListener().onCompressFail();
+            return Disposables.disposed();
+        }
+        final String path = FileUtils.getLocalPath(mContext);
+        final Map<String, String> renditions = new LinkedHashMap<>();
+        //任务被拒绝或者取消时原图照常写入，没完成的阶段留在日志中，下次启动继续
+        final MediaStorage.Pending original = saveOriginal(mContext, data, path, mCameraOption);
+
+        return mCameraOption.getCompressScheduler().submit(null, CompressScheduler.PRIORITY_NORMAL, new CompressScheduler.Task() {
+            @Override
+            protected String run() throws Exception {
+
+                return compressPicture(mContext, data, original, mCameraOption, timeline, renditions);
+            }
+        }, pictureCompressObserver(path, mCameraOption, timeline, renditions));
+    }
+
+    /**
+     * 同步保存并压缩相机输出的JPEG，调用方负责线程。原图按选项直接写入(可无损旋转)或解码摆正后重新编码
+     *
+     * @return 压缩图路径(未开启压缩时为原图路径)，失败返回null
+     */
+    public static String compressPicture(Context mContext, byte[] data, String path, CameraViewOptions mCameraOption) {
+        return compressPicture(mContext, data, path, mCameraOption, null);
+    }
+
+    public static String compressPicture(Context mContext, byte[] data, String path, CameraViewOptions mCameraOption, CaptureTimeline timeline) {
+        return compressPicture(mContext, data, path, mCameraOption, timeline, null);
+    }
+
+    /**
+     * @param renditions 配置了{@link CameraViewOptions#getRenditions()}时放入各尺寸的输出路径，可以为null
+     */
+    public static String compressPicture(Context mContext, byte[] data, String path, CameraViewOptions mCameraOption, CaptureTimeline timeline, Map<String, String> renditions) {
+        return compressPicture(mContext, data, saveOriginal(mContext, data, path, mCameraOption), mCameraOption, timeline, renditions);
+    }
+
+    /**
+     * 相机输出的JPEG原样交给IO线程写入原图路径，再记录日志。之后的摆正、压缩和各尺寸都可以从原图重做，
+     * 排队的任务被拒绝、取消或者进程被杀都不会丢失照片
+     */
+    static MediaStorage.Pending saveOriginal(Context mContext, byte[] data, String path, CameraViewOptions mCameraOption) {
+        MediaStorage.Pending original = MediaStorage.getDefault().writeAsync(path, mCameraOption.getSyncPolicy(), data);
+        beginJournal(mContext, mCameraOption, path);
+        return original;
+    }
+
+    /**
+     * @param original {@link #saveOriginal(Context, byte[], String, CameraViewOptions)}提交的原图，需要摆正时写完后原子替换它
+     */
+    static String compressPicture(Context mContext, byte[] data, MediaStorage.Pending original, CameraViewOptions mCameraOption, CaptureTimeline timeline, Map<String, String> renditions) {
+        String path = original.getPath();
+        byte[] jpeg = data;
+        Bitmap bitmap = null;
+        boolean normal = false;
+        //无损旋转后的原图，IO线程按顺序写在相机输出的原图之后
+        MediaStorage.Pending rotated = null;
+        MemoryGovernor.Plan plan = MemoryGovernor.get(mContext).plan(mCameraOption, path, true);
+        //从流压缩或者内存紧张需要缩小解码时不解码整张图片，原图保持相机输出的字节
+        boolean stream = mCameraOption.isCompress() && mCameraOption.getPictureCompress() instanceof StreamPictureCompress;
+        boolean reencode = !(mCameraOption.isSaveOriginalJpeg() || mCameraOption.isLosslessRotate() || stream || plan.subsample);
+        //内存紧张不能解码整张图片时原图保持相机输出的字节和Exif方向，显示方向和解码摆正的原图一致。
+        //不改用无损旋转：它在Java堆上持有全尺寸的DCT系数(每像素约3字节)，正是这时最缺的内存
+        if (mCameraOption.isLosslessRotate()) {
+            try {
+                jpeg = JpegTransform.applyExifOrientation(data);
+            } catch (IOException ex) {
+                //不支持的JPEG(渐进式等)，保留Exif方向的原图
+                Log.e(TAG, "losslessRotate fail:" + ex.getMessage());
+            }
+            CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_ROTATE);
+            if (jpeg != data) {
+                rotated = MediaStorage.getDefault().writeAsync(path, mCameraOption.getSyncPolicy(), jpeg);
+            }
+        } else if (reencode) {
+            bitmap = CameraUtils.rotationBitmap(jpeg, timeline);
+            //压缩器可能回收bitmap，先写原图。等相机输出的原图写完再替换，两次写入不会同时用到临时文件
+            normal = awaitOriginal(original, data.length);
+            if (bitmap != null && original.isDone()) {
+                normal = saveBitmap(bitmap, path, 100, CameraConfig.PICTURE_FORMAT_JPEG, mCameraOption.getSyncPolicy()) || normal;
+            }
+            CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_FILE_WRITTEN);
+        }
+
+        String result = null;
+        boolean compress = mCameraOption.isCompress() && mCameraOption.getPictureCompress() != null;
+        if (compress) {
+            //刚拍的照片不可能命中压缩缓存，不计算整张图片的哈希，也不往缓存里复制结果
+            String compressPath = getCompressPath(mContext, mCameraOption);
+            if (stream) {
+                result = compressStream(mContext, new ByteArrayInputStream(jpeg), Exif.getOrientation(jpeg), compressPath, mCameraOption);
+            } else {
+                if (bitmap == null) {
+                    bitmap = plan.subsample ? decodeSubsampled(new ByteArrayInputStream(jpeg), Exif.getOrientation(jpeg), plan)
+                            : CameraUtils.rotationBitmap(jpeg, timeline);
+                }
+                result = bitmap == null ? null : compressBitmap(mContext, bitmap, compressPath, mCameraOption);
+            }
+            if ("".equals(result)) {
+                result = null;
+            }
+            recordOutput(mContext, mCameraOption, compressPath);
+            CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_COMPRESS);
+        }
+        if (!reencode) {
+            normal = awaitOriginal(original, data.length);
+            if (rotated != null) {
+                //替换失败时保留相机输出的原图，Exif方向仍然正确
+                normal = rotated.await() || normal;
+            }
+            CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_FILE_WRITTEN);
+        }
+        if (!compress) {
+            result = normal ? path : null;
+        }
+        if (normal && plan.deferRenditions) {
+            deferRenditions(mContext, path, mCameraOption, plan);
+        } else if (normal && mCameraOption.hasRenditions()) {
+            //原图直接写盘时这里才第一次解码，各尺寸都从这一张Bitmap生成
+            if (bitmap == null) {
+                bitmap = CameraUtils.rotationBitmap(jpeg, timeline);
+            }
+            encodeRenditions(mContext, bitmap, path, mCameraOption, renditions);
+        }
+        BitmapPool.getInstance().release(bitmap);
+        refreshSystemGallery(mContext, path, mCameraOption);
+        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_SCAN_QUEUED);
+        completeJournal(mContext, mCameraOption, path, normal && plan.deferRenditions);
+        return result;
+    }
+
+    private static boolean awaitOriginal(MediaStorage.Pending original, int size) {
+        boolean success = original.await();
+        Log.d(TAG, "saveBytes:" + original.getPath() + "  size:" + size + "  success:" + success);
+        return success;
+    }
+
+    /**
+     * 原图已经写入localPath(例如直接从ImageReader的ByteBuffer写盘)，只有需要压缩时才从文件解码
+     */
+    public static Disposable ansyPictrueCompress(final Context mContext, final String localPath, final CameraViewOptions mCameraOption) {
+        return ansyPictrueCompress(mContext, localPath, mCameraOption, null);
+    }
+
+    public static Disposable ansyPictrueCompress(final Context mContext, final String localPath, final CameraViewOptions mCameraOption, final CaptureTimeline timeline) {
+        return ansyPictrueCompress(mContext, localPath, mCameraOption, timeline, CameraConfig.SYNC_NONE);
+    }
+
+    /**
+     * @param pendingSync localPath写入时没有落盘(例如在相机线程中用SYNC_NONE写入)，在压缩线程中按这个策略补上
+     */
+    public static Disposable ansyPictrueCompress(final Context mContext, final String localPath, final CameraViewOptions mCameraOption, final CaptureTimeline timeline, @CameraConfig.SyncPolicy int pendingSync) {
+        return ansyPictrueCompress(mContext, localPath, mCameraOption, timeline, CaptureJournal.STAGE_ALL, false, pendingSync);
+    }
+
+    /**
+     * 之前的进程没有处理完的原图，只执行还没完成的阶段，见{@link CaptureJournal}
+     */
+    static Disposable resumePicture(Context mContext, String localPath, int stages, CameraViewOptions mCameraOption) {
+        return ansyPictrueCompress(mContext, localPath, mCameraOption, null, stages, true, CameraConfig.SYNC_NONE);
+    }
+
+    /**
+     * @param stages  要执行的阶段，CaptureJournal.STAGE_*的组合
+     * @param resumed 是否是恢复的任务，已经记录在日志中
+     */
+    private static Disposable ansyPictrueCompress(final Context mContext, final String localPath, final CameraViewOptions mCameraOption, final CaptureTimeline timeline, final int stages, boolean resumed, @CameraConfig.SyncPolicy final int pendingSync) {
+        if (mContext == null || mCameraOption == null || localPath == null) {
+            if (null != mCameraOption && null != mCameraOption.getCompressListener())
+                mCameraOption.getCompressListener().onCompressFail();
+            return Disposables.disposed();
+        }
+        final Map<String, String> renditions = new LinkedHashMap<>();
+        if (!resumed) {
+            //任务在队列中等待时进程被杀，下次启动从原图文件继续
+            beginJournal(mContext, mCameraOption, localPath);
+        }
+
+        return mCameraOption.getCompressScheduler().submit(localPath, CompressScheduler.PRIORITY_NORMAL, new CompressScheduler.Task() {
+            @Override
+            protected String run() throws Exception {
+                //相机线程只负责写入，落盘在这里补上，之后才回调和刷新相册
+                MediaStorage.getDefault().sync(localPath, pendingSync);
+
+                String result = localPath;
+                boolean compress = mCameraOption.isCompress() && mCameraOption.getPictureCompress() != null && (stages & CaptureJournal.STAGE_COMPRESS) != 0;
+                boolean renditionsStage = (stages & CaptureJournal.STAGE_RENDITIONS) != 0;
+                //输出路径在压缩时才分配，不压缩时不在输出目录的索引中预留
+                String compressPath = compress ? getCompressPath(mContext, mCameraOption) : null;
+                CompressCache cache = compress ? CompressCache.get(mContext, mCameraOption.getCompressCacheSize()) : null;
+                String cacheKey = cache == null ? null : CompressCache.key(CompressCache.identity(localPath), mCameraOption.getPictureCompress(), mCameraOption.getQuality(), getOutputFormat(mCameraOption));
+                String cached = cache == null ? null : cache.lookup(cacheKey, compressPath);
+                if (cached != null) {
+                    result = cached;
+                    CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_COMPRESS);
+                }
+                boolean stream = mCameraOption.getPictureCompress() instanceof StreamPictureCompress;
+                MemoryGovernor.Plan plan = MemoryGovernor.get(mContext).plan(mCameraOption, localPath, true);
+                boolean renditionsInline = renditionsStage && mCameraOption.hasRenditions() && !plan.deferRenditions;
+                if (compress && cached == null && stream) {
+                    result = compressStream(mContext, localPath, compressPath, mCameraOption);
+                    CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_COMPRESS);
+                    if (cache != null && result != null && !"".equals(result)) {
+                        cache.store(cacheKey, result);
+                    }
+                }
+                if ((compress && cached == null && !stream) || renditionsInline) {
+                    Bitmap bitmap = plan.subsample ? decodeSubsampled(localPath, plan) : CameraUtils.rotationBitmap(localPath, timeline);
+                    if (compress && cached == null && !stream) {
+                        result = bitmap == null ? null : compressBitmap(mContext, bitmap, compressPath, mCameraOption);
+                        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_COMPRESS);
+                        if (cache != null && !plan.subsample && result != null && !"".equals(result)) {
+                            cache.store(cacheKey, result);
+                        }
                     }
+                    if (renditionsInline) {
+                        encodeRenditions(mContext, bitmap, localPath, mCameraOption, renditions);
+                    }
+                    BitmapPool.getInstance().release(bitmap);
+                }
+                recordOutput(mContext, mCameraOption, compressPath);
+                boolean deferred = renditionsStage && plan.deferRenditions;
+                if (deferred) {
+                    deferRenditions(mContext, localPath, mCameraOption, plan);
+                }
+                if ((stages & CaptureJournal.STAGE_SCAN) != 0) {
+                    refreshSystemGallery(mContext, localPath, mCameraOption);
+                    CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_SCAN_QUEUED);
+                }
+                completeJournal(mContext, mCameraOption, localPath, deferred);
+                return result;
+            }
+        }, pictureCompressObserver(localPath, mCameraOption, timeline, renditions));
+    }
 
-                    @Override
-                    public void onComplete() {
+    /**
+     * 从已经解码摆正的bitmap输出配置的各个尺寸，结果放入renditions
+     */
+    private static void encodeRenditions(Context mContext, Bitmap bitmap, String path, CameraViewOptions mCameraOption, Map<String, String> renditions) {
+        if (bitmap == null || !mCameraOption.hasRenditions()) {
+            return;
+        }
+        Map<String, String> result = RenditionEncoder.encode(mContext, bitmap, path, mCameraOption.getRenditions());
+        for (String output : result.values()) {
+            recordOutput(mContext, mCameraOption, output);
+        }
+        if (renditions != null) {
+            renditions.putAll(result);
+        }
+    }
+
+    /**
+     * 内存紧张时各尺寸不在拍照流程中生成，之后以低优先级任务从原图文件按块缩小解码生成，完成后单独回调RenditionListener
+     */
+    private static void deferRenditions(final Context mContext, final String path, final CameraViewOptions mCameraOption, final MemoryGovernor.Plan plan) {
+        final Map<String, String> renditions = new LinkedHashMap<>();
+        mCameraOption.getCompressScheduler().submit(path + "#renditions", CompressScheduler.PRIORITY_LOW, new CompressScheduler.Task() {
+            @Override
+            protected String run() throws Exception {
+                long maxSize = 0;
+                for (RenditionSpec spec : mCameraOption.getRenditions()) {
+                    maxSize = Math.max(maxSize, spec.getMaxSize());
+                }
+                //长边不小于最大的尺寸就够了
+                Bitmap bitmap = decodeSubsampled(path, new MemoryGovernor.Plan(true, true, maxSize * maxSize, plan.tileBudget));
+                encodeRenditions(mContext, bitmap, path, mCameraOption, renditions);
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+                if (mCameraOption.isCaptureJournal()) {
+                    CaptureJournal.get(mContext).complete(path, CaptureJournal.STAGE_RENDITIONS);
+                }
+                return renditions.isEmpty() ? null : path;
+            }
+        }, new Observer<String>() {
+            @Override
+            public void onSubscribe(Disposable d) {
+            }
 
+            @Override
+            public void onNext(String s) {
+                deliverRenditions(mCameraOption, path, renditions);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                Log.e(TAG, "deferRenditions onError:" + e.getMessage());
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+    }
+
+    private static Bitmap decodeSubsampled(InputStream source, int orientation, MemoryGovernor.Plan plan) {
+        try {
+            return TiledDownscaler.decode(source, orientation, plan.decodePixels, plan.tileBudget);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "decodeSubsampled ERROR!!:" + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Bitmap decodeSubsampled(String path, MemoryGovernor.Plan plan) {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+            return decodeSubsampled(in, readOrientation(path), plan);
+        } catch (IOException e) {
+            Log.e(TAG, "decodeSubsampled ERROR!!:" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 在主线程中回调各尺寸的输出路径，没有配置或者都失败时不回调
+     */
+    public static void deliverRenditions(CameraViewOptions mCameraOption, String path, Map<String, String> renditions) {
+        if (mCameraOption.getRenditionListener() != null && renditions != null && !renditions.isEmpty()) {
+            mCameraOption.getRenditionListener().onRenditionsSuccess(CameraConfig.MEDIA_ACTION_PHOTO, path, renditions);
+        }
+    }
+
+    private static Observer<String> pictureCompressObserver(final String path, final CameraViewOptions mCameraOption, final CaptureTimeline timeline, final Map<String, String> renditions) {
+        return new Observer<String>() {
+            @Override
+            public void onSubscribe(Disposable d) {
+                Log.d(TAG, "ansyPictrueCompress onSubscribe");
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (null != mCameraOption.getCompressListener())
+                            mCameraOption.getCompressListener().onStartCompress();
                     }
                 });
+            }
+
+            @Override
+            public void onNext(String s) {
+                CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_DELIVERED);
+                if (mCameraOption.getCompressListener() != null)
+                    mCameraOption.getCompressListener().onCompressSuccess(CameraConfig.MEDIA_ACTION_PHOTO, path, s);
+                deliverRenditions(mCameraOption, path, renditions);
+                deliverTimeline(mCameraOption, timeline, true);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                Log.d(TAG, "ansyPictrueCompress onError:" + e.getMessage());
+                CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_DELIVERED);
+                if (mCameraOption.getCompressListener() != null)
+                    mCameraOption.getCompressListener().onCompressFail();
+                deliverTimeline(mCameraOption, timeline, false);
+            }
+
+            @Override
+            public void onComplete() {
+
+            }
+        };
+    }
+
+    /**
+     * 在主线程中回调拍照的时间线，timeline为null时什么都不做
+     */
+    public static void deliverTimeline(CameraViewOptions mCameraOption, CaptureTimeline timeline, boolean success) {
+        if (timeline == null || mCameraOption.getCaptureTimelineListener() == null) {
+            return;
+        }
+        timeline.setSuccess(success);
+        Log.d(TAG, timeline.toString());
+        mCameraOption.getCaptureTimelineListener().onCaptureTimeline(timeline);
     }
 
     public static boolean saveBitmap(Bitmap bitmap, String outPath, int quality) {
-        try {
-            FileOutputStream fos = new FileOutputStream(outPath);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, bos);
-            fos.write(bos.toByteArray());
-
-            Log.d(TAG, "saveBitmap:" + outPath + "  size:" + FileUtils.getFileSize(outPath));
-            Log.d(TAG, "saveBitmap:" + outPath + "  rotation:" + new ExifInterface(outPath).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED));
-            return true;
-        } catch (Exception e) {
-            Log.e(TAG, "saveBitmap ERROR!!:" + e.getMessage());
-            e.printStackTrace();
+        return saveBitmap(bitmap, outPath, quality, CameraConfig.PICTURE_FORMAT_JPEG);
+    }
+
+    /**
+     * 压缩图在缓存目录中，可以重新生成，不主动落盘
+     */
+    public static boolean saveBitmap(Bitmap bitmap, String outPath, int quality, @CameraConfig.PictureFormat int format) {
+        return saveBitmap(bitmap, outPath, quality, format, CameraConfig.SYNC_NONE);
+    }
+
+    /**
+     * 编码结果直接流式写入临时文件，提交后才出现在outPath
+     */
+    public static boolean saveBitmap(Bitmap bitmap, String outPath, int quality, @CameraConfig.PictureFormat int format, @CameraConfig.SyncPolicy int syncPolicy) {
+        long size = MediaStorage.getDefault().write(outPath, syncPolicy, bitmapWriter(bitmap, quality, format));
+        if (size < 0) {
+            Log.e(TAG, "saveBitmap ERROR!!:" + outPath);
             return false;
         }
+        Log.d(TAG, "saveBitmap:" + outPath + "  size:" + size);
+        return true;
+    }
+
+    private static MediaStorage.Writer bitmapWriter(final Bitmap bitmap, int quality, @CameraConfig.PictureFormat int format) {
+        final Bitmap.CompressFormat compressFormat = getCompressFormat(format);
+        final int formatQuality = getFormatQuality(format, quality);
+        return new MediaStorage.Writer() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                if (!bitmap.compress(compressFormat, formatQuality, out)) {
+                    throw new IOException("Bitmap.compress fail");
+                }
+            }
+        };
+    }
+
+    /**
+     * 当前系统能否输出{@link CameraConfig#PICTURE_FORMAT_WEBP_LOSSLESS}
+     */
+    public static boolean isWebpLosslessSupported() {
+        //API 29(Q)起WEBP在质量100时是无损编码，之前的系统质量100仍是有损编码，只是文件更大
+        return Build.VERSION.SDK_INT >= 29;
+    }
+
+    /**
+     * compileSdk 28没有WEBP_LOSSY/WEBP_LOSSLESS(API 30)，API 29起WEBP在质量100时是无损编码，其他质量是有损编码，
+     * 见{@link #isWebpLosslessSupported()}
+     */
+    public static Bitmap.CompressFormat getCompressFormat(@CameraConfig.PictureFormat int format) {
+        return format == CameraConfig.PICTURE_FORMAT_JPEG ? Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.WEBP;
+    }
+
+    /**
+     * 实际传给编码器的质量，见{@link #getCompressFormat(int)}
+     */
+    public static int getFormatQuality(@CameraConfig.PictureFormat int format, int quality) {
+        if (format == CameraConfig.PICTURE_FORMAT_WEBP_LOSSLESS) {
+            return 100;
+        }
+        if (format == CameraConfig.PICTURE_FORMAT_WEBP) {
+            return Math.min(quality, 99);
+        }
+        return quality;
+    }
+
+    /**
+     * 压缩器实际输出的格式，没有实现{@link FormatPictureCompress}的压缩器只输出JPEG
+     */
+    public static int getOutputFormat(CameraViewOptions mCameraOption) {
+        return mCameraOption.getPictureCompress() instanceof FormatPictureCompress ? mCameraOption.getPictureFormat() : CameraConfig.PICTURE_FORMAT_JPEG;
+    }
+
+    /**
+     * 记录原图要完成的处理阶段，不等待写盘
+     */
+    private static void beginJournal(Context mContext, CameraViewOptions mCameraOption, String path) {
+        if (!mCameraOption.isCaptureJournal()) {
+            return;
+        }
+        int stages = CaptureJournal.STAGE_SCAN;
+        if (mCameraOption.isCompress() && mCameraOption.getPictureCompress() != null) {
+            stages |= CaptureJournal.STAGE_COMPRESS;
+        }
+        if (mCameraOption.hasRenditions()) {
+            stages |= CaptureJournal.STAGE_RENDITIONS;
+        }
+        CaptureJournal.get(mContext).begin(path, stages);
+    }
+
+    /**
+     * @param deferRenditions 各尺寸推迟到低优先级任务中生成，那个任务完成后再记录
+     */
+    private static void completeJournal(Context mContext, CameraViewOptions mCameraOption, String path, boolean deferRenditions) {
+        if (!mCameraOption.isCaptureJournal()) {
+            return;
+        }
+        CaptureJournal.get(mContext).complete(path, deferRenditions ? CaptureJournal.STAGE_ALL & ~CaptureJournal.STAGE_RENDITIONS : CaptureJournal.STAGE_ALL);
+    }
+
+    /**
+     * 输出目录中的文件写完(或者没有写)后记录实际大小，同时按配置更新各目录的大小上限
+     */
+    private static void recordOutput(Context mContext, CameraViewOptions mCameraOption, String path) {
+        MediaCache.setMaxBytes(mContext, MediaCache.TYPE_PICTURE, mCameraOption.getPictureCacheSize());
+        MediaCache.setMaxBytes(mContext, MediaCache.TYPE_VIDEO, mCameraOption.getVideoCacheSize());
+        MediaCache.record(mContext, path);
+    }
+
+    private static String getCompressPath(Context mContext, CameraViewOptions mCameraOption) {
+        return FileUtils.getPictureCacheDirPath(mContext, getOutputFormat(mCameraOption));
+    }
+
+    private static String compressStream(Context mContext, InputStream source, int orientation, String compressPath, CameraViewOptions mCameraOption) {
+        StreamPictureCompress compress = (StreamPictureCompress) mCameraOption.getPictureCompress();
+        return compress.compress(mContext, source, orientation, compressPath, mCameraOption.getQuality(), mCameraOption.getPictureFormat());
+    }
 
+    private static String compressStream(Context mContext, String localPath, String compressPath, CameraViewOptions mCameraOption) {
+        int orientation = readOrientation(localPath);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(localPath))) {
+            return compressStream(mContext, in, orientation, compressPath, mCameraOption);
+        } catch (IOException e) {
+            Log.e(TAG, "compressStream ERROR!!:" + e.getMessage());
+            return null;
+        }
     }
 
-    public static void ansyVideoCompress(final Context mContext, final String localPath, final CameraViewOptions mCameraOption) {
+    /**
+     * 文件Exif中的方向，顺时针旋转的角度
+     */
+    private static int readOrientation(String path) {
+        try {
+            return Exif.toDegrees(new ExifInterface(path).getAttributeInt(ExifInterface.TAG_ORIENTATION, Exif.ORIENTATION_NORMAL));
+        } catch (IOException e) {
+            Log.e(TAG, "readOrientation fail:" + e.getMessage());
+            return 0;
+        }
+    }
+
+    private static String compressBitmap(Context mContext, Bitmap bitmap, String compressPath, CameraViewOptions mCameraOption) {
+        PictureCompress compress = mCameraOption.getPictureCompress();
+        if (compress instanceof FormatPictureCompress) {
+            return ((FormatPictureCompress) compress).compress(mContext, bitmap, compressPath, mCameraOption.getQuality(), mCameraOption.getPictureFormat());
+        }
+        return compress.compress(mContext, bitmap, compressPath, mCameraOption.getQuality());
+    }
+
+    public static boolean saveBytes(byte[] data, String outPath) {
+        return saveBytes(data, outPath, CameraConfig.SYNC_DATA);
+    }
+
+    public static boolean saveBytes(byte[] data, String outPath, @CameraConfig.SyncPolicy int syncPolicy) {
+        boolean success = MediaStorage.getDefault().write(outPath, syncPolicy, data);
+        Log.d(TAG, "saveBytes:" + outPath + "  size:" + data.length + "  success:" + success);
+        return success;
+    }
+
+    public static boolean saveBuffer(ByteBuffer buffer, String outPath) {
+        return saveBuffer(buffer, outPath, CameraConfig.SYNC_DATA);
+    }
+
+    /**
+     * 把ByteBuffer(例如Image.Plane的direct buffer)通过FileChannel直接写入文件，不经过堆上的byte[]
+     */
+    public static boolean saveBuffer(ByteBuffer buffer, String outPath, @CameraConfig.SyncPolicy int syncPolicy) {
+        int size = buffer.remaining();
+        boolean success = MediaStorage.getDefault().write(outPath, syncPolicy, buffer);
+        Log.d(TAG, "saveBuffer:" + outPath + "  size:" + size + "  success:" + success);
+        return success;
+    }
+
+    /**
+     * 开启了{@link CameraViewOptions#isVideoFastStart()}时把压缩输出的视频改成moov在前，失败时保持原文件。
+     * 只处理库自己的输出，不改写录制的原视频
+     */
+    private static void fastStart(String path, CameraViewOptions mCameraOption) {
+        if (mCameraOption.isVideoFastStart()) {
+            long start = System.currentTimeMillis();
+            boolean rewritten = Mp4FastStart.process(path);
+            Log.d(TAG, "fastStart:" + path + "  rewritten:" + rewritten + "  cost:" + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * 视频压缩优先级最低，同一个视频重复提交时只压缩一次
+     */
+    public static Disposable ansyVideoCompress(final Context mContext, final String localPath, final CameraViewOptions mCameraOption) {
         if (mContext == null || mCameraOption == null) {
             if (null != mCameraOption && null != mCameraOption.getCompressListener())
                 mCameraOption.getCompressListener().onCompressFail();
-            return;
+            return Disposables.disposed();
         }
 
-        Observable.create(new ObservableOnSubscribe<String>() {
+        return mCameraOption.getCompressScheduler().submit(localPath, CompressScheduler.PRIORITY_LOW, new CompressScheduler.Task() {
             @Override
-            public void subscribe(ObservableEmitter<String> e) throws Exception {
-
-                String cachePath = FileUtils.getPictureCacheDirPath(mContext);
-
+            protected String run() throws Exception {
 
                 Log.d(TAG, "VideoCompress local :" +
                         localPath +
                         "   size:" + FileUtils.getFileSize(localPath));
 
+                String result = localPath;
+                String cachePath = null;
                 if (mCameraOption.isCompress() && mCameraOption.getVideoCompress() != null) {
-                    String compressPath = mCameraOption.getVideoCompress().compress(mContext, localPath, cachePath);
-                    if (compressPath != null && !"".equals(compressPath)) {
-                        e.onNext(compressPath);
+                    //输出路径在压缩时才分配，不压缩时不在输出目录的索引中预留
+                    cachePath = FileUtils.getVideoCacheDirPath(mContext);
+                    CompressCache cache = CompressCache.get(mContext, mCameraOption.getCompressCacheSize());
+                    String cacheKey = cache == null ? null : CompressCache.key(CompressCache.identity(localPath), mCameraOption.getVideoCompress(), mCameraOption.getQuality());
+                    result = cache == null ? null : cache.lookup(cacheKey, cachePath);
+                    if (result == null) {
+                        result = mCameraOption.getVideoCompress().compress(mContext, localPath, cachePath);
+                        //压缩器直接返回原视频时不处理也不缓存；缓存的是处理后的文件，命中时不用再处理
+                        if (cachePath.equals(result)) {
+                            fastStart(result, mCameraOption);
+                            if (cache != null) {
+                                cache.store(cacheKey, result);
+                            }
+                        }
+                    }
+                    if (result != null && !"".equals(result)) {
                         Log.d(TAG, "VideoCompress compressPath :" +
-                                compressPath +
-                                "    size:" + FileUtils.getFileSize(compressPath));
-                    } else {
-                        e.onError(new Throwable("ansyVideoCompress fail"));
+                                result +
+                                "    size:" + FileUtils.getFileSize(result));
                     }
-                } else {
-                    e.onNext(localPath);
                 }
+                recordOutput(mContext, mCameraOption, cachePath);
 
-                refreshSystemGallery(mContext, localPath);
-
+                refreshSystemGallery(mContext, localPath, mCameraOption);
+                return result;
             }
-        }).subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(new Observer<String>() {
+        }, new Observer<String>() {
+            @Override
+            public void onSubscribe(Disposable d) {
+                Log.d(TAG, "ansyVideoCompress onSubscribe");
+                mHandler.post(new Runnable() {
                     @Override
-                    public void onSubscribe(Disposable d) {
-                        Log.d(TAG, "ansyVideoCompress onSubscribe");
-                        mHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (null != mCameraOption.getCompressListener())
-                                    mCameraOption.getCompressListener().onStartCompress();
-                            }
-                        });
+                    public void run() {
+                        if (null != mCameraOption.getCompressListener())
+                            mCameraOption.getCompressListener().onStartCompress();
                     }
+                });
+            }
 
-                    @Override
-                    public void onNext(String s) {
-                        if (mCameraOption.getCompressListener() != null)
-                            mCameraOption.getCompressListener().onCompressSuccess(CameraConfig.MEDIA_ACTION_VIDEO, localPath, s);
-                    }
+            @Override
+            public void onNext(String s) {
+                if (mCameraOption.getCompressListener() != null)
+                    mCameraOption.getCompressListener().onCompressSuccess(CameraConfig.MEDIA_ACTION_VIDEO, localPath, s);
+            }
 
-                    @Override
-                    public void onError(Throwable e) {
-                        Log.d(TAG, "ansyVideoCompress onError:" + e.getMessage());
-                        if (mCameraOption.getCompressListener() != null)
-                            mCameraOption.getCompressListener().onCompressFail();
-                    }
+            @Override
+            public void onError(Throwable e) {
+                Log.d(TAG, "ansyVideoCompress onError:" + e.getMessage());
+                if (mCameraOption.getCompressListener() != null)
+                    mCameraOption.getCompressListener().onCompressFail();
+            }
 
-                    @Override
-                    public void onComplete() {
+            @Override
+            public void onComplete() {
 
-                    }
-                });
+            }
+        });
 
     }
 
     public static void refreshSystemGallery(Context mContext, String path) {
-        try {
-            MediaScannerConnection.scanFile(mContext, new String[]{path}, null, null);
-        } catch (Exception e1) {
-            e1.printStackTrace();
-        }
+        GalleryScanQueue.get(mContext).enqueue(path, null);
+    }
+
+    /**
+     * 放入相册扫描队列，和短时间内的其他文件合并成一次扫描
+     */
+    public static void refreshSystemGallery(Context mContext, String path, CameraViewOptions mCameraOption) {
+        GalleryScanQueue.get(mContext).enqueue(path, mCameraOption.getGalleryScanListener());
     }
 }
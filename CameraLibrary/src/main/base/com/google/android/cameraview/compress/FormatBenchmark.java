@@ -0,0 +1,121 @@
+package com.google.android.cameraview.compress;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.google.android.cameraview.configs.CameraConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @fileName FormatBenchmark
+ * @describe 在当前设备上比较各输出格式的编码耗时和每百万像素字节数，用来按上传预算选择格式
+ * <p>
+ * 编码都在内存中进行，不计算写盘时间。每种格式先编码一次预热，之后取多次编码耗时的中位数。
+ * 编码很慢(全尺寸图片可能要几百毫秒一次)，需要在工作线程中调用
+ */
+public class FormatBenchmark {
+    private static final String TAG = "FormatBenchmark";
+    public static final int DEFAULT_ROUNDS = 3;
+
+    private static final int[] FORMATS = {CameraConfig.PICTURE_FORMAT_JPEG, CameraConfig.PICTURE_FORMAT_WEBP, CameraConfig.PICTURE_FORMAT_WEBP_LOSSLESS};
+
+    /**
+     * API 29之前没有无损WebP，不参与比较
+     */
+    private static int[] formats() {
+        return CompressUtils.isWebpLosslessSupported() ? FORMATS : Arrays.copyOf(FORMATS, FORMATS.length - 1);
+    }
+
+    public static List<Result> run(Bitmap sample, int quality) {
+        return run(sample, quality, DEFAULT_ROUNDS);
+    }
+
+    /**
+     * @param sample  测试用的图片，最好是一张真实拍摄的照片，内容对大小影响很大
+     * @param quality 有损格式的质量，无损WebP忽略
+     * @param rounds  每种格式计时的编码次数
+     * @return JPEG、WebP、无损WebP(API 29起)的结果
+     */
+    public static List<Result> run(Bitmap sample, int quality, int rounds) {
+        rounds = Math.max(1, rounds);
+        double megapixels = sample.getWidth() * (double) sample.getHeight() / 1000000;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sample.getWidth() * sample.getHeight());
+        int[] formats = formats();
+        List<Result> results = new ArrayList<>(formats.length);
+        for (int format : formats) {
+            Bitmap.CompressFormat compressFormat = CompressUtils.getCompressFormat(format);
+            int formatQuality = CompressUtils.getFormatQuality(format, quality);
+            //预热，第一次编码包含加载编码器等开销
+            out.reset();
+            sample.compress(compressFormat, formatQuality, out);
+
+            long[] costs = new long[rounds];
+            for (int i = 0; i < rounds; i++) {
+                out.reset();
+                long start = System.nanoTime();
+                sample.compress(compressFormat, formatQuality, out);
+                costs[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(costs);
+            Result result = new Result(format, costs[rounds / 2] / 1000000f, out.size(), (long) (out.size() / megapixels));
+            Log.d(TAG, result.toString());
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * 每百万像素不超过预算的格式中编码最快的，都超出时返回最小的
+     *
+     * @param maxBytesPerMegapixel 上传预算，例如每张1200万像素的照片1.5MB就是125000
+     */
+    public static Result pickCheapest(List<Result> results, long maxBytesPerMegapixel) {
+        Result fastest = null;
+        Result smallest = null;
+        for (Result result : results) {
+            if (smallest == null || result.bytesPerMegapixel < smallest.bytesPerMegapixel) {
+                smallest = result;
+            }
+            if (result.bytesPerMegapixel <= maxBytesPerMegapixel && (fastest == null || result.encodeMs < fastest.encodeMs)) {
+                fastest = result;
+            }
+        }
+        return fastest != null ? fastest : smallest;
+    }
+
+    public static final class Result {
+        //CameraConfig.PICTURE_FORMAT_*
+        public final int format;
+        //编码耗时的中位数
+        public final float encodeMs;
+        public final long bytes;
+        public final long bytesPerMegapixel;
+
+        Result(int format, float encodeMs, long bytes, long bytesPerMegapixel) {
+            this.format = format;
+            this.encodeMs = encodeMs;
+            this.bytes = bytes;
+            this.bytesPerMegapixel = bytesPerMegapixel;
+        }
+
+        public String getFormatName() {
+            switch (format) {
+                case CameraConfig.PICTURE_FORMAT_WEBP:
+                    return "WebP";
+                case CameraConfig.PICTURE_FORMAT_WEBP_LOSSLESS:
+                    return "WebP lossless";
+                default:
+                    return "JPEG";
+            }
+        }
+
+        @Override
+        public String toString() {
+            return getFormatName() + ": " + encodeMs + "ms, " + bytes + " bytes, " + bytesPerMegapixel + " bytes/MP";
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.google.android.cameraview.compress;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.cameraview.callback.GalleryScanListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * @fileName GalleryScanQueue
+ * @describe 合并相册扫描：一段时间内提交的文件合成一批，一次scanFile调用，连拍20张只建立一次扫描连接
+ * <p>
+ * 第一个文件入队后等待{@link #BATCH_WINDOW_MS}，期间的文件都放进同一批，满{@link #MAX_BATCH}个时立即提交。
+ * 同一个文件在一批中只扫描一次。mime类型按扩展名传入，扫描器不需要再猜
+ */
+public class GalleryScanQueue {
+    private static final String TAG = "GalleryScanQueue";
+    private static final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    public static final long BATCH_WINDOW_MS = 300;
+    public static final int MAX_BATCH = 32;
+
+    private static GalleryScanQueue sInstance;
+
+    private final Context mContext;
+    private final Set<String> mQueued = new LinkedHashSet<>();
+    private final Set<GalleryScanListener> mListeners = Collections.newSetFromMap(new WeakHashMap<GalleryScanListener, Boolean>());
+    private int mScanning;
+    private int mBatches;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public static synchronized GalleryScanQueue get(Context mContext) {
+        if (sInstance == null) {
+            sInstance = new GalleryScanQueue(mContext.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private GalleryScanQueue(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * @param listener 积压变化的监听，弱引用持有，可以为null
+     */
+    public void enqueue(String path, GalleryScanListener listener) {
+        if (path == null) {
+            return;
+        }
+        boolean full;
+        synchronized (this) {
+            if (listener != null) {
+                mListeners.add(listener);
+            }
+            if (!mQueued.add(path)) {
+                return;
+            }
+            full = mQueued.size() >= MAX_BATCH;
+            if (mQueued.size() == 1 && !full) {
+                mHandler.postDelayed(mFlush, BATCH_WINDOW_MS);
+            }
+        }
+        if (full) {
+            mHandler.removeCallbacks(mFlush);
+            mHandler.post(mFlush);
+        }
+        notifyBacklog();
+    }
+
+    /**
+     * 等待合并提交的文件数
+     */
+    public synchronized int getQueuedCount() {
+        return mQueued.size();
+    }
+
+    /**
+     * 已经提交、还没有扫描完的文件数
+     */
+    public synchronized int getScanningCount() {
+        return mScanning;
+    }
+
+    /**
+     * 立即提交当前这一批
+     */
+    public void flush() {
+        final String[] paths;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlush);
+            if (mQueued.isEmpty()) {
+                return;
+            }
+            paths = mQueued.toArray(new String[mQueued.size()]);
+            mQueued.clear();
+            mScanning += paths.length;
+            mBatches++;
+        }
+        String[] mimeTypes = new String[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            mimeTypes[i] = getMimeType(paths[i]);
+        }
+        Log.d(TAG, "flush, batch = " + mBatches + ", files = " + paths.length);
+        try {
+            MediaScannerConnection.scanFile(mContext, paths, mimeTypes, new MediaScannerConnection.OnScanCompletedListener() {
+                @Override
+                public void onScanCompleted(String path, Uri uri) {
+                    if (uri == null) {
+                        Log.e(TAG, "scan fail:" + path);
+                    }
+                    onScanned(1);
+                }
+            });
+        } catch (Exception e) {
+            Log.e(TAG, "flush ERROR!!:" + e.getMessage());
+            onScanned(paths.length);
+            return;
+        }
+        notifyBacklog();
+    }
+
+    private void onScanned(int count) {
+        synchronized (this) {
+            mScanning = Math.max(0, mScanning - count);
+        }
+        notifyBacklog();
+    }
+
+    /**
+     * 在主线程中回调当时的积压
+     */
+    private void notifyBacklog() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                int queued;
+                int scanning;
+                List<GalleryScanListener> listeners;
+                synchronized (GalleryScanQueue.this) {
+                    if (mListeners.isEmpty()) {
+                        return;
+                    }
+                    queued = mQueued.size();
+                    scanning = mScanning;
+                    listeners = new ArrayList<>(mListeners);
+                }
+                for (GalleryScanListener listener : listeners) {
+                    listener.onScanBacklog(queued, scanning);
+                }
+            }
+        });
+    }
+
+    static String getMimeType(String path) {
+        String lower = path.toLowerCase(Locale.US);
+        if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+            return "image/jpeg";
+        }
+        if (lower.endsWith(".webp")) {
+            return "image/webp";
+        }
+        if (lower.endsWith(".png")) {
+            return "image/png";
+        }
+        if (lower.endsWith(".mp4")) {
+            return "video/mp4";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,258 @@
+package com.google.android.cameraview.compress;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.cameraview.callback.MemoryDecisionListener;
+import com.google.android.cameraview.compress.inter.StreamPictureCompress;
+import com.google.android.cameraview.configs.CameraViewOptions;
+import com.google.android.cameraview.helper.BitmapPool;
+import com.google.android.cameraview.model.MemoryDecision;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * @fileName MemoryGovernor
+ * @describe 根据内存信号调整压缩流程：onTrimMemory/onLowMemory，以及每个任务开始前的可用内存
+ * <p>
+ * 压力分三级：
+ * <ul>
+ * <li>normal：不做调整</li>
+ * <li>moderate：并发数减半，各尺寸推迟到低优先级任务中从原图按块解码生成</li>
+ * <li>critical：只保留一个并发，压缩时按块缩小解码，不解码整张图片，原图按字节直接写入，保留Exif方向</li>
+ * </ul>
+ * onTrimMemory/onLowMemory时同时清空BitmapPool。onTrimMemory的信号保持{@link #TRIM_HOLD_MS}，之后只看可用内存。每个调整都通过{@link MemoryDecisionListener}回调
+ */
+public class MemoryGovernor implements ComponentCallbacks2 {
+    private static final String TAG = "MemoryGovernor";
+    private static final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    //onTrimMemory信号的有效时间，系统不会通知内存恢复
+    private static final long TRIM_HOLD_MS = 30 * 1000;
+    //Java堆使用比例
+    private static final float MODERATE_HEAP_RATIO = 0.7f;
+    private static final float CRITICAL_HEAP_RATIO = 0.85f;
+    //系统可用内存低于threshold的这个倍数时认为紧张
+    private static final int MODERATE_THRESHOLD_FACTOR = 2;
+    //缩小解码的像素数下限，再小压缩图就没法用了
+    private static final long MIN_DECODE_PIXELS = 2000000;
+    private static final long MIN_TILE_BUDGET = 1024 * 1024;
+    private static final long MAX_TILE_BUDGET = 8 * 1024 * 1024;
+
+    private static MemoryGovernor sInstance;
+
+    private final ActivityManager mActivityManager;
+    private final Set<CompressScheduler> mSchedulers = Collections.newSetFromMap(new IdentityHashMap<CompressScheduler, Boolean>());
+    private final Set<MemoryDecisionListener> mListeners = Collections.newSetFromMap(new WeakHashMap<MemoryDecisionListener, Boolean>());
+    private int mLevel = MemoryDecision.LEVEL_NORMAL;
+    private int mTrimLevel;
+    private int mTrimPressure = MemoryDecision.LEVEL_NORMAL;
+    private long mTrimTime;
+
+    public static synchronized MemoryGovernor get(Context mContext) {
+        if (sInstance == null) {
+            Context context = mContext.getApplicationContext();
+            sInstance = new MemoryGovernor(context);
+            context.registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    private MemoryGovernor(Context context) {
+        mActivityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    }
+
+    /**
+     * 一个压缩任务开始前调用，得到这次要做的调整并回调
+     *
+     * @param path      原图路径，回调时带上
+     * @param canDecode 这次任务是否还需要解码(传入已经解码好的Bitmap时为false)
+     */
+    public Plan plan(CameraViewOptions mCameraOption, String path, boolean canDecode) {
+        if (!mCameraOption.isMemoryAdaptive()) {
+            return Plan.NORMAL;
+        }
+        long headroom = headroom();
+        int level;
+        int trimLevel;
+        synchronized (this) {
+            mSchedulers.add(mCameraOption.getCompressScheduler());
+            if (mCameraOption.getMemoryDecisionListener() != null) {
+                mListeners.add(mCameraOption.getMemoryDecisionListener());
+            }
+            level = update(headroom);
+            trimLevel = mTrimLevel;
+        }
+        if (level == MemoryDecision.LEVEL_NORMAL) {
+            return Plan.NORMAL;
+        }
+        //从流压缩本来就不解码整张图片
+        boolean subsample = level == MemoryDecision.LEVEL_CRITICAL && canDecode
+                && !(mCameraOption.isCompress() && mCameraOption.getPictureCompress() instanceof StreamPictureCompress);
+        boolean defer = mCameraOption.hasRenditions();
+        Plan plan = new Plan(subsample, defer, Math.max(MIN_DECODE_PIXELS, headroom / 4 / 4),
+                Math.max(MIN_TILE_BUDGET, Math.min(MAX_TILE_BUDGET, headroom / 16)));
+        if (subsample) {
+            report(mCameraOption.getMemoryDecisionListener(), new MemoryDecision(MemoryDecision.ACTION_SUBSAMPLE, level, trimLevel, plan.decodePixels, headroom, path));
+        }
+        if (defer) {
+            report(mCameraOption.getMemoryDecisionListener(), new MemoryDecision(MemoryDecision.ACTION_DEFER_RENDITIONS, level, trimLevel, mCameraOption.getRenditions().size(), headroom, path));
+        }
+        return plan;
+    }
+
+    public synchronized int getLevel() {
+        return mLevel;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        int pressure;
+        if (level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            pressure = MemoryDecision.LEVEL_CRITICAL;
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_MODERATE) {
+            pressure = MemoryDecision.LEVEL_MODERATE;
+        } else {
+            //TRIM_MEMORY_UI_HIDDEN只是界面不可见
+            return;
+        }
+        onPressure(level, pressure);
+    }
+
+    @Override
+    public void onLowMemory() {
+        onPressure(TRIM_MEMORY_COMPLETE, MemoryDecision.LEVEL_CRITICAL);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private void onPressure(int trimLevel, int pressure) {
+        Log.d(TAG, "onPressure, trimLevel = " + trimLevel + ", pressure = " + pressure);
+        //池中是全尺寸的Bitmap，每张几十MB
+        BitmapPool.getInstance().clear();
+        long headroom = headroom();
+        synchronized (this) {
+            mTrimLevel = trimLevel;
+            mTrimPressure = pressure;
+            mTrimTime = SystemClock.elapsedRealtime();
+            update(headroom);
+        }
+    }
+
+    /**
+     * 重新计算压力，变化时调整所有调度器的并发数
+     */
+    private int update(long headroom) {
+        int level = heapLevel();
+        if (SystemClock.elapsedRealtime() - mTrimTime < TRIM_HOLD_MS) {
+            level = Math.max(level, mTrimPressure);
+        }
+        if (level == mLevel) {
+            return level;
+        }
+        mLevel = level;
+        List<MemoryDecisionListener> listeners = new ArrayList<>(mListeners);
+        for (CompressScheduler scheduler : mSchedulers) {
+            int concurrency = level == MemoryDecision.LEVEL_NORMAL ? scheduler.getWorkerCount()
+                    : level == MemoryDecision.LEVEL_MODERATE ? Math.max(1, scheduler.getWorkerCount() / 2) : 1;
+            if (concurrency == scheduler.getConcurrency()) {
+                continue;
+            }
+            scheduler.setConcurrency(concurrency);
+            MemoryDecision decision = new MemoryDecision(MemoryDecision.ACTION_CONCURRENCY, level, mTrimLevel, concurrency, headroom, null);
+            for (MemoryDecisionListener listener : listeners) {
+                report(listener, decision);
+            }
+        }
+        return level;
+    }
+
+    /**
+     * 8.0开始Bitmap的像素在native堆中，只看Java堆不够，同时看系统的可用内存
+     */
+    private int heapLevel() {
+        Runtime runtime = Runtime.getRuntime();
+        float ratio = (float) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+        ActivityManager.MemoryInfo info = memoryInfo();
+        if (ratio >= CRITICAL_HEAP_RATIO || (info != null && info.lowMemory)) {
+            return MemoryDecision.LEVEL_CRITICAL;
+        }
+        if (ratio >= MODERATE_HEAP_RATIO || (info != null && info.availMem < info.threshold * MODERATE_THRESHOLD_FACTOR)) {
+            return MemoryDecision.LEVEL_MODERATE;
+        }
+        return MemoryDecision.LEVEL_NORMAL;
+    }
+
+    /**
+     * 还能用来放解码结果的内存
+     */
+    private long headroom() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            ActivityManager.MemoryInfo info = memoryInfo();
+            if (info != null) {
+                return Math.max(0, info.availMem - info.threshold);
+            }
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    private ActivityManager.MemoryInfo memoryInfo() {
+        if (mActivityManager == null) {
+            return null;
+        }
+        ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+        mActivityManager.getMemoryInfo(info);
+        return info;
+    }
+
+    private static void report(final MemoryDecisionListener listener, final MemoryDecision decision) {
+        Log.d(TAG, decision.toString());
+        if (listener == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onMemoryDecision(decision);
+            }
+        });
+    }
+
+    /**
+     * 一个压缩任务要做的调整
+     */
+    public static final class Plan {
+        static final Plan NORMAL = new Plan(false, false, 0, 0);
+
+        //按块缩小解码，不解码整张图片
+        public final boolean subsample;
+        //各尺寸推迟到低优先级任务中生成
+        public final boolean deferRenditions;
+        //缩小解码的像素数上限
+        public final long decodePixels;
+        //按块解码时每块的字节数上限
+        public final long tileBudget;
+
+        Plan(boolean subsample, boolean deferRenditions, long decodePixels, long tileBudget) {
+            this.subsample = subsample;
+            this.deferRenditions = deferRenditions;
+            this.decodePixels = decodePixels;
+            this.tileBudget = tileBudget;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.google.android.cameraview.compress;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @fileName Mp4FastStart
+ * @describe 把MP4的moov移动到mdat前面(fast start)，播放端不用下载完整个文件就能开始播放
+ * <p>
+ * MediaRecorder和MediaMuxer都是录完才知道索引，所以moov写在文件末尾。这里只把moov读进内存并修正其中stco/co64的块偏移，
+ * 其他box通过FileChannel.transferTo原样复制到临时文件，最后重命名覆盖原文件
+ */
+
+
+public class Mp4FastStart {
+    private static final String TAG = "Mp4FastStart";
+
+    private static final int TYPE_MOOV = fourCC("moov");
+    private static final int TYPE_MDAT = fourCC("mdat");
+    private static final int TYPE_TRAK = fourCC("trak");
+    private static final int TYPE_MDIA = fourCC("mdia");
+    private static final int TYPE_MINF = fourCC("minf");
+    private static final int TYPE_STBL = fourCC("stbl");
+    private static final int TYPE_STCO = fourCC("stco");
+    private static final int TYPE_CO64 = fourCC("co64");
+    private static final int TYPE_CMOV = fourCC("cmov");
+
+    /**
+     * 就地处理path
+     *
+     * @return 重写了文件返回true；已经是fast start、格式不支持或失败时返回false，原文件保持不变
+     */
+    public static boolean process(String path) {
+        File file = new File(path);
+        File temp = new File(path + ".faststart");
+        boolean written = false;
+        try {
+            written = rewrite(file, temp);
+            if (written && !temp.renameTo(file)) {
+                throw new IOException("rename fail: " + temp);
+            }
+            return written;
+        } catch (IOException e) {
+            Log.e(TAG, "process ERROR!!:" + e.getMessage());
+            written = false;
+            return false;
+        } finally {
+            if (!written) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static boolean rewrite(File file, File temp) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            FileChannel in = input.getChannel();
+            List<Box> boxes = readTopLevel(in);
+            Box moov = null;
+            Box firstMdat = null;
+            for (Box box : boxes) {
+                if (box.type == TYPE_MOOV && moov == null) {
+                    moov = box;
+                } else if (box.type == TYPE_MDAT && firstMdat == null) {
+                    firstMdat = box;
+                }
+            }
+            if (moov == null || firstMdat == null) {
+                Log.d(TAG, "rewrite, no moov or mdat: " + file);
+                return false;
+            }
+            if (moov.offset < firstMdat.offset) {
+                return false;
+            }
+            if (moov.size > Integer.MAX_VALUE) {
+                throw new IOException("moov too large: " + moov.size);
+            }
+
+            ByteBuffer moovData = ByteBuffer.allocate((int) moov.size);
+            readFully(in, moovData, moov.offset);
+            //moov插入到第一个mdat前面，原来位于[第一个mdat, moov)之间的数据整体后移moov.size
+            patchOffsets(moovData, 0, moovData.limit(), firstMdat.offset, moov.offset, moov.size);
+
+            try (FileOutputStream output = new FileOutputStream(temp)) {
+                FileChannel out = output.getChannel();
+                for (Box box : boxes) {
+                    if (box == firstMdat) {
+                        moovData.position(0);
+                        while (moovData.hasRemaining()) {
+                            out.write(moovData);
+                        }
+                    }
+                    if (box != moov) {
+                        transfer(in, box.offset, box.size, out);
+                    }
+                }
+                out.force(false);
+            }
+            Log.d(TAG, "rewrite, moov " + moov.size + " bytes moved from " + moov.offset + " to " + firstMdat.offset);
+            return true;
+        }
+    }
+
+    private static List<Box> readTopLevel(FileChannel in) throws IOException {
+        List<Box> boxes = new ArrayList<>();
+        long length = in.size();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long offset = 0;
+        while (offset + 8 <= length) {
+            header.clear();
+            header.limit(8);
+            readFully(in, header, offset);
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            int type = header.getInt(4);
+            if (size == 1) {
+                header.clear();
+                header.limit(8);
+                readFully(in, header, offset + 8);
+                size = header.getLong(0);
+            } else if (size == 0) {
+                //最后一个box一直到文件结尾
+                size = length - offset;
+            }
+            if (size < 8 || offset + size > length) {
+                throw new IOException("bad box at " + offset + ", size = " + size);
+            }
+            boxes.add(new Box(type, offset, size));
+            offset += size;
+        }
+        return boxes;
+    }
+
+    /**
+     * 在moov中递归查找stco/co64，把落在[moveStart, moveEnd)中的块偏移加上shift
+     */
+    private static void patchOffsets(ByteBuffer moov, int start, int end, long moveStart, long moveEnd, long shift) throws IOException {
+        int position = start;
+        while (position + 8 <= end) {
+            long size = moov.getInt(position) & 0xFFFFFFFFL;
+            int type = moov.getInt(position + 4);
+            int header = 8;
+            if (size == 1) {
+                size = moov.getLong(position + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < header || position + size > end) {
+                throw new IOException("bad box in moov at " + position);
+            }
+            int boxEnd = (int) (position + size);
+            if (type == TYPE_CMOV) {
+                throw new IOException("compressed moov is not supported");
+            } else if (type == TYPE_MOOV || type == TYPE_TRAK || type == TYPE_MDIA || type == TYPE_MINF || type == TYPE_STBL) {
+                patchOffsets(moov, position + header, boxEnd, moveStart, moveEnd, shift);
+            } else if (type == TYPE_STCO || type == TYPE_CO64) {
+                boolean wide = type == TYPE_CO64;
+                //version/flags之后是条目数
+                int entries = position + header + 4;
+                long count = moov.getInt(entries) & 0xFFFFFFFFL;
+                int entrySize = wide ? 8 : 4;
+                if (entries + 4 + count * entrySize > boxEnd) {
+                    throw new IOException("bad chunk offset box at " + position);
+                }
+                for (int i = 0; i < count; i++) {
+                    int index = entries + 4 + i * entrySize;
+                    long chunk = wide ? moov.getLong(index) : moov.getInt(index) & 0xFFFFFFFFL;
+                    if (chunk < moveStart || chunk >= moveEnd) {
+                        continue;
+                    }
+                    chunk += shift;
+                    if (wide) {
+                        moov.putLong(index, chunk);
+                    } else if (chunk > 0xFFFFFFFFL) {
+                        //改成co64会改变moov和各级父box的大小，录像文件达不到4G，不支持
+                        throw new IOException("stco overflow");
+                    } else {
+                        moov.putInt(index, (int) chunk);
+                    }
+                }
+            }
+            position = boxEnd;
+        }
+    }
+
+    private static void transfer(FileChannel in, long offset, long size, FileChannel out) throws IOException {
+        long done = 0;
+        while (done < size) {
+            long count = in.transferTo(offset + done, size - done, out);
+            if (count <= 0) {
+                throw new IOException("transferTo fail at " + (offset + done));
+            }
+            done += count;
+        }
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long offset) throws IOException {
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            int count = in.read(buffer, position);
+            if (count < 0) {
+                throw new IOException("unexpected end of file at " + position);
+            }
+            position += count;
+        }
+    }
+
+    private static int fourCC(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    private static final class Box {
+        final int type;
+        final long offset;
+        final long size;
+
+        Box(int type, long offset, long size) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.google.android.cameraview.compress;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.android.cameraview.configs.CameraConfig;
+import com.google.android.cameraview.configs.CameraViewOptions;
+import com.google.android.cameraview.helper.FileUtils;
+import com.google.android.cameraview.helper.MediaStorage;
+import com.google.android.cameraview.model.CaptureTimeline;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @fileName PictureSaveQueue
+ * @describe 有界的图片编码/保存队列，连拍时相机继续出图，前面的帧在单独的线程中依次保存
+ * <p>
+ * 队列满时offer返回false、put阻塞调用线程，由相机一侧决定是暂停触发还是阻塞出图。
+ * 入队时原图已经交给IO线程写入，队列中只有摆正、压缩这些可以从原图重做的工作
+ */
+public class PictureSaveQueue {
+    private static final String TAG = "PictureSaveQueue";
+    private static final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final ArrayBlockingQueue<Frame> mQueue;
+    private Thread mWorker;
+    private volatile boolean mQuit;
+
+    public PictureSaveQueue(int capacity) {
+        mQueue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * 队列中等待保存的帧数，不包含正在保存的那一帧
+     */
+    public int getPendingCount() {
+        return mQueue.size();
+    }
+
+    public boolean hasCapacity() {
+        return mQueue.remainingCapacity() > 0;
+    }
+
+    public int getRemainingCapacity() {
+        return mQueue.remainingCapacity();
+    }
+
+    /**
+     * 不阻塞，队列满或已退出时返回false，这时原图还没有写入，由调用方处理
+     */
+    public boolean offer(Context mContext, byte[] data, CameraViewOptions mCameraOption, CaptureTimeline timeline) {
+        //只有相机线程入队，有空位时入队一定成功，原图不会因为入队失败被调用方再写一次
+        if (mQuit || !hasCapacity()) {
+            return false;
+        }
+        mQueue.add(new Frame(mContext, data, mCameraOption, timeline));
+        ensureWorker();
+        return true;
+    }
+
+    /**
+     * 队列满时阻塞直到有空位
+     */
+    public void put(Context mContext, byte[] data, CameraViewOptions mCameraOption, CaptureTimeline timeline) throws InterruptedException {
+        if (mQuit) {
+            throw new InterruptedException("PictureSaveQueue quit");
+        }
+        mQueue.put(new Frame(mContext, data, mCameraOption, timeline));
+        ensureWorker();
+    }
+
+    /**
+     * 不再接收新的帧，已经入队的帧仍会保存完
+     */
+    public void quit() {
+        mQuit = true;
+    }
+
+    private synchronized void ensureWorker() {
+        if (mWorker != null) {
+            return;
+        }
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                while (true) {
+                    Frame frame;
+                    try {
+                        frame = mQueue.poll(1, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (frame == null) {
+                        //空闲时退出，有新的帧时再启动
+                        break;
+                    }
+                    frame.save();
+                }
+                synchronized (PictureSaveQueue.this) {
+                    mWorker = null;
+                }
+                if (!mQueue.isEmpty()) {
+                    ensureWorker();
+                }
+            }
+        }, TAG);
+        mWorker.start();
+    }
+
+    private static final class Frame {
+        final Context mContext;
+        final byte[] data;
+        final CameraViewOptions mCameraOption;
+        final CaptureTimeline timeline;
+        //入队时就分配文件名，文件名的顺序和拍摄顺序一致
+        final String path;
+        final MediaStorage.Pending original;
+
+        Frame(Context mContext, byte[] data, CameraViewOptions mCameraOption, CaptureTimeline timeline) {
+            this.mContext = mContext;
+            this.path = FileUtils.getLocalPath(mContext);
+            this.data = data;
+            this.mCameraOption = mCameraOption;
+            this.timeline = timeline;
+            this.original = CompressUtils.saveOriginal(mContext, data, path, mCameraOption);
+        }
+
+        void save() {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mCameraOption.getCompressListener().onStartCompress();
+                }
+            });
+            final Map<String, String> renditions = new LinkedHashMap<>();
+            String result = null;
+            try {
+                result = CompressUtils.compressPicture(mContext, data, original, mCameraOption, timeline, renditions);
+            } catch (Exception e) {
+                Log.e(TAG, "save ERROR!!:" + e.getMessage());
+            }
+            final String compressPath = result;
+            if (mCameraOption.getCompressListener() == null && timeline == null) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_DELIVERED);
+                    if (mCameraOption.getCompressListener() != null) {
+                        if (compressPath != null) {
+                            mCameraOption.getCompressListener().onCompressSuccess(CameraConfig.MEDIA_ACTION_PHOTO, path, compressPath);
+                            CompressUtils.deliverRenditions(mCameraOption, path, renditions);
+                        } else {
+                            mCameraOption.getCompressListener().onCompressFail();
+                        }
+                    }
+                    CompressUtils.deliverTimeline(mCameraOption, timeline, compressPath != null);
+                }
+            });
+        }
+
+        private void post(Runnable runnable) {
+            if (mCameraOption.getCompressListener() != null) {
+                mHandler.post(runnable);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.google.android.cameraview.compress;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.android.cameraview.configs.RenditionSpec;
+import com.google.android.cameraview.helper.FileUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @fileName RenditionEncoder
+ * @describe 从一张已经解码摆正的Bitmap输出多个尺寸
+ * <p>
+ * 规格按尺寸从大到小处理，每次减半(2:1过滤接近box滤波，质量比一次大比例缩放好)，
+ * 每个规格从不小于它的最小一级再缩放一次，各级中间图共用。缩放在调用线程中依次进行，编码交给有界线程池并行
+ */
+public class RenditionEncoder {
+    private static final String TAG = "RenditionEncoder";
+    private static final int THREADS = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+    //排队的编码任务上限，超出时在调用线程中直接编码
+    private static final int QUEUE_CAPACITY = 8;
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, TAG + "-" + mCount.incrementAndGet());
+        }
+    }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 同步输出所有尺寸，source不会被修改或回收
+     *
+     * @param localPath 原图路径，用来生成各尺寸的文件名
+     * @return 规格名称 -> 输出路径，按specs的顺序，失败的不包含在内
+     */
+    public static Map<String, String> encode(Context context, Bitmap source, String localPath, List<RenditionSpec> specs) {
+        List<RenditionSpec> sorted = new ArrayList<>(specs);
+        Collections.sort(sorted, new Comparator<RenditionSpec>() {
+            @Override
+            public int compare(RenditionSpec a, RenditionSpec b) {
+                return b.getMaxSize() - a.getMaxSize();
+            }
+        });
+
+        List<Bitmap> created = new ArrayList<>();
+        Map<String, Future<String>> futures = new LinkedHashMap<>();
+        try {
+            Bitmap level = source;
+            for (RenditionSpec spec : sorted) {
+                while (longEdge(level) / 2 >= spec.getMaxSize()) {
+                    level = Bitmap.createScaledBitmap(level, Math.max(1, level.getWidth() / 2), Math.max(1, level.getHeight() / 2), true);
+                    created.add(level);
+                }
+                Bitmap target = level;
+                if (longEdge(level) > spec.getMaxSize()) {
+                    float scale = spec.getMaxSize() / (float) longEdge(level);
+                    target = Bitmap.createScaledBitmap(level, Math.max(1, Math.round(level.getWidth() * scale)), Math.max(1, Math.round(level.getHeight() * scale)), true);
+                    created.add(target);
+                }
+                futures.put(spec.getName(), sExecutor.submit(new EncodeTask(target, FileUtils.getRenditionPath(context, localPath, spec.getName()), spec.getQuality())));
+            }
+
+            Map<String, String> result = new LinkedHashMap<>();
+            for (RenditionSpec spec : specs) {
+                Future<String> future = futures.get(spec.getName());
+                String path = future == null ? null : await(future);
+                if (path != null) {
+                    result.put(spec.getName(), path);
+                } else {
+                    Log.e(TAG, "encode fail: " + spec);
+                }
+            }
+            return result;
+        } finally {
+            //异常退出时也要等已经提交的编码结束再回收中间图
+            for (Future<String> future : futures.values()) {
+                await(future);
+            }
+            for (Bitmap bitmap : created) {
+                bitmap.recycle();
+            }
+        }
+    }
+
+    /**
+     * 等待编码结束，中断时也要等到任务结束，否则回收中间图时编码线程可能还在读
+     */
+    private static String await(Future<String> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "encode ERROR!!:" + e.getCause());
+                    return null;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static int longEdge(Bitmap bitmap) {
+        return Math.max(bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    private static final class EncodeTask implements Callable<String> {
+        private final Bitmap mBitmap;
+        private final String mPath;
+        private final int mQuality;
+
+        EncodeTask(Bitmap bitmap, String path, int quality) {
+            mBitmap = bitmap;
+            mPath = path;
+            mQuality = quality;
+        }
+
+        @Override
+        public String call() {
+            return CompressUtils.saveBitmap(mBitmap, mPath, mQuality) ? mPath : null;
+        }
+    }
+}
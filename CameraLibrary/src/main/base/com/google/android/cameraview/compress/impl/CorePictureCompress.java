@@ -0,0 +1,81 @@
+package com.google.android.cameraview.compress.impl;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.google.android.cameraview.compress.core.JpegEncoder;
+import com.google.android.cameraview.compress.core.PixelSource;
+import com.google.android.cameraview.compress.core.Resampler;
+import com.google.android.cameraview.compress.inter.CacheableCompress;
+import com.google.android.cameraview.compress.inter.PictureCompress;
+import com.google.android.cameraview.configs.CameraConfig;
+import com.google.android.cameraview.helper.BitmapPixelSource;
+import com.google.android.cameraview.helper.MediaStorage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @fileName CorePictureCompress
+ * @describe 用纯Java的压缩核心(compress.core)缩放和编码，输出和服务端、单元测试中完全一致
+ * <p>
+ * 比Bitmap.compress慢，需要各端结果一致(例如服务端按哈希去重)时使用，默认的压缩仍然用系统编码器。只输出JPEG
+ */
+
+
+public class CorePictureCompress implements PictureCompress, CacheableCompress {
+    private static final String TAG = "CorePictureCompress";
+
+    private final long mMaxPixels;
+    private final boolean mLanczos;
+    private final boolean mSubsample;
+
+    /**
+     * 不缩放，4:2:0
+     */
+    public CorePictureCompress() {
+        this(0, false, true);
+    }
+
+    /**
+     * @param maxPixels    输出的像素数上限，<=0时不缩放
+     * @param lanczos      缩放用Lanczos3，否则用面积平均
+     * @param subsample420 色度是否减半采样
+     */
+    public CorePictureCompress(long maxPixels, boolean lanczos, boolean subsample420) {
+        mMaxPixels = maxPixels;
+        mLanczos = lanczos;
+        mSubsample = subsample420;
+    }
+
+    @Override
+    public String compress(Context mContext, Bitmap bitmap, String compressPath, int quality) {
+        PixelSource source = new BitmapPixelSource(bitmap);
+        long pixels = (long) bitmap.getWidth() * bitmap.getHeight();
+        if (mMaxPixels > 0 && pixels > mMaxPixels) {
+            double scale = Math.sqrt((double) mMaxPixels / pixels);
+            int width = Math.max(1, (int) (bitmap.getWidth() * scale));
+            int height = Math.max(1, (int) (bitmap.getHeight() * scale));
+            source = mLanczos ? Resampler.lanczos(source, width, height) : Resampler.areaAverage(source, width, height);
+        }
+        final PixelSource input = source;
+        final JpegEncoder encoder = new JpegEncoder(quality, mSubsample);
+        long size = MediaStorage.getDefault().write(compressPath, CameraConfig.SYNC_NONE, new MediaStorage.Writer() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                encoder.encode(input, out);
+            }
+        });
+        if (size < 0) {
+            Log.e(TAG, "compress ERROR!!:" + compressPath);
+            return null;
+        }
+        return compressPath;
+    }
+
+    @Override
+    public String getCacheKey() {
+        return "core:" + mMaxPixels + ":" + mLanczos + ":" + mSubsample;
+    }
+}
@@ -5,8 +5,10 @@ import android.graphics.Bitmap;
 import android.util.Log;
 
 import com.google.android.cameraview.compress.CompressUtils;
+import com.google.android.cameraview.compress.inter.CacheableCompress;
 import com.google.android.cameraview.compress.inter.CompressListener;
-import com.google.android.cameraview.compress.inter.PictureCompress;
+import com.google.android.cameraview.compress.inter.FormatPictureCompress;
+import com.google.android.cameraview.configs.CameraConfig;
 
 /**
  * @fileName DefaultPictureCompress
@@ -15,15 +17,25 @@ import com.google.android.cameraview.compress.inter.PictureCompress;
  */
 
 
-public class DefaultPictureCompress implements PictureCompress {
+public class DefaultPictureCompress implements FormatPictureCompress, CacheableCompress {
     private final String TAG = "DefaultPictureCompress";
 
 
     @Override
     public String compress(Context mContext, Bitmap bitmap, String compressPath, int quality) {
+        return compress(mContext, bitmap, compressPath, quality, CameraConfig.PICTURE_FORMAT_JPEG);
+    }
+
+    @Override
+    public String compress(Context mContext, Bitmap bitmap, String compressPath, int quality, int format) {
 
-        boolean isSuccess = CompressUtils.saveBitmap(bitmap, compressPath, quality);
+        boolean isSuccess = CompressUtils.saveBitmap(bitmap, compressPath, quality, format);
 
         return isSuccess ? compressPath : null;
     }
+
+    @Override
+    public String getCacheKey() {
+        return "bitmap";
+    }
 }
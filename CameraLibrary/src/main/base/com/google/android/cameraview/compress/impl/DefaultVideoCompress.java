@@ -1,19 +1,85 @@
 package com.google.android.cameraview.compress.impl;
 
 import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.google.android.cameraview.compress.inter.CacheableCompress;
 import com.google.android.cameraview.compress.inter.VideoCompress;
+import com.google.android.cameraview.compress.video.Mp4Transcoder;
+import com.google.android.cameraview.compress.video.VideoTranscoder;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * @fileName DefaultVideoCompress
  * Created by YiangJone on 2018/6/28.
- * @describe
+ * @describe 重新编码视频轨道(缩小尺寸、降低码率和帧率)，音频原样复制，API 18以下不压缩
  */
 
 
-public class DefaultVideoCompress implements VideoCompress {
+public class DefaultVideoCompress implements VideoCompress, CacheableCompress {
+    private static final String TAG = "DefaultVideoCompress";
+
+    //默认把720P 900kbps的录像转成960x544 600kbps
+    public static final int DEFAULT_MAX_SIZE = 960;
+    public static final int DEFAULT_BIT_RATE = 600 * 1024;
+    public static final int DEFAULT_FRAME_RATE = 25;
+    public static final int DEFAULT_KEY_FRAME_INTERVAL = 1;
+
+    private final int mBitRate;
+    private final int mMaxSize;
+    private final int mFrameRate;
+    private final int mKeyFrameInterval;
+
+    public DefaultVideoCompress() {
+        this(DEFAULT_BIT_RATE, DEFAULT_MAX_SIZE, DEFAULT_FRAME_RATE);
+    }
+
+    /**
+     * @param bitRate   输出视频码率
+     * @param maxSize   输出长边上限，<=0时不缩放
+     * @param frameRate 输出帧率，<=0时保持原帧率
+     */
+    public DefaultVideoCompress(int bitRate, int maxSize, int frameRate) {
+        this(bitRate, maxSize, frameRate, DEFAULT_KEY_FRAME_INTERVAL);
+    }
+
+    public DefaultVideoCompress(int bitRate, int maxSize, int frameRate, int keyFrameInterval) {
+        mBitRate = bitRate;
+        mMaxSize = maxSize;
+        mFrameRate = frameRate;
+        mKeyFrameInterval = keyFrameInterval;
+    }
+
     @Override
     public String compress(Context mContext, String path, String compressPath) {
-        return path;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return path;
+        }
+        long start = SystemClock.elapsedRealtime();
+        try {
+            VideoTranscoder transcoder = Mp4Transcoder.transcode(path, compressPath, mMaxSize, mBitRate, mFrameRate, mKeyFrameInterval);
+            Log.d(TAG, "compress, frames = " + transcoder.getFrameCount() + ", dropped = " + transcoder.getDroppedCount()
+                    + ", audio samples = " + transcoder.getAudioSampleCount() + ", cost " + (SystemClock.elapsedRealtime() - start) + "ms");
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "compress ERROR!!:" + e.getMessage());
+            new File(compressPath).delete();
+            return null;
+        }
+        //原视频码率已经很低时重新编码反而更大，直接使用原视频
+        if (new File(compressPath).length() >= new File(path).length()) {
+            Log.d(TAG, "compress, output is not smaller, keep original");
+            new File(compressPath).delete();
+            return path;
+        }
+        return compressPath;
+    }
+
+    @Override
+    public String getCacheKey() {
+        return "avc:" + mBitRate + ":" + mMaxSize + ":" + mFrameRate + ":" + mKeyFrameInterval;
     }
 }
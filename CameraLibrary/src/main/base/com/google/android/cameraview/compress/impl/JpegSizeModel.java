@@ -0,0 +1,150 @@
+package com.google.android.cameraview.compress.impl;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.android.cameraview.configs.CameraConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @fileName JpegSizeModel
+ * @describe 本机JPEG编码器在某个分辨率下"质量 -> 每像素字节数"的曲线，每次编码后学习，保存在SharedPreferences中。
+ * 有损WebP用同样的方式单独学习一条曲线
+ * <p>
+ * 曲线在质量5~100上每隔5取一个点，点之间按对数插值。不同场景的复杂度只是让整条曲线上下平移，
+ * 所以一次编码之后用实际大小和曲线的偏差修正场景，下一次就能比较准地落到目标大小附近
+ */
+class JpegSizeModel {
+
+    static final int MIN_QUALITY = 5;
+    static final int MAX_QUALITY = 100;
+    private static final int STEP = 5;
+    private static final int POINTS = (MAX_QUALITY - MIN_QUALITY) / STEP + 1;
+    //每次观测对曲线的修正比例，场景差异较大，不能一次就把曲线拉到单张图片上
+    private static final float LEARNING_RATE = 0.25f;
+
+    private static final String PREFS_NAME = "cameraview_jpeg_size_model";
+    private static final String VERSION = "1:";
+
+    //手机拍照常见的每像素字节数，没有学习数据时使用
+    private static final float[] DEFAULT_BPP = {
+            0.10f, 0.15f, 0.19f, 0.23f, 0.26f, 0.29f, 0.32f, 0.35f, 0.38f, 0.41f,
+            0.44f, 0.48f, 0.53f, 0.59f, 0.67f, 0.78f, 0.95f, 1.25f, 1.85f, 3.60f
+    };
+
+    private static final Map<String, JpegSizeModel> sModels = new HashMap<>();
+
+    private final SharedPreferences mPrefs;
+    private final String mKey;
+    private final float[] mLogBpp = new float[POINTS];
+
+    static JpegSizeModel get(Context context, @CameraConfig.PictureFormat int format, int width, int height) {
+        //宽高互换的图片编码大小一样，用同一条曲线
+        String key = (format == CameraConfig.PICTURE_FORMAT_JPEG ? "" : "webp:") + Math.max(width, height) + "x" + Math.min(width, height);
+        synchronized (sModels) {
+            JpegSizeModel model = sModels.get(key);
+            if (model == null) {
+                model = new JpegSizeModel(context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE), key);
+                sModels.put(key, model);
+            }
+            return model;
+        }
+    }
+
+    /**
+     * @param prefs 为null时不加载也不保存(单元测试)
+     */
+    JpegSizeModel(SharedPreferences prefs, String key) {
+        mPrefs = prefs;
+        mKey = key;
+        for (int i = 0; i < POINTS; i++) {
+            mLogBpp[i] = (float) Math.log(DEFAULT_BPP[i]);
+        }
+        if (prefs != null) {
+            load();
+        }
+    }
+
+    /**
+     * 预测质量quality时每像素字节数的对数
+     */
+    synchronized double predictLog(int quality) {
+        float position = (clamp(quality) - MIN_QUALITY) / (float) STEP;
+        int index = Math.min((int) position, POINTS - 2);
+        float fraction = position - index;
+        return mLogBpp[index] + (mLogBpp[index + 1] - mLogBpp[index]) * fraction;
+    }
+
+    /**
+     * 预测大小不超过logBpp的最高质量，都超过时返回MIN_QUALITY
+     */
+    synchronized int qualityFor(double logBpp, int maxQuality) {
+        for (int quality = clamp(maxQuality); quality > MIN_QUALITY; quality--) {
+            if (predictLog(quality) <= logBpp) {
+                return quality;
+            }
+        }
+        return MIN_QUALITY;
+    }
+
+    /**
+     * 记录一次编码结果，按距离把偏差分给左右两个点
+     */
+    synchronized void update(int quality, double bpp) {
+        if (bpp <= 0) {
+            return;
+        }
+        double error = Math.log(bpp) - predictLog(quality);
+        float position = (clamp(quality) - MIN_QUALITY) / (float) STEP;
+        int index = Math.min((int) position, POINTS - 2);
+        float fraction = position - index;
+        mLogBpp[index] += LEARNING_RATE * (1 - fraction) * error;
+        mLogBpp[index + 1] += LEARNING_RATE * fraction * error;
+        //质量越高文件越大，修正之后保持曲线单调
+        for (int i = 1; i < POINTS; i++) {
+            if (mLogBpp[i] < mLogBpp[i - 1]) {
+                mLogBpp[i] = mLogBpp[i - 1];
+            }
+        }
+    }
+
+    synchronized void save() {
+        if (mPrefs == null) {
+            return;
+        }
+        StringBuilder builder = new StringBuilder(VERSION);
+        for (int i = 0; i < POINTS; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(mLogBpp[i]);
+        }
+        mPrefs.edit().putString(mKey, builder.toString()).apply();
+    }
+
+    private void load() {
+        String value = mPrefs.getString(mKey, null);
+        if (value == null || !value.startsWith(VERSION)) {
+            return;
+        }
+        String[] items = value.substring(VERSION.length()).split(",");
+        if (items.length != POINTS) {
+            return;
+        }
+        float[] loaded = new float[POINTS];
+        try {
+            for (int i = 0; i < POINTS; i++) {
+                loaded[i] = Float.parseFloat(items[i]);
+            }
+        } catch (NumberFormatException e) {
+            return;
+        }
+        System.arraycopy(loaded, 0, mLogBpp, 0, POINTS);
+    }
+
+    private static int clamp(int quality) {
+        return Math.max(MIN_QUALITY, Math.min(MAX_QUALITY, quality));
+    }
+}
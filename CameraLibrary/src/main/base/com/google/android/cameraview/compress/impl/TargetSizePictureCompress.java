@@ -0,0 +1,225 @@
+package com.google.android.cameraview.compress.impl;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.google.android.cameraview.compress.CompressUtils;
+import com.google.android.cameraview.compress.inter.CacheableCompress;
+import com.google.android.cameraview.compress.inter.FormatPictureCompress;
+import com.google.android.cameraview.configs.CameraConfig;
+import com.google.android.cameraview.helper.MediaStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+
+/**
+ * @fileName TargetSizePictureCompress
+ * @describe 按字节预算压缩：输出不超过targetBytes，并尽量接近它
+ * <p>
+ * 先用本机学习到的质量-大小曲线({@link JpegSizeModel})估一个质量，编码后根据实际大小修正场景复杂度再估下一次，
+ * 预算两边都编码过之后在这两个点之间插值，估到已知区间之外时二分，通常两三次编码就能收敛。编码都在内存中进行，只把最终结果写盘。
+ * 最低质量仍然超出预算时按比例缩小图片再试
+ * <p>
+ * compress的quality参数(CameraConfig.MEDIA_QUALITY_*)作为质量上限。
+ * 无损WebP没有质量可以调节，按有损WebP输出
+ */
+public class TargetSizePictureCompress implements FormatPictureCompress, CacheableCompress {
+    private static final String TAG = "TargetSizeCompress";
+    //落在预算以下这个比例之内就不再继续尝试
+    private static final float TOLERANCE = 0.1f;
+    private static final int MAX_PASSES = 5;
+    //最低质量仍然超出预算时最多缩小几次
+    private static final int MAX_SCALE_STEPS = 2;
+
+    private final long mTargetBytes;
+
+    public TargetSizePictureCompress(long targetBytes) {
+        mTargetBytes = targetBytes;
+    }
+
+    @Override
+    public String compress(Context mContext, Bitmap bitmap, String compressPath, int quality) {
+        return compress(mContext, bitmap, compressPath, quality, CameraConfig.PICTURE_FORMAT_JPEG);
+    }
+
+    @Override
+    public String compress(Context mContext, Bitmap bitmap, String compressPath, int quality, int format) {
+        if (format == CameraConfig.PICTURE_FORMAT_WEBP_LOSSLESS) {
+            format = CameraConfig.PICTURE_FORMAT_WEBP;
+        }
+        //WebP质量100(API 29起是无损编码)的大小不在这条曲线上
+        int maxQuality = Math.max(JpegSizeModel.MIN_QUALITY, Math.min(CompressUtils.getFormatQuality(format, JpegSizeModel.MAX_QUALITY), quality));
+        int initialCapacity = (int) Math.min(Integer.MAX_VALUE - 8, mTargetBytes + mTargetBytes / 4);
+        EncodeBuffer best = new EncodeBuffer(initialCapacity);
+        EncodeBuffer current = new EncodeBuffer(initialCapacity);
+
+        Bitmap source = bitmap;
+        try {
+            for (int step = 0; step <= MAX_SCALE_STEPS; step++) {
+                JpegSizeModel model = JpegSizeModel.get(mContext, format, source.getWidth(), source.getHeight());
+                long smallest = search(model, source.getWidth() * source.getHeight(), maxQuality, new BitmapEncoder(source, format), best, current);
+                model.save();
+                if (best.size() > 0) {
+                    return write(best, compressPath) ? compressPath : null;
+                }
+                if (step == MAX_SCALE_STEPS) {
+                    break;
+                }
+                //最低质量也超出预算，按面积比例缩小，多缩一点避免再来一轮
+                double scale = Math.sqrt((double) mTargetBytes / smallest) * 0.9;
+                int width = Math.max(1, (int) (source.getWidth() * scale));
+                int height = Math.max(1, (int) (source.getHeight() * scale));
+                Log.d(TAG, "compress, min quality still " + smallest + " bytes, scale to " + width + "x" + height);
+                Bitmap scaled = Bitmap.createScaledBitmap(source, width, height, true);
+                if (source != bitmap) {
+                    source.recycle();
+                }
+                source = scaled;
+            }
+        } finally {
+            if (source != bitmap) {
+                source.recycle();
+            }
+        }
+        Log.e(TAG, "compress, can not fit in " + mTargetBytes + " bytes");
+        return null;
+    }
+
+    /**
+     * 按质量编码一次，测试中用假的编码器
+     */
+    interface Encoder {
+        void encode(int quality, OutputStream out) throws IOException;
+    }
+
+    private static final class BitmapEncoder implements Encoder {
+        final Bitmap source;
+        final Bitmap.CompressFormat format;
+
+        BitmapEncoder(Bitmap source, int format) {
+            this.source = source;
+            this.format = CompressUtils.getCompressFormat(format);
+        }
+
+        @Override
+        public void encode(int quality, OutputStream out) {
+            source.compress(format, quality, out);
+        }
+    }
+
+    /**
+     * 在质量上搜索，满足预算的最大结果放在best中。最多{@link #MAX_PASSES}次之后还没有满足预算的结果时，
+     * 再用最低质量编码一次，确认最低质量也超出预算才返回让调用方缩小图片
+     *
+     * @return 最低质量的大小(或者搜索中最后一次超出预算的大小)，best为空时用于估算缩放比例
+     */
+    long search(JpegSizeModel model, int pixels, int maxQuality, Encoder encoder, EncodeBuffer best, EncodeBuffer current) {
+        //瞄准容差区间的中间，估计稍有偏差也不会超出预算
+        double targetLog = Math.log(mTargetBytes * (1 - TOLERANCE / 2) / pixels);
+
+        //low以下(含)已知满足预算，high以上(含)已知超出预算
+        int low = JpegSizeModel.MIN_QUALITY - 1;
+        int high = maxQuality + 1;
+        double lowLog = 0;
+        double highLog = 0;
+        int quality = model.qualityFor(targetLog, maxQuality);
+        long oversize = Long.MAX_VALUE;
+        int passes = 0;
+        while (passes < MAX_PASSES) {
+            long size = encode(encoder, quality, current);
+            passes++;
+            double sizeLog = Math.log((double) size / pixels);
+            model.update(quality, (double) size / pixels);
+
+            if (size <= mTargetBytes) {
+                if (size > best.size()) {
+                    best.swap(current);
+                }
+                low = quality;
+                lowLog = sizeLog;
+                if (size >= mTargetBytes * (1 - TOLERANCE)) {
+                    break;
+                }
+            } else {
+                high = quality;
+                highLog = sizeLog;
+                oversize = size;
+            }
+            if (high - low <= 1) {
+                break;
+            }
+            int next;
+            if (low >= JpegSizeModel.MIN_QUALITY && high <= maxQuality && highLog > lowLog) {
+                //两边都编码过，在这张图自己的两个点之间按对数大小插值
+                next = low + (int) ((targetLog - lowLog) / (highLog - lowLog) * (high - low));
+            } else {
+                //按这张图的复杂度把曲线平移到这次的结果上再估一次
+                double sceneOffset = sizeLog - model.predictLog(quality);
+                next = model.qualityFor(targetLog - sceneOffset, maxQuality);
+            }
+            //估到区间外面时二分
+            if (next <= low || next >= high) {
+                next = (low + high) / 2;
+            }
+            quality = next;
+        }
+        if (best.size() == 0 && high > JpegSizeModel.MIN_QUALITY) {
+            long size = encode(encoder, JpegSizeModel.MIN_QUALITY, current);
+            passes++;
+            model.update(JpegSizeModel.MIN_QUALITY, (double) size / pixels);
+            if (size <= mTargetBytes) {
+                best.swap(current);
+                low = JpegSizeModel.MIN_QUALITY;
+            } else {
+                oversize = size;
+            }
+        }
+        Log.d(TAG, "search, " + pixels + " pixels, passes = " + passes + ", size = " + best.size() + ", quality = " + low);
+        return oversize;
+    }
+
+    private static long encode(Encoder encoder, int quality, EncodeBuffer out) {
+        out.reset();
+        try {
+            encoder.encode(quality, out);
+        } catch (IOException e) {
+            //只写内存不会失败
+            throw new IllegalStateException(e);
+        }
+        return out.size();
+    }
+
+    private static boolean write(final EncodeBuffer buffer, String path) {
+        return MediaStorage.getDefault().write(path, CameraConfig.SYNC_NONE, new MediaStorage.Writer() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                buffer.writeTo(out);
+            }
+        }) >= 0;
+    }
+
+    /**
+     * 可以交换内部数组的ByteArrayOutputStream，保留最好的结果时不用拷贝
+     */
+    static final class EncodeBuffer extends ByteArrayOutputStream {
+        EncodeBuffer(int size) {
+            super(size);
+        }
+
+        void swap(EncodeBuffer other) {
+            byte[] buf = this.buf;
+            int count = this.count;
+            this.buf = other.buf;
+            this.count = other.count;
+            other.buf = buf;
+            other.count = count;
+        }
+    }
+
+    @Override
+    public String getCacheKey() {
+        return "target=" + mTargetBytes;
+    }
+}
@@ -0,0 +1,91 @@
+package com.google.android.cameraview.compress.impl;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.google.android.cameraview.compress.CompressUtils;
+import com.google.android.cameraview.compress.inter.CacheableCompress;
+import com.google.android.cameraview.compress.inter.StreamPictureCompress;
+import com.google.android.cameraview.configs.CameraConfig;
+import com.google.android.cameraview.helper.TiledDownscaler;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @fileName TiledPictureCompress
+ * @describe 缩小到像素数上限以内再编码，从流压缩时按块解码({@link TiledDownscaler})，
+ * 峰值内存是输出图片加一块的解码结果，不随传感器分辨率增长
+ */
+
+
+public class TiledPictureCompress implements StreamPictureCompress, CacheableCompress {
+    private static final String TAG = "TiledPictureCompress";
+
+    //默认输出1200万像素
+    public static final long DEFAULT_MAX_PIXELS = 12000000;
+    //每块解码结果8MB
+    public static final long DEFAULT_TILE_BUDGET = 8 * 1024 * 1024;
+
+    private final long mMaxPixels;
+    private final long mTileBudget;
+
+    public TiledPictureCompress() {
+        this(DEFAULT_MAX_PIXELS, DEFAULT_TILE_BUDGET);
+    }
+
+    /**
+     * @param maxPixels  输出的像素数上限
+     * @param tileBudget 每块解码结果的字节数上限
+     */
+    public TiledPictureCompress(long maxPixels, long tileBudget) {
+        mMaxPixels = maxPixels;
+        mTileBudget = tileBudget;
+    }
+
+    @Override
+    public String compress(Context mContext, InputStream source, int orientation, String compressPath, int quality, int format) {
+        Bitmap bitmap;
+        try {
+            bitmap = TiledDownscaler.decode(source, orientation, mMaxPixels, mTileBudget);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "compress ERROR!!:" + e.getMessage());
+            return null;
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        boolean isSuccess = CompressUtils.saveBitmap(bitmap, compressPath, quality, format);
+        bitmap.recycle();
+        return isSuccess ? compressPath : null;
+    }
+
+    /**
+     * 已经解码好的Bitmap，超出像素数上限时缩小后编码
+     */
+    @Override
+    public String compress(Context mContext, Bitmap bitmap, String compressPath, int quality, int format) {
+        long pixels = (long) bitmap.getWidth() * bitmap.getHeight();
+        Bitmap scaled = bitmap;
+        if (pixels > mMaxPixels) {
+            double scale = Math.sqrt((double) mMaxPixels / pixels);
+            scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, (int) (bitmap.getWidth() * scale)), Math.max(1, (int) (bitmap.getHeight() * scale)), true);
+        }
+        boolean isSuccess = CompressUtils.saveBitmap(scaled, compressPath, quality, format);
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+        return isSuccess ? compressPath : null;
+    }
+
+    @Override
+    public String compress(Context mContext, Bitmap bitmap, String compressPath, int quality) {
+        return compress(mContext, bitmap, compressPath, quality, CameraConfig.PICTURE_FORMAT_JPEG);
+    }
+
+    @Override
+    public String getCacheKey() {
+        return "tiled:" + mMaxPixels;
+    }
+}
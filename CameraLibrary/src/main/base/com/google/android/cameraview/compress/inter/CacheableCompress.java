@@ -0,0 +1,15 @@
+package com.google.android.cameraview.compress.inter;
+
+/**
+ * @fileName CacheableCompress
+ * @describe PictureCompress/VideoCompress实现这个接口后，相同的源文件和参数再次压缩时直接从缓存取结果
+ */
+
+
+public interface CacheableCompress {
+
+    /**
+     * 影响输出的全部参数(格式、尺寸、码率等，quality参数除外)，参数不同时必须返回不同的值
+     */
+    String getCacheKey();
+}
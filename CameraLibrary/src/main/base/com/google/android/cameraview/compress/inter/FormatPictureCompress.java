@@ -0,0 +1,22 @@
+package com.google.android.cameraview.compress.inter;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.google.android.cameraview.configs.CameraConfig;
+
+/**
+ * @fileName FormatPictureCompress
+ * @describe 支持多种输出格式的PictureCompress，按CameraViewOptions的pictureFormat输出。
+ * 只实现PictureCompress的压缩器始终输出JPEG，压缩图使用.jpg扩展名
+ */
+
+
+public interface FormatPictureCompress extends PictureCompress {
+
+    /**
+     * @param format {@link CameraConfig#PICTURE_FORMAT_JPEG}、{@link CameraConfig#PICTURE_FORMAT_WEBP}、
+     *               {@link CameraConfig#PICTURE_FORMAT_WEBP_LOSSLESS}，compressPath的扩展名已经和它对应
+     */
+    String compress(Context mContext, Bitmap bitmap, String compressPath, int quality, @CameraConfig.PictureFormat int format);
+}
@@ -0,0 +1,25 @@
+package com.google.android.cameraview.compress.inter;
+
+import android.content.Context;
+
+import com.google.android.cameraview.configs.CameraConfig;
+
+import java.io.InputStream;
+
+/**
+ * @fileName StreamPictureCompress
+ * @describe 直接从编码后的数据压缩，不需要先把整张图片解码成Bitmap，给超高分辨率的传感器使用
+ * <p>
+ * 配置这种压缩器时，相机输出的JPEG和已经写盘的原图都以流的形式交给它，原图按字节直接写入，不再解码重新编码
+ */
+
+
+public interface StreamPictureCompress extends FormatPictureCompress {
+
+    /**
+     * @param source      编码后的图片，只读取不关闭
+     * @param orientation 需要顺时针旋转的角度(来自Exif)，0、90、180、270
+     * @param format      {@link CameraConfig#PICTURE_FORMAT_JPEG}等，compressPath的扩展名已经和它对应
+     */
+    String compress(Context mContext, InputStream source, int orientation, String compressPath, int quality, @CameraConfig.PictureFormat int format);
+}
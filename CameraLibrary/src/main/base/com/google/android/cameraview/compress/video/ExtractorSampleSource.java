@@ -0,0 +1,88 @@
+package com.google.android.cameraview.compress.video;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @fileName ExtractorSampleSource
+ * @describe MediaExtractor实现的{@link SampleSource}，每条轨道用一个单独的MediaExtractor，读取互不影响
+ */
+
+
+class ExtractorSampleSource implements SampleSource {
+    //容器中没有KEY_MAX_INPUT_SIZE时使用
+    private static final int DEFAULT_MAX_SAMPLE_SIZE = 256 * 1024;
+
+    private final MediaExtractor mExtractor;
+    private final MediaFormat mFormat;
+
+    private ExtractorSampleSource(MediaExtractor extractor, MediaFormat format) {
+        mExtractor = extractor;
+        mFormat = format;
+    }
+
+    /**
+     * 打开path中第一条mime以mimePrefix开头的轨道
+     *
+     * @return 没有这样的轨道时返回null
+     */
+    static ExtractorSampleSource open(String path, String mimePrefix) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(path);
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith(mimePrefix)) {
+                    extractor.selectTrack(i);
+                    ExtractorSampleSource source = new ExtractorSampleSource(extractor, format);
+                    extractor = null;
+                    return source;
+                }
+            }
+            return null;
+        } finally {
+            if (extractor != null) {
+                extractor.release();
+            }
+        }
+    }
+
+    @Override
+    public MediaFormat getFormat() {
+        return mFormat;
+    }
+
+    @Override
+    public int getMaxSampleSize() {
+        return mFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE) ? mFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : DEFAULT_MAX_SAMPLE_SIZE;
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mExtractor.getSampleTime();
+    }
+
+    @Override
+    public boolean readSample(ByteBuffer buffer, SampleInfo info) {
+        buffer.clear();
+        int size = mExtractor.readSampleData(buffer, 0);
+        if (size < 0) {
+            return false;
+        }
+        buffer.position(0);
+        buffer.limit(size);
+        int flags = (mExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0 ? SampleInfo.FLAG_KEY_FRAME : 0;
+        info.set(0, size, mExtractor.getSampleTime(), flags);
+        mExtractor.advance();
+        return true;
+    }
+
+    @Override
+    public void release() {
+        mExtractor.release();
+    }
+}
@@ -0,0 +1,22 @@
+package com.google.android.cameraview.compress.video;
+
+import java.io.IOException;
+
+/**
+ * @fileName FrameRenderer
+ * @describe 把解码器渲染出来的一帧缩放后交给编码器
+ */
+
+
+public interface FrameRenderer {
+
+    /**
+     * 解码器releaseOutputBuffer(index, true)之后调用，等这一帧到达后绘制到编码器的输入上
+     *
+     * @param presentationTimeUs 这一帧在输出文件中的时间
+     * @throws IOException 等不到这一帧
+     */
+    void drawFrame(long presentationTimeUs) throws IOException;
+
+    void release();
+}
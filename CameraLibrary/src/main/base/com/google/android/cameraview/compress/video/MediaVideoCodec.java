@@ -0,0 +1,112 @@
+package com.google.android.cameraview.compress.video;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @fileName MediaVideoCodec
+ * @describe MediaCodec实现的{@link VideoCodec}，API 21以下通过缓冲区数组访问
+ */
+
+
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class MediaVideoCodec implements VideoCodec {
+    private final MediaCodec mCodec;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private ByteBuffer[] mInputBuffers;
+    private ByteBuffer[] mOutputBuffers;
+
+    MediaVideoCodec(MediaCodec codec) {
+        mCodec = codec;
+    }
+
+    MediaCodec getCodec() {
+        return mCodec;
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        return mCodec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return mCodec.getInputBuffer(index);
+        }
+        if (mInputBuffers == null) {
+            mInputBuffers = mCodec.getInputBuffers();
+        }
+        ByteBuffer buffer = mInputBuffers[index];
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int size, long presentationTimeUs, int flags) {
+        mCodec.queueInputBuffer(index, 0, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        mCodec.signalEndOfInputStream();
+    }
+
+    @Override
+    public int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+        int index = mCodec.dequeueOutputBuffer(mBufferInfo, timeoutUs);
+        if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+            mOutputBuffers = null;
+            return INFO_TRY_AGAIN_LATER;
+        }
+        if (index >= 0) {
+            info.set(mBufferInfo.offset, mBufferInfo.size, mBufferInfo.presentationTimeUs, mBufferInfo.flags);
+        }
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return mCodec.getOutputBuffer(index);
+        }
+        if (mOutputBuffers == null) {
+            mOutputBuffers = mCodec.getOutputBuffers();
+        }
+        return mOutputBuffers[index];
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+        return mCodec.getOutputFormat();
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        mCodec.releaseOutputBuffer(index, render);
+    }
+
+    @Override
+    public void requestSyncFrame() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            mCodec.setParameters(params);
+        }
+    }
+
+    @Override
+    public void release() {
+        try {
+            mCodec.stop();
+        } catch (IllegalStateException ignore) {
+            //没有start或者已经出错
+        }
+        mCodec.release();
+    }
+}
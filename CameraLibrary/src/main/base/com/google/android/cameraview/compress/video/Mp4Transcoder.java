@@ -0,0 +1,131 @@
+package com.google.android.cameraview.compress.video;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+
+import java.io.IOException;
+
+/**
+ * @fileName Mp4Transcoder
+ * @describe 用MediaExtractor、MediaCodec和MediaMuxer组装{@link VideoTranscoder}，把录像转成H.264的MP4，需要API 18
+ */
+
+
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public final class Mp4Transcoder {
+    private static final String MIME_AVC = "video/avc";
+    //部分编码器要求宽高是16的倍数
+    private static final int ALIGNMENT = 16;
+
+    private Mp4Transcoder() {
+    }
+
+    /**
+     * 同步转码，在调用线程中完成。失败时output可能留下不完整的文件，由调用方删除
+     *
+     * @param maxSize          输出长边的上限，原视频不超过时保持原尺寸，<=0时不缩放
+     * @param bitRate          输出视频码率
+     * @param frameRate        输出帧率，<=0时保持原帧率
+     * @param keyFrameInterval 关键帧间隔(秒)
+     * @return 转码结果，可以读取帧数等统计
+     */
+    public static VideoTranscoder transcode(String input, String output, int maxSize, int bitRate, int frameRate, int keyFrameInterval) throws IOException {
+        ExtractorSampleSource video = null;
+        ExtractorSampleSource audio = null;
+        MediaVideoCodec decoder = null;
+        MediaVideoCodec encoder = null;
+        SurfaceFrameRenderer renderer = null;
+        MuxerSampleSink sink = null;
+        try {
+            video = ExtractorSampleSource.open(input, "video/");
+            if (video == null) {
+                throw new IOException("no video track: " + input);
+            }
+            //音频直接复制，没有音轨时只输出视频
+            audio = ExtractorSampleSource.open(input, "audio/");
+
+            MediaFormat inputFormat = video.getFormat();
+            int[] size = outputSize(inputFormat.getInteger(MediaFormat.KEY_WIDTH), inputFormat.getInteger(MediaFormat.KEY_HEIGHT), maxSize);
+            MediaFormat outputFormat = MediaFormat.createVideoFormat(MIME_AVC, size[0], size[1]);
+            outputFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            outputFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+            outputFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate > 0 ? frameRate : frameRateOf(inputFormat));
+            outputFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, keyFrameInterval);
+
+            encoder = new MediaVideoCodec(MediaCodec.createEncoderByType(MIME_AVC));
+            encoder.getCodec().configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            renderer = new SurfaceFrameRenderer(encoder.getCodec().createInputSurface(), size[0], size[1]);
+            encoder.getCodec().start();
+
+            decoder = new MediaVideoCodec(MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME)));
+            decoder.getCodec().configure(inputFormat, renderer.getInputSurface(), null, 0);
+            decoder.getCodec().start();
+
+            sink = new MuxerSampleSink(output);
+            VideoTranscoder transcoder = new VideoTranscoder(video, audio, decoder, encoder, renderer, sink, frameRate, keyFrameInterval);
+            transcoder.setOrientationHint(rotationOf(input));
+            transcoder.transcode();
+            return transcoder;
+        } finally {
+            //先停解码器再释放它渲染的Surface，编码器的输入Surface由renderer释放
+            if (decoder != null) {
+                decoder.release();
+            }
+            if (encoder != null) {
+                encoder.release();
+            }
+            if (renderer != null) {
+                renderer.release();
+            }
+            if (sink != null) {
+                sink.release();
+            }
+            if (video != null) {
+                video.release();
+            }
+            if (audio != null) {
+                audio.release();
+            }
+        }
+    }
+
+    /**
+     * 按比例缩小到长边不超过maxSize，宽高对齐到16
+     */
+    static int[] outputSize(int width, int height, int maxSize) {
+        int longEdge = Math.max(width, height);
+        if (maxSize <= 0 || longEdge <= maxSize) {
+            return new int[]{width, height};
+        }
+        float scale = maxSize / (float) longEdge;
+        return new int[]{align(width * scale), align(height * scale)};
+    }
+
+    private static int align(float value) {
+        return Math.max(ALIGNMENT, Math.round(value / ALIGNMENT) * ALIGNMENT);
+    }
+
+    private static int frameRateOf(MediaFormat format) {
+        return format.containsKey(MediaFormat.KEY_FRAME_RATE) ? format.getInteger(MediaFormat.KEY_FRAME_RATE) : 30;
+    }
+
+    /**
+     * MediaExtractor在API 23以前不返回旋转角度，从MediaMetadataRetriever读取
+     */
+    private static int rotationOf(String path) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(path);
+            String rotation = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+            return rotation == null ? 0 : Integer.parseInt(rotation);
+        } catch (RuntimeException e) {
+            return 0;
+        } finally {
+            retriever.release();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.google.android.cameraview.compress.video;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @fileName MuxerSampleSink
+ * @describe MediaMuxer实现的{@link SampleSink}，输出MP4
+ */
+
+
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class MuxerSampleSink implements SampleSink {
+    private final MediaMuxer mMuxer;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private boolean mStarted;
+
+    MuxerSampleSink(String path) throws IOException {
+        mMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return mMuxer.addTrack(format);
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        mMuxer.setOrientationHint(degrees);
+    }
+
+    @Override
+    public void start() {
+        mMuxer.start();
+        mStarted = true;
+    }
+
+    @Override
+    public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+        mBufferInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        mMuxer.writeSampleData(track, buffer, mBufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        mStarted = false;
+        mMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        if (mStarted) {
+            //转码中途失败，文件不完整，由调用方删除
+            try {
+                mMuxer.stop();
+            } catch (IllegalStateException ignore) {
+            }
+        }
+        mMuxer.release();
+    }
+}
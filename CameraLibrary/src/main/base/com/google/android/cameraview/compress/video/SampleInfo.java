@@ -0,0 +1,38 @@
+package com.google.android.cameraview.compress.video;
+
+/**
+ * @fileName SampleInfo
+ * @describe 一个样本(编码帧/音频包)的位置、时间和标记，对应MediaCodec.BufferInfo，不依赖framework，方便在JVM上使用
+ */
+
+
+public class SampleInfo {
+    //和MediaCodec.BUFFER_FLAG_*取值一致
+    public static final int FLAG_KEY_FRAME = 1;
+    public static final int FLAG_CODEC_CONFIG = 2;
+    public static final int FLAG_END_OF_STREAM = 4;
+
+    public int offset;
+    public int size;
+    public long presentationTimeUs;
+    public int flags;
+
+    public void set(int offset, int size, long presentationTimeUs, int flags) {
+        this.offset = offset;
+        this.size = size;
+        this.presentationTimeUs = presentationTimeUs;
+        this.flags = flags;
+    }
+
+    public boolean isKeyFrame() {
+        return (flags & FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isCodecConfig() {
+        return (flags & FLAG_CODEC_CONFIG) != 0;
+    }
+
+    public boolean isEndOfStream() {
+        return (flags & FLAG_END_OF_STREAM) != 0;
+    }
+}
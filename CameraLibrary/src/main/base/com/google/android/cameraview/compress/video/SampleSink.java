@@ -0,0 +1,26 @@
+package com.google.android.cameraview.compress.video;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @fileName SampleSink
+ * @describe 转码输出(MediaMuxer)，所有轨道addTrack之后才能start，start之后才能写样本
+ */
+
+
+public interface SampleSink {
+
+    int addTrack(MediaFormat format);
+
+    void setOrientationHint(int degrees);
+
+    void start();
+
+    void writeSample(int track, ByteBuffer buffer, SampleInfo info);
+
+    void stop();
+
+    void release();
+}
@@ -0,0 +1,35 @@
+package com.google.android.cameraview.compress.video;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @fileName SampleSource
+ * @describe 一条轨道的样本来源(MediaExtractor选中一条轨道)，按解码顺序读取
+ */
+
+
+public interface SampleSource {
+
+    MediaFormat getFormat();
+
+    /**
+     * 单个样本的最大字节数，用来分配读取缓冲区
+     */
+    int getMaxSampleSize();
+
+    /**
+     * @return 当前样本的时间，没有更多样本时返回-1
+     */
+    long getSampleTime();
+
+    /**
+     * 把当前样本读入buffer(从position 0开始)并前进到下一个样本
+     *
+     * @return 没有更多样本时返回false
+     */
+    boolean readSample(ByteBuffer buffer, SampleInfo info);
+
+    void release();
+}
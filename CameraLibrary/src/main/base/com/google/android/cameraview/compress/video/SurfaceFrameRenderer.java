@@ -0,0 +1,287 @@
+package com.google.android.cameraview.compress.video;
+
+import android.annotation.TargetApi;
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * @fileName SurfaceFrameRenderer
+ * @describe 解码器输出到SurfaceTexture，用OpenGL ES画到编码器的输入Surface上，缩放由GPU完成，画面数据不经过Java堆
+ * <p>
+ * 需要在转码线程中创建和使用，EGL上下文绑定在这个线程上
+ */
+
+
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class SurfaceFrameRenderer implements FrameRenderer, SurfaceTexture.OnFrameAvailableListener {
+    //等待解码器渲染一帧的超时
+    private static final long FRAME_TIMEOUT_MS = 2500;
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uTexMatrix;\n" +
+                    "attribute vec4 aPosition;\n" +
+                    "attribute vec4 aTextureCoord;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "void main() {\n" +
+                    "    gl_Position = aPosition;\n" +
+                    "    vTextureCoord = (uTexMatrix * aTextureCoord).xy;\n" +
+                    "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+                    "precision mediump float;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform samplerExternalOES sTexture;\n" +
+                    "void main() {\n" +
+                    "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+                    "}\n";
+
+    //x, y, u, v，两个三角形铺满整个画面
+    private static final float[] VERTICES = {
+            -1f, -1f, 0f, 0f,
+            1f, -1f, 1f, 0f,
+            -1f, 1f, 0f, 1f,
+            1f, 1f, 1f, 1f,
+    };
+    private static final int STRIDE = 4 * 4;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Surface mEncoderSurface;
+    private final float[] mTexMatrix = new float[16];
+    private final Object mFrameLock = new Object();
+    private boolean mFrameAvailable;
+
+    private EGLDisplay mDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface mSurface = EGL14.EGL_NO_SURFACE;
+
+    private int mProgram;
+    private int mTextureId;
+    private int mPositionLoc;
+    private int mTextureCoordLoc;
+    private int mTexMatrixLoc;
+    private FloatBuffer mVertices;
+
+    private SurfaceTexture mSurfaceTexture;
+    private Surface mDecoderSurface;
+
+    /**
+     * @param encoderSurface 编码器的createInputSurface，由这个类负责释放
+     */
+    SurfaceFrameRenderer(Surface encoderSurface, int width, int height) throws IOException {
+        mEncoderSurface = encoderSurface;
+        mWidth = width;
+        mHeight = height;
+        try {
+            setupEgl();
+            setupGl();
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+        mSurfaceTexture = new SurfaceTexture(mTextureId);
+        mSurfaceTexture.setOnFrameAvailableListener(this);
+        mDecoderSurface = new Surface(mSurfaceTexture);
+    }
+
+    /**
+     * 解码器的输出Surface
+     */
+    Surface getInputSurface() {
+        return mDecoderSurface;
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        //转码线程没有Looper，这个回调在主线程
+        synchronized (mFrameLock) {
+            mFrameAvailable = true;
+            mFrameLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void drawFrame(long presentationTimeUs) throws IOException {
+        awaitFrame();
+        mSurfaceTexture.updateTexImage();
+        mSurfaceTexture.getTransformMatrix(mTexMatrix);
+
+        GLES20.glViewport(0, 0, mWidth, mHeight);
+        GLES20.glUseProgram(mProgram);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+        mVertices.position(0);
+        GLES20.glVertexAttribPointer(mPositionLoc, 2, GLES20.GL_FLOAT, false, STRIDE, mVertices);
+        GLES20.glEnableVertexAttribArray(mPositionLoc);
+        mVertices.position(2);
+        GLES20.glVertexAttribPointer(mTextureCoordLoc, 2, GLES20.GL_FLOAT, false, STRIDE, mVertices);
+        GLES20.glEnableVertexAttribArray(mTextureCoordLoc);
+        GLES20.glUniformMatrix4fv(mTexMatrixLoc, 1, false, mTexMatrix, 0);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        GLES20.glDisableVertexAttribArray(mPositionLoc);
+        GLES20.glDisableVertexAttribArray(mTextureCoordLoc);
+
+        EGLExt.eglPresentationTimeANDROID(mDisplay, mSurface, presentationTimeUs * 1000);
+        if (!EGL14.eglSwapBuffers(mDisplay, mSurface)) {
+            throw new IOException("eglSwapBuffers fail: 0x" + Integer.toHexString(EGL14.eglGetError()));
+        }
+    }
+
+    private void awaitFrame() throws IOException {
+        long deadline = System.currentTimeMillis() + FRAME_TIMEOUT_MS;
+        synchronized (mFrameLock) {
+            try {
+                while (!mFrameAvailable) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new IOException("frame wait timed out");
+                    }
+                    mFrameLock.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("frame wait interrupted");
+            }
+            mFrameAvailable = false;
+        }
+    }
+
+    private void setupEgl() throws IOException {
+        mDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (mDisplay == EGL14.EGL_NO_DISPLAY || !EGL14.eglInitialize(mDisplay, version, 0, version, 1)) {
+            mDisplay = EGL14.EGL_NO_DISPLAY;
+            throw new IOException("eglInitialize fail");
+        }
+        int[] configAttribs = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                //编码器的Surface需要
+                EGLExt.EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mDisplay, configAttribs, 0, configs, 0, configs.length, numConfigs, 0) || numConfigs[0] <= 0) {
+            throw new IOException("eglChooseConfig fail");
+        }
+        int[] contextAttribs = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        mContext = EGL14.eglCreateContext(mDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttribs, 0);
+        if (mContext == null || mContext == EGL14.EGL_NO_CONTEXT) {
+            mContext = EGL14.EGL_NO_CONTEXT;
+            throw new IOException("eglCreateContext fail: 0x" + Integer.toHexString(EGL14.eglGetError()));
+        }
+        mSurface = EGL14.eglCreateWindowSurface(mDisplay, configs[0], mEncoderSurface, new int[]{EGL14.EGL_NONE}, 0);
+        if (mSurface == null || mSurface == EGL14.EGL_NO_SURFACE) {
+            mSurface = EGL14.EGL_NO_SURFACE;
+            throw new IOException("eglCreateWindowSurface fail: 0x" + Integer.toHexString(EGL14.eglGetError()));
+        }
+        if (!EGL14.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext)) {
+            throw new IOException("eglMakeCurrent fail: 0x" + Integer.toHexString(EGL14.eglGetError()));
+        }
+    }
+
+    private void setupGl() throws IOException {
+        mProgram = createProgram();
+        mPositionLoc = GLES20.glGetAttribLocation(mProgram, "aPosition");
+        mTextureCoordLoc = GLES20.glGetAttribLocation(mProgram, "aTextureCoord");
+        mTexMatrixLoc = GLES20.glGetUniformLocation(mProgram, "uTexMatrix");
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        mTextureId = textures[0];
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+        mVertices = ByteBuffer.allocateDirect(VERTICES.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mVertices.put(VERTICES).position(0);
+    }
+
+    private static int createProgram() throws IOException {
+        int vertex = loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER);
+        int fragment = loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertex);
+        GLES20.glAttachShader(program, fragment);
+        GLES20.glLinkProgram(program);
+        GLES20.glDeleteShader(vertex);
+        GLES20.glDeleteShader(fragment);
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] != GLES20.GL_TRUE) {
+            String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            throw new IOException("link program fail: " + log);
+        }
+        return program;
+    }
+
+    private static int loadShader(int type, String source) throws IOException {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            throw new IOException("compile shader fail: " + log);
+        }
+        return shader;
+    }
+
+    @Override
+    public void release() {
+        if (mDecoderSurface != null) {
+            mDecoderSurface.release();
+            mDecoderSurface = null;
+        }
+        if (mSurfaceTexture != null) {
+            mSurfaceTexture.release();
+            mSurfaceTexture = null;
+        }
+        if (mDisplay != EGL14.EGL_NO_DISPLAY) {
+            if (mProgram != 0) {
+                GLES20.glDeleteProgram(mProgram);
+                mProgram = 0;
+            }
+            if (mTextureId != 0) {
+                GLES20.glDeleteTextures(1, new int[]{mTextureId}, 0);
+                mTextureId = 0;
+            }
+            EGL14.eglMakeCurrent(mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            if (mSurface != EGL14.EGL_NO_SURFACE) {
+                EGL14.eglDestroySurface(mDisplay, mSurface);
+            }
+            if (mContext != EGL14.EGL_NO_CONTEXT) {
+                EGL14.eglDestroyContext(mDisplay, mContext);
+            }
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(mDisplay);
+        }
+        mDisplay = EGL14.EGL_NO_DISPLAY;
+        mContext = EGL14.EGL_NO_CONTEXT;
+        mSurface = EGL14.EGL_NO_SURFACE;
+        mEncoderSurface.release();
+    }
+}
@@ -0,0 +1,53 @@
+package com.google.android.cameraview.compress.video;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @fileName VideoCodec
+ * @describe 转码用到的MediaCodec子集，解码器和编码器共用，{@link VideoTranscoder}只通过它访问编解码器
+ * <p>
+ * 返回值和标记的取值和MediaCodec一致，MediaFormat只在各接口之间传递，流水线不读取它的内容
+ */
+
+
+public interface VideoCodec {
+    int INFO_TRY_AGAIN_LATER = -1;
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+
+    /**
+     * @return 输入缓冲区下标，超时返回{@link #INFO_TRY_AGAIN_LATER}
+     */
+    int dequeueInputBuffer(long timeoutUs);
+
+    ByteBuffer getInputBuffer(int index);
+
+    void queueInputBuffer(int index, int size, long presentationTimeUs, int flags);
+
+    /**
+     * 输入来自Surface的编码器，通知输入结束
+     */
+    void signalEndOfInputStream();
+
+    /**
+     * @return 输出缓冲区下标，或者{@link #INFO_TRY_AGAIN_LATER}、{@link #INFO_OUTPUT_FORMAT_CHANGED}
+     */
+    int dequeueOutputBuffer(SampleInfo info, long timeoutUs);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    MediaFormat getOutputFormat();
+
+    /**
+     * @param render 解码器输出到Surface时是否渲染这一帧
+     */
+    void releaseOutputBuffer(int index, boolean render);
+
+    /**
+     * 编码器尽快输出一个关键帧，不支持时忽略
+     */
+    void requestSyncFrame();
+
+    void release();
+}
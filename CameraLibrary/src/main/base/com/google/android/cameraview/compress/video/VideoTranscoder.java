@@ -0,0 +1,311 @@
+package com.google.android.cameraview.compress.video;
+
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @fileName VideoTranscoder
+ * @describe 视频转码流水线：视频轨道 解码 -> 缩放 -> 编码 -> 封装，音频轨道不重新编码，按时间和视频交错直接写入
+ * <p>
+ * 只通过{@link SampleSource}、{@link VideoCodec}、{@link FrameRenderer}、{@link SampleSink}访问媒体框架，
+ * 时间戳、抽帧、关键帧间隔和轨道封装的逻辑都在这里，可以用假的实现在JVM上验证。
+ * Android上的组装见{@link Mp4Transcoder}
+ * <p>
+ * 时间戳：输出从0开始，音视频减去同一个基准(两条轨道中最早的样本)，保持音画同步
+ */
+
+
+public class VideoTranscoder {
+    //等待编码器输出的超时，其他队列只查询不等待
+    private static final long TIMEOUT_US = 10000;
+    //连续这么多轮没有任何进展认为编解码器卡住了
+    private static final int MAX_IDLE_LOOPS = 500;
+
+    private final SampleSource mVideoSource;
+    private final SampleSource mAudioSource;
+    private final VideoCodec mDecoder;
+    private final VideoCodec mEncoder;
+    private final FrameRenderer mRenderer;
+    private final SampleSink mSink;
+    //输出帧间隔，0表示不抽帧
+    private final long mFrameIntervalUs;
+    //关键帧最大间隔，0表示完全交给编码器
+    private final long mKeyFrameIntervalUs;
+
+    private final SampleInfo mVideoInfo = new SampleInfo();
+    private final SampleInfo mAudioInfo = new SampleInfo();
+    private ByteBuffer mAudioBuffer;
+    private int mOrientation;
+
+    private long mBaseTimeUs;
+    private long mNextFrameUs = Long.MIN_VALUE;
+    private long mLastKeyFrameUs = -1;
+    private boolean mSyncRequested;
+    private long mLastVideoTimeUs = -1;
+
+    private int mVideoTrack = -1;
+    private int mAudioTrack = -1;
+    private boolean mStarted;
+    private boolean mVideoInputDone;
+    private boolean mDecoderDone;
+    private boolean mEncoderDone;
+    private boolean mAudioDone;
+
+    private int mFrameCount;
+    private int mDroppedCount;
+    private int mAudioCount;
+
+    /**
+     * @param audioSource      没有音频时为null
+     * @param frameRate        输出帧率，高于源帧率的帧会被丢弃，<=0时不抽帧
+     * @param keyFrameInterval 关键帧最大间隔(秒)，<=0时不干预编码器
+     */
+    public VideoTranscoder(SampleSource videoSource, SampleSource audioSource, VideoCodec decoder, VideoCodec encoder,
+                           FrameRenderer renderer, SampleSink sink, int frameRate, int keyFrameInterval) {
+        mVideoSource = videoSource;
+        mAudioSource = audioSource;
+        mDecoder = decoder;
+        mEncoder = encoder;
+        mRenderer = renderer;
+        mSink = sink;
+        mFrameIntervalUs = frameRate > 0 ? 1000000L / frameRate : 0;
+        mKeyFrameIntervalUs = keyFrameInterval > 0 ? keyFrameInterval * 1000000L : 0;
+    }
+
+    /**
+     * 原视频的旋转角度，原样写入输出文件，画面本身不旋转
+     */
+    public void setOrientationHint(int degrees) {
+        mOrientation = degrees;
+    }
+
+    /**
+     * 同步转码到结束，各组件的创建和释放由调用方负责
+     */
+    public void transcode() throws IOException {
+        mBaseTimeUs = baseTime();
+        mAudioDone = mAudioSource == null;
+        if (mAudioSource != null) {
+            mAudioBuffer = ByteBuffer.allocateDirect(mAudioSource.getMaxSampleSize());
+        }
+
+        int idle = 0;
+        while (!mEncoderDone) {
+            if (Thread.interrupted()) {
+                //压缩任务被取消
+                throw new InterruptedIOException("transcode cancelled, frames = " + mFrameCount);
+            }
+            boolean progress = feedDecoder();
+            progress |= drainDecoder();
+            progress |= drainEncoder();
+            progress |= writeAudio(false);
+            idle = progress ? 0 : idle + 1;
+            if (idle > MAX_IDLE_LOOPS) {
+                throw new IOException("transcode stalled, frames = " + mFrameCount);
+            }
+        }
+        if (!mStarted) {
+            throw new IOException("encoder output nothing");
+        }
+        //视频结束后剩下的音频
+        writeAudio(true);
+        mSink.stop();
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public int getAudioSampleCount() {
+        return mAudioCount;
+    }
+
+    private long baseTime() {
+        long base = mVideoSource.getSampleTime();
+        if (mAudioSource != null) {
+            long audio = mAudioSource.getSampleTime();
+            if (audio >= 0 && (base < 0 || audio < base)) {
+                base = audio;
+            }
+        }
+        return Math.max(0, base);
+    }
+
+    private boolean feedDecoder() {
+        if (mVideoInputDone) {
+            return false;
+        }
+        int index = mDecoder.dequeueInputBuffer(0);
+        if (index < 0) {
+            return false;
+        }
+        ByteBuffer buffer = mDecoder.getInputBuffer(index);
+        if (mVideoSource.readSample(buffer, mVideoInfo)) {
+            mDecoder.queueInputBuffer(index, mVideoInfo.size, mVideoInfo.presentationTimeUs, 0);
+        } else {
+            mDecoder.queueInputBuffer(index, 0, 0, SampleInfo.FLAG_END_OF_STREAM);
+            mVideoInputDone = true;
+        }
+        return true;
+    }
+
+    private boolean drainDecoder() throws IOException {
+        if (mDecoderDone) {
+            return false;
+        }
+        int index = mDecoder.dequeueOutputBuffer(mVideoInfo, 0);
+        if (index == VideoCodec.INFO_TRY_AGAIN_LATER) {
+            return false;
+        }
+        if (index < 0) {
+            //解码器的输出格式变化不影响渲染到Surface
+            return true;
+        }
+        boolean endOfStream = mVideoInfo.isEndOfStream();
+        long timeUs = Math.max(0, mVideoInfo.presentationTimeUs - mBaseTimeUs);
+        boolean render = mVideoInfo.size > 0 && acceptFrame(timeUs);
+        if (mVideoInfo.size > 0 && !render) {
+            mDroppedCount++;
+        }
+        mDecoder.releaseOutputBuffer(index, render);
+        if (render) {
+            requestKeyFrameIfDue(timeUs);
+            mRenderer.drawFrame(timeUs);
+            mFrameCount++;
+        }
+        if (endOfStream) {
+            mEncoder.signalEndOfInputStream();
+            mDecoderDone = true;
+        }
+        return true;
+    }
+
+    /**
+     * 按输出帧率抽帧：帧的时间到达下一个时间槽才保留，时间槽按固定间隔前进不随帧抖动漂移，
+     * 源帧率不高于输出帧率时所有帧都保留
+     */
+    private boolean acceptFrame(long timeUs) {
+        if (mFrameIntervalUs <= 0) {
+            return true;
+        }
+        //时间戳有抖动，提前一点点到达的帧也算到了这个时间槽
+        if (timeUs + mFrameIntervalUs / 8 < mNextFrameUs) {
+            return false;
+        }
+        mNextFrameUs += mFrameIntervalUs;
+        if (mNextFrameUs <= timeUs) {
+            //第一帧或者源视频中间有空档，从这一帧重新对齐
+            mNextFrameUs = timeUs + mFrameIntervalUs;
+        }
+        return true;
+    }
+
+    /**
+     * 编码器自己按KEY_I_FRAME_INTERVAL插入关键帧，有的编码器会忽略这个参数，
+     * 超过1.25倍间隔还没有看到关键帧时主动请求一个(编码输出比输入晚几帧，留出余量避免重复请求)
+     */
+    private void requestKeyFrameIfDue(long timeUs) {
+        if (mKeyFrameIntervalUs <= 0 || mSyncRequested || mLastKeyFrameUs < 0) {
+            return;
+        }
+        if (timeUs - mLastKeyFrameUs >= mKeyFrameIntervalUs + mKeyFrameIntervalUs / 4) {
+            mEncoder.requestSyncFrame();
+            mSyncRequested = true;
+        }
+    }
+
+    private boolean drainEncoder() throws IOException {
+        if (mEncoderDone) {
+            return false;
+        }
+        int index = mEncoder.dequeueOutputBuffer(mVideoInfo, TIMEOUT_US);
+        if (index == VideoCodec.INFO_TRY_AGAIN_LATER) {
+            return false;
+        }
+        if (index == VideoCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            if (mStarted) {
+                throw new IOException("encoder output format changed twice");
+            }
+            startSink(mEncoder.getOutputFormat());
+            return true;
+        }
+        if (index < 0) {
+            return true;
+        }
+        if (mVideoInfo.isCodecConfig()) {
+            //SPS/PPS已经在输出格式的csd中
+            mVideoInfo.size = 0;
+        }
+        if (mVideoInfo.size > 0) {
+            if (!mStarted) {
+                throw new IOException("encoder output before format");
+            }
+            ByteBuffer buffer = mEncoder.getOutputBuffer(index);
+            buffer.position(mVideoInfo.offset);
+            buffer.limit(mVideoInfo.offset + mVideoInfo.size);
+            mSink.writeSample(mVideoTrack, buffer, mVideoInfo);
+            mLastVideoTimeUs = Math.max(mLastVideoTimeUs, mVideoInfo.presentationTimeUs);
+            if (mVideoInfo.isKeyFrame()) {
+                mLastKeyFrameUs = mVideoInfo.presentationTimeUs;
+                mSyncRequested = false;
+            }
+        }
+        mEncoder.releaseOutputBuffer(index, false);
+        if (mVideoInfo.isEndOfStream()) {
+            mEncoderDone = true;
+        }
+        return true;
+    }
+
+    /**
+     * 编码器给出输出格式后所有轨道都已知，这时才能启动封装
+     */
+    private void startSink(MediaFormat videoFormat) {
+        mVideoTrack = mSink.addTrack(videoFormat);
+        if (mAudioSource != null) {
+            mAudioTrack = mSink.addTrack(mAudioSource.getFormat());
+        }
+        mSink.setOrientationHint(mOrientation);
+        mSink.start();
+        mStarted = true;
+    }
+
+    /**
+     * 写入不晚于已写视频的音频样本，让两条轨道在文件中交错排列
+     *
+     * @param all 视频已经结束，写入剩下的全部音频
+     */
+    private boolean writeAudio(boolean all) {
+        if (mAudioDone || !mStarted) {
+            return false;
+        }
+        boolean progress = false;
+        while (true) {
+            long sampleTime = mAudioSource.getSampleTime();
+            if (sampleTime < 0) {
+                mAudioDone = true;
+                break;
+            }
+            long timeUs = sampleTime - mBaseTimeUs;
+            if (!all && timeUs > mLastVideoTimeUs) {
+                break;
+            }
+            if (!mAudioSource.readSample(mAudioBuffer, mAudioInfo)) {
+                mAudioDone = true;
+                break;
+            }
+            mAudioInfo.presentationTimeUs = Math.max(0, timeUs);
+            mSink.writeSample(mAudioTrack, mAudioBuffer, mAudioInfo);
+            mAudioCount++;
+            progress = true;
+        }
+        return progress;
+    }
+}
@@ -25,6 +25,16 @@ public final class CameraConfig {
     public static final int MEDIA_ACTION_VIDEO = 100;
     public static final int MEDIA_ACTION_PHOTO = 101;
 
+    //压缩图的输出格式
+    public static final int PICTURE_FORMAT_JPEG = 0;
+    public static final int PICTURE_FORMAT_WEBP = 1;
+    public static final int PICTURE_FORMAT_WEBP_LOSSLESS = 2;//API 29起才是无损编码，之前的系统不支持
+
+    //写入文件后重命名前的落盘策略
+    public static final int SYNC_NONE = 0;//不主动落盘，交给系统回写，断电时可能丢失最近的文件
+    public static final int SYNC_DATA = 1;//只同步数据(fdatasync)
+    public static final int SYNC_FULL = 2;//同步数据和元数据(fsync)
+
     public static final AspectRatio DEFAULT_ASPECT_RATIO = AspectRatio.of(16, 9);//如果是16:9的话显示图片的时候可以填充整个屏幕
     public static final AspectRatio SECOND_ASPECT_RATIO = AspectRatio.of(4, 3);//如果是4:3的话显示图片的时候会上下留黑很多空间
 
@@ -51,6 +61,16 @@ public final class CameraConfig {
     public @interface MediaAction {
     }
 
+    @IntDef({PICTURE_FORMAT_JPEG, PICTURE_FORMAT_WEBP, PICTURE_FORMAT_WEBP_LOSSLESS})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface PictureFormat {
+    }
+
+    @IntDef({SYNC_NONE, SYNC_DATA, SYNC_FULL})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface SyncPolicy {
+    }
+
     @IntDef({FLASH_OFF, FLASH_ON, FLASH_TORCH, FLASH_AUTO, FLASH_RED_EYE})
     @Retention(RetentionPolicy.SOURCE)
     public @interface FlashMode {
@@ -2,6 +2,12 @@ package com.google.android.cameraview.configs;
 
 import android.content.Context;
 
+import com.google.android.cameraview.callback.CaptureTimelineListener;
+import com.google.android.cameraview.callback.GalleryScanListener;
+import com.google.android.cameraview.callback.RenditionListener;
+import com.google.android.cameraview.callback.MemoryDecisionListener;
+import com.google.android.cameraview.compress.CompressScheduler;
+import com.google.android.cameraview.compress.CompressUtils;
 import com.google.android.cameraview.compress.impl.DefaultCompressListener;
 import com.google.android.cameraview.compress.impl.DefaultPictureCompress;
 import com.google.android.cameraview.compress.impl.DefaultVideoCompress;
@@ -10,29 +16,71 @@ import com.google.android.cameraview.compress.inter.PictureCompress;
 import com.google.android.cameraview.compress.inter.VideoCompress;
 import com.google.android.cameraview.helper.FileUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 
 public class CameraViewOptions {
     private Context mContext;
     private boolean isCompress;
+    private boolean isSaveOriginalJpeg;
+    private boolean isLosslessRotate;
     private int quality = CameraConfig.MEDIA_QUALITY_MEDIUM;
+    private int pictureFormat;
+    private int syncPolicy;
     private CompressListener mCompressListener;
     private PictureCompress mPictureCompress;
     private VideoCompress mVideoCompress;
+    private CompressScheduler mCompressScheduler;
+    private long compressCacheSize;
+    private long pictureCacheSize;
+    private long videoCacheSize;
+    private boolean isMemoryAdaptive;
+    private MemoryDecisionListener mMemoryDecisionListener;
+    private GalleryScanListener mGalleryScanListener;
+    private boolean isCaptureJournal;
 
     private int videoFrameRate;
     private int videoEncodingBitRate;
     private int videoWidth;
     private int videoHeight;
+    private boolean isVideoFastStart;
+
+    private boolean isZslEnabled;
+    private int zslDepth;
+    private long zslMaxMemory;
+
+    private CaptureTimelineListener mCaptureTimelineListener;
+
+    private List<RenditionSpec> mRenditions;
+    private RenditionListener mRenditionListener;
 
 
     public boolean isCompress() {
         return isCompress;
     }
 
+    public boolean isSaveOriginalJpeg() {
+        return isSaveOriginalJpeg;
+    }
+
+    public boolean isLosslessRotate() {
+        return isLosslessRotate;
+    }
+
     public int getQuality() {
         return quality;
     }
 
+    public int getPictureFormat() {
+        return pictureFormat;
+    }
+
+    public int getSyncPolicy() {
+        return syncPolicy;
+    }
+
 
     public CompressListener getCompressListener() {
         return mCompressListener;
@@ -46,6 +94,38 @@ public class CameraViewOptions {
         return mVideoCompress;
     }
 
+    public CompressScheduler getCompressScheduler() {
+        return mCompressScheduler;
+    }
+
+    public long getCompressCacheSize() {
+        return compressCacheSize;
+    }
+
+    public long getPictureCacheSize() {
+        return pictureCacheSize;
+    }
+
+    public long getVideoCacheSize() {
+        return videoCacheSize;
+    }
+
+    public boolean isMemoryAdaptive() {
+        return isMemoryAdaptive;
+    }
+
+    public MemoryDecisionListener getMemoryDecisionListener() {
+        return mMemoryDecisionListener;
+    }
+
+    public GalleryScanListener getGalleryScanListener() {
+        return mGalleryScanListener;
+    }
+
+    public boolean isCaptureJournal() {
+        return isCaptureJournal;
+    }
+
 
     public int getVideoFrameRate() {
         return videoFrameRate;
@@ -63,19 +143,73 @@ public class CameraViewOptions {
         return videoHeight;
     }
 
+    public boolean isVideoFastStart() {
+        return isVideoFastStart;
+    }
+
+    public boolean isZslEnabled() {
+        return isZslEnabled;
+    }
+
+    public int getZslDepth() {
+        return zslDepth;
+    }
+
+    public long getZslMaxMemory() {
+        return zslMaxMemory;
+    }
+
+    public CaptureTimelineListener getCaptureTimelineListener() {
+        return mCaptureTimelineListener;
+    }
+
+    public List<RenditionSpec> getRenditions() {
+        return mRenditions;
+    }
+
+    public boolean hasRenditions() {
+        return !mRenditions.isEmpty();
+    }
+
+    public RenditionListener getRenditionListener() {
+        return mRenditionListener;
+    }
+
 
     private CameraViewOptions(Builder builder) {
         mContext = builder.mContext;
         quality = builder.quality;
+        pictureFormat = builder.pictureFormat;
+        syncPolicy = builder.syncPolicy;
         isCompress = builder.isCompress;
+        isSaveOriginalJpeg = builder.isSaveOriginalJpeg;
+        isLosslessRotate = builder.isLosslessRotate;
         mCompressListener = builder.mCompressListener;
         mPictureCompress = builder.mPictureCompress;
         mVideoCompress = builder.mVideoCompress;
+        mCompressScheduler = builder.mCompressScheduler;
+        compressCacheSize = builder.compressCacheSize;
+        pictureCacheSize = builder.pictureCacheSize;
+        videoCacheSize = builder.videoCacheSize;
+        isMemoryAdaptive = builder.isMemoryAdaptive;
+        mMemoryDecisionListener = builder.mMemoryDecisionListener;
+        mGalleryScanListener = builder.mGalleryScanListener;
+        isCaptureJournal = builder.isCaptureJournal;
 
         videoFrameRate = builder.videoFrameRate;
         videoEncodingBitRate = builder.videoEncodingBitRate;
         videoWidth = builder.videoWidth;
         videoHeight = builder.videoHeight;
+        isVideoFastStart = builder.isVideoFastStart;
+
+        isZslEnabled = builder.isZslEnabled;
+        zslDepth = builder.zslDepth;
+        zslMaxMemory = builder.zslMaxMemory;
+
+        mCaptureTimelineListener = builder.mCaptureTimelineListener;
+
+        mRenditions = Collections.unmodifiableList(new ArrayList<>(builder.mRenditions));
+        mRenditionListener = builder.mRenditionListener;
 
     }
 
@@ -83,11 +217,34 @@ public class CameraViewOptions {
     public static class Builder {
         //是否开启压缩
         private boolean isCompress = true;
+        //原图是否直接写入相机输出的JPEG数据(方向保存在Exif中)，不再解码、旋转、重新编码
+        private boolean isSaveOriginalJpeg = false;
+        //直接写入原图时，是否在DCT系数上无损旋转，把Exif方向应用到图像上(给不识别Exif方向的地方使用)
+        private boolean isLosslessRotate = false;
         //质量
         private int quality = CameraConfig.MEDIA_QUALITY_MEDIUM;
+        //压缩图的格式，压缩器需要实现FormatPictureCompress，否则始终是JPEG
+        private int pictureFormat = CameraConfig.PICTURE_FORMAT_JPEG;
+        //原图写入后重命名前的落盘策略，压缩图在缓存目录中可以重新生成，不主动落盘
+        private int syncPolicy = CameraConfig.SYNC_DATA;
         //压缩接口
         private PictureCompress mPictureCompress;
         private VideoCompress mVideoCompress;
+        //压缩任务的调度，默认所有CameraView共用一个，两个工作线程
+        private CompressScheduler mCompressScheduler = CompressScheduler.getDefault();
+        //压缩结果缓存的大小上限，相同的源文件和压缩参数直接取缓存，0表示不缓存
+        private long compressCacheSize = 64 * 1024 * 1024;
+        //压缩图(含各尺寸)、压缩视频输出目录的大小上限，超出时删除最久没有访问的文件，0表示不限制
+        private long pictureCacheSize = 200 * 1024 * 1024;
+        private long videoCacheSize = 500 * 1024 * 1024;
+        //内存紧张时降低并发、缩小解码、推迟生成各尺寸
+        private boolean isMemoryAdaptive = true;
+        //内存调整的监听，可以为null
+        private MemoryDecisionListener mMemoryDecisionListener;
+        //相册扫描队列积压的监听，可以为null
+        private GalleryScanListener mGalleryScanListener;
+        //记录每次拍照未完成的处理阶段，进程被杀后下次创建CameraView时继续压缩
+        private boolean isCaptureJournal = true;
         //压缩监听接口
         private CompressListener mCompressListener;
         private Context mContext;
@@ -96,6 +253,23 @@ public class CameraViewOptions {
         private int videoEncodingBitRate = 900 * 1024;
         private int videoWidth = 1280;
         private int videoHeight = 720;
+        //回调视频结果前把moov移到文件开头，播放端边下边播
+        private boolean isVideoFastStart = false;
+
+        //ZSL零延时拍照(仅Camera2)，预览时持续缓存最近几帧全尺寸图像，按下快门时取时间最接近的一帧，不走对焦/测光流程，也不使用闪光灯
+        //代价是预览的每一帧都要做一次全尺寸JPEG编码(硬件编码，但耗电、发热、占用内存带宽)，只在需要抓拍时开启
+        private boolean isZslEnabled = false;
+        //ZSL缓存的帧数
+        private int zslDepth = 3;
+        //ZSL缓存占用的内存上限(字节)，帧数会按图片尺寸估算后再收紧
+        private long zslMaxMemory = 48 * 1024 * 1024;
+
+        //拍照各阶段耗时的监听，为null时不记录
+        private CaptureTimelineListener mCaptureTimelineListener;
+
+        //每次拍照额外输出的尺寸，只解码一次，逐级减半后并行编码
+        private List<RenditionSpec> mRenditions = new ArrayList<>();
+        private RenditionListener mRenditionListener;
 
 
         public Builder(Context mContext) {
@@ -117,16 +291,83 @@ public class CameraViewOptions {
             return this;
         }
 
+        public Builder setCompressScheduler(CompressScheduler mCompressScheduler) {
+            this.mCompressScheduler = mCompressScheduler;
+            return this;
+        }
+
+        public Builder setCompressCacheSize(long compressCacheSize) {
+            this.compressCacheSize = compressCacheSize;
+            return this;
+        }
+
+        public Builder setPictureCacheSize(long pictureCacheSize) {
+            this.pictureCacheSize = pictureCacheSize;
+            return this;
+        }
+
+        public Builder setVideoCacheSize(long videoCacheSize) {
+            this.videoCacheSize = videoCacheSize;
+            return this;
+        }
+
+        public Builder setMemoryAdaptive(boolean memoryAdaptive) {
+            isMemoryAdaptive = memoryAdaptive;
+            return this;
+        }
+
+        public Builder setCaptureJournal(boolean captureJournal) {
+            isCaptureJournal = captureJournal;
+            return this;
+        }
+
+        public Builder setMemoryDecisionListener(MemoryDecisionListener mMemoryDecisionListener) {
+            this.mMemoryDecisionListener = mMemoryDecisionListener;
+            return this;
+        }
+
+        public Builder setGalleryScanListener(GalleryScanListener mGalleryScanListener) {
+            this.mGalleryScanListener = mGalleryScanListener;
+            return this;
+        }
+
         public Builder setCompress(boolean compress) {
             isCompress = compress;
             return this;
         }
 
+        public Builder setSaveOriginalJpeg(boolean saveOriginalJpeg) {
+            isSaveOriginalJpeg = saveOriginalJpeg;
+            return this;
+        }
+
+        public Builder setLosslessRotate(boolean losslessRotate) {
+            isLosslessRotate = losslessRotate;
+            return this;
+        }
+
         public Builder setQuality(@CameraConfig.MediaQuality int quality) {
             this.quality = quality;
             return this;
         }
 
+        /**
+         * @throws IllegalArgumentException API 29之前设置{@link CameraConfig#PICTURE_FORMAT_WEBP_LOSSLESS}，
+         *                                  这些系统不能无损编码，先用{@link CompressUtils#isWebpLosslessSupported()}判断
+         */
+        public Builder setPictureFormat(@CameraConfig.PictureFormat int pictureFormat) {
+            if (pictureFormat == CameraConfig.PICTURE_FORMAT_WEBP_LOSSLESS && !CompressUtils.isWebpLosslessSupported()) {
+                throw new IllegalArgumentException("Lossless WebP requires API 29");
+            }
+            this.pictureFormat = pictureFormat;
+            return this;
+        }
+
+        public Builder setSyncPolicy(@CameraConfig.SyncPolicy int syncPolicy) {
+            this.syncPolicy = syncPolicy;
+            return this;
+        }
+
 
         public Builder setCompressListener(CompressListener mCompressListener) {
             this.mCompressListener = mCompressListener;
@@ -153,6 +394,70 @@ public class CameraViewOptions {
             return this;
         }
 
+        /**
+         * 压缩输出的视频改成moov在前，录制的原视频和压缩器直接返回的原视频不改写
+         */
+        public Builder setVideoFastStart(boolean videoFastStart) {
+            isVideoFastStart = videoFastStart;
+            return this;
+        }
+
+
+        public Builder setZslEnabled(boolean zslEnabled) {
+            isZslEnabled = zslEnabled;
+            return this;
+        }
+
+        public Builder setZslDepth(int zslDepth) {
+            this.zslDepth = zslDepth;
+            return this;
+        }
+
+        public Builder setZslMaxMemory(long zslMaxMemory) {
+            this.zslMaxMemory = zslMaxMemory;
+            return this;
+        }
+
+        public Builder setCaptureTimelineListener(CaptureTimelineListener mCaptureTimelineListener) {
+            this.mCaptureTimelineListener = mCaptureTimelineListener;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException 名称和已经添加的重复，各尺寸的输出按名称区分
+         */
+        public Builder addRendition(RenditionSpec rendition) {
+            checkRenditionName(this.mRenditions, rendition);
+            this.mRenditions.add(rendition);
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException 存在重复的名称，各尺寸的输出按名称区分
+         */
+        public Builder setRenditions(List<RenditionSpec> renditions) {
+            List<RenditionSpec> checked = new ArrayList<>(renditions.size());
+            for (RenditionSpec rendition : renditions) {
+                checkRenditionName(checked, rendition);
+                checked.add(rendition);
+            }
+            this.mRenditions = checked;
+            return this;
+        }
+
+        public Builder setRenditionListener(RenditionListener mRenditionListener) {
+            this.mRenditionListener = mRenditionListener;
+            return this;
+        }
+
+        private static void checkRenditionName(List<RenditionSpec> renditions, RenditionSpec rendition) {
+            for (RenditionSpec item : renditions) {
+                if (item.getName().equals(rendition.getName())) {
+                    throw new IllegalArgumentException("Duplicate rendition name: " + rendition.getName());
+                }
+            }
+        }
+
 
         public CameraViewOptions create() {
             return new CameraViewOptions(this);
@@ -0,0 +1,39 @@
+package com.google.android.cameraview.configs;
+
+/**
+ * @fileName RenditionSpec
+ * @describe 每次拍照额外输出的一种尺寸(例如展示图、缩略图)，长边不超过maxSize，按quality编码为JPEG
+ */
+public class RenditionSpec {
+    private final String name;
+    private final int maxSize;
+    private final int quality;
+
+    /**
+     * @param name    名称，用于区分输出路径，同一组规格中不能重复
+     * @param maxSize 长边的最大像素数，原图更小时不放大
+     * @param quality JPEG质量(1~100)
+     */
+    public RenditionSpec(String name, int maxSize, int quality) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.quality = quality;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + maxSize + ", q" + quality + ")";
+    }
+}
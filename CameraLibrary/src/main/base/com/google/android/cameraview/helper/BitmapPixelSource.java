@@ -0,0 +1,35 @@
+package com.google.android.cameraview.helper;
+
+import android.graphics.Bitmap;
+
+import com.google.android.cameraview.compress.core.PixelSource;
+
+/**
+ * @fileName BitmapPixelSource
+ * @describe 把Bitmap适配成压缩核心的{@link PixelSource}，按行条读取像素，不复制整张图片
+ */
+
+
+public class BitmapPixelSource implements PixelSource {
+    private final Bitmap mBitmap;
+
+    public BitmapPixelSource(Bitmap bitmap) {
+        mBitmap = bitmap;
+    }
+
+    @Override
+    public int getWidth() {
+        return mBitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mBitmap.getHeight();
+    }
+
+    @Override
+    public void readRows(int y, int rows, int[] out) {
+        int width = mBitmap.getWidth();
+        mBitmap.getPixels(out, 0, width, 0, y, width, rows);
+    }
+}
@@ -0,0 +1,97 @@
+package com.google.android.cameraview.helper;
+
+import android.graphics.Bitmap;
+
+import com.google.android.cameraview.logs.CameraLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @fileName BitmapPool
+ * @describe 拍照解码/旋转用的Bitmap复用池，按当前拍照尺寸(及其宽高互换)保存可变的ARGB_8888 Bitmap
+ * <p>
+ * 每张照片解码一张、旋转再生成一张全尺寸Bitmap，连续拍照时会不停地在大对象堆上分配和回收。
+ * 相机选好拍照尺寸后调用{@link #setPictureSize(int, int)}，解码时通过inBitmap复用，旋转时画到复用的目标上，
+ * 压缩流程结束后{@link #release(Bitmap)}放回。尺寸不一致的Bitmap不入池，直接交给GC
+ */
+public class BitmapPool {
+    private static final String TAG = "BitmapPool";
+    //一张解码目标加一张旋转目标
+    private static final int MAX_POOL_SIZE = 2;
+
+    private static final BitmapPool sInstance = new BitmapPool();
+
+    private final List<Bitmap> mPool = new ArrayList<>(MAX_POOL_SIZE);
+    private int mWidth;
+    private int mHeight;
+
+    public static BitmapPool getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 设置拍照尺寸，尺寸变化时清空不再匹配的Bitmap
+     */
+    public synchronized void setPictureSize(int width, int height) {
+        if (width == mWidth && height == mHeight) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        for (int i = mPool.size() - 1; i >= 0; i--) {
+            if (!matches(mPool.get(i).getWidth(), mPool.get(i).getHeight())) {
+                mPool.remove(i);
+            }
+        }
+        CameraLog.i(TAG, "setPictureSize, %d x %d", width, height);
+    }
+
+    /**
+     * 取出一张指定尺寸的Bitmap，没有时返回null
+     */
+    public synchronized Bitmap acquire(int width, int height) {
+        for (int i = mPool.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = mPool.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                mPool.remove(i);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 取出一张指定尺寸的Bitmap，没有时新建一张可变的ARGB_8888
+     */
+    public Bitmap acquireOrCreate(int width, int height) {
+        Bitmap bitmap = acquire(width, height);
+        return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 放回一张不再使用的Bitmap，放回之后调用方不能再访问它
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        if (mPool.size() >= MAX_POOL_SIZE || !matches(bitmap.getWidth(), bitmap.getHeight()) || mPool.contains(bitmap)) {
+            return;
+        }
+        mPool.add(bitmap);
+    }
+
+    /**
+     * 相机关闭或者内存紧张时释放所有Bitmap，之后放回的Bitmap也不再入池，直到重新设置拍照尺寸
+     */
+    public synchronized void clear() {
+        mPool.clear();
+        mWidth = 0;
+        mHeight = 0;
+    }
+
+    private boolean matches(int width, int height) {
+        return (width == mWidth && height == mHeight) || (width == mHeight && height == mWidth);
+    }
+}
@@ -4,21 +4,22 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.hardware.Camera;
+import android.media.ExifInterface;
 import android.media.CamcorderProfile;
 import android.os.Build;
-import android.os.Environment;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
-import android.util.Log;
 
 import com.google.android.cameraview.configs.CameraConfig;
 import com.google.android.cameraview.logs.CameraLog;
+import com.google.android.cameraview.model.CaptureTimeline;
 
 import java.io.File;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.IOException;
 
 /**
  * @fileName CameraUtils
@@ -29,7 +30,6 @@ import java.util.Date;
 
 public class CameraUtils {
     private final static String TAG = "CameraUtils";
-    private static final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss");
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public static CamcorderProfile getCamcorderProfile(@CameraConfig.MediaQuality int mediaQuality, String cameraId) {
@@ -91,47 +91,11 @@ public class CameraUtils {
 
 
     public static File getOutputMediaFile(Context context, @CameraConfig.MediaAction int mediaAction, @Nullable String pathToDirectory, @Nullable String fileName) {
-        final File mediaStorageDir = generateStorageDir(context, pathToDirectory);
-        File mediaFile = null;
-
-        if (mediaStorageDir != null) {
-            if (fileName == null) {
-                final String timeStamp = simpleDateFormat.format(new Date());
-                if (mediaAction == CameraConfig.MEDIA_ACTION_PHOTO) {
-                    fileName = "IMG_" + timeStamp;
-                } else if (mediaAction == CameraConfig.MEDIA_ACTION_VIDEO) {
-                    fileName = "VID_" + timeStamp;
-                }
-
-            }
-            final String mediaStorageDirPath = mediaStorageDir.getPath();
-            if (mediaAction == CameraConfig.MEDIA_ACTION_PHOTO) {
-                mediaFile = new File(mediaStorageDirPath + File.separator + fileName + ".jpg");
-            } else if (mediaAction == CameraConfig.MEDIA_ACTION_VIDEO) {
-                mediaFile = new File(mediaStorageDirPath + File.separator + fileName + ".mp4");
-            }
-        }
-
-        return mediaFile;
+        return FileUtils.getOutputMediaFile(context, mediaAction, pathToDirectory, fileName);
     }
 
     public static File generateStorageDir(Context context, @Nullable String pathToDirectory) {
-        File mediaStorageDir = null;
-        if (pathToDirectory != null) {
-            mediaStorageDir = new File(pathToDirectory);
-        } else {
-            mediaStorageDir = new File(Environment.getExternalStoragePublicDirectory(
-                    Environment.DIRECTORY_PICTURES), context.getPackageName());
-        }
-
-        if (!mediaStorageDir.exists()) {
-            if (!mediaStorageDir.mkdirs()) {
-                Log.d(TAG, "Failed to create directory.");
-                return null;
-            }
-        }
-
-        return mediaStorageDir;
+        return FileUtils.generateStoragePicDir(context, pathToDirectory);
     }
 
 
@@ -184,21 +148,33 @@ public class CameraUtils {
 
 
     public static Bitmap rotationBitmap(byte[] data) {
+        return rotationBitmap(data, null);
+    }
+
+    /**
+     * 同{@link #rotationBitmap(byte[])}，并在timeline上记录读Exif、解码、旋转三个阶段
+     */
+    public static Bitmap rotationBitmap(byte[] data, CaptureTimeline timeline) {
         Bitmap bitmapPicture;
         int orientation = Exif.getOrientation(data);
+        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_EXIF);
         CameraLog.i(TAG, "takePictureInternal, orientation::::::"+orientation);
-        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+        Bitmap bitmap = decodeReusable(data);
+        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_DECODE);
+        if (bitmap == null) {
+            return null;
+        }
         switch (orientation) {
             case 90:
-                bitmapPicture = rotateImage(bitmap, 90);
+                bitmapPicture = rotateReusable(bitmap, 90);
 
                 break;
             case 180:
-                bitmapPicture = rotateImage(bitmap, 180);
+                bitmapPicture = rotateReusable(bitmap, 180);
 
                 break;
             case 270:
-                bitmapPicture = rotateImage(bitmap, 270);
+                bitmapPicture = rotateReusable(bitmap, 270);
 
                 break;
 
@@ -206,10 +182,131 @@ public class CameraUtils {
                 bitmapPicture = bitmap;
                 break;
         }
+        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_ROTATE);
         return bitmapPicture;
     }
 
 
+    /**
+     * 从文件解码并按Exif方向摆正
+     */
+    public static Bitmap rotationBitmap(String path) {
+        return rotationBitmap(path, null);
+    }
+
+    public static Bitmap rotationBitmap(String path, CaptureTimeline timeline) {
+        int orientation = Exif.ORIENTATION_NORMAL;
+        try {
+            orientation = new ExifInterface(path).getAttributeInt(ExifInterface.TAG_ORIENTATION, Exif.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            CameraLog.e(TAG, "rotationBitmap, read exif fail: %s", e.getMessage());
+        }
+        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_EXIF);
+        Bitmap bitmap = decodeReusable(path);
+        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_DECODE);
+        if (bitmap == null) {
+            return null;
+        }
+        switch (orientation) {
+            case Exif.ORIENTATION_ROTATE_90:
+                bitmap = rotateReusable(bitmap, 90);
+                break;
+            case Exif.ORIENTATION_ROTATE_180:
+                bitmap = rotateReusable(bitmap, 180);
+                break;
+            case Exif.ORIENTATION_ROTATE_270:
+                bitmap = rotateReusable(bitmap, 270);
+                break;
+        }
+        CaptureTimeline.mark(timeline, CaptureTimeline.STAGE_ROTATE);
+        return bitmap;
+    }
+
+    /**
+     * 从Exif中嵌入的缩略图得到摆正的预览图，不解码整张图片
+     *
+     * @return 没有缩略图时返回null，需要时再用{@link #rotationBitmap(byte[])}
+     */
+    public static Bitmap thumbnailBitmap(byte[] data) {
+        ExifIndex index = ExifIndex.parse(data);
+        if (index == null) {
+            return null;
+        }
+        Bitmap thumbnail = index.decodeThumbnail();
+        int degrees = index.getRotationDegrees();
+        if (thumbnail == null || degrees == 0) {
+            return thumbnail;
+        }
+        return rotateImage(thumbnail, degrees);
+    }
+
+
+    /**
+     * 解码JPEG，尺寸与BitmapPool中的Bitmap一致时通过inBitmap复用
+     */
+    private static Bitmap decodeReusable(byte[] data) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        prepareReuse(options);
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            //inBitmap不能复用时放弃复用重新解码
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    private static Bitmap decodeReusable(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        prepareReuse(options);
+        try {
+            return BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(path, options);
+        }
+    }
+
+    private static void prepareReuse(BitmapFactory.Options options) {
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            options.inBitmap = BitmapPool.getInstance().acquire(options.outWidth, options.outHeight);
+        }
+    }
+
+    /**
+     * 旋转到BitmapPool中复用的目标上，source放回BitmapPool，只支持90的整数倍
+     */
+    private static Bitmap rotateReusable(Bitmap source, int degrees) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        boolean swap = degrees == 90 || degrees == 270;
+        Bitmap target = BitmapPool.getInstance().acquireOrCreate(swap ? height : width, swap ? width : height);
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        switch (degrees) {
+            case 90:
+                matrix.postTranslate(height, 0);
+                break;
+            case 180:
+                matrix.postTranslate(width, height);
+                break;
+            case 270:
+                matrix.postTranslate(0, width);
+                break;
+        }
+        //旋转90的整数倍没有插值，不需要FILTER_BITMAP_FLAG
+        new Canvas(target).drawBitmap(source, matrix, new Paint());
+        BitmapPool.getInstance().release(source);
+        return target;
+    }
+
     public static Bitmap rotateImage(Bitmap source, float angle) {
         Matrix matrix = new Matrix();
         matrix.postRotate(angle);
@@ -2,6 +2,12 @@ package com.google.android.cameraview.helper;
 
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
 /**
  * @fileName Exif
  * Created by YiangJone on 2018/7/4.
@@ -12,6 +18,21 @@ import android.util.Log;
 public class Exif {
     private static final String TAG = "CameraExif";
 
+    // Exif orientation values (TIFF tag 0x0112).
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_FLIP_VERTICAL = 4;
+    public static final int ORIENTATION_TRANSPOSE = 5;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_TRANSVERSE = 7;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+    // SOI plus a JFIF APP0 and the Exif APP1 of the maximum segment length each, enough to patch a file.
+    private static final int MAX_HEADER_SIZE = 2 + 2 * (0xFFFF + 2);
+
     // Returns the degrees in clockwise. Values are 0, 90, 180, or 270.
     public static int getOrientation(byte[] jpeg) {
         if (jpeg == null) {
@@ -110,6 +131,335 @@ public class Exif {
         return 0;
     }
 
+    // Returns the raw orientation value (1 to 8), or 0 if the jpeg has no orientation entry.
+    public static int getOrientationTag(byte[] jpeg) {
+        ExifSegment segment = ExifSegment.find(jpeg, jpeg == null ? 0 : jpeg.length);
+        if (segment == null || segment.orientationOffset < 0) {
+            return 0;
+        }
+        return pack(jpeg, segment.orientationOffset, 2, segment.littleEndian);
+    }
+
+    // Returns the clockwise rotation in degrees of an Exif orientation value, mirroring is ignored.
+    public static int toDegrees(int orientation) {
+        switch (orientation) {
+            case ORIENTATION_ROTATE_90:
+            case ORIENTATION_TRANSVERSE:
+                return 90;
+            case ORIENTATION_ROTATE_180:
+            case ORIENTATION_FLIP_VERTICAL:
+                return 180;
+            case ORIENTATION_ROTATE_270:
+            case ORIENTATION_TRANSPOSE:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Rewrites the orientation entry of IFD0 in place. Only the two bytes of the tag value are
+     * touched, the compressed image data is never read.
+     *
+     * @return false if the jpeg has no orientation entry, use {@link #setOrientation(byte[], int)} then.
+     */
+    public static boolean patchOrientation(byte[] jpeg, int orientation) {
+        ExifSegment segment = ExifSegment.find(jpeg, jpeg == null ? 0 : jpeg.length);
+        if (segment == null || segment.orientationOffset < 0) {
+            return false;
+        }
+        put(jpeg, segment.orientationOffset, 2, orientation, segment.littleEndian);
+        return true;
+    }
+
+    /**
+     * Sets the orientation value, patching it in place when the entry exists. Otherwise the entry is
+     * added to IFD0, or a minimal APP1 segment is inserted when the jpeg carries no Exif at all.
+     *
+     * @return the jpeg with the new orientation, which is {@code jpeg} itself if it could be patched
+     * in place, or null if the jpeg is malformed.
+     */
+    public static byte[] setOrientation(byte[] jpeg, int orientation) {
+        if (jpeg == null || jpeg.length < 4) {
+            return null;
+        }
+        if (patchOrientation(jpeg, orientation)) {
+            return jpeg;
+        }
+        byte[] header = rewriteHeader(jpeg, jpeg.length, orientation);
+        if (header == null) {
+            return null;
+        }
+        int consumed = headerLength(jpeg, jpeg.length);
+        byte[] result = new byte[header.length + jpeg.length - consumed];
+        System.arraycopy(header, 0, result, 0, header.length);
+        System.arraycopy(jpeg, consumed, result, header.length, jpeg.length - consumed);
+        return result;
+    }
+
+    /**
+     * Same as {@link #setOrientation(byte[], int)} for a jpeg file. Only the header is read; when the
+     * entry exists two bytes are written, otherwise the file is rewritten by channel transfer.
+     */
+    public static boolean setOrientation(File file, int orientation) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            byte[] head = new byte[(int) Math.min(raf.length(), MAX_HEADER_SIZE)];
+            raf.readFully(head);
+
+            ExifSegment segment = ExifSegment.find(head, head.length);
+            if (segment != null && segment.orientationOffset >= 0) {
+                put(head, segment.orientationOffset, 2, orientation, segment.littleEndian);
+                raf.seek(segment.orientationOffset);
+                raf.write(head, segment.orientationOffset, 2);
+                return true;
+            }
+
+            byte[] header = rewriteHeader(head, head.length, orientation);
+            if (header == null) {
+                return false;
+            }
+            int consumed = headerLength(head, head.length);
+            File temp = new File(file.getPath() + ".exif");
+            FileOutputStream fos = new FileOutputStream(temp);
+            try {
+                fos.write(header);
+                FileChannel in = raf.getChannel();
+                FileChannel out = fos.getChannel();
+                long position = consumed;
+                long size = in.size();
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            } finally {
+                fos.close();
+            }
+            raf.close();
+            raf = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "setOrientation fail: " + e.getMessage());
+            return false;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    public static boolean setOrientation(String path, int orientation) {
+        return setOrientation(new File(path), orientation);
+    }
+
+    // Length of SOI plus the APP0/APP1 segments that rewriteHeader replaces.
+    private static int headerLength(byte[] jpeg, int limit) {
+        ExifSegment segment = ExifSegment.find(jpeg, limit);
+        if (segment != null) {
+            return segment.segmentOffset + segment.segmentLength;
+        }
+        return insertOffset(jpeg, limit);
+    }
+
+    // Exif should directly follow SOI, but a JFIF APP0 has to stay in front of it.
+    private static int insertOffset(byte[] jpeg, int limit) {
+        int offset = 2;
+        if (offset + 4 <= limit && (jpeg[offset] & 0xFF) == 0xFF && (jpeg[offset + 1] & 0xFF) == 0xE0) {
+            offset += 2 + pack(jpeg, offset + 2, 2, false);
+        }
+        return Math.min(offset, limit);
+    }
+
+    // Builds the new leading part of the file (up to headerLength) with an orientation entry.
+    private static byte[] rewriteHeader(byte[] jpeg, int limit, int orientation) {
+        if ((jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) {
+            Log.e(TAG, "Invalid jpeg");
+            return null;
+        }
+        ExifSegment segment = ExifSegment.find(jpeg, limit);
+        if (segment == null) {
+            // Only insert when the header was scanned up to the image data without meeting an Exif
+            // APP1. A malformed or truncated one would otherwise end up next to the new segment.
+            if (ExifSegment.scan(jpeg, limit) != ExifSegment.NOT_FOUND) {
+                Log.e(TAG, "Exif segment unreadable, orientation not written");
+                return null;
+            }
+            // No Exif at all: insert APP1 with a big endian TIFF holding a single IFD0 entry.
+            int offset = insertOffset(jpeg, limit);
+            byte[] app1 = new byte[36];
+            put(app1, 0, 2, 0xFFE1, false);
+            put(app1, 2, 2, app1.length - 2, false);
+            put(app1, 4, 4, 0x45786966, false);
+            put(app1, 10, 4, 0x4D4D002A, false);
+            put(app1, 14, 4, 8, false);
+            put(app1, 18, 2, 1, false);
+            put(app1, 20, 2, TAG_ORIENTATION, false);
+            put(app1, 22, 2, TYPE_SHORT, false);
+            put(app1, 24, 4, 1, false);
+            put(app1, 28, 2, orientation, false);
+            byte[] header = new byte[offset + app1.length];
+            System.arraycopy(jpeg, 0, header, 0, offset);
+            System.arraycopy(app1, 0, header, offset, app1.length);
+            return header;
+        }
+
+        // Exif without orientation: IFD0 grows by one entry, so it is moved to the end of the
+        // TIFF block. Everything else keeps its offset.
+        boolean littleEndian = segment.littleEndian;
+        int tiff = segment.tiffOffset;
+        int ifd0 = segment.ifd0Offset;
+        int count = pack(jpeg, ifd0, 2, littleEndian);
+        int tiffLength = segment.segmentOffset + segment.segmentLength - tiff;
+        int newIfdLength = 2 + (count + 1) * 12 + 4;
+        int segmentLength = segment.segmentLength + newIfdLength;
+        if (segmentLength - 2 > 0xFFFF) {
+            Log.e(TAG, "Exif segment too large");
+            return null;
+        }
+
+        int end = segment.segmentOffset + segment.segmentLength;
+        byte[] header = new byte[end + newIfdLength];
+        System.arraycopy(jpeg, 0, header, 0, end);
+        put(header, segment.segmentOffset + 2, 2, segmentLength - 2, false);
+        put(header, tiff + 4, 4, tiffLength, littleEndian);
+
+        int out = end;
+        put(header, out, 2, count + 1, littleEndian);
+        out += 2;
+        boolean inserted = false;
+        for (int i = 0; i < count; i++) {
+            int entry = ifd0 + 2 + i * 12;
+            if (!inserted && pack(jpeg, entry, 2, littleEndian) > TAG_ORIENTATION) {
+                out = putOrientationEntry(header, out, orientation, littleEndian);
+                inserted = true;
+            }
+            System.arraycopy(jpeg, entry, header, out, 12);
+            out += 12;
+        }
+        if (!inserted) {
+            out = putOrientationEntry(header, out, orientation, littleEndian);
+        }
+        System.arraycopy(jpeg, ifd0 + 2 + count * 12, header, out, 4);
+        return header;
+    }
+
+    private static int putOrientationEntry(byte[] bytes, int offset, int orientation, boolean littleEndian) {
+        put(bytes, offset, 2, TAG_ORIENTATION, littleEndian);
+        put(bytes, offset + 2, 2, TYPE_SHORT, littleEndian);
+        put(bytes, offset + 4, 4, 1, littleEndian);
+        put(bytes, offset + 8, 4, 0, littleEndian);
+        put(bytes, offset + 8, 2, orientation, littleEndian);
+        return offset + 12;
+    }
+
+    private static void put(byte[] bytes, int offset, int length, int value,
+                            boolean littleEndian) {
+        for (int i = 0; i < length; i++) {
+            int shift = littleEndian ? i * 8 : (length - 1 - i) * 8;
+            bytes[offset + i] = (byte) (value >>> shift);
+        }
+    }
+
+    /**
+     * Location of the Exif APP1 segment and its IFD0 inside a jpeg header.
+     */
+    private static final class ExifSegment {
+        int segmentOffset;
+        int segmentLength;
+        int tiffOffset;
+        int ifd0Offset;
+        int orientationOffset = -1;
+        boolean littleEndian;
+
+        // Results of scan besides the offset of the Exif APP1 marker.
+        static final int NOT_FOUND = -1;
+        static final int UNKNOWN = -2;
+
+        static ExifSegment find(byte[] jpeg, int limit) {
+            int offset = scan(jpeg, limit);
+            if (offset < 0) {
+                return null;
+            }
+            return parse(jpeg, offset, pack(jpeg, offset + 2, 2, false) + 2);
+        }
+
+        /**
+         * @return the offset of the Exif APP1 marker, {@link #NOT_FOUND} if the scan reached the
+         * image data without one, or {@link #UNKNOWN} if the header is malformed or cut off at limit.
+         */
+        static int scan(byte[] jpeg, int limit) {
+            if (jpeg == null) {
+                return UNKNOWN;
+            }
+            int offset = 0;
+            while (offset + 3 < limit && (jpeg[offset++] & 0xFF) == 0xFF) {
+                int marker = jpeg[offset] & 0xFF;
+                if (marker == 0xFF) {
+                    continue;
+                }
+                offset++;
+                if (marker == 0xD8 || marker == 0x01) {
+                    continue;
+                }
+                if (marker == 0xD9 || marker == 0xDA) {
+                    return NOT_FOUND;
+                }
+                int length = pack(jpeg, offset, 2, false);
+                if (length < 2 || offset + length > limit) {
+                    Log.e(TAG, "Invalid length");
+                    return UNKNOWN;
+                }
+                if (marker == 0xE1 && length >= 8 &&
+                        pack(jpeg, offset + 2, 4, false) == 0x45786966 &&
+                        pack(jpeg, offset + 6, 2, false) == 0) {
+                    return length >= 16 ? offset - 2 : UNKNOWN;
+                }
+                offset += length;
+            }
+            return UNKNOWN;
+        }
+
+        private static ExifSegment parse(byte[] jpeg, int segmentOffset, int segmentLength) {
+            ExifSegment segment = new ExifSegment();
+            segment.segmentOffset = segmentOffset;
+            segment.segmentLength = segmentLength;
+            segment.tiffOffset = segmentOffset + 10;
+            int end = segmentOffset + segmentLength;
+
+            int tag = pack(jpeg, segment.tiffOffset, 4, false);
+            if (tag != 0x49492A00 && tag != 0x4D4D002A) {
+                Log.e(TAG, "Invalid byte order");
+                return null;
+            }
+            segment.littleEndian = (tag == 0x49492A00);
+            segment.ifd0Offset = segment.tiffOffset + pack(jpeg, segment.tiffOffset + 4, 4, segment.littleEndian);
+            if (segment.ifd0Offset < segment.tiffOffset + 8 || segment.ifd0Offset + 2 > end) {
+                Log.e(TAG, "Invalid offset");
+                return null;
+            }
+            int count = pack(jpeg, segment.ifd0Offset, 2, segment.littleEndian);
+            if (segment.ifd0Offset + 2 + count * 12 + 4 > end) {
+                Log.e(TAG, "Invalid IFD0");
+                return null;
+            }
+            for (int i = 0; i < count; i++) {
+                int entry = segment.ifd0Offset + 2 + i * 12;
+                if (pack(jpeg, entry, 2, segment.littleEndian) == TAG_ORIENTATION) {
+                    segment.orientationOffset = entry + 8;
+                    break;
+                }
+            }
+            return segment;
+        }
+    }
+
     private static int pack(byte[] bytes, int offset, int length,
                             boolean littleEndian) {
         int step = 1;
@@ -0,0 +1,371 @@
+package com.google.android.cameraview.helper;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * @fileName ExifIndex
+ * @describe 一次遍历建立IFD0/ExifIFD/IFD1所有条目的索引，之后的查询不再重复解析；
+ * IFD1中的缩略图以零拷贝的ByteBuffer切片返回，可以先用它显示拍摄结果
+ */
+public class ExifIndex {
+    private static final String TAG = "ExifIndex";
+
+    public static final int IFD_0 = 0;
+    public static final int IFD_EXIF = 1;
+    public static final int IFD_1 = 2;
+
+    public static final int TYPE_BYTE = 1;
+    public static final int TYPE_ASCII = 2;
+    public static final int TYPE_SHORT = 3;
+    public static final int TYPE_LONG = 4;
+    public static final int TYPE_RATIONAL = 5;
+    public static final int TYPE_UNDEFINED = 7;
+    public static final int TYPE_SLONG = 9;
+    public static final int TYPE_SRATIONAL = 10;
+
+    public static final int TAG_IMAGE_WIDTH = 0x0100;
+    public static final int TAG_IMAGE_LENGTH = 0x0101;
+    public static final int TAG_MAKE = 0x010F;
+    public static final int TAG_MODEL = 0x0110;
+    public static final int TAG_ORIENTATION = 0x0112;
+    public static final int TAG_DATETIME = 0x0132;
+    public static final int TAG_EXIF_IFD_POINTER = 0x8769;
+    public static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    public static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+    public static final int TAG_EXPOSURE_TIME = 0x829A;
+    public static final int TAG_F_NUMBER = 0x829D;
+    public static final int TAG_ISO_SPEED = 0x8827;
+    public static final int TAG_DATETIME_ORIGINAL = 0x9003;
+    public static final int TAG_FOCAL_LENGTH = 0x920A;
+    public static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+    public static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+
+    private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+    private static final int MAX_ENTRIES = 1024;
+
+    private final ByteBuffer buffer;
+    private final int tiffOffset;
+    private final int tiffEnd;
+
+    // 每个条目: ifd、tag、type、count、值的绝对位置
+    private int size;
+    private int[] ifds = new int[32];
+    private int[] tags = new int[32];
+    private int[] types = new int[32];
+    private int[] counts = new int[32];
+    private int[] valueOffsets = new int[32];
+
+    private ExifIndex(ByteBuffer buffer, int tiffOffset, int tiffEnd) {
+        this.buffer = buffer;
+        this.tiffOffset = tiffOffset;
+        this.tiffEnd = tiffEnd;
+    }
+
+    public static ExifIndex parse(byte[] jpeg) {
+        return jpeg == null ? null : parse(ByteBuffer.wrap(jpeg));
+    }
+
+    /**
+     * 从buffer的position开始解析JPEG，不修改buffer的position和limit
+     *
+     * @return 没有Exif或Exif格式错误时返回null
+     */
+    public static ExifIndex parse(ByteBuffer jpeg) {
+        if (jpeg == null) {
+            return null;
+        }
+        ByteBuffer buffer = jpeg.duplicate();
+        int offset = buffer.position();
+        int limit = buffer.limit();
+        if (limit - offset < 4 || u8(buffer, offset) != 0xFF || u8(buffer, offset + 1) != 0xD8) {
+            return null;
+        }
+        offset += 2;
+        while (offset + 4 <= limit) {
+            if (u8(buffer, offset) != 0xFF) {
+                return null;
+            }
+            int marker = u8(buffer, offset + 1);
+            if (marker == 0xFF) {
+                offset++;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                return null;
+            }
+            int length = ((u8(buffer, offset + 2) << 8) | u8(buffer, offset + 3));
+            int end = offset + 2 + length;
+            if (length < 2 || end > limit) {
+                Log.e(TAG, "Invalid length");
+                return null;
+            }
+            if (marker == 0xE1 && length >= 16
+                    && u8(buffer, offset + 4) == 'E' && u8(buffer, offset + 5) == 'x'
+                    && u8(buffer, offset + 6) == 'i' && u8(buffer, offset + 7) == 'f'
+                    && u8(buffer, offset + 8) == 0 && u8(buffer, offset + 9) == 0) {
+                ExifIndex index = new ExifIndex(buffer, offset + 10, end);
+                return index.parseTiff() ? index : null;
+            }
+            offset = end;
+        }
+        return null;
+    }
+
+    private boolean parseTiff() {
+        int order = (u8(buffer, tiffOffset) << 8) | u8(buffer, tiffOffset + 1);
+        if (order == 0x4949) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (order == 0x4D4D) {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            Log.e(TAG, "Invalid byte order");
+            return false;
+        }
+        if ((buffer.getShort(tiffOffset + 2) & 0xFFFF) != 0x2A) {
+            Log.e(TAG, "Invalid tiff header");
+            return false;
+        }
+        int ifd0 = buffer.getInt(tiffOffset + 4);
+        int ifd1 = readIfd(IFD_0, ifd0);
+        if (ifd1 < 0) {
+            return false;
+        }
+        int exifIfd = getInt(IFD_0, TAG_EXIF_IFD_POINTER, 0);
+        if (exifIfd > 0 && exifIfd != ifd0) {
+            readIfd(IFD_EXIF, exifIfd);
+        }
+        if (ifd1 > 0 && ifd1 != ifd0 && ifd1 != exifIfd) {
+            readIfd(IFD_1, ifd1);
+        }
+        return true;
+    }
+
+    /**
+     * @return 下一个IFD的偏移，格式错误时返回-1
+     */
+    private int readIfd(int ifd, int relativeOffset) {
+        int offset = tiffOffset + relativeOffset;
+        if (relativeOffset < 8 || offset + 2 > tiffEnd) {
+            Log.e(TAG, "Invalid IFD offset");
+            return -1;
+        }
+        int count = buffer.getShort(offset) & 0xFFFF;
+        if (count > MAX_ENTRIES || offset + 2 + count * 12 > tiffEnd) {
+            Log.e(TAG, "Invalid IFD");
+            return -1;
+        }
+        for (int i = 0; i < count; i++) {
+            int entry = offset + 2 + i * 12;
+            int type = buffer.getShort(entry + 2) & 0xFFFF;
+            int components = buffer.getInt(entry + 4);
+            if (type <= 0 || type >= TYPE_SIZES.length || components < 0) {
+                continue;
+            }
+            long byteCount = (long) components * TYPE_SIZES[type];
+            int valueOffset = byteCount <= 4 ? entry + 8 : tiffOffset + buffer.getInt(entry + 8);
+            if (valueOffset < tiffOffset || valueOffset + byteCount > tiffEnd) {
+                continue;
+            }
+            add(ifd, buffer.getShort(entry) & 0xFFFF, type, components, valueOffset);
+        }
+        int next = offset + 2 + count * 12;
+        return next + 4 <= tiffEnd ? buffer.getInt(next) : 0;
+    }
+
+    private void add(int ifd, int tag, int type, int count, int valueOffset) {
+        if (size == tags.length) {
+            int capacity = size * 2;
+            ifds = grow(ifds, capacity);
+            tags = grow(tags, capacity);
+            types = grow(types, capacity);
+            counts = grow(counts, capacity);
+            valueOffsets = grow(valueOffsets, capacity);
+        }
+        ifds[size] = ifd;
+        tags[size] = tag;
+        types[size] = type;
+        counts[size] = count;
+        valueOffsets[size] = valueOffset;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getIfd(int index) {
+        return ifds[index];
+    }
+
+    public int getTag(int index) {
+        return tags[index];
+    }
+
+    public int getType(int index) {
+        return types[index];
+    }
+
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @return 条目在索引中的位置，没有时返回-1
+     */
+    public int indexOf(int ifd, int tag) {
+        for (int i = 0; i < size; i++) {
+            if (tags[i] == tag && ifds[i] == ifd) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(int ifd, int tag) {
+        return indexOf(ifd, tag) >= 0;
+    }
+
+    /**
+     * BYTE/SHORT/LONG/SLONG类型的第一个值
+     */
+    public int getInt(int ifd, int tag, int defaultValue) {
+        int i = indexOf(ifd, tag);
+        if (i < 0 || counts[i] == 0) {
+            return defaultValue;
+        }
+        int offset = valueOffsets[i];
+        switch (types[i]) {
+            case TYPE_BYTE:
+            case TYPE_UNDEFINED:
+                return u8(buffer, offset);
+            case TYPE_SHORT:
+                return buffer.getShort(offset) & 0xFFFF;
+            case TYPE_LONG:
+            case TYPE_SLONG:
+                return buffer.getInt(offset);
+            default:
+                return defaultValue;
+        }
+    }
+
+    /**
+     * RATIONAL/SRATIONAL类型的第一个值，也兼容整数类型
+     */
+    public double getDouble(int ifd, int tag, double defaultValue) {
+        int i = indexOf(ifd, tag);
+        if (i < 0 || counts[i] == 0) {
+            return defaultValue;
+        }
+        int offset = valueOffsets[i];
+        switch (types[i]) {
+            case TYPE_RATIONAL: {
+                long denominator = buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+                return denominator == 0 ? defaultValue : (buffer.getInt(offset) & 0xFFFFFFFFL) / (double) denominator;
+            }
+            case TYPE_SRATIONAL: {
+                int denominator = buffer.getInt(offset + 4);
+                return denominator == 0 ? defaultValue : buffer.getInt(offset) / (double) denominator;
+            }
+            default:
+                int value = getInt(ifd, tag, Integer.MIN_VALUE);
+                return value == Integer.MIN_VALUE ? defaultValue : value;
+        }
+    }
+
+    public String getString(int ifd, int tag) {
+        int i = indexOf(ifd, tag);
+        if (i < 0 || types[i] != TYPE_ASCII) {
+            return null;
+        }
+        int length = counts[i];
+        while (length > 0 && buffer.get(valueOffsets[i] + length - 1) == 0) {
+            length--;
+        }
+        byte[] bytes = new byte[length];
+        for (int k = 0; k < length; k++) {
+            bytes[k] = buffer.get(valueOffsets[i] + k);
+        }
+        return new String(bytes, Charset.forName("US-ASCII"));
+    }
+
+    /**
+     * @return Exif方向值(1到8)，没有时返回0
+     */
+    public int getOrientation() {
+        return getInt(IFD_0, TAG_ORIENTATION, 0);
+    }
+
+    /**
+     * @return 顺时针旋转角度，0、90、180、270
+     */
+    public int getRotationDegrees() {
+        switch (getOrientation()) {
+            case Exif.ORIENTATION_ROTATE_90:
+            case Exif.ORIENTATION_TRANSVERSE:
+                return 90;
+            case Exif.ORIENTATION_ROTATE_180:
+            case Exif.ORIENTATION_FLIP_VERTICAL:
+                return 180;
+            case Exif.ORIENTATION_ROTATE_270:
+            case Exif.ORIENTATION_TRANSPOSE:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * IFD1中嵌入的JPEG缩略图，返回与原buffer共享内存的切片
+     *
+     * @return 没有缩略图时返回null
+     */
+    public ByteBuffer getThumbnail() {
+        int offset = getInt(IFD_1, TAG_JPEG_INTERCHANGE_FORMAT, -1);
+        int length = getInt(IFD_1, TAG_JPEG_INTERCHANGE_FORMAT_LENGTH, -1);
+        if (offset <= 0 || length <= 0) {
+            return null;
+        }
+        int start = tiffOffset + offset;
+        if (start + length > tiffEnd) {
+            Log.e(TAG, "Invalid thumbnail");
+            return null;
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(start + length);
+        slice.position(start);
+        return slice.slice();
+    }
+
+    /**
+     * 解码嵌入的缩略图，堆内存buffer时直接在原数组上解码
+     */
+    public Bitmap decodeThumbnail() {
+        ByteBuffer thumbnail = getThumbnail();
+        if (thumbnail == null) {
+            return null;
+        }
+        if (thumbnail.hasArray()) {
+            return BitmapFactory.decodeByteArray(thumbnail.array(),
+                    thumbnail.arrayOffset() + thumbnail.position(), thumbnail.remaining());
+        }
+        byte[] bytes = new byte[thumbnail.remaining()];
+        thumbnail.get(bytes);
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    }
+
+    private static int u8(ByteBuffer buffer, int offset) {
+        return buffer.get(offset) & 0xFF;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+}
@@ -9,10 +9,7 @@ import android.util.Log;
 import com.google.android.cameraview.configs.CameraConfig;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 
 /**
  * @fileName FileUtils
@@ -25,7 +22,6 @@ public class FileUtils {
     private static final String TAG = "FileUtils";
     private static final String VideoCacheFileName = "/video";
     private static final String PictureCacheFileName = "/picture";
-    private static final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss");
     private static final String DIRECTORY_NAME = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM).getAbsolutePath() + "/Camera";
 
 
@@ -37,69 +33,82 @@ public class FileUtils {
         return getOutputMediaFile(mContext, CameraConfig.MEDIA_ACTION_VIDEO, DIRECTORY_NAME, null).getAbsolutePath();
     }
 
+    public static String getVideoCacheDir(Context mContext) {
+        return mContext.getCacheDir() + VideoCacheFileName;
+    }
+
+    public static String getPictureCacheDir(Context mContext) {
+        return mContext.getCacheDir() + PictureCacheFileName;
+    }
+
+    /**
+     * 缓存目录中的输出路径都在{@link MediaCache}中预留，受目录的大小上限管理
+     */
     public static String getVideoCacheDirPath(Context mContext) {
-        return getOutputMediaFile(mContext, CameraConfig.MEDIA_ACTION_VIDEO, mContext.getCacheDir() + VideoCacheFileName, null).getAbsolutePath();
+        return MediaCache.reserve(mContext, MediaCache.TYPE_VIDEO, getOutputMediaFile(mContext, CameraConfig.MEDIA_ACTION_VIDEO, getVideoCacheDir(mContext), null)).getAbsolutePath();
     }
 
     public static String getPictureCacheDirPath(Context mContext) {
-        return getOutputMediaFile(mContext, CameraConfig.MEDIA_ACTION_PHOTO, mContext.getCacheDir() + PictureCacheFileName, null).getAbsolutePath();
+        return getPictureCacheDirPath(mContext, CameraConfig.PICTURE_FORMAT_JPEG);
     }
 
+    /**
+     * 压缩图的输出路径，扩展名跟随输出格式
+     */
+    public static String getPictureCacheDirPath(Context mContext, @CameraConfig.PictureFormat int format) {
+        return MediaCache.reserve(mContext, MediaCache.TYPE_PICTURE, getOutputMediaFile(mContext, CameraConfig.MEDIA_ACTION_PHOTO, getPictureCacheDir(mContext), null, getPictureExtension(format))).getAbsolutePath();
+    }
 
-    public static File getOutputMediaFile(Context context, @CameraConfig.MediaAction int mediaAction, @Nullable String pathToDirectory, @Nullable String fileName) {
-        final File mediaStorageDir = generateStoragePicDir(context, pathToDirectory);
-        File mediaFile = null;
-
-        if (mediaStorageDir != null) {
-            if (fileName == null) {
-                final String timeStamp = simpleDateFormat.format(new Date());
-                if (mediaAction == CameraConfig.MEDIA_ACTION_PHOTO) {
-                    fileName = "IMG_" + timeStamp;
-                } else if (mediaAction == CameraConfig.MEDIA_ACTION_VIDEO) {
-                    fileName = "VID_" + timeStamp;
-                }
-            }
-            final String mediaStorageDirPath = mediaStorageDir.getPath();
-            if (mediaAction == CameraConfig.MEDIA_ACTION_PHOTO) {
-                mediaFile = new File(mediaStorageDirPath + File.separator + fileName + ".jpg");
-            } else if (mediaAction == CameraConfig.MEDIA_ACTION_VIDEO) {
-                mediaFile = new File(mediaStorageDirPath + File.separator + fileName + ".mp4");
-            }
+    public static String getPictureExtension(@CameraConfig.PictureFormat int format) {
+        return format == CameraConfig.PICTURE_FORMAT_JPEG ? ".jpg" : ".webp";
+    }
+
+    /**
+     * 同一张照片不同尺寸的输出路径：缓存目录下原图文件名加上_name
+     */
+    public static String getRenditionPath(Context mContext, String localPath, String name) {
+        String fileName = new File(localPath).getName();
+        int dot = fileName.lastIndexOf('.');
+        if (dot > 0) {
+            fileName = fileName.substring(0, dot);
         }
+        return MediaCache.reserve(mContext, MediaCache.TYPE_PICTURE, getOutputMediaFile(mContext, CameraConfig.MEDIA_ACTION_PHOTO, getPictureCacheDir(mContext), fileName + "_" + name)).getAbsolutePath();
+    }
 
-        return mediaFile;
+
+    public static File getOutputMediaFile(Context context, @CameraConfig.MediaAction int mediaAction, @Nullable String pathToDirectory, @Nullable String fileName) {
+        return getOutputMediaFile(context, mediaAction, pathToDirectory, fileName, mediaAction == CameraConfig.MEDIA_ACTION_PHOTO ? ".jpg" : ".mp4");
     }
 
-    public static File generateStoragePicDir(Context context, @Nullable String pathToDirectory) {
-        File mediaStorageDir = null;
-        if (pathToDirectory != null) {
-            mediaStorageDir = new File(pathToDirectory);
-        } else {
-            mediaStorageDir = new File(Environment.getExternalStoragePublicDirectory(
-                    Environment.DIRECTORY_PICTURES), context.getPackageName());
+    /**
+     * @param fileName 为null时由{@link MediaNameAllocator}分配不重复的文件名
+     */
+    public static File getOutputMediaFile(Context context, @CameraConfig.MediaAction int mediaAction, @Nullable String pathToDirectory, @Nullable String fileName, String extension) {
+        String directory = pathToDirectory != null ? pathToDirectory : getDefaultDirectory(context);
+        if (fileName == null) {
+            return MediaNameAllocator.allocate(directory, mediaAction == CameraConfig.MEDIA_ACTION_VIDEO ? "VID_" : "IMG_", extension);
         }
+        File mediaStorageDir = MediaNameAllocator.directory(directory);
+        return mediaStorageDir == null ? null : new File(mediaStorageDir, fileName + extension);
+    }
 
-        if (!mediaStorageDir.exists()) {
-            if (!mediaStorageDir.mkdirs()) {
-                Log.d(TAG, "Failed to create directory.");
-                return null;
-            }
-        }
+    public static File generateStoragePicDir(Context context, @Nullable String pathToDirectory) {
+        return MediaNameAllocator.directory(pathToDirectory != null ? pathToDirectory : getDefaultDirectory(context));
+    }
 
-        return mediaStorageDir;
+    private static String getDefaultDirectory(Context context) {
+        return new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), context.getPackageName()).getAbsolutePath();
     }
 
-    public static long getFileSize(File file) throws Exception {
-        long size = 0;
-        if (file.exists()) {
-            FileInputStream fis = null;
-            fis = new FileInputStream(file);
-            size = fis.available();
-        } else {
-            file.createNewFile();
+    /**
+     * 只读文件元数据，不打开文件
+     */
+    public static long getFileSize(File file) {
+        if (!file.exists()) {
             Log.e("获取文件大小", "文件不存在!");
+            return 0;
         }
-        return size;
+        return file.length();
     }
 
     public static String getFileSize(String filePath) {
@@ -0,0 +1,930 @@
+package com.google.android.cameraview.helper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @fileName JpegTransform
+ * @describe 基线JPEG的无损旋转/镜像，直接在DCT系数上做变换(同jpegtran -trim -optimize)，
+ * 不解码像素、不重新量化，画质不损失，也不需要全尺寸的Bitmap
+ */
+public class JpegTransform {
+    private static final String TAG = "JpegTransform";
+
+    public static final int TRANSFORM_NONE = 0;
+    public static final int TRANSFORM_FLIP_HORIZONTAL = 1;
+    public static final int TRANSFORM_FLIP_VERTICAL = 2;
+    public static final int TRANSFORM_TRANSPOSE = 3;
+    public static final int TRANSFORM_TRANSVERSE = 4;
+    public static final int TRANSFORM_ROTATE_90 = 5;
+    public static final int TRANSFORM_ROTATE_180 = 6;
+    public static final int TRANSFORM_ROTATE_270 = 7;
+
+    // zigzag序号 => 8x8块中的自然序号
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    /**
+     * 顺时针旋转，degrees为0、90、180、270
+     */
+    public static byte[] rotate(byte[] jpeg, int degrees) throws IOException {
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                return transform(jpeg, TRANSFORM_ROTATE_90);
+            case 180:
+                return transform(jpeg, TRANSFORM_ROTATE_180);
+            case 270:
+                return transform(jpeg, TRANSFORM_ROTATE_270);
+            default:
+                return jpeg;
+        }
+    }
+
+    /**
+     * 把Exif中的方向应用到图像数据上，并把Exif方向重置为正常，给不识别Exif方向的地方使用
+     */
+    public static byte[] applyExifOrientation(byte[] jpeg) throws IOException {
+        int transform = fromExifOrientation(Exif.getOrientationTag(jpeg));
+        if (transform == TRANSFORM_NONE) {
+            return jpeg;
+        }
+        byte[] result = transform(jpeg, transform);
+        Exif.patchOrientation(result, Exif.ORIENTATION_NORMAL);
+        return result;
+    }
+
+    /**
+     * Exif方向值 => 把图像摆正所需要的变换
+     */
+    public static int fromExifOrientation(int orientation) {
+        switch (orientation) {
+            case Exif.ORIENTATION_FLIP_HORIZONTAL:
+                return TRANSFORM_FLIP_HORIZONTAL;
+            case Exif.ORIENTATION_ROTATE_180:
+                return TRANSFORM_ROTATE_180;
+            case Exif.ORIENTATION_FLIP_VERTICAL:
+                return TRANSFORM_FLIP_VERTICAL;
+            case Exif.ORIENTATION_TRANSPOSE:
+                return TRANSFORM_TRANSPOSE;
+            case Exif.ORIENTATION_ROTATE_90:
+                return TRANSFORM_ROTATE_90;
+            case Exif.ORIENTATION_TRANSVERSE:
+                return TRANSFORM_TRANSVERSE;
+            case Exif.ORIENTATION_ROTATE_270:
+                return TRANSFORM_ROTATE_270;
+            default:
+                return TRANSFORM_NONE;
+        }
+    }
+
+    /**
+     * 对基线(Huffman顺序编码)JPEG做无损变换。需要翻转的方向上不足一个MCU的边缘会被裁掉，
+     * 其余元数据段(APPn/COM)原样保留。渐进式或算术编码的JPEG会抛出IOException
+     */
+    public static byte[] transform(byte[] jpeg, int transform) throws IOException {
+        if (transform == TRANSFORM_NONE) {
+            return jpeg;
+        }
+        Decoder decoder = new Decoder(jpeg);
+        decoder.decode();
+        return new Encoder(decoder, transform).encode();
+    }
+
+    private static final class Component {
+        int id;
+        int h;
+        int v;
+        int tq;
+        int dcTable;
+        int acTable;
+        int pred;
+        // 按MCU补齐之后的块数
+        int blocksPerLine;
+        int blocksPerColumn;
+        // 每个块64个系数，自然序
+        short[] coefs;
+    }
+
+    private static final class HuffmanTable {
+        final int[] maxCode = new int[18];
+        final int[] valPtr = new int[17];
+        final int[] minCode = new int[17];
+        final int[] values;
+
+        HuffmanTable(int[] bits, int[] values) {
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int l = 1; l <= 16; l++) {
+                valPtr[l] = k;
+                minCode[l] = code;
+                code += bits[l];
+                k += bits[l];
+                maxCode[l] = bits[l] == 0 ? -1 : code - 1;
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+        }
+    }
+
+    private static final class Decoder {
+        final byte[] data;
+        final List<byte[]> markers = new ArrayList<>();
+        final int[][] quantTables = new int[4][];
+        final boolean[] quantPrecision16 = new boolean[4];
+        final HuffmanTable[] dcTables = new HuffmanTable[4];
+        final HuffmanTable[] acTables = new HuffmanTable[4];
+        int frameMarker;
+        int width;
+        int height;
+        int hmax;
+        int vmax;
+        int mcusX;
+        int mcusY;
+        int restartInterval;
+        Component[] components;
+
+        // 熵编码数据的读取状态
+        int pos;
+        int bitBuffer;
+        int bitCount;
+
+        Decoder(byte[] data) {
+            this.data = data;
+        }
+
+        void decode() throws IOException {
+            if (data == null || data.length < 4 || u8(0) != 0xFF || u8(1) != 0xD8) {
+                throw new IOException("Not a jpeg");
+            }
+            pos = 2;
+            while (true) {
+                int marker = nextMarker();
+                if (marker == 0xD9) {
+                    break;
+                }
+                if (pos + 2 > data.length) {
+                    throw new IOException("Truncated segment");
+                }
+                int length = u16(pos);
+                int start = pos + 2;
+                int end = pos + length;
+                if (length < 2 || end > data.length) {
+                    throw new IOException("Invalid segment length");
+                }
+                if ((marker >= 0xE0 && marker <= 0xEF) || marker == 0xFE) {
+                    byte[] segment = new byte[length + 2];
+                    System.arraycopy(data, pos - 2, segment, 0, segment.length);
+                    markers.add(segment);
+                    pos = end;
+                } else if (marker == 0xDB) {
+                    readQuantTables(start, end);
+                    pos = end;
+                } else if (marker == 0xC4) {
+                    readHuffmanTables(start, end);
+                    pos = end;
+                } else if (marker == 0xDD) {
+                    restartInterval = u16(start);
+                    pos = end;
+                } else if (marker == 0xC0 || marker == 0xC1) {
+                    readFrame(marker, start);
+                    pos = end;
+                } else if (marker >= 0xC2 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                    throw new IOException("Unsupported jpeg process: 0x" + Integer.toHexString(marker));
+                } else if (marker == 0xDA) {
+                    if (components == null) {
+                        throw new IOException("Scan before frame");
+                    }
+                    pos = end;
+                    readScan(start);
+                } else {
+                    pos = end;
+                }
+            }
+            if (components == null) {
+                throw new IOException("No frame");
+            }
+        }
+
+        private int nextMarker() throws IOException {
+            while (pos + 1 < data.length) {
+                if (u8(pos) == 0xFF) {
+                    int marker = u8(pos + 1);
+                    if (marker != 0 && marker != 0xFF && (marker < 0xD0 || marker > 0xD7)) {
+                        pos += 2;
+                        return marker;
+                    }
+                }
+                pos++;
+            }
+            // 缺少EOI的文件也按结束处理
+            return 0xD9;
+        }
+
+        private void readQuantTables(int offset, int end) throws IOException {
+            while (offset < end) {
+                int pq = u8(offset) >> 4;
+                int tq = u8(offset) & 0x0F;
+                if (tq > 3) {
+                    throw new IOException("Invalid quant table");
+                }
+                offset++;
+                int[] table = new int[64];
+                for (int k = 0; k < 64; k++) {
+                    if (pq == 0) {
+                        table[ZIGZAG[k]] = u8(offset++);
+                    } else {
+                        table[ZIGZAG[k]] = u16(offset);
+                        offset += 2;
+                    }
+                }
+                quantTables[tq] = table;
+                quantPrecision16[tq] = pq != 0;
+            }
+        }
+
+        private void readHuffmanTables(int offset, int end) throws IOException {
+            while (offset < end) {
+                int tc = u8(offset) >> 4;
+                int th = u8(offset) & 0x0F;
+                if (th > 3 || tc > 1) {
+                    throw new IOException("Invalid huffman table");
+                }
+                offset++;
+                int[] bits = new int[17];
+                int total = 0;
+                for (int i = 1; i <= 16; i++) {
+                    bits[i] = u8(offset++);
+                    total += bits[i];
+                }
+                if (total > 256 || offset + total > end) {
+                    throw new IOException("Invalid huffman table");
+                }
+                int[] values = new int[total];
+                for (int i = 0; i < total; i++) {
+                    values[i] = u8(offset++);
+                }
+                if (tc == 0) {
+                    dcTables[th] = new HuffmanTable(bits, values);
+                } else {
+                    acTables[th] = new HuffmanTable(bits, values);
+                }
+            }
+        }
+
+        private void readFrame(int marker, int offset) throws IOException {
+            if (u8(offset) != 8) {
+                throw new IOException("Unsupported precision: " + u8(offset));
+            }
+            frameMarker = marker;
+            height = u16(offset + 1);
+            width = u16(offset + 3);
+            int count = u8(offset + 5);
+            if (width == 0 || height == 0 || count == 0 || count > 4) {
+                throw new IOException("Invalid frame");
+            }
+            components = new Component[count];
+            hmax = 1;
+            vmax = 1;
+            offset += 6;
+            for (int i = 0; i < count; i++) {
+                Component c = new Component();
+                c.id = u8(offset);
+                c.h = u8(offset + 1) >> 4;
+                c.v = u8(offset + 1) & 0x0F;
+                c.tq = u8(offset + 2) & 0x03;
+                if (c.h < 1 || c.h > 4 || c.v < 1 || c.v > 4) {
+                    throw new IOException("Invalid sampling factor");
+                }
+                hmax = Math.max(hmax, c.h);
+                vmax = Math.max(vmax, c.v);
+                components[i] = c;
+                offset += 3;
+            }
+            mcusX = ceil(width, 8 * hmax);
+            mcusY = ceil(height, 8 * vmax);
+            for (Component c : components) {
+                if (count == 1) {
+                    c.blocksPerLine = ceil(width, 8);
+                    c.blocksPerColumn = ceil(height, 8);
+                } else {
+                    c.blocksPerLine = mcusX * c.h;
+                    c.blocksPerColumn = mcusY * c.v;
+                }
+                c.coefs = new short[c.blocksPerLine * c.blocksPerColumn * 64];
+            }
+        }
+
+        private void readScan(int offset) throws IOException {
+            int count = u8(offset);
+            Component[] scan = new Component[count];
+            for (int i = 0; i < count; i++) {
+                int id = u8(offset + 1 + i * 2);
+                int tables = u8(offset + 2 + i * 2);
+                for (Component c : components) {
+                    if (c.id == id) {
+                        scan[i] = c;
+                    }
+                }
+                if (scan[i] == null) {
+                    throw new IOException("Unknown component in scan");
+                }
+                scan[i].dcTable = tables >> 4;
+                scan[i].acTable = tables & 0x0F;
+                if (dcTables[scan[i].dcTable & 3] == null || acTables[scan[i].acTable & 3] == null) {
+                    throw new IOException("Missing huffman table");
+                }
+                scan[i].pred = 0;
+            }
+
+            bitBuffer = 0;
+            bitCount = 0;
+            int mcu = 0;
+            if (count == 1) {
+                Component c = scan[0];
+                int blocksX = components.length == 1 ? c.blocksPerLine : ceil(ceil(width * c.h, hmax), 8);
+                int blocksY = components.length == 1 ? c.blocksPerColumn : ceil(ceil(height * c.v, vmax), 8);
+                for (int by = 0; by < blocksY; by++) {
+                    for (int bx = 0; bx < blocksX; bx++) {
+                        restartIfNeeded(scan, mcu++);
+                        decodeBlock(c, (by * c.blocksPerLine + bx) * 64);
+                    }
+                }
+            } else {
+                for (int my = 0; my < mcusY; my++) {
+                    for (int mx = 0; mx < mcusX; mx++) {
+                        restartIfNeeded(scan, mcu++);
+                        for (Component c : scan) {
+                            for (int v = 0; v < c.v; v++) {
+                                for (int h = 0; h < c.h; h++) {
+                                    int block = (my * c.v + v) * c.blocksPerLine + mx * c.h + h;
+                                    decodeBlock(c, block * 64);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private void restartIfNeeded(Component[] scan, int mcu) throws IOException {
+            if (restartInterval == 0 || mcu == 0 || mcu % restartInterval != 0) {
+                return;
+            }
+            bitBuffer = 0;
+            bitCount = 0;
+            while (pos + 1 < data.length && !(u8(pos) == 0xFF && u8(pos + 1) >= 0xD0 && u8(pos + 1) <= 0xD7)) {
+                pos++;
+            }
+            if (pos + 1 >= data.length) {
+                throw new IOException("Missing restart marker");
+            }
+            pos += 2;
+            for (Component c : scan) {
+                c.pred = 0;
+            }
+        }
+
+        private void decodeBlock(Component c, int offset) throws IOException {
+            short[] coefs = c.coefs;
+            int t = decodeHuffman(dcTables[c.dcTable & 3]);
+            int diff = t == 0 ? 0 : extend(receive(t), t);
+            c.pred += diff;
+            coefs[offset] = (short) c.pred;
+
+            HuffmanTable ac = acTables[c.acTable & 3];
+            int k = 1;
+            while (k < 64) {
+                int rs = decodeHuffman(ac);
+                int r = rs >> 4;
+                int s = rs & 0x0F;
+                if (s == 0) {
+                    if (r != 15) {
+                        break;
+                    }
+                    k += 16;
+                    continue;
+                }
+                k += r;
+                if (k > 63) {
+                    throw new IOException("Corrupt block");
+                }
+                coefs[offset + ZIGZAG[k]] = (short) extend(receive(s), s);
+                k++;
+            }
+        }
+
+        private int decodeHuffman(HuffmanTable table) throws IOException {
+            int code = readBit();
+            int l = 1;
+            while (code > table.maxCode[l]) {
+                code = (code << 1) | readBit();
+                l++;
+                if (l > 16) {
+                    throw new IOException("Corrupt huffman code");
+                }
+            }
+            return table.values[table.valPtr[l] + code - table.minCode[l]];
+        }
+
+        private int receive(int length) throws IOException {
+            int value = 0;
+            while (length-- > 0) {
+                value = (value << 1) | readBit();
+            }
+            return value;
+        }
+
+        private int readBit() {
+            if (bitCount == 0) {
+                int b = 0;
+                if (pos < data.length) {
+                    b = u8(pos);
+                    if (b == 0xFF) {
+                        int next = pos + 1 < data.length ? u8(pos + 1) : 0xD9;
+                        if (next == 0) {
+                            pos += 2;
+                        } else {
+                            // 遇到marker时不再前进，后面补0
+                            b = 0;
+                        }
+                    } else {
+                        pos++;
+                    }
+                }
+                bitBuffer = b;
+                bitCount = 8;
+            }
+            bitCount--;
+            return (bitBuffer >> bitCount) & 1;
+        }
+
+        private int u8(int offset) {
+            return data[offset] & 0xFF;
+        }
+
+        private int u16(int offset) {
+            return (u8(offset) << 8) | u8(offset + 1);
+        }
+    }
+
+    private static final class Encoder {
+        final Decoder source;
+        final boolean transpose;
+        final boolean flipX;
+        final boolean flipY;
+        final int width;
+        final int height;
+        final Component[] components;
+        final int mcusX;
+        final int mcusY;
+
+        final int[][] dcFreq = new int[2][257];
+        final int[][] acFreq = new int[2][257];
+        final int[][] dcCodes = new int[2][256];
+        final int[][] dcSizes = new int[2][256];
+        final int[][] acCodes = new int[2][256];
+        final int[][] acSizes = new int[2][256];
+        final int[][] dcBits = new int[2][];
+        final int[][] dcValues = new int[2][];
+        final int[][] acBits = new int[2][];
+        final int[][] acValues = new int[2][];
+
+        ByteArrayOutputStream out;
+        int bitBuffer;
+        int bitCount;
+        boolean counting;
+
+        Encoder(Decoder source, int transform) throws IOException {
+            this.source = source;
+            transpose = transform == TRANSFORM_TRANSPOSE || transform == TRANSFORM_TRANSVERSE
+                    || transform == TRANSFORM_ROTATE_90 || transform == TRANSFORM_ROTATE_270;
+            flipX = transform == TRANSFORM_FLIP_HORIZONTAL || transform == TRANSFORM_TRANSVERSE
+                    || transform == TRANSFORM_ROTATE_90 || transform == TRANSFORM_ROTATE_180;
+            flipY = transform == TRANSFORM_FLIP_VERTICAL || transform == TRANSFORM_TRANSVERSE
+                    || transform == TRANSFORM_ROTATE_270 || transform == TRANSFORM_ROTATE_180;
+
+            int hmax = transpose ? source.vmax : source.hmax;
+            int vmax = transpose ? source.hmax : source.vmax;
+            boolean single = source.components.length == 1;
+            int mcuWidth = single ? 8 : 8 * hmax;
+            int mcuHeight = single ? 8 : 8 * vmax;
+            int w = transpose ? source.height : source.width;
+            int h = transpose ? source.width : source.height;
+            // 翻转方向上不足一个MCU的边缘无法无损移动，裁掉
+            if (flipX) {
+                w = w / mcuWidth * mcuWidth;
+            }
+            if (flipY) {
+                h = h / mcuHeight * mcuHeight;
+            }
+            if (w == 0 || h == 0) {
+                throw new IOException("Image too small to transform");
+            }
+            width = w;
+            height = h;
+            mcusX = ceil(width, 8 * hmax);
+            mcusY = ceil(height, 8 * vmax);
+
+            components = new Component[source.components.length];
+            for (int i = 0; i < components.length; i++) {
+                Component src = source.components[i];
+                Component c = new Component();
+                c.id = src.id;
+                c.h = transpose ? src.v : src.h;
+                c.v = transpose ? src.h : src.v;
+                c.tq = src.tq;
+                c.dcTable = i == 0 ? 0 : 1;
+                c.acTable = c.dcTable;
+                if (single) {
+                    c.blocksPerLine = ceil(width, 8);
+                    c.blocksPerColumn = ceil(height, 8);
+                } else {
+                    c.blocksPerLine = mcusX * c.h;
+                    c.blocksPerColumn = mcusY * c.v;
+                }
+                c.coefs = new short[c.blocksPerLine * c.blocksPerColumn * 64];
+                transformBlocks(src, c, single ? width : ceil(width * c.h, hmax), single ? height : ceil(height * c.v, vmax));
+                src.coefs = null;
+                components[i] = c;
+            }
+        }
+
+        private void transformBlocks(Component src, Component dst, int componentWidth, int componentHeight) {
+            int blocksX = ceil(componentWidth, 8);
+            int blocksY = ceil(componentHeight, 8);
+            for (int oy = 0; oy < dst.blocksPerColumn; oy++) {
+                for (int ox = 0; ox < dst.blocksPerLine; ox++) {
+                    int tx = flipX ? blocksX - 1 - ox : ox;
+                    int ty = flipY ? blocksY - 1 - oy : oy;
+                    int sx = transpose ? ty : tx;
+                    int sy = transpose ? tx : ty;
+                    if (sx < 0 || sy < 0 || sx >= src.blocksPerLine || sy >= src.blocksPerColumn) {
+                        continue;
+                    }
+                    int in = (sy * src.blocksPerLine + sx) * 64;
+                    int out = (oy * dst.blocksPerLine + ox) * 64;
+                    for (int v = 0; v < 8; v++) {
+                        for (int u = 0; u < 8; u++) {
+                            int value = transpose ? src.coefs[in + u * 8 + v] : src.coefs[in + v * 8 + u];
+                            if ((flipX && (u & 1) != 0) != (flipY && (v & 1) != 0)) {
+                                value = -value;
+                            }
+                            dst.coefs[out + v * 8 + u] = (short) value;
+                        }
+                    }
+                }
+            }
+        }
+
+        byte[] encode() throws IOException {
+            // 第一遍统计符号频率生成最优Huffman表，第二遍输出
+            counting = true;
+            encodeScan();
+            for (int t = 0; t < 2; t++) {
+                if (hasSymbols(dcFreq[t])) {
+                    buildTable(dcFreq[t], t, true);
+                    buildTable(acFreq[t], t, false);
+                }
+            }
+
+            out = new ByteArrayOutputStream(source.data.length + 1024);
+            out.write(0xFF);
+            out.write(0xD8);
+            for (byte[] marker : source.markers) {
+                out.write(marker);
+            }
+            writeQuantTables();
+            writeFrame();
+            writeHuffmanTables();
+            writeScanHeader();
+
+            counting = false;
+            bitBuffer = 0;
+            bitCount = 0;
+            encodeScan();
+            flushBits();
+            out.write(0xFF);
+            out.write(0xD9);
+            return out.toByteArray();
+        }
+
+        private void encodeScan() {
+            for (Component c : components) {
+                c.pred = 0;
+            }
+            if (components.length == 1) {
+                Component c = components[0];
+                for (int block = 0; block < c.blocksPerLine * c.blocksPerColumn; block++) {
+                    encodeBlock(c, block * 64);
+                }
+                return;
+            }
+            for (int my = 0; my < mcusY; my++) {
+                for (int mx = 0; mx < mcusX; mx++) {
+                    for (Component c : components) {
+                        for (int v = 0; v < c.v; v++) {
+                            for (int h = 0; h < c.h; h++) {
+                                int block = (my * c.v + v) * c.blocksPerLine + mx * c.h + h;
+                                encodeBlock(c, block * 64);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private void encodeBlock(Component c, int offset) {
+            short[] coefs = c.coefs;
+            int t = c.dcTable;
+            int diff = coefs[offset] - c.pred;
+            c.pred = coefs[offset];
+            int nbits = bitLength(diff);
+            if (counting) {
+                dcFreq[t][nbits]++;
+            } else {
+                writeBits(dcCodes[t][nbits], dcSizes[t][nbits]);
+                if (nbits != 0) {
+                    writeBits(diff < 0 ? diff - 1 : diff, nbits);
+                }
+            }
+
+            int run = 0;
+            for (int k = 1; k < 64; k++) {
+                int value = coefs[offset + ZIGZAG[k]];
+                if (value == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    emitAc(t, 0xF0);
+                    run -= 16;
+                }
+                nbits = bitLength(value);
+                emitAc(t, (run << 4) | nbits);
+                if (!counting) {
+                    writeBits(value < 0 ? value - 1 : value, nbits);
+                }
+                run = 0;
+            }
+            if (run > 0) {
+                emitAc(t, 0x00);
+            }
+        }
+
+        private void emitAc(int table, int symbol) {
+            if (counting) {
+                acFreq[table][symbol]++;
+            } else {
+                writeBits(acCodes[table][symbol], acSizes[table][symbol]);
+            }
+        }
+
+        private void writeBits(int value, int length) {
+            bitBuffer = (bitBuffer << length) | (value & ((1 << length) - 1));
+            bitCount += length;
+            while (bitCount >= 8) {
+                int b = (bitBuffer >> (bitCount - 8)) & 0xFF;
+                out.write(b);
+                if (b == 0xFF) {
+                    out.write(0);
+                }
+                bitCount -= 8;
+            }
+            bitBuffer &= (1 << bitCount) - 1;
+        }
+
+        private void flushBits() {
+            if (bitCount > 0) {
+                writeBits(0x7F, 8 - bitCount);
+            }
+        }
+
+        /**
+         * ITU T.81 Annex K.2，码长限制在16位以内，并保留全1的码字
+         */
+        private void buildTable(int[] frequencies, int table, boolean dc) {
+            int[] freq = frequencies.clone();
+            int[] codeSize = new int[257];
+            int[] others = new int[257];
+            for (int i = 0; i < 257; i++) {
+                others[i] = -1;
+            }
+            freq[256] = 1;
+            while (true) {
+                int c1 = -1;
+                long v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] != 0 && freq[i] <= v) {
+                        v = freq[i];
+                        c1 = i;
+                    }
+                }
+                int c2 = -1;
+                v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] != 0 && freq[i] <= v && i != c1) {
+                        v = freq[i];
+                        c2 = i;
+                    }
+                }
+                if (c2 < 0) {
+                    break;
+                }
+                freq[c1] += freq[c2];
+                freq[c2] = 0;
+                codeSize[c1]++;
+                while (others[c1] >= 0) {
+                    c1 = others[c1];
+                    codeSize[c1]++;
+                }
+                others[c1] = c2;
+                codeSize[c2]++;
+                while (others[c2] >= 0) {
+                    c2 = others[c2];
+                    codeSize[c2]++;
+                }
+            }
+
+            int[] bits = new int[33];
+            for (int i = 0; i <= 256; i++) {
+                if (codeSize[i] != 0) {
+                    bits[codeSize[i]]++;
+                }
+            }
+            for (int i = 32; i > 16; i--) {
+                while (bits[i] > 0) {
+                    int j = i - 2;
+                    while (bits[j] == 0) {
+                        j--;
+                    }
+                    bits[i] -= 2;
+                    bits[i - 1]++;
+                    bits[j + 1] += 2;
+                    bits[j]--;
+                }
+            }
+            int i = 16;
+            while (bits[i] == 0) {
+                i--;
+            }
+            bits[i]--;
+
+            int[] huffBits = new int[17];
+            System.arraycopy(bits, 0, huffBits, 0, 17);
+            int count = 0;
+            for (int l = 1; l <= 16; l++) {
+                count += huffBits[l];
+            }
+            int[] values = new int[count];
+            int p = 0;
+            for (int l = 1; l <= 32; l++) {
+                for (int j = 0; j < 256; j++) {
+                    if (codeSize[j] == l) {
+                        values[p++] = j;
+                    }
+                }
+            }
+
+            int[] codes = dc ? dcCodes[table] : acCodes[table];
+            int[] sizes = dc ? dcSizes[table] : acSizes[table];
+            int code = 0;
+            p = 0;
+            for (int l = 1; l <= 16; l++) {
+                for (int j = 0; j < huffBits[l]; j++) {
+                    codes[values[p]] = code;
+                    sizes[values[p]] = l;
+                    p++;
+                    code++;
+                }
+                code <<= 1;
+            }
+            if (dc) {
+                dcBits[table] = huffBits;
+                dcValues[table] = values;
+            } else {
+                acBits[table] = huffBits;
+                acValues[table] = values;
+            }
+        }
+
+        private void writeQuantTables() {
+            for (int t = 0; t < 4; t++) {
+                int[] table = source.quantTables[t];
+                if (table == null || !isUsed(t)) {
+                    continue;
+                }
+                boolean wide = source.quantPrecision16[t];
+                writeMarker(0xDB, 1 + (wide ? 128 : 64));
+                out.write((wide ? 0x10 : 0) | t);
+                for (int k = 0; k < 64; k++) {
+                    int n = ZIGZAG[k];
+                    int value = transpose ? table[(n % 8) * 8 + n / 8] : table[n];
+                    if (wide) {
+                        out.write(value >> 8);
+                    }
+                    out.write(value & 0xFF);
+                }
+            }
+        }
+
+        private boolean isUsed(int table) {
+            for (Component c : components) {
+                if (c.tq == table) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void writeFrame() {
+            writeMarker(source.frameMarker, 6 + components.length * 3);
+            out.write(8);
+            out.write(height >> 8);
+            out.write(height & 0xFF);
+            out.write(width >> 8);
+            out.write(width & 0xFF);
+            out.write(components.length);
+            for (Component c : components) {
+                out.write(c.id);
+                out.write((c.h << 4) | c.v);
+                out.write(c.tq);
+            }
+        }
+
+        private void writeHuffmanTables() {
+            for (int t = 0; t < 2; t++) {
+                if (dcBits[t] == null) {
+                    continue;
+                }
+                writeHuffmanTable(0x00 | t, dcBits[t], dcValues[t]);
+                writeHuffmanTable(0x10 | t, acBits[t], acValues[t]);
+            }
+        }
+
+        private void writeHuffmanTable(int classAndId, int[] bits, int[] values) {
+            writeMarker(0xC4, 1 + 16 + values.length);
+            out.write(classAndId);
+            for (int l = 1; l <= 16; l++) {
+                out.write(bits[l]);
+            }
+            for (int value : values) {
+                out.write(value);
+            }
+        }
+
+        private void writeScanHeader() {
+            writeMarker(0xDA, 4 + components.length * 2);
+            out.write(components.length);
+            for (Component c : components) {
+                out.write(c.id);
+                out.write((c.dcTable << 4) | c.acTable);
+            }
+            out.write(0);
+            out.write(63);
+            out.write(0);
+        }
+
+        // length为不含长度字段自身的内容长度
+        private void writeMarker(int marker, int length) {
+            out.write(0xFF);
+            out.write(marker);
+            out.write((length + 2) >> 8);
+            out.write((length + 2) & 0xFF);
+        }
+
+        private static boolean hasSymbols(int[] freq) {
+            for (int f : freq) {
+                if (f != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int bitLength(int value) {
+            if (value < 0) {
+                value = -value;
+            }
+            return 32 - Integer.numberOfLeadingZeros(value);
+        }
+    }
+
+    private static int ceil(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    private static int extend(int value, int length) {
+        return value < (1 << (length - 1)) ? value - (1 << length) + 1 : value;
+    }
+}
@@ -0,0 +1,419 @@
+package com.google.android.cameraview.helper;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @fileName LruDiskCache
+ * @describe 按总字节数限制大小的磁盘缓存目录，超出时删除最久没有访问的文件
+ * <p>
+ * 每个key对应目录下的一个文件，大小和最后访问时间保存在目录中的索引文件里(从旧到新，每行"key 大小 访问时间")。
+ * 打开时只读索引，不遍历目录也不逐个stat文件；淘汰和索引写入都在后台线程中增量进行，每次最多删除{@link #TRIM_BATCH}个文件。
+ * 索引先写临时文件再重命名，写到一半被杀掉时旧索引仍然完整。
+ * <p>
+ * 索引可能漏掉崩溃前刚写入的文件，所以索引丢失、旧版本索引或者距离上次核对超过{@link #SWEEP_INTERVAL_MS}时，
+ * 在后台遍历一次目录：收编索引之外的文件，删除残留的临时文件和已经不存在的条目
+ */
+public class LruDiskCache {
+    private static final String TAG = "LruDiskCache";
+    private static final String INDEX = "lru.index";
+    private static final String INDEX_TEMP = "lru.index.tmp";
+    private static final String HEADER_V1 = "cameraview.lru 1";
+    private static final String HEADER = "cameraview.lru 2";
+    //写入中的文件后缀，提交时重命名
+    private static final String TEMP_SUFFIX = ".tmp";
+    //每次后台淘汰最多删除的文件数，删完还超出时继续排队
+    private static final int TRIM_BATCH = 32;
+    //访问之后延迟写索引，连续访问只写一次
+    private static final long INDEX_DELAY_MS = 1000;
+    private static final long SWEEP_INTERVAL_MS = 7 * 24 * 3600 * 1000L;
+    //核对目录时，比这更新的临时文件和预留条目可能正在写入，不处理
+    private static final long IN_FLIGHT_MS = 3600 * 1000L;
+
+    private static final ScheduledThreadPoolExecutor sExecutor = createExecutor();
+
+    private final File mDirectory;
+    private volatile long mMaxBytes;
+    //访问顺序，最久没有访问的在前面
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+    private long mLastSweep;
+    private boolean mTrimScheduled;
+    private boolean mIndexScheduled;
+
+    /**
+     * @param maxBytes 总大小上限，<=0表示不限制
+     */
+    public LruDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        load();
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * 修改大小上限，变小时在后台淘汰
+     */
+    public void setMaxBytes(long maxBytes) {
+        if (mMaxBytes == maxBytes) {
+            return;
+        }
+        mMaxBytes = maxBytes;
+        synchronized (this) {
+            scheduleTrim();
+        }
+    }
+
+    public synchronized int getCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * key只能包含文件名中合法的字符，例如十六进制的哈希值
+     *
+     * @return 缓存的文件，没有时返回null。返回的文件之后可能被淘汰，需要长期使用时复制出去
+     */
+    public synchronized File get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        File file = new File(mDirectory, key);
+        if (!file.exists()) {
+            mSize -= mEntries.remove(key).size;
+            scheduleIndex();
+            return null;
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        scheduleIndex();
+        return file;
+    }
+
+    /**
+     * 写入用的临时文件，写完后调用{@link #commit(String, File)}
+     */
+    public File newTempFile(String key) {
+        return new File(mDirectory, key + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+    }
+
+    /**
+     * 把写好的临时文件放入缓存，替换同一个key原来的文件，超出大小时在后台淘汰最久没有访问的文件
+     *
+     * @return 缓存中的文件，失败返回null
+     */
+    public synchronized File commit(String key, File temp) {
+        File file = new File(mDirectory, key);
+        long length = temp.length();
+        long maxBytes = mMaxBytes;
+        if ((maxBytes > 0 && length > maxBytes) || !temp.renameTo(file)) {
+            temp.delete();
+            return null;
+        }
+        put(key, length);
+        return file;
+    }
+
+    /**
+     * 预留一个马上要直接写入目录的文件名，写到一半崩溃时文件也在索引中，之后能被淘汰
+     */
+    public synchronized void reserve(String key) {
+        if (!mEntries.containsKey(key)) {
+            put(key, 0);
+        }
+    }
+
+    /**
+     * 文件已经直接写入目录(不经过{@link #commit(String, File)})，按实际大小记录，文件不存在时去掉条目
+     */
+    public synchronized void record(String key) {
+        File file = new File(mDirectory, key);
+        if (file.isFile()) {
+            put(key, file.length());
+        } else {
+            Entry old = mEntries.remove(key);
+            if (old != null) {
+                mSize -= old.size;
+                scheduleIndex();
+            }
+        }
+    }
+
+    public synchronized void remove(String key) {
+        Entry old = mEntries.remove(key);
+        if (old != null) {
+            mSize -= old.size;
+            new File(mDirectory, key).delete();
+            scheduleIndex();
+        }
+    }
+
+    /**
+     * 立即淘汰到不超过maxBytes，例如内存紧张或者空间不足时
+     */
+    public synchronized void trim(long maxBytes) {
+        if (trimToSize(maxBytes, Integer.MAX_VALUE)) {
+            scheduleIndex();
+        }
+    }
+
+    private void put(String key, long length) {
+        Entry old = mEntries.put(key, new Entry(length, System.currentTimeMillis()));
+        if (old != null) {
+            mSize -= old.size;
+        }
+        mSize += length;
+        scheduleTrim();
+        scheduleIndex();
+    }
+
+    private boolean trimToSize(long maxBytes, int limit) {
+        int deleted = 0;
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxBytes && deleted < limit && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            new File(mDirectory, eldest.getKey()).delete();
+            mSize -= eldest.getValue().size;
+            iterator.remove();
+            deleted++;
+        }
+        return deleted > 0;
+    }
+
+    private void scheduleTrim() {
+        long maxBytes = mMaxBytes;
+        if (mTrimScheduled || maxBytes <= 0 || mSize <= maxBytes) {
+            return;
+        }
+        mTrimScheduled = true;
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (LruDiskCache.this) {
+                    mTrimScheduled = false;
+                    long maxBytes = mMaxBytes;
+                    if (maxBytes > 0 && trimToSize(maxBytes, TRIM_BATCH)) {
+                        scheduleIndex();
+                    }
+                    //还超出时排到队尾，不一直占着后台线程
+                    scheduleTrim();
+                }
+            }
+        });
+    }
+
+    private void scheduleIndex() {
+        if (mIndexScheduled) {
+            return;
+        }
+        mIndexScheduled = true;
+        sExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                writeIndex();
+            }
+        }, INDEX_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void load() {
+        File index = new File(mDirectory, INDEX);
+        boolean sweep = true;
+        if (index.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), "UTF-8"))) {
+                String header = reader.readLine();
+                //旧版本的索引没有访问时间，按行的顺序给一个递增的时间
+                boolean v1 = HEADER_V1.equals(header);
+                if (v1 || (header != null && header.startsWith(HEADER + " "))) {
+                    if (!v1) {
+                        mLastSweep = Long.parseLong(header.substring(HEADER.length() + 1));
+                        sweep = System.currentTimeMillis() - mLastSweep > SWEEP_INTERVAL_MS;
+                    }
+                    String line;
+                    long order = 0;
+                    while ((line = reader.readLine()) != null) {
+                        String[] fields = line.split(" ");
+                        if (fields.length < 2) {
+                            continue;
+                        }
+                        long length = Long.parseLong(fields[1]);
+                        long lastAccess = fields.length > 2 ? Long.parseLong(fields[2]) : order++;
+                        Entry old = mEntries.put(fields[0], new Entry(length, lastAccess));
+                        mSize += length - (old == null ? 0 : old.size);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "load ERROR!!:" + e.getMessage());
+                sweep = true;
+            }
+        }
+        if (sweep) {
+            sExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sweep();
+                }
+            });
+        }
+        scheduleTrim();
+    }
+
+    /**
+     * 在后台线程中核对目录和索引，遍历目录不持有锁
+     */
+    private void sweep() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, File> present = new LinkedHashMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (INDEX.equals(name) || INDEX_TEMP.equals(name) || file.isDirectory()) {
+                continue;
+            }
+            if (name.endsWith(TEMP_SUFFIX)) {
+                if (now - file.lastModified() > IN_FLIGHT_MS) {
+                    file.delete();
+                }
+                continue;
+            }
+            present.put(name, file);
+        }
+        int adopted = 0;
+        int dropped = 0;
+        synchronized (this) {
+            Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> item = iterator.next();
+                Entry entry = item.getValue();
+                File file = present.remove(item.getKey());
+                if (file != null) {
+                    mSize += file.length() - entry.size;
+                    entry.size = file.length();
+                } else if (now - entry.lastAccess > IN_FLIGHT_MS) {
+                    //文件已经不在，刚预留的条目除外
+                    iterator.remove();
+                    mSize -= entry.size;
+                    dropped++;
+                }
+            }
+            List<Map.Entry<String, Entry>> entries = new ArrayList<>(mEntries.size() + present.size());
+            for (Map.Entry<String, Entry> item : mEntries.entrySet()) {
+                entries.add(new AbstractMap.SimpleEntry<>(item.getKey(), item.getValue()));
+            }
+            for (Map.Entry<String, File> item : present.entrySet()) {
+                File file = item.getValue();
+                entries.add(new AbstractMap.SimpleEntry<>(item.getKey(), new Entry(file.length(), file.lastModified())));
+                mSize += file.length();
+                adopted++;
+            }
+            //按访问时间重新排序，收编的文件按修改时间放到合适的位置
+            Collections.sort(entries, new Comparator<Map.Entry<String, Entry>>() {
+                @Override
+                public int compare(Map.Entry<String, Entry> lhs, Map.Entry<String, Entry> rhs) {
+                    long left = lhs.getValue().lastAccess;
+                    long right = rhs.getValue().lastAccess;
+                    return left < right ? -1 : (left == right ? 0 : 1);
+                }
+            });
+            mEntries.clear();
+            for (Map.Entry<String, Entry> item : entries) {
+                mEntries.put(item.getKey(), item.getValue());
+            }
+            mLastSweep = now;
+            scheduleTrim();
+            scheduleIndex();
+        }
+        Log.d(TAG, "sweep " + mDirectory + ", adopted = " + adopted + ", dropped = " + dropped);
+    }
+
+    /**
+     * 在后台线程中执行，拷贝一份条目后在锁外写文件
+     */
+    private void writeIndex() {
+        List<String> lines;
+        long lastSweep;
+        synchronized (this) {
+            mIndexScheduled = false;
+            lines = new ArrayList<>(mEntries.size());
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                lines.add(entry.getKey() + " " + entry.getValue().size + " " + entry.getValue().lastAccess);
+            }
+            lastSweep = mLastSweep;
+        }
+        File temp = new File(mDirectory, INDEX_TEMP);
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"))) {
+            writer.write(HEADER + " " + lastSweep);
+            writer.write('\n');
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "writeIndex ERROR!!:" + e.getMessage());
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(new File(mDirectory, INDEX))) {
+            Log.e(TAG, "writeIndex, rename fail");
+            temp.delete();
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.setKeepAliveTime(10, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static final class Entry {
+        long size;
+        long lastAccess;
+
+        Entry(long size, long lastAccess) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.google.android.cameraview.helper;
+
+import android.content.Context;
+
+import java.io.File;
+
+/**
+ * @fileName MediaCache
+ * @describe 压缩图(以及各尺寸)和压缩视频的输出目录，按媒体类型分别限制总字节数，超出时淘汰最久没有访问的文件
+ * <p>
+ * 输出路径分配时先在索引中预留({@link FileUtils#getPictureCacheDirPath(Context, int)}等)，写完后{@link #record(Context, String)}记录实际大小。
+ * 大小上限在{@link #setMaxBytes(Context, int, long)}之前为0，不淘汰
+ */
+
+
+public class MediaCache {
+    public static final int TYPE_PICTURE = 0;
+    public static final int TYPE_VIDEO = 1;
+
+    private static final LruDiskCache[] sCaches = new LruDiskCache[2];
+
+    public static LruDiskCache get(Context mContext, int type) {
+        synchronized (sCaches) {
+            if (sCaches[type] == null) {
+                String directory = type == TYPE_VIDEO ? FileUtils.getVideoCacheDir(mContext) : FileUtils.getPictureCacheDir(mContext);
+                sCaches[type] = new LruDiskCache(new File(directory), 0);
+            }
+            return sCaches[type];
+        }
+    }
+
+    /**
+     * @param maxBytes 这种媒体的输出目录的大小上限，<=0表示不限制
+     */
+    public static void setMaxBytes(Context mContext, int type, long maxBytes) {
+        get(mContext, type).setMaxBytes(maxBytes);
+    }
+
+    /**
+     * 预留一个输出文件，返回file
+     */
+    static File reserve(Context mContext, int type, File file) {
+        if (file != null) {
+            get(mContext, type).reserve(file.getName());
+        }
+        return file;
+    }
+
+    /**
+     * 文件写完后记录实际大小，不在输出目录中的路径忽略
+     */
+    public static void record(Context mContext, String path) {
+        if (path == null) {
+            return;
+        }
+        File file = new File(path);
+        for (int type = TYPE_PICTURE; type <= TYPE_VIDEO; type++) {
+            LruDiskCache cache = get(mContext, type);
+            if (cache.getDirectory().equals(file.getParentFile())) {
+                cache.record(file.getName());
+                return;
+            }
+        }
+    }
+}
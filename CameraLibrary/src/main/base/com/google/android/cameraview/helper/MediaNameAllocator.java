@@ -0,0 +1,130 @@
+package com.google.android.cameraview.helper;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @fileName MediaNameAllocator
+ * @describe 输出文件名的分配：IMG_yyyy_MM_dd_HH_mm_ss_SSS，多个线程同时分配也不会重复
+ * <p>
+ * 时间戳精确到毫秒并且单调递增：同一毫秒内(连拍、多个压缩线程)依次加1，用CAS分配不加锁。
+ * 日期直接由时间戳算出来写进char[]，不用SimpleDateFormat(线程不安全，每次格式化都要创建对象)。
+ * 目录只在第一次用到时检查和创建，之后从缓存中取；目录被删掉时由{@link MediaStorage}写入时重新创建
+ */
+
+
+public final class MediaNameAllocator {
+    private static final String TAG = "MediaNameAllocator";
+    private static final long DAY_MS = 24 * 3600 * 1000L;
+
+    private static final AtomicLong sLastStamp = new AtomicLong();
+    private static final ConcurrentHashMap<String, File> sDirectories = new ConcurrentHashMap<>();
+    //进程内不跟随时区变化，同一次运行中的文件名按时间排序
+    private static final TimeZone sTimeZone = TimeZone.getDefault();
+
+    private MediaNameAllocator() {
+    }
+
+    /**
+     * 已经存在的目录，第一次用到时创建，失败返回null(下次再试)
+     */
+    public static File directory(String path) {
+        File directory = sDirectories.get(path);
+        if (directory != null) {
+            return directory;
+        }
+        directory = new File(path);
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            Log.d(TAG, "Failed to create directory:" + path);
+            return null;
+        }
+        sDirectories.put(path, directory);
+        return directory;
+    }
+
+    /**
+     * 分配一个新文件
+     *
+     * @param prefix    例如IMG_、VID_
+     * @param extension 例如.jpg
+     * @return 目录创建失败返回null
+     */
+    public static File allocate(String directoryPath, String prefix, String extension) {
+        File directory = directory(directoryPath);
+        if (directory == null) {
+            return null;
+        }
+        while (true) {
+            File file = new File(directory, name(prefix, nextStamp()) + extension);
+            //进程内不会重复，只有系统时间被往回调时才可能和之前的文件重名，这时跳到下一毫秒
+            if (!file.exists()) {
+                return file;
+            }
+        }
+    }
+
+    /**
+     * 单调递增的毫秒时间戳，不会返回相同的值
+     */
+    public static long nextStamp() {
+        long now = System.currentTimeMillis();
+        while (true) {
+            long last = sLastStamp.get();
+            long next = now > last ? now : last + 1;
+            if (sLastStamp.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * prefix + yyyy_MM_dd_HH_mm_ss_SSS(本地时间)
+     */
+    public static String name(String prefix, long stamp) {
+        long local = stamp + sTimeZone.getOffset(stamp);
+        long days = local / DAY_MS;
+        int millisOfDay = (int) (local % DAY_MS);
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += DAY_MS;
+        }
+        //公历日期，days为1970-01-01起的天数(Howard Hinnant的civil_from_days)
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        char[] chars = new char[prefix.length() + 23];
+        prefix.getChars(0, prefix.length(), chars, 0);
+        int index = prefix.length();
+        index = digits(chars, index, year, 4, '_');
+        index = digits(chars, index, month, 2, '_');
+        index = digits(chars, index, day, 2, '_');
+        index = digits(chars, index, millisOfDay / 3600000, 2, '_');
+        index = digits(chars, index, millisOfDay / 60000 % 60, 2, '_');
+        index = digits(chars, index, millisOfDay / 1000 % 60, 2, '_');
+        digits(chars, index, millisOfDay % 1000, 3, (char) 0);
+        return new String(chars);
+    }
+
+    private static int digits(char[] chars, int index, int value, int count, char separator) {
+        for (int i = count - 1; i >= 0; i--) {
+            chars[index + i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        index += count;
+        if (separator != 0) {
+            chars[index++] = separator;
+        }
+        return index;
+    }
+}
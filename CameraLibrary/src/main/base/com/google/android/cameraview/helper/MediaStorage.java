@@ -0,0 +1,395 @@
+package com.google.android.cameraview.helper;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.google.android.cameraview.configs.CameraConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @fileName MediaStorage
+ * @describe 媒体文件的写入：先写同目录下的隐藏临时文件，按同步策略落盘后原子重命名为目标文件
+ * <p>
+ * 写到一半崩溃时只会留下.xxx.tmp，相册里不会出现半张图片，残留的临时文件在下次写入这个目录时清理。
+ * 落盘、关闭、重命名以及整块数据的写入都在单独的IO线程中依次执行，不和压缩线程抢占磁盘(相机直接输出的ByteBuffer除外，见{@link #write(String, int, ByteBuffer)})；
+ * 编码器的输出(Bitmap.compress等)在调用线程中直接流式写入临时文件，不经过中间的byte[]，之后的提交交给IO线程
+ */
+
+
+public class MediaStorage {
+    private static final String TAG = "MediaStorage";
+    private static final String TEMP_PREFIX = ".";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //IO线程空闲这么久后退出，有新的写入时再启动
+    private static final long IDLE_TIMEOUT_MS = 10 * 1000;
+    //之前的进程留下的临时文件才清理，不会删掉这个进程正在写的
+    private static final long PROCESS_START = System.currentTimeMillis();
+
+    private static final MediaStorage sDefault = new MediaStorage();
+
+    private final LinkedBlockingQueue<Runnable> mQueue = new LinkedBlockingQueue<>();
+    private final Set<String> mCleanedDirs = Collections.synchronizedSet(new HashSet<String>());
+    private Thread mWorker;
+
+    public static MediaStorage getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * 编码器的输出，写入out即可，不需要关闭
+     */
+    public interface Writer {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * 在调用线程中把writer的输出写入临时文件，在IO线程中提交，等待提交完成
+     *
+     * @param syncPolicy {@link CameraConfig.SyncPolicy}
+     * @return 写入的字节数，失败返回-1，目标文件保持原样
+     */
+    public long write(String path, @CameraConfig.SyncPolicy final int syncPolicy, Writer writer) {
+        final File file = new File(path);
+        final File temp = tempFile(file);
+        final FileOutputStream fos;
+        try {
+            fos = open(temp);
+        } catch (IOException e) {
+            Log.e(TAG, "write ERROR!!:" + e.getMessage());
+            return -1;
+        }
+        final CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE));
+        boolean written = false;
+        try {
+            writer.writeTo(out);
+            out.flush();
+            written = true;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "write ERROR!!:" + path + " " + e.getMessage());
+        }
+        if (!written) {
+            closeQuietly(fos);
+            temp.delete();
+            return -1;
+        }
+        boolean committed = await(submit(file, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return commit(fos, temp, file, syncPolicy);
+            }
+        }), path);
+        return committed ? out.getCount() : -1;
+    }
+
+    public boolean write(String path, @CameraConfig.SyncPolicy int syncPolicy, byte[] data) {
+        return writeAsync(path, syncPolicy, data).await();
+    }
+
+    /**
+     * 整块数据在IO线程中写入，调用线程可以先做别的事情，需要文件时再{@link Pending#await()}
+     */
+    public Pending writeAsync(final String path, @CameraConfig.SyncPolicy final int syncPolicy, final byte[] data) {
+        return new Pending(path, submit(new File(path), new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return writeChannel(new File(path), syncPolicy, ByteBuffer.wrap(data));
+            }
+        }));
+    }
+
+    /**
+     * writer在IO线程中执行并写入，调用方不等待。写完之前writer用到的数据(例如Bitmap)不能修改或回收
+     */
+    public Pending writeAsync(final String path, @CameraConfig.SyncPolicy final int syncPolicy, final Writer writer) {
+        return new Pending(path, submit(new File(path), new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return writeStream(new File(path), syncPolicy, writer);
+            }
+        }));
+    }
+
+    /**
+     * buffer(例如Image.Plane的direct buffer)在调用线程中通过FileChannel直接写入并提交，返回后buffer可以释放。
+     * 不在IO线程中排队，不会等前面无关的写入；相机线程调用时用{@link CameraConfig#SYNC_NONE}，之后再{@link #sync}
+     */
+    public boolean write(String path, @CameraConfig.SyncPolicy int syncPolicy, ByteBuffer buffer) {
+        try {
+            return writeChannel(new File(path), syncPolicy, buffer);
+        } catch (IOException e) {
+            Log.e(TAG, "write ERROR!!:" + path + " " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 把已经写入(用{@link CameraConfig#SYNC_NONE})的文件按同步策略落盘，在调用线程中执行
+     */
+    public boolean sync(String path, @CameraConfig.SyncPolicy int syncPolicy) {
+        if (syncPolicy == CameraConfig.SYNC_NONE) {
+            return true;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.getChannel().force(syncPolicy == CameraConfig.SYNC_FULL);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "sync ERROR!!:" + path + " " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 在IO线程中执行，{@link #write(String, int, ByteBuffer)}在调用线程中执行
+     */
+    private static boolean writeChannel(File file, int syncPolicy, ByteBuffer buffer) throws IOException {
+        File temp = tempFile(file);
+        FileOutputStream fos = open(temp);
+        try {
+            FileChannel channel = fos.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            closeQuietly(fos);
+            temp.delete();
+            throw e;
+        }
+        return commit(fos, temp, file, syncPolicy);
+    }
+
+    /**
+     * 在IO线程中执行
+     */
+    private static boolean writeStream(File file, int syncPolicy, Writer writer) throws IOException {
+        File temp = tempFile(file);
+        FileOutputStream fos = open(temp);
+        try {
+            OutputStream out = new BufferedOutputStream(fos, BUFFER_SIZE);
+            writer.writeTo(out);
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(fos);
+            temp.delete();
+            throw e;
+        }
+        return commit(fos, temp, file, syncPolicy);
+    }
+
+    /**
+     * 在IO线程中执行：落盘、关闭、重命名。失败时删除临时文件
+     */
+    private static boolean commit(FileOutputStream fos, File temp, File file, int syncPolicy) throws IOException {
+        boolean success = false;
+        try {
+            if (syncPolicy == CameraConfig.SYNC_DATA) {
+                fos.getChannel().force(false);
+            } else if (syncPolicy == CameraConfig.SYNC_FULL) {
+                fos.getFD().sync();
+            }
+            fos.close();
+            //同一个文件系统中rename是原子的，目标文件已存在时直接替换
+            success = temp.renameTo(file);
+            if (!success) {
+                Log.e(TAG, "commit rename fail:" + temp + " -> " + file);
+            }
+            return success;
+        } finally {
+            if (!success) {
+                closeQuietly(fos);
+                temp.delete();
+            }
+        }
+    }
+
+    private FutureTask<Boolean> submit(final File file, Callable<Boolean> job) {
+        final File dir = file.getParentFile();
+        if (dir != null && mCleanedDirs.add(dir.getAbsolutePath())) {
+            mQueue.add(new Runnable() {
+                @Override
+                public void run() {
+                    cleanStaleTemp(dir);
+                }
+            });
+        }
+        FutureTask<Boolean> task = new FutureTask<>(job);
+        mQueue.add(task);
+        ensureWorker();
+        return task;
+    }
+
+    private static boolean await(FutureTask<Boolean> task, String path) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            //写入仍会在IO线程中完成，只是这里不再等待
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "write ERROR!!:" + path + " " + e.getCause());
+            return false;
+        }
+    }
+
+    private synchronized void ensureWorker() {
+        if (mWorker != null) {
+            return;
+        }
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    while (true) {
+                        Runnable job;
+                        try {
+                            job = mQueue.poll(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            job = null;
+                        }
+                        if (job == null) {
+                            synchronized (MediaStorage.this) {
+                                //退出前再检查一次，避免和ensureWorker之间漏掉刚入队的任务
+                                if (mQueue.isEmpty()) {
+                                    mWorker = null;
+                                    return;
+                                }
+                            }
+                            continue;
+                        }
+                        try {
+                            job.run();
+                        } catch (RuntimeException e) {
+                            //写入的异常由FutureTask交给调用方，这里是清理临时文件等任务，不能让IO线程退出
+                            Log.e(TAG, "io job ERROR!!:" + e);
+                        }
+                    }
+                } finally {
+                    synchronized (MediaStorage.this) {
+                        //异常退出(例如Error)时也要清掉，之后的写入重新启动IO线程，不会一直排队等不到
+                        if (mWorker == Thread.currentThread()) {
+                            mWorker = null;
+                            if (!mQueue.isEmpty()) {
+                                ensureWorker();
+                            }
+                        }
+                    }
+                }
+            }
+        }, TAG + "-io");
+        mWorker.start();
+    }
+
+    /**
+     * 删除之前的进程写到一半留下的临时文件
+     */
+    private static void cleanStaleTemp(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX) && file.lastModified() < PROCESS_START && file.delete()) {
+                Log.d(TAG, "cleanStaleTemp:" + file);
+            }
+        }
+    }
+
+    /**
+     * 目录是缓存的({@link MediaNameAllocator})，被删掉时在这里重新创建
+     */
+    private static FileOutputStream open(File temp) throws IOException {
+        try {
+            return new FileOutputStream(temp);
+        } catch (IOException e) {
+            File dir = temp.getParentFile();
+            if (dir == null || dir.isDirectory() || !dir.mkdirs()) {
+                throw e;
+            }
+            return new FileOutputStream(temp);
+        }
+    }
+
+    private static File tempFile(File file) {
+        return new File(file.getParentFile(), TEMP_PREFIX + file.getName() + TEMP_SUFFIX);
+    }
+
+    private static void closeQuietly(FileOutputStream fos) {
+        try {
+            fos.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * 一个提交到IO线程的写入
+     */
+    public static final class Pending {
+        private final String mPath;
+        private final FutureTask<Boolean> mTask;
+
+        Pending(String path, FutureTask<Boolean> task) {
+            mPath = path;
+            mTask = task;
+        }
+
+        public String getPath() {
+            return mPath;
+        }
+
+        public boolean isDone() {
+            return mTask.isDone();
+        }
+
+        /**
+         * 等待写入完成
+         *
+         * @return 文件已经提交到目标路径
+         */
+        public boolean await() {
+            return MediaStorage.await(mTask, mPath);
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+}
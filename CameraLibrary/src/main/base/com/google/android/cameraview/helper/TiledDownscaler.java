@@ -0,0 +1,141 @@
+package com.google.android.cameraview.helper;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import com.google.android.cameraview.logs.CameraLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @fileName TiledDownscaler
+ * @describe 不解码整张图片，按块解码并缩小到目标尺寸，同时按方向摆正
+ * <p>
+ * 一亿像素的照片完整解码成ARGB_8888要400MB以上。这里用BitmapRegionDecoder每次解码一块，
+ * 解码时先用inSampleSize按2的幂缩小，再画到输出Bitmap上做剩下的缩放和旋转。
+ * 峰值内存是输出Bitmap加上一块解码结果(不超过tileBudget)，和传感器分辨率无关。
+ * <p>
+ * 每块向外多解码几个像素，只画块自己的范围，块之间的双线性插值不会出现接缝
+ */
+public class TiledDownscaler {
+    private static final String TAG = "TiledDownscaler";
+    //块的边缘多解码的像素(解码后)
+    private static final int MARGIN = 2;
+    //按块解码时每块最小的边长(解码后)，太小时块的数量和边缘的重复解码都太多
+    private static final int MIN_TILE_SIZE = 64;
+
+    private TiledDownscaler() {
+    }
+
+    /**
+     * @param source      编码后的图片，只读取不关闭
+     * @param orientation 顺时针旋转的角度，0、90、180、270
+     * @param maxPixels   输出的像素数上限，原图不超过时只旋转不缩放
+     * @param tileBudget  每块解码结果的字节数上限
+     * @return 摆正后的Bitmap，解码失败返回null
+     */
+    public static Bitmap decode(InputStream source, int orientation, long maxPixels, long tileBudget) throws IOException {
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(source, false);
+        try {
+            return decode(decoder, orientation, maxPixels, tileBudget);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    private static Bitmap decode(BitmapRegionDecoder decoder, int orientation, long maxPixels, long tileBudget) {
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        double scale = Math.min(1, Math.sqrt((double) maxPixels / ((long) width * height)));
+        int outWidth = Math.max(1, (int) Math.round(width * scale));
+        int outHeight = Math.max(1, (int) Math.round(height * scale));
+        //inSampleSize只缩小到不小于输出尺寸，剩下的交给Canvas插值
+        int sample = 1;
+        while (width / (sample * 2) >= outWidth && height / (sample * 2) >= outHeight) {
+            sample *= 2;
+        }
+
+        orientation = ((orientation % 360) + 360) % 360;
+        boolean swap = orientation == 90 || orientation == 270;
+        Bitmap output = Bitmap.createBitmap(swap ? outHeight : outWidth, swap ? outWidth : outHeight, Bitmap.Config.ARGB_8888);
+
+        //原图坐标 -> 输出坐标：缩放后旋转
+        Matrix transform = new Matrix();
+        transform.postScale((float) outWidth / width, (float) outHeight / height);
+        transform.postRotate(orientation);
+        switch (orientation) {
+            case 90:
+                transform.postTranslate(outHeight, 0);
+                break;
+            case 180:
+                transform.postTranslate(outWidth, outHeight);
+                break;
+            case 270:
+                transform.postTranslate(0, outWidth);
+                break;
+        }
+
+        //块的大小(原图坐标)：放得下时按整行解码，JPEG按行存储，整行解码最快
+        int decodedWidth = (width + sample - 1) / sample;
+        long tilePixels = Math.max((long) MIN_TILE_SIZE * MIN_TILE_SIZE, tileBudget / 4);
+        int tileWidth;
+        int tileHeight;
+        if ((long) (decodedWidth + MARGIN * 2) * MIN_TILE_SIZE <= tilePixels) {
+            tileWidth = width;
+            tileHeight = (int) Math.min(height, (tilePixels / (decodedWidth + MARGIN * 2) - MARGIN * 2) * sample);
+        } else {
+            int side = (int) Math.sqrt(tilePixels) - MARGIN * 2;
+            tileWidth = side * sample;
+            tileHeight = side * sample;
+        }
+
+        Canvas canvas = new Canvas(output);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Rect region = new Rect();
+        RectF clip = new RectF();
+        Matrix matrix = new Matrix();
+        int margin = MARGIN * sample;
+        int tiles = 0;
+        for (int top = 0; top < height; top += tileHeight) {
+            for (int left = 0; left < width; left += tileWidth) {
+                int right = Math.min(width, left + tileWidth);
+                int bottom = Math.min(height, top + tileHeight);
+                region.set(Math.max(0, left - margin), Math.max(0, top - margin), Math.min(width, right + margin), Math.min(height, bottom + margin));
+                Bitmap tile = decoder.decodeRegion(region, options);
+                if (tile == null) {
+                    output.recycle();
+                    return null;
+                }
+                //块的像素 -> 原图坐标 -> 输出坐标，用实际解码出来的尺寸，边缘的块不一定能整除inSampleSize
+                matrix.reset();
+                matrix.postScale((float) (region.right - region.left) / tile.getWidth(), (float) (region.bottom - region.top) / tile.getHeight());
+                matrix.postTranslate(region.left, region.top);
+                matrix.postConcat(transform);
+                clip.set(left, top, right, bottom);
+                transform.mapRect(clip);
+
+                canvas.save();
+                canvas.clipRect(clip);
+                canvas.drawBitmap(tile, matrix, paint);
+                canvas.restore();
+                tile.recycle();
+                tiles++;
+            }
+        }
+        CameraLog.i(TAG, "decode, %d x %d -> %d x %d, sample = %d, tiles = %d", width, height, output.getWidth(), output.getHeight(), sample, tiles);
+        return output;
+    }
+}
@@ -0,0 +1,128 @@
+package com.google.android.cameraview.model;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+/**
+ * @fileName CaptureTimeline
+ * @describe 一次拍照从按下快门到回调onCompressSuccess各阶段的时间点，时间基准为SystemClock.elapsedRealtimeNanos
+ * <p>
+ * 只在设置了CaptureTimelineListener时创建，每个阶段只是写一个long，可以在线上一直开着。
+ * 没有经过的阶段(例如快速拍照跳过锁对焦、Camera1没有传感器时间戳)保持未记录
+ */
+public final class CaptureTimeline {
+
+    public static final int STAGE_SHUTTER = 0;//调用takePicture
+    public static final int STAGE_AF_LOCKED = 1;//对焦锁定
+    public static final int STAGE_PRECAPTURED = 2;//预测光完成
+    public static final int STAGE_SENSOR = 3;//传感器曝光时间(Camera2的图像时间戳)
+    public static final int STAGE_IMAGE_AVAILABLE = 4;//onPictureTaken/onImageAvailable
+    public static final int STAGE_EXIF = 5;//读出Exif方向
+    public static final int STAGE_DECODE = 6;//解码JPEG
+    public static final int STAGE_ROTATE = 7;//旋转摆正
+    public static final int STAGE_COMPRESS = 8;//压缩图写完
+    public static final int STAGE_FILE_WRITTEN = 9;//原图写完
+    public static final int STAGE_SCAN_QUEUED = 10;//提交相册扫描
+    public static final int STAGE_DELIVERED = 11;//回调CompressListener之前
+    public static final int STAGE_COUNT = 12;
+
+    private static final String[] STAGE_NAMES = {
+            "shutter", "afLocked", "precaptured", "sensor", "imageAvailable", "exif",
+            "decode", "rotate", "compress", "fileWritten", "scanQueued", "delivered"
+    };
+
+    private static final long NOT_RECORDED = -1;
+
+    private final long[] mTimes = new long[STAGE_COUNT];
+    private boolean mSuccess;
+
+    public CaptureTimeline() {
+        Arrays.fill(mTimes, NOT_RECORDED);
+    }
+
+    /**
+     * 记录阶段的当前时间，timeline为null(没有监听)时什么都不做
+     */
+    public static void mark(CaptureTimeline timeline, int stage) {
+        if (timeline != null) {
+            timeline.mTimes[stage] = SystemClock.elapsedRealtimeNanos();
+        }
+    }
+
+    /**
+     * 记录阶段的指定时间，nanos需要已经换算到elapsedRealtimeNanos时基
+     */
+    public static void mark(CaptureTimeline timeline, int stage, long nanos) {
+        if (timeline != null) {
+            timeline.mTimes[stage] = nanos;
+        }
+    }
+
+    public void setSuccess(boolean success) {
+        mSuccess = success;
+    }
+
+    public boolean isSuccess() {
+        return mSuccess;
+    }
+
+    public boolean hasStage(int stage) {
+        return mTimes[stage] != NOT_RECORDED;
+    }
+
+    /**
+     * @return 阶段的时间点(纳秒)，未记录时返回-1
+     */
+    public long getTime(int stage) {
+        return mTimes[stage];
+    }
+
+    /**
+     * 两个阶段之间的耗时(毫秒)，任意一个未记录时返回-1
+     */
+    public long getDurationMs(int fromStage, int toStage) {
+        if (!hasStage(fromStage) || !hasStage(toStage)) {
+            return -1;
+        }
+        return (mTimes[toStage] - mTimes[fromStage]) / 1000000L;
+    }
+
+    /**
+     * 相对于起点(按下快门，连拍的帧没有快门时取最早记录的阶段)的耗时(毫秒)，未记录时返回-1
+     */
+    public long getElapsedMs(int stage) {
+        if (!hasStage(stage)) {
+            return -1;
+        }
+        return (mTimes[stage] - getStartTime()) / 1000000L;
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    private long getStartTime() {
+        if (hasStage(STAGE_SHUTTER)) {
+            return mTimes[STAGE_SHUTTER];
+        }
+        long start = Long.MAX_VALUE;
+        for (long time : mTimes) {
+            if (time != NOT_RECORDED && time < start) {
+                start = time;
+            }
+        }
+        return start;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("CaptureTimeline{success=").append(mSuccess);
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            if (hasStage(stage)) {
+                builder.append(", ").append(STAGE_NAMES[stage]).append('=').append(getElapsedMs(stage)).append("ms");
+            }
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,87 @@
+package com.google.android.cameraview.model;
+
+/**
+ * @fileName MemoryDecision
+ * @describe 压缩流程的一次内存调整，带上当时的内存信号，方便和OOM崩溃统计对照
+ */
+public final class MemoryDecision {
+
+    //同时运行的压缩任务数变化，value为新的并发数
+    public static final int ACTION_CONCURRENCY = 0;
+    //按块缩小解码，不解码整张图片，value为解码的像素数上限
+    public static final int ACTION_SUBSAMPLE = 1;
+    //各尺寸推迟到低优先级任务中生成，value为尺寸的个数
+    public static final int ACTION_DEFER_RENDITIONS = 2;
+
+    //内存压力
+    public static final int LEVEL_NORMAL = 0;
+    public static final int LEVEL_MODERATE = 1;
+    public static final int LEVEL_CRITICAL = 2;
+
+    private static final String[] ACTION_NAMES = {"concurrency", "subsample", "deferRenditions"};
+    private static final String[] LEVEL_NAMES = {"normal", "moderate", "critical"};
+
+    private final int mAction;
+    private final int mLevel;
+    private final int mTrimLevel;
+    private final long mValue;
+    private final long mHeadroom;
+    private final String mPath;
+    private final long mTime = System.currentTimeMillis();
+
+    public MemoryDecision(int action, int level, int trimLevel, long value, long headroom, String path) {
+        mAction = action;
+        mLevel = level;
+        mTrimLevel = trimLevel;
+        mValue = value;
+        mHeadroom = headroom;
+        mPath = path;
+    }
+
+    public int getAction() {
+        return mAction;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * 最近一次onTrimMemory的level，没有收到过时为0
+     */
+    public int getTrimLevel() {
+        return mTrimLevel;
+    }
+
+    public long getValue() {
+        return mValue;
+    }
+
+    /**
+     * 做出决定时还能用于解码的内存(字节)
+     */
+    public long getHeadroom() {
+        return mHeadroom;
+    }
+
+    /**
+     * 相关照片的原图路径，并发数变化时为null
+     */
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * System.currentTimeMillis，和崩溃日志的时间对照
+     */
+    public long getTime() {
+        return mTime;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryDecision{" + ACTION_NAMES[mAction] + "=" + mValue + ", level=" + LEVEL_NAMES[mLevel]
+                + ", trimLevel=" + mTrimLevel + ", headroom=" + mHeadroom / 1024 + "KB"
+                + (mPath == null ? "" : ", path=" + mPath) + "}";
+    }
+}
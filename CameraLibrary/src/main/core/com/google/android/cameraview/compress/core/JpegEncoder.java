@@ -0,0 +1,463 @@
+package com.google.android.cameraview.compress.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @fileName JpegEncoder
+ * @describe 纯Java的baseline JPEG编码器：JFIF YCbCr、4:2:0或4:4:4、标准量化表和霍夫曼表
+ * <p>
+ * DCT用AAN的整数快速算法(和libjpeg的jfdctfst相同，8位定点常数)，缩放因子合并到量化除数中。
+ * 按MCU行读取像素，内存只有一行MCU，和图片高度无关。同样的输入和参数在任何JVM上输出相同的字节
+ */
+
+
+public final class JpegEncoder {
+    private static final int CONST_BITS = 8;
+    private static final int FIX_0_382683433 = 98;
+    private static final int FIX_0_541196100 = 139;
+    private static final int FIX_0_707106781 = 181;
+    private static final int FIX_1_306562965 = 334;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final int[] LUMA_QUANT = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99};
+    private static final int[] CHROMA_QUANT = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99};
+
+    //标准霍夫曼表(ITU T.81 K.3)：每个码长的码字数，以及按码长排列的符号
+    private static final int[] DC_LUMA_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] DC_CHROMA_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    private static final int[] DC_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private static final int[] AC_LUMA_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+    private static final int[] AC_LUMA_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa};
+    private static final int[] AC_CHROMA_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+    private static final int[] AC_CHROMA_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+            0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa};
+
+    //zigzag顺序的第k个系数在8x8块中的位置
+    private static final int[] ZIGZAG = zigzag();
+    private static final HuffmanTable DC_LUMA = new HuffmanTable(DC_LUMA_BITS, DC_VALUES);
+    private static final HuffmanTable DC_CHROMA = new HuffmanTable(DC_CHROMA_BITS, DC_VALUES);
+    private static final HuffmanTable AC_LUMA = new HuffmanTable(AC_LUMA_BITS, AC_LUMA_VALUES);
+    private static final HuffmanTable AC_CHROMA = new HuffmanTable(AC_CHROMA_BITS, AC_CHROMA_VALUES);
+
+    private final int mQuality;
+    private final boolean mSubsample;
+    private final int[] mLumaQuant;
+    private final int[] mChromaQuant;
+    //量化表乘以AAN的缩放因子，DCT的结果直接除以它
+    private final int[] mLumaDivisors;
+    private final int[] mChromaDivisors;
+
+    /**
+     * @param quality      1-100，量化表按IJG的方式缩放，和libjpeg/Android的质量含义一致
+     * @param subsample420 色度是否减半采样，照片一般都用4:2:0，文字截图用4:4:4边缘更干净
+     */
+    public JpegEncoder(int quality, boolean subsample420) {
+        mQuality = Math.max(1, Math.min(100, quality));
+        mSubsample = subsample420;
+        mLumaQuant = scaleQuant(LUMA_QUANT, mQuality);
+        mChromaQuant = scaleQuant(CHROMA_QUANT, mQuality);
+        mLumaDivisors = divisors(mLumaQuant);
+        mChromaDivisors = divisors(mChromaQuant);
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    public boolean isSubsample() {
+        return mSubsample;
+    }
+
+    /**
+     * 编码source，只写入不关闭out
+     */
+    public void encode(PixelSource source, OutputStream out) throws IOException {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width <= 0 || height <= 0 || width > 0xFFFF || height > 0xFFFF) {
+            throw new IllegalArgumentException("bad size: " + width + "x" + height);
+        }
+        BitWriter writer = new BitWriter(out);
+        writeHeaders(writer, width, height);
+
+        int mcuSize = mSubsample ? 16 : 8;
+        int mcuColumns = (width + mcuSize - 1) / mcuSize;
+        PlanarBuffer strip = new PlanarBuffer(mcuColumns * mcuSize, mcuSize, mSubsample);
+        byte[] luma = strip.getPlane(PlanarBuffer.PLANE_Y);
+        byte[] cb = strip.getPlane(PlanarBuffer.PLANE_CB);
+        byte[] cr = strip.getPlane(PlanarBuffer.PLANE_CR);
+        int lumaStride = strip.getPlaneWidth(PlanarBuffer.PLANE_Y);
+        int chromaStride = strip.getPlaneWidth(PlanarBuffer.PLANE_CB);
+        int[] block = new int[64];
+        int[] dc = new int[3];
+
+        for (int top = 0; top < height; top += mcuSize) {
+            strip.load(source, top);
+            for (int column = 0; column < mcuColumns; column++) {
+                int x = column * mcuSize;
+                for (int by = 0; by < mcuSize; by += 8) {
+                    for (int bx = 0; bx < mcuSize; bx += 8) {
+                        dc[0] = encodeBlock(writer, luma, lumaStride, x + bx, by, block, mLumaDivisors, dc[0], DC_LUMA, AC_LUMA);
+                    }
+                }
+                int chromaX = mSubsample ? x / 2 : x;
+                dc[1] = encodeBlock(writer, cb, chromaStride, chromaX, 0, block, mChromaDivisors, dc[1], DC_CHROMA, AC_CHROMA);
+                dc[2] = encodeBlock(writer, cr, chromaStride, chromaX, 0, block, mChromaDivisors, dc[2], DC_CHROMA, AC_CHROMA);
+            }
+        }
+        writer.flushBits();
+        writer.writeMarker(0xD9);
+        writer.flush();
+    }
+
+    private void writeHeaders(BitWriter writer, int width, int height) throws IOException {
+        //SOI
+        writer.writeMarker(0xD8);
+        //APP0 JFIF 1.1，无缩略图
+        writer.writeMarker(0xE0);
+        writer.writeShort(16);
+        writer.writeBytes('J', 'F', 'I', 'F', 0, 1, 1, 0);
+        writer.writeShort(1);
+        writer.writeShort(1);
+        writer.writeBytes(0, 0);
+        //DQT，按zigzag顺序
+        writer.writeMarker(0xDB);
+        writer.writeShort(2 + 65 * 2);
+        writeQuant(writer, 0, mLumaQuant);
+        writeQuant(writer, 1, mChromaQuant);
+        //SOF0
+        writer.writeMarker(0xC0);
+        writer.writeShort(8 + 3 * 3);
+        writer.writeByte(8);
+        writer.writeShort(height);
+        writer.writeShort(width);
+        writer.writeByte(3);
+        writer.writeBytes(1, mSubsample ? 0x22 : 0x11, 0);
+        writer.writeBytes(2, 0x11, 1);
+        writer.writeBytes(3, 0x11, 1);
+        //DHT
+        writer.writeMarker(0xC4);
+        writer.writeShort(2 + (17 + DC_VALUES.length) * 2 + (17 + AC_LUMA_VALUES.length) + (17 + AC_CHROMA_VALUES.length));
+        writeHuffman(writer, 0x00, DC_LUMA_BITS, DC_VALUES);
+        writeHuffman(writer, 0x10, AC_LUMA_BITS, AC_LUMA_VALUES);
+        writeHuffman(writer, 0x01, DC_CHROMA_BITS, DC_VALUES);
+        writeHuffman(writer, 0x11, AC_CHROMA_BITS, AC_CHROMA_VALUES);
+        //SOS
+        writer.writeMarker(0xDA);
+        writer.writeShort(6 + 3 * 2);
+        writer.writeByte(3);
+        writer.writeBytes(1, 0x00, 2, 0x11, 3, 0x11);
+        writer.writeBytes(0, 63, 0);
+    }
+
+    private static void writeQuant(BitWriter writer, int id, int[] quant) throws IOException {
+        writer.writeByte(id);
+        for (int k = 0; k < 64; k++) {
+            writer.writeByte(quant[ZIGZAG[k]]);
+        }
+    }
+
+    private static void writeHuffman(BitWriter writer, int id, int[] bits, int[] values) throws IOException {
+        writer.writeByte(id);
+        for (int count : bits) {
+            writer.writeByte(count);
+        }
+        for (int value : values) {
+            writer.writeByte(value);
+        }
+    }
+
+    /**
+     * 一个8x8块：电平平移、DCT、量化，按zigzag顺序霍夫曼编码
+     *
+     * @return 这个块的DC，下一个块的DC按差值编码
+     */
+    private static int encodeBlock(BitWriter writer, byte[] plane, int stride, int x, int y, int[] block,
+                                   int[] divisors, int previousDc, HuffmanTable dcTable, HuffmanTable acTable) throws IOException {
+        for (int row = 0; row < 8; row++) {
+            int offset = (y + row) * stride + x;
+            for (int column = 0; column < 8; column++) {
+                block[row * 8 + column] = (plane[offset + column] & 0xFF) - 128;
+            }
+        }
+        fdct(block);
+        for (int i = 0; i < 64; i++) {
+            block[i] = quantize(block[i], divisors[i]);
+        }
+
+        int dc = block[0];
+        int diff = dc - previousDc;
+        int category = bitLength(diff);
+        writer.writeBits(dcTable.codes[category], dcTable.sizes[category]);
+        if (category != 0) {
+            writer.writeBits(diff < 0 ? diff - 1 : diff, category);
+        }
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int coefficient = block[ZIGZAG[k]];
+            if (coefficient == 0) {
+                run++;
+                continue;
+            }
+            //连续16个0
+            while (run > 15) {
+                writer.writeBits(acTable.codes[0xF0], acTable.sizes[0xF0]);
+                run -= 16;
+            }
+            category = bitLength(coefficient);
+            int symbol = (run << 4) | category;
+            writer.writeBits(acTable.codes[symbol], acTable.sizes[symbol]);
+            writer.writeBits(coefficient < 0 ? coefficient - 1 : coefficient, category);
+            run = 0;
+        }
+        if (run > 0) {
+            //EOB
+            writer.writeBits(acTable.codes[0], acTable.sizes[0]);
+        }
+        return dc;
+    }
+
+    /**
+     * AAN整数快速DCT，先行后列，结果带有aanscale[u] * aanscale[v] * 8的缩放，在量化时除掉
+     */
+    private static void fdct(int[] data) {
+        for (int pass = 0; pass < 2; pass++) {
+            //第一遍按行，第二遍按列
+            int step = pass == 0 ? 1 : 8;
+            int next = pass == 0 ? 8 : 1;
+            for (int i = 0, base = 0; i < 8; i++, base += next) {
+                int d0 = data[base];
+                int d1 = data[base + step];
+                int d2 = data[base + step * 2];
+                int d3 = data[base + step * 3];
+                int d4 = data[base + step * 4];
+                int d5 = data[base + step * 5];
+                int d6 = data[base + step * 6];
+                int d7 = data[base + step * 7];
+
+                int tmp0 = d0 + d7;
+                int tmp7 = d0 - d7;
+                int tmp1 = d1 + d6;
+                int tmp6 = d1 - d6;
+                int tmp2 = d2 + d5;
+                int tmp5 = d2 - d5;
+                int tmp3 = d3 + d4;
+                int tmp4 = d3 - d4;
+
+                //偶数部分
+                int tmp10 = tmp0 + tmp3;
+                int tmp13 = tmp0 - tmp3;
+                int tmp11 = tmp1 + tmp2;
+                int tmp12 = tmp1 - tmp2;
+                data[base] = tmp10 + tmp11;
+                data[base + step * 4] = tmp10 - tmp11;
+                int z1 = multiply(tmp12 + tmp13, FIX_0_707106781);
+                data[base + step * 2] = tmp13 + z1;
+                data[base + step * 6] = tmp13 - z1;
+
+                //奇数部分
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+                int z5 = multiply(tmp10 - tmp12, FIX_0_382683433);
+                int z2 = multiply(tmp10, FIX_0_541196100) + z5;
+                int z4 = multiply(tmp12, FIX_1_306562965) + z5;
+                int z3 = multiply(tmp11, FIX_0_707106781);
+                int z11 = tmp7 + z3;
+                int z13 = tmp7 - z3;
+                data[base + step * 5] = z13 + z2;
+                data[base + step * 3] = z13 - z2;
+                data[base + step] = z11 + z4;
+                data[base + step * 7] = z11 - z4;
+            }
+        }
+    }
+
+    private static int multiply(int value, int constant) {
+        return (value * constant) >> CONST_BITS;
+    }
+
+    /**
+     * 四舍五入的除法，按绝对值舍入，正负对称
+     */
+    private static int quantize(int value, int divisor) {
+        if (value < 0) {
+            return -((-value + (divisor >> 1)) / divisor);
+        }
+        return (value + (divisor >> 1)) / divisor;
+    }
+
+    private static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value < 0 ? -value : value);
+    }
+
+    /**
+     * IJG的质量缩放：50为标准表，越高越接近全1
+     */
+    private static int[] scaleQuant(int[] base, int quality) {
+        int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+        int[] result = new int[64];
+        for (int i = 0; i < 64; i++) {
+            result[i] = Math.max(1, Math.min(255, (base[i] * scale + 50) / 100));
+        }
+        return result;
+    }
+
+    /**
+     * 量化值乘以AAN缩放因子(14位定点)和8，即jfdctfst对应的除数
+     */
+    private static int[] divisors(int[] quant) {
+        double[] aan = new double[8];
+        for (int k = 0; k < 8; k++) {
+            aan[k] = k == 0 ? 1 : Math.cos(k * Math.PI / 16) * Math.sqrt(2);
+        }
+        int[] result = new int[64];
+        for (int i = 0; i < 64; i++) {
+            int scale = (int) Math.round(aan[i / 8] * aan[i % 8] * (1 << 14));
+            result[i] = (quant[i] * scale + (1 << 10)) >> 11;
+        }
+        return result;
+    }
+
+    private static int[] zigzag() {
+        int[] order = new int[64];
+        int k = 0;
+        for (int sum = 0; sum < 15; sum++) {
+            int low = Math.max(0, sum - 7);
+            int high = Math.min(sum, 7);
+            //偶数对角线从左下往右上，奇数对角线从右上往左下
+            for (int i = 0; i <= high - low; i++) {
+                int row = sum % 2 == 0 ? high - i : low + i;
+                order[k++] = row * 8 + sum - row;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * 由码长表生成的规范霍夫曼码
+     */
+    private static final class HuffmanTable {
+        final int[] codes = new int[256];
+        final int[] sizes = new int[256];
+
+        HuffmanTable(int[] bits, int[] values) {
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < bits[length - 1]; i++) {
+                    codes[values[k]] = code++;
+                    sizes[values[k]] = length;
+                    k++;
+                }
+                code <<= 1;
+            }
+        }
+    }
+
+    /**
+     * 带缓冲的输出，熵编码数据中的0xFF后面补0
+     */
+    private static final class BitWriter {
+        private final OutputStream mOut;
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+        private int mPosition;
+        private int mBits;
+        private int mBitCount;
+
+        BitWriter(OutputStream out) {
+            mOut = out;
+        }
+
+        void writeBits(int value, int size) throws IOException {
+            mBits = (mBits << size) | (value & ((1 << size) - 1));
+            mBitCount += size;
+            while (mBitCount >= 8) {
+                mBitCount -= 8;
+                int b = (mBits >> mBitCount) & 0xFF;
+                writeByte(b);
+                if (b == 0xFF) {
+                    writeByte(0);
+                }
+            }
+        }
+
+        /**
+         * 剩下不满一个字节的位用1补齐
+         */
+        void flushBits() throws IOException {
+            if (mBitCount > 0) {
+                writeBits(0x7F, 8 - mBitCount);
+            }
+            mBits = 0;
+        }
+
+        void writeMarker(int marker) throws IOException {
+            writeByte(0xFF);
+            writeByte(marker);
+        }
+
+        void writeShort(int value) throws IOException {
+            writeByte(value >> 8);
+            writeByte(value);
+        }
+
+        void writeBytes(int... values) throws IOException {
+            for (int value : values) {
+                writeByte(value);
+            }
+        }
+
+        void writeByte(int value) throws IOException {
+            if (mPosition == mBuffer.length) {
+                mOut.write(mBuffer, 0, mPosition);
+                mPosition = 0;
+            }
+            mBuffer[mPosition++] = (byte) value;
+        }
+
+        void flush() throws IOException {
+            mOut.write(mBuffer, 0, mPosition);
+            mPosition = 0;
+        }
+    }
+}
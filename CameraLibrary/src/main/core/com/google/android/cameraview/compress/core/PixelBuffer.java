@@ -0,0 +1,72 @@
+package com.google.android.cameraview.compress.core;
+
+/**
+ * @fileName PixelBuffer
+ * @describe 整张图片的ARGB像素，每个像素一个int(0xAARRGGBB)，行与行紧密排列
+ */
+
+
+public final class PixelBuffer implements PixelSource {
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mPixels;
+
+    public PixelBuffer(int width, int height) {
+        this(width, height, new int[checkSize(width, height)]);
+    }
+
+    /**
+     * 直接使用pixels，不复制
+     */
+    public PixelBuffer(int width, int height, int[] pixels) {
+        if (pixels.length < checkSize(width, height)) {
+            throw new IllegalArgumentException("pixels too small: " + pixels.length + " < " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mPixels = pixels;
+    }
+
+    /**
+     * 把source全部读进来
+     */
+    public static PixelBuffer copyOf(PixelSource source) {
+        PixelBuffer buffer = new PixelBuffer(source.getWidth(), source.getHeight());
+        source.readRows(0, source.getHeight(), buffer.mPixels);
+        return buffer;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    public int get(int x, int y) {
+        return mPixels[y * mWidth + x];
+    }
+
+    public void set(int x, int y, int argb) {
+        mPixels[y * mWidth + x] = argb;
+    }
+
+    @Override
+    public void readRows(int y, int rows, int[] out) {
+        System.arraycopy(mPixels, y * mWidth, out, 0, rows * mWidth);
+    }
+
+    private static int checkSize(int width, int height) {
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("bad size: " + width + "x" + height);
+        }
+        return width * height;
+    }
+}
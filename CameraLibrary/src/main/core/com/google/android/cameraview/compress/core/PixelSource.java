@@ -0,0 +1,21 @@
+package com.google.android.cameraview.compress.core;
+
+/**
+ * @fileName PixelSource
+ * @describe 按行读取的ARGB像素来源，编码和缩放都按行条处理，不要求整张图片在一个数组里
+ * <p>
+ * 这个包只依赖JDK，Android上由Bitmap适配，服务端和单元测试中直接用{@link PixelBuffer}
+ */
+
+
+public interface PixelSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * 读取[y, y + rows)行，每行getWidth()个0xAARRGGBB像素，依次放入out
+     */
+    void readRows(int y, int rows, int[] out);
+}
@@ -0,0 +1,129 @@
+package com.google.android.cameraview.compress.core;
+
+/**
+ * @fileName PlanarBuffer
+ * @describe JFIF YCbCr三个平面，每个样本一个字节，色度可以在水平和垂直方向各减半(4:2:0)
+ * <p>
+ * 可以装整张图片，也可以只装一个行条：JPEG编码时每次{@link #load(PixelSource, int)}一行MCU。
+ * 超出图片的行和列复制最后一行/列的像素，编码时补齐MCU不会在边缘产生色块
+ */
+
+
+public final class PlanarBuffer {
+    public static final int PLANE_Y = 0;
+    public static final int PLANE_CB = 1;
+    public static final int PLANE_CR = 2;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final boolean mSubsampled;
+    private final byte[][] mPlanes = new byte[3][];
+    private final int[] mWidths = new int[3];
+    private final int[] mHeights = new int[3];
+    //从PixelSource读出来的行
+    private int[] mArgb;
+
+    /**
+     * @param subsampled 色度是否为4:2:0，这时宽高向上取偶数
+     */
+    public PlanarBuffer(int width, int height, boolean subsampled) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("bad size: " + width + "x" + height);
+        }
+        mSubsampled = subsampled;
+        mWidth = subsampled ? (width + 1) & ~1 : width;
+        mHeight = subsampled ? (height + 1) & ~1 : height;
+        for (int i = 0; i < 3; i++) {
+            boolean chroma = i != PLANE_Y && subsampled;
+            mWidths[i] = chroma ? mWidth / 2 : mWidth;
+            mHeights[i] = chroma ? mHeight / 2 : mHeight;
+            mPlanes[i] = new byte[mWidths[i] * mHeights[i]];
+        }
+    }
+
+    /**
+     * 整张图片转换成YCbCr
+     */
+    public static PlanarBuffer of(PixelSource source, boolean subsampled) {
+        PlanarBuffer buffer = new PlanarBuffer(source.getWidth(), source.getHeight(), subsampled);
+        buffer.load(source, 0);
+        return buffer;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public boolean isSubsampled() {
+        return mSubsampled;
+    }
+
+    public byte[] getPlane(int plane) {
+        return mPlanes[plane];
+    }
+
+    /**
+     * 平面的宽度，也是行与行之间的间隔
+     */
+    public int getPlaneWidth(int plane) {
+        return mWidths[plane];
+    }
+
+    public int getPlaneHeight(int plane) {
+        return mHeights[plane];
+    }
+
+    /**
+     * 从source的第top行开始填满缓冲区
+     */
+    public void load(PixelSource source, int top) {
+        int sourceWidth = source.getWidth();
+        int rows = Math.min(mHeight, source.getHeight() - top);
+        if (rows <= 0) {
+            throw new IllegalArgumentException("top out of range: " + top);
+        }
+        if (mArgb == null || mArgb.length < sourceWidth * rows) {
+            mArgb = new int[sourceWidth * Math.min(mHeight, source.getHeight())];
+        }
+        source.readRows(top, rows, mArgb);
+
+        byte[] luma = mPlanes[PLANE_Y];
+        byte[] cb = mPlanes[PLANE_CB];
+        byte[] cr = mPlanes[PLANE_CR];
+        int step = mSubsampled ? 2 : 1;
+        //色度按step x step个像素求和后一起移位，四舍五入
+        int shift = mSubsampled ? 18 : 16;
+        int bias = (128 << shift) + (1 << (shift - 1));
+        int chromaIndex = 0;
+        for (int y = 0; y < mHeight; y += step) {
+            for (int x = 0; x < mWidth; x += step) {
+                int sumCb = 0;
+                int sumCr = 0;
+                for (int dy = 0; dy < step; dy++) {
+                    int row = Math.min(y + dy, rows - 1) * sourceWidth;
+                    int lumaRow = (y + dy) * mWidth;
+                    for (int dx = 0; dx < step; dx++) {
+                        int argb = mArgb[row + Math.min(x + dx, sourceWidth - 1)];
+                        int r = (argb >> 16) & 0xFF;
+                        int g = (argb >> 8) & 0xFF;
+                        int b = argb & 0xFF;
+                        luma[lumaRow + x + dx] = (byte) ((19595 * r + 38470 * g + 7471 * b + 32768) >> 16);
+                        sumCb += -11059 * r - 21709 * g + 32768 * b;
+                        sumCr += 32768 * r - 27439 * g - 5329 * b;
+                    }
+                }
+                cb[chromaIndex] = (byte) clamp((sumCb + bias) >> shift);
+                cr[chromaIndex] = (byte) clamp((sumCr + bias) >> shift);
+                chromaIndex++;
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
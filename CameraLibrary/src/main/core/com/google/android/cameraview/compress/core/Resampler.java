@@ -0,0 +1,244 @@
+package com.google.android.cameraview.compress.core;
+
+/**
+ * @fileName Resampler
+ * @describe 纯Java的图片缩放：面积平均(box)和Lanczos3，结果和平台无关，可以在单元测试和服务端中复现
+ * <p>
+ * 先水平后垂直两遍分离滤波。每个目标像素的源像素范围和权重预先算好，权重是14位定点数，和为1 << 14。
+ * 源图片按行条读取，水平滤波后的行放在一个环形缓冲区里，大小只有垂直方向滤波窗口的行数，
+ * 所以缩小超大图片时不需要整张图片在内存中
+ */
+
+
+public final class Resampler {
+    private static final int WEIGHT_BITS = 14;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+    //水平滤波后保留的精度：像素值 << 6
+    private static final int HORIZONTAL_SHIFT = WEIGHT_BITS - 6;
+    private static final int VERTICAL_SHIFT = WEIGHT_BITS + 6;
+    private static final int LANCZOS_LOBES = 3;
+    //每次从PixelSource读取的行数
+    private static final int STRIP_ROWS = 16;
+
+    private Resampler() {
+    }
+
+    /**
+     * 面积平均：每个目标像素是它覆盖的源像素按覆盖面积加权的平均值，缩小时没有混叠，适合缩略图
+     */
+    public static PixelBuffer areaAverage(PixelSource source, int dstWidth, int dstHeight) {
+        return resample(source, dstWidth, dstHeight, false);
+    }
+
+    /**
+     * Lanczos3：比面积平均更锐利，边缘会有轻微的振铃，适合需要保留细节的尺寸
+     */
+    public static PixelBuffer lanczos(PixelSource source, int dstWidth, int dstHeight) {
+        return resample(source, dstWidth, dstHeight, true);
+    }
+
+    private static PixelBuffer resample(PixelSource source, int dstWidth, int dstHeight, boolean lanczos) {
+        int srcWidth = source.getWidth();
+        int srcHeight = source.getHeight();
+        PixelBuffer output = new PixelBuffer(dstWidth, dstHeight);
+        Contributions horizontal = lanczos ? Contributions.lanczos(srcWidth, dstWidth) : Contributions.area(srcWidth, dstWidth);
+        Contributions vertical = lanczos ? Contributions.lanczos(srcHeight, dstHeight) : Contributions.area(srcHeight, dstHeight);
+
+        int ringSize = vertical.maxCount;
+        int[][] ring = new int[ringSize][dstWidth * 4];
+        int stripRows = Math.min(STRIP_ROWS, srcHeight);
+        int[] strip = new int[srcWidth * stripRows];
+        int stripTop = 0;
+        int stripCount = 0;
+        int nextRow = 0;
+        int[] pixels = output.getPixels();
+
+        for (int dy = 0; dy < dstHeight; dy++) {
+            int start = vertical.starts[dy];
+            int count = vertical.counts[dy];
+            //窗口是单调向下移动的，补齐窗口里还没有水平滤波的行
+            for (; nextRow < start + count; nextRow++) {
+                if (nextRow >= stripTop + stripCount) {
+                    stripTop = nextRow;
+                    stripCount = Math.min(stripRows, srcHeight - nextRow);
+                    source.readRows(stripTop, stripCount, strip);
+                }
+                filterRow(strip, (nextRow - stripTop) * srcWidth, horizontal, ring[nextRow % ringSize]);
+            }
+
+            int weightOffset = dy * vertical.maxCount;
+            int outOffset = dy * dstWidth;
+            for (int dx = 0; dx < dstWidth; dx++) {
+                int a = 0;
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                int index = dx * 4;
+                for (int k = 0; k < count; k++) {
+                    int[] row = ring[(start + k) % ringSize];
+                    int weight = vertical.weights[weightOffset + k];
+                    a += row[index] * weight;
+                    r += row[index + 1] * weight;
+                    g += row[index + 2] * weight;
+                    b += row[index + 3] * weight;
+                }
+                int argb = round(a) << 24 | round(r) << 16 | round(g) << 8 | round(b);
+                pixels[outOffset + dx] = argb;
+            }
+        }
+        return output;
+    }
+
+    /**
+     * 一行源像素水平滤波，结果按A、R、G、B交错放入out
+     */
+    private static void filterRow(int[] strip, int offset, Contributions horizontal, int[] out) {
+        int maxCount = horizontal.maxCount;
+        int[] starts = horizontal.starts;
+        int[] counts = horizontal.counts;
+        int[] weights = horizontal.weights;
+        int dstWidth = starts.length;
+        for (int dx = 0; dx < dstWidth; dx++) {
+            int a = 0;
+            int r = 0;
+            int g = 0;
+            int b = 0;
+            int source = offset + starts[dx];
+            int weightOffset = dx * maxCount;
+            for (int k = 0, count = counts[dx]; k < count; k++) {
+                int argb = strip[source + k];
+                int weight = weights[weightOffset + k];
+                a += (argb >>> 24) * weight;
+                r += ((argb >> 16) & 0xFF) * weight;
+                g += ((argb >> 8) & 0xFF) * weight;
+                b += (argb & 0xFF) * weight;
+            }
+            int index = dx * 4;
+            //Lanczos的负权重可能让结果为负，算术右移保持符号
+            out[index] = a >> HORIZONTAL_SHIFT;
+            out[index + 1] = r >> HORIZONTAL_SHIFT;
+            out[index + 2] = g >> HORIZONTAL_SHIFT;
+            out[index + 3] = b >> HORIZONTAL_SHIFT;
+        }
+    }
+
+    /**
+     * 垂直滤波的结果转回8位，四舍五入并截断到[0, 255]
+     */
+    private static int round(int value) {
+        value = (value + (1 << (VERTICAL_SHIFT - 1))) >> VERTICAL_SHIFT;
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    /**
+     * 一个方向上每个目标像素的源像素范围[starts[i], starts[i] + counts[i])和定点权重
+     */
+    private static final class Contributions {
+        final int[] starts;
+        final int[] counts;
+        //每个目标像素maxCount个权重
+        final int[] weights;
+        final int maxCount;
+
+        private Contributions(int dstSize, int maxCount) {
+            this.starts = new int[dstSize];
+            this.counts = new int[dstSize];
+            this.weights = new int[dstSize * maxCount];
+            this.maxCount = maxCount;
+        }
+
+        /**
+         * 目标像素i覆盖源坐标[i * scale, (i + 1) * scale)，权重是和每个源像素重叠的长度
+         */
+        static Contributions area(int srcSize, int dstSize) {
+            checkSize(srcSize, dstSize);
+            double scale = (double) srcSize / dstSize;
+            Contributions result = new Contributions(dstSize, (int) Math.ceil(scale) + 1);
+            double[] raw = new double[result.maxCount];
+            for (int i = 0; i < dstSize; i++) {
+                double left = i * scale;
+                double right = Math.min(srcSize, (i + 1) * scale);
+                int start = (int) Math.floor(left);
+                int end = Math.min(srcSize, (int) Math.ceil(right));
+                int count = 0;
+                for (int j = start; j < end; j++) {
+                    raw[count++] = Math.min(right, j + 1) - Math.max(left, j);
+                }
+                result.set(i, start, raw, count);
+            }
+            return result;
+        }
+
+        /**
+         * 缩小时滤波器按比例展宽，超出边缘的源像素去掉后重新归一化
+         */
+        static Contributions lanczos(int srcSize, int dstSize) {
+            checkSize(srcSize, dstSize);
+            double scale = (double) srcSize / dstSize;
+            double filterScale = Math.max(1, scale);
+            double support = LANCZOS_LOBES * filterScale;
+            Contributions result = new Contributions(dstSize, (int) Math.ceil(support * 2) + 1);
+            double[] raw = new double[result.maxCount];
+            for (int i = 0; i < dstSize; i++) {
+                double center = (i + 0.5) * scale - 0.5;
+                int start = Math.max(0, (int) Math.floor(center - support) + 1);
+                int end = Math.min(srcSize, (int) Math.ceil(center + support));
+                int count = 0;
+                for (int j = start; j < end; j++) {
+                    raw[count++] = lanczos3((j - center) / filterScale);
+                }
+                result.set(i, start, raw, count);
+            }
+            return result;
+        }
+
+        /**
+         * 去掉两端为0的权重，归一化成定点数，舍入误差加到最大的权重上，保证和正好是1 << 14
+         */
+        private void set(int index, int start, double[] raw, int count) {
+            int first = 0;
+            while (first < count - 1 && raw[first] == 0) {
+                first++;
+            }
+            int last = count - 1;
+            while (last > first && raw[last] == 0) {
+                last--;
+            }
+            double sum = 0;
+            for (int k = first; k <= last; k++) {
+                sum += raw[k];
+            }
+            int offset = index * maxCount;
+            int total = 0;
+            int largest = offset;
+            for (int k = first; k <= last; k++) {
+                int weight = sum == 0 ? 0 : (int) Math.round(raw[k] / sum * WEIGHT_ONE);
+                weights[offset + k - first] = weight;
+                total += weight;
+                if (weight > weights[largest]) {
+                    largest = offset + k - first;
+                }
+            }
+            weights[largest] += WEIGHT_ONE - total;
+            starts[index] = start + first;
+            counts[index] = last - first + 1;
+        }
+
+        private static double lanczos3(double x) {
+            if (x == 0) {
+                return 1;
+            }
+            if (x <= -LANCZOS_LOBES || x >= LANCZOS_LOBES) {
+                return 0;
+            }
+            double px = Math.PI * x;
+            return LANCZOS_LOBES * Math.sin(px) * Math.sin(px / LANCZOS_LOBES) / (px * px);
+        }
+
+        private static void checkSize(int srcSize, int dstSize) {
+            if (srcSize <= 0 || dstSize <= 0) {
+                throw new IllegalArgumentException("bad size: " + srcSize + " -> " + dstSize);
+            }
+        }
+    }
+}
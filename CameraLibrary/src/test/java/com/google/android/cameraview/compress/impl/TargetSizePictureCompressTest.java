@@ -0,0 +1,136 @@
+package com.google.android.cameraview.compress.impl;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @fileName TargetSizePictureCompressTest
+ * @describe 用假的编码器测试质量搜索：大小按默认的质量-大小曲线乘以场景复杂度输出，记录每次编码用的质量
+ */
+public class TargetSizePictureCompressTest {
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+    private static final int PIXELS = WIDTH * HEIGHT;
+    private static final long BUDGET = 4 * 1024 * 1024;
+
+    @Test
+    public void fitsBudget() {
+        for (double scene : new double[]{0.6, 1, 1.7, 2.5}) {
+            CurveEncoder encoder = new CurveEncoder(scene);
+            TargetSizePictureCompress.EncodeBuffer best = new TargetSizePictureCompress.EncodeBuffer(16);
+            new TargetSizePictureCompress(BUDGET).search(newModel(), PIXELS, 100, encoder, best, new TargetSizePictureCompress.EncodeBuffer(16));
+            assertTrue("scene " + scene + ", size " + best.size(), best.size() > 0 && best.size() <= BUDGET);
+            //相邻质量的大小差不到10%时应该落在容差之内
+            assertTrue("scene " + scene + ", size " + best.size(), best.size() >= BUDGET * 0.8);
+            assertTrue("scene " + scene + ", passes " + encoder.qualities, encoder.qualities.size() <= 6);
+        }
+    }
+
+    @Test
+    public void learnedModelConvergesFaster() {
+        JpegSizeModel model = newModel();
+        int passes = 0;
+        for (int shot = 0; shot < 10; shot++) {
+            CurveEncoder encoder = new CurveEncoder(1.8);
+            TargetSizePictureCompress.EncodeBuffer best = new TargetSizePictureCompress.EncodeBuffer(16);
+            new TargetSizePictureCompress(BUDGET).search(model, PIXELS, 100, encoder, best, new TargetSizePictureCompress.EncodeBuffer(16));
+            assertTrue(best.size() > 0 && best.size() <= BUDGET);
+            passes = encoder.qualities.size();
+        }
+        assertTrue("passes " + passes, passes <= 2);
+    }
+
+    /**
+     * 只有最低质量满足预算，搜索次数用完也要试过最低质量，不能直接缩小图片
+     */
+    @Test
+    public void minimumQualityProbed() {
+        StepEncoder encoder = new StepEncoder(BUDGET - 1, BUDGET + BUDGET / 20);
+        TargetSizePictureCompress.EncodeBuffer best = new TargetSizePictureCompress.EncodeBuffer(16);
+        new TargetSizePictureCompress(BUDGET).search(newModel(), PIXELS, 100, encoder, best, new TargetSizePictureCompress.EncodeBuffer(16));
+        assertTrue(encoder.qualities.contains(JpegSizeModel.MIN_QUALITY));
+        assertEquals(BUDGET - 1, best.size());
+    }
+
+    /**
+     * 最低质量也超出预算时best为空，返回最低质量的大小用来估算缩放比例
+     */
+    @Test
+    public void minimumQualityTooLarge() {
+        StepEncoder encoder = new StepEncoder(BUDGET + BUDGET / 40, BUDGET + BUDGET / 20);
+        TargetSizePictureCompress.EncodeBuffer best = new TargetSizePictureCompress.EncodeBuffer(16);
+        long smallest = new TargetSizePictureCompress(BUDGET).search(newModel(), PIXELS, 100, encoder, best, new TargetSizePictureCompress.EncodeBuffer(16));
+        assertTrue(encoder.qualities.contains(JpegSizeModel.MIN_QUALITY));
+        assertEquals(0, best.size());
+        assertEquals(BUDGET + BUDGET / 40, smallest);
+    }
+
+    @Test
+    public void maxQualityRespected() {
+        CurveEncoder encoder = new CurveEncoder(0.1);
+        TargetSizePictureCompress.EncodeBuffer best = new TargetSizePictureCompress.EncodeBuffer(16);
+        new TargetSizePictureCompress(BUDGET).search(newModel(), PIXELS, 80, encoder, best, new TargetSizePictureCompress.EncodeBuffer(16));
+        assertTrue(best.size() > 0);
+        for (int quality : encoder.qualities) {
+            assertTrue("quality " + quality, quality <= 80);
+        }
+    }
+
+    private static JpegSizeModel newModel() {
+        return new JpegSizeModel(null, "test");
+    }
+
+    private abstract static class FakeEncoder implements TargetSizePictureCompress.Encoder {
+        final List<Integer> qualities = new ArrayList<>();
+
+        abstract long sizeOf(int quality);
+
+        @Override
+        public void encode(int quality, OutputStream out) throws IOException {
+            qualities.add(quality);
+            out.write(new byte[(int) sizeOf(quality)]);
+        }
+    }
+
+    /**
+     * 没有学习过的模型的曲线，场景复杂度让整条曲线上下平移
+     */
+    private static final class CurveEncoder extends FakeEncoder {
+        final JpegSizeModel curve = newModel();
+        final double scene;
+
+        CurveEncoder(double scene) {
+            this.scene = scene;
+        }
+
+        @Override
+        long sizeOf(int quality) {
+            return (long) (Math.exp(curve.predictLog(quality)) * scene * PIXELS);
+        }
+    }
+
+    /**
+     * 最低质量一个大小，其余质量另一个大小
+     */
+    private static final class StepEncoder extends FakeEncoder {
+        final long minSize;
+        final long otherSize;
+
+        StepEncoder(long minSize, long otherSize) {
+            this.minSize = minSize;
+            this.otherSize = otherSize;
+        }
+
+        @Override
+        long sizeOf(int quality) {
+            return quality <= JpegSizeModel.MIN_QUALITY ? minSize : otherSize;
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package com.google.android.cameraview.compress.video;
+
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @fileName VideoTranscoderTest
+ * @describe 用假的样本来源、编解码器和封装验证转码流水线：结束标记的传递、输出格式变化、抽帧、关键帧和各种错误
+ */
+public class VideoTranscoderTest {
+    private static final long FRAME_30FPS = 33333;
+    private static final long FRAME_60FPS = 16667;
+    private static final long AUDIO_FRAME = 23220;
+
+    @Test
+    public void endOfStreamPropagates() throws IOException {
+        Pipeline pipeline = new Pipeline(new FakeSource(1000000, FRAME_30FPS, 30), null);
+        VideoTranscoder transcoder = pipeline.transcoder(0, 0);
+        transcoder.transcode();
+
+        assertEquals(30, transcoder.getFrameCount());
+        assertEquals(0, transcoder.getDroppedCount());
+        assertTrue(pipeline.decoder.inputEos);
+        assertEquals(1, pipeline.encoder.eosSignals);
+        assertTrue(pipeline.encoder.eosSent);
+        assertTrue(pipeline.sink.stopped);
+        List<long[]> video = pipeline.sink.samples(0);
+        assertEquals(30, video.size());
+        //时间从0开始
+        assertEquals(0, video.get(0)[1]);
+        assertEquals(29 * FRAME_30FPS, video.get(29)[1]);
+        //编解码配置已经在输出格式中，不写入
+        for (long[] sample : pipeline.sink.samples) {
+            assertEquals(0, sample[3] & SampleInfo.FLAG_CODEC_CONFIG);
+        }
+    }
+
+    @Test
+    public void decoderFormatChangeIgnored() throws IOException {
+        Pipeline pipeline = new Pipeline(new FakeSource(0, FRAME_30FPS, 10), null);
+        pipeline.decoder.formatChange = true;
+        VideoTranscoder transcoder = pipeline.transcoder(0, 0);
+        transcoder.transcode();
+
+        assertEquals(10, transcoder.getFrameCount());
+        assertEquals(10, pipeline.sink.samples(0).size());
+    }
+
+    @Test
+    public void encoderFormatStartsSinkWithAllTracks() throws IOException {
+        FakeSource audio = new FakeSource(990000, AUDIO_FRAME, 60);
+        Pipeline pipeline = new Pipeline(new FakeSource(1000000, FRAME_30FPS, 45), audio);
+        VideoTranscoder transcoder = pipeline.transcoder(0, 0);
+        transcoder.setOrientationHint(90);
+        transcoder.transcode();
+
+        assertEquals(2, pipeline.sink.tracks.size());
+        assertSame(pipeline.encoder.format, pipeline.sink.tracks.get(0));
+        assertSame(audio.format, pipeline.sink.tracks.get(1));
+        assertEquals(90, pipeline.sink.orientation);
+        assertEquals(60, transcoder.getAudioSampleCount());
+        assertEquals(60, pipeline.sink.samples(1).size());
+        //音视频减去同一个基准(最早的音频)
+        assertEquals(0, pipeline.sink.samples(1).get(0)[1]);
+        assertEquals(10000, pipeline.sink.samples(0).get(0)[1]);
+    }
+
+    @Test
+    public void audioInterleavedWithVideo() throws IOException {
+        Pipeline pipeline = new Pipeline(new FakeSource(0, FRAME_30FPS, 45), new FakeSource(0, AUDIO_FRAME, 90));
+        pipeline.transcoder(0, 0).transcode();
+
+        List<long[]> samples = pipeline.sink.samples;
+        int lastVideo = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            if (samples.get(i)[0] == 0) {
+                lastVideo = i;
+            }
+        }
+        //视频结束前写入的音频不晚于已经写入的视频
+        long videoTime = -1;
+        for (int i = 0; i < lastVideo; i++) {
+            long[] sample = samples.get(i);
+            if (sample[0] == 0) {
+                videoTime = sample[1];
+            } else {
+                assertTrue("audio " + sample[1] + " after video " + videoTime, sample[1] <= videoTime);
+            }
+        }
+        //剩下的音频在视频结束后全部写入
+        assertEquals(90, pipeline.sink.samples(1).size());
+    }
+
+    @Test
+    public void frameRateDropsFrames() throws IOException {
+        Pipeline pipeline = new Pipeline(new FakeSource(0, FRAME_60FPS, 60), null);
+        VideoTranscoder transcoder = pipeline.transcoder(30, 0);
+        transcoder.transcode();
+
+        assertEquals(60, transcoder.getFrameCount() + transcoder.getDroppedCount());
+        assertTrue("frames " + transcoder.getFrameCount(), Math.abs(transcoder.getFrameCount() - 30) <= 1);
+        assertEquals(transcoder.getFrameCount(), pipeline.sink.samples(0).size());
+        assertEquals(transcoder.getFrameCount(), pipeline.decoder.rendered);
+    }
+
+    @Test
+    public void keyFrameRequestedWhenEncoderIgnoresInterval() throws IOException {
+        Pipeline pipeline = new Pipeline(new FakeSource(0, FRAME_30FPS, 150), null);
+        pipeline.transcoder(0, 1).transcode();
+
+        assertTrue(pipeline.encoder.syncRequests >= 3);
+        long lastKey = -1;
+        for (long[] sample : pipeline.sink.samples(0)) {
+            if ((sample[3] & SampleInfo.FLAG_KEY_FRAME) != 0) {
+                if (lastKey >= 0) {
+                    assertTrue("key frame gap " + (sample[1] - lastKey), sample[1] - lastKey <= 1250000 + FRAME_30FPS);
+                }
+                lastKey = sample[1];
+            }
+        }
+    }
+
+    @Test
+    public void encoderFormatChangedTwiceFails() {
+        Pipeline pipeline = new Pipeline(new FakeSource(0, FRAME_30FPS, 10), null);
+        pipeline.encoder.formatChanges = 2;
+        assertFails(pipeline.transcoder(0, 0), "format changed twice");
+        assertFalse(pipeline.sink.stopped);
+    }
+
+    @Test
+    public void encoderOutputBeforeFormatFails() {
+        Pipeline pipeline = new Pipeline(new FakeSource(0, FRAME_30FPS, 10), null);
+        pipeline.encoder.formatChanges = 0;
+        assertFails(pipeline.transcoder(0, 0), "before format");
+        assertFalse(pipeline.sink.started);
+    }
+
+    @Test
+    public void emptyVideoFails() {
+        Pipeline pipeline = new Pipeline(new FakeSource(0, FRAME_30FPS, 0), null);
+        assertFails(pipeline.transcoder(0, 0), "output nothing");
+        assertEquals(1, pipeline.encoder.eosSignals);
+        assertFalse(pipeline.sink.started);
+    }
+
+    @Test
+    public void stalledEncoderFails() {
+        Pipeline pipeline = new Pipeline(new FakeSource(0, FRAME_30FPS, 10), null);
+        pipeline.encoder.stuck = true;
+        assertFails(pipeline.transcoder(0, 0), "stalled");
+    }
+
+    @Test
+    public void rendererErrorPropagates() {
+        Pipeline pipeline = new Pipeline(new FakeSource(0, FRAME_30FPS, 10), null);
+        pipeline.renderer.failAt = 5;
+        assertFails(pipeline.transcoder(0, 0), "frame timeout");
+        assertFalse(pipeline.sink.stopped);
+    }
+
+    @Test
+    public void interruptCancels() throws IOException {
+        Pipeline pipeline = new Pipeline(new FakeSource(0, FRAME_30FPS, 10), null);
+        Thread.currentThread().interrupt();
+        try {
+            pipeline.transcoder(0, 0).transcode();
+            fail("transcode should be cancelled");
+        } catch (InterruptedIOException expected) {
+            assertFalse(pipeline.sink.stopped);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    private static void assertFails(VideoTranscoder transcoder, String message) {
+        try {
+            transcoder.transcode();
+            fail("expected IOException: " + message);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static final class Pipeline {
+        final FakeSource video;
+        final FakeSource audio;
+        final FakeDecoder decoder = new FakeDecoder();
+        final FakeEncoder encoder = new FakeEncoder();
+        final FakeRenderer renderer = new FakeRenderer(encoder);
+        final FakeSink sink = new FakeSink();
+
+        Pipeline(FakeSource video, FakeSource audio) {
+            this.video = video;
+            this.audio = audio;
+        }
+
+        VideoTranscoder transcoder(int frameRate, int keyFrameInterval) {
+            return new VideoTranscoder(video, audio, decoder, encoder, renderer, sink, frameRate, keyFrameInterval);
+        }
+    }
+
+    /**
+     * 等间隔的样本，每个100字节
+     */
+    private static final class FakeSource implements SampleSource {
+        final MediaFormat format = new MediaFormat();
+        final long startUs;
+        final long intervalUs;
+        final int count;
+        int index;
+
+        FakeSource(long startUs, long intervalUs, int count) {
+            this.startUs = startUs;
+            this.intervalUs = intervalUs;
+            this.count = count;
+        }
+
+        @Override
+        public MediaFormat getFormat() {
+            return format;
+        }
+
+        @Override
+        public int getMaxSampleSize() {
+            return 256;
+        }
+
+        @Override
+        public long getSampleTime() {
+            return index < count ? startUs + index * intervalUs : -1;
+        }
+
+        @Override
+        public boolean readSample(ByteBuffer buffer, SampleInfo info) {
+            if (index >= count) {
+                return false;
+            }
+            buffer.clear();
+            buffer.put(new byte[100]);
+            buffer.flip();
+            info.set(0, 100, getSampleTime(), index == 0 ? SampleInfo.FLAG_KEY_FRAME : 0);
+            index++;
+            return true;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    /**
+     * 输入原样输出(包括结束标记)，最多同时持有4个样本，同一时间只能取出一个输出缓冲区
+     */
+    private static final class FakeDecoder implements VideoCodec {
+        final Deque<long[]> pending = new ArrayDeque<>();
+        boolean formatChange;
+        boolean inputEos;
+        int outstanding = -1;
+        int nextIndex;
+        int rendered;
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            return inputEos || pending.size() >= 4 ? INFO_TRY_AGAIN_LATER : 0;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return ByteBuffer.allocate(1024);
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int size, long presentationTimeUs, int flags) {
+            assertFalse("input after end of stream", inputEos);
+            pending.add(new long[]{presentationTimeUs, size, flags});
+            inputEos = (flags & SampleInfo.FLAG_END_OF_STREAM) != 0;
+        }
+
+        @Override
+        public void signalEndOfInputStream() {
+            throw new IllegalStateException("decoder input is not a surface");
+        }
+
+        @Override
+        public int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+            assertEquals("output buffer not released", -1, outstanding);
+            if (formatChange) {
+                formatChange = false;
+                return INFO_OUTPUT_FORMAT_CHANGED;
+            }
+            long[] sample = pending.poll();
+            if (sample == null) {
+                return INFO_TRY_AGAIN_LATER;
+            }
+            info.set(0, (int) sample[1], sample[0], (int) sample[2]);
+            outstanding = nextIndex++;
+            return outstanding;
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            throw new IllegalStateException("decoder output goes to a surface");
+        }
+
+        @Override
+        public MediaFormat getOutputFormat() {
+            return new MediaFormat();
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, boolean render) {
+            assertEquals(outstanding, index);
+            outstanding = -1;
+            if (render) {
+                rendered++;
+            }
+        }
+
+        @Override
+        public void requestSyncFrame() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    /**
+     * 绘制的帧立即编码输出：先给出输出格式和一个编解码配置，只有第一帧和请求之后的一帧是关键帧
+     */
+    private static final class FakeEncoder implements VideoCodec {
+        final MediaFormat format = new MediaFormat();
+        final Deque<Long> frames = new ArrayDeque<>();
+        int formatChanges = 1;
+        boolean stuck;
+        int formatsSent;
+        boolean configSent;
+        boolean syncRequested;
+        int syncRequests;
+        int eosSignals;
+        boolean eosSent;
+        int outputs;
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            throw new IllegalStateException("encoder input is a surface");
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            throw new IllegalStateException("encoder input is a surface");
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int size, long presentationTimeUs, int flags) {
+            throw new IllegalStateException("encoder input is a surface");
+        }
+
+        @Override
+        public void signalEndOfInputStream() {
+            eosSignals++;
+        }
+
+        @Override
+        public int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+            if (stuck) {
+                return INFO_TRY_AGAIN_LATER;
+            }
+            if (formatsSent < formatChanges && (!frames.isEmpty() || outputs > 0)) {
+                formatsSent++;
+                return INFO_OUTPUT_FORMAT_CHANGED;
+            }
+            if (!configSent && !frames.isEmpty()) {
+                configSent = true;
+                info.set(0, 20, 0, SampleInfo.FLAG_CODEC_CONFIG);
+                return 0;
+            }
+            Long timeUs = frames.poll();
+            if (timeUs != null) {
+                boolean key = outputs == 0 || syncRequested;
+                syncRequested = false;
+                outputs++;
+                info.set(0, 100, timeUs, key ? SampleInfo.FLAG_KEY_FRAME : 0);
+                return 0;
+            }
+            if (eosSignals > 0 && !eosSent) {
+                eosSent = true;
+                info.set(0, 0, 0, SampleInfo.FLAG_END_OF_STREAM);
+                return 0;
+            }
+            return INFO_TRY_AGAIN_LATER;
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            return ByteBuffer.allocate(256);
+        }
+
+        @Override
+        public MediaFormat getOutputFormat() {
+            return format;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, boolean render) {
+        }
+
+        @Override
+        public void requestSyncFrame() {
+            syncRequested = true;
+            syncRequests++;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    private static final class FakeRenderer implements FrameRenderer {
+        final FakeEncoder encoder;
+        int failAt = -1;
+        int drawn;
+
+        FakeRenderer(FakeEncoder encoder) {
+            this.encoder = encoder;
+        }
+
+        @Override
+        public void drawFrame(long presentationTimeUs) throws IOException {
+            if (drawn == failAt) {
+                throw new IOException("frame timeout");
+            }
+            drawn++;
+            encoder.frames.add(presentationTimeUs);
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    /**
+     * 和MediaMuxer一样检查调用顺序，记录写入的样本：轨道、时间、大小、标记
+     */
+    private static final class FakeSink implements SampleSink {
+        final List<MediaFormat> tracks = new ArrayList<>();
+        final List<long[]> samples = new ArrayList<>();
+        int orientation = -1;
+        boolean started;
+        boolean stopped;
+
+        @Override
+        public int addTrack(MediaFormat format) {
+            assertFalse("addTrack after start", started);
+            tracks.add(format);
+            return tracks.size() - 1;
+        }
+
+        @Override
+        public void setOrientationHint(int degrees) {
+            assertFalse("setOrientationHint after start", started);
+            orientation = degrees;
+        }
+
+        @Override
+        public void start() {
+            assertFalse(tracks.isEmpty());
+            started = true;
+        }
+
+        @Override
+        public void writeSample(int track, ByteBuffer buffer, SampleInfo info) {
+            assertTrue("writeSample before start", started);
+            assertFalse("writeSample after stop", stopped);
+            assertTrue(track >= 0 && track < tracks.size());
+            samples.add(new long[]{track, info.presentationTimeUs, info.size, info.flags});
+        }
+
+        @Override
+        public void stop() {
+            assertTrue(started);
+            stopped = true;
+        }
+
+        @Override
+        public void release() {
+        }
+
+        List<long[]> samples(int track) {
+            List<long[]> result = new ArrayList<>();
+            for (long[] sample : samples) {
+                if (sample[0] == track) {
+                    result.add(sample);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.google.android.cameraview.helper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @fileName ExifTest
+ * @describe Exif方向的写入：已有方向时原地修改两个字节，没有时插入，读不懂的APP1保持原样
+ * <p>
+ * 样图只有文件头和一段假的扫描数据，写入方向时不会读到压缩数据
+ */
+public class ExifTest {
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_SOFTWARE = 0x0131;
+    private static final byte[] SCAN = {(byte) 0xFF, (byte) 0xDA, 0, 4, 0x11, 0x22, 0x33, 0x44, (byte) 0xFF, (byte) 0xD9};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void patchedInPlace() {
+        for (boolean littleEndian : new boolean[]{false, true}) {
+            byte[] jpeg = jpeg(jfif(), exif(littleEndian, TAG_MAKE, TAG_ORIENTATION, TAG_SOFTWARE));
+            byte[] before = jpeg.clone();
+            assertSame(jpeg, Exif.setOrientation(jpeg, Exif.ORIENTATION_ROTATE_270));
+            assertEquals(Exif.ORIENTATION_ROTATE_270, Exif.getOrientationTag(jpeg));
+            assertEquals(270, Exif.getOrientation(jpeg));
+            //改回原来的方向后和原图完全一致，没有改动其他字节
+            assertTrue(Exif.patchOrientation(jpeg, Exif.ORIENTATION_NORMAL));
+            assertArrayEquals(before, jpeg);
+        }
+    }
+
+    @Test
+    public void patchOrientationWithoutEntry() {
+        byte[] jpeg = jpeg(jfif());
+        byte[] before = jpeg.clone();
+        assertFalse(Exif.patchOrientation(jpeg, Exif.ORIENTATION_ROTATE_90));
+        assertArrayEquals(before, jpeg);
+    }
+
+    @Test
+    public void insertedWhenExifMissing() {
+        byte[] jfif = jfif();
+        byte[] jpeg = jpeg(jfif);
+        byte[] result = Exif.setOrientation(jpeg, Exif.ORIENTATION_ROTATE_90);
+        assertEquals(Exif.ORIENTATION_ROTATE_90, Exif.getOrientationTag(result));
+        assertEquals(90, Exif.getOrientation(result));
+        //APP0保持在APP1前面，之后的数据不变
+        assertArrayEquals(Arrays.copyOf(jpeg, 2 + jfif.length), Arrays.copyOf(result, 2 + jfif.length));
+        assertEquals(0xE1, result[2 + jfif.length + 1] & 0xFF);
+        assertTrue(endsWith(result, SCAN));
+    }
+
+    @Test
+    public void insertedWithoutApp0() {
+        byte[] result = Exif.setOrientation(jpeg(), Exif.ORIENTATION_ROTATE_180);
+        assertEquals(0xE1, result[3] & 0xFF);
+        assertEquals(180, Exif.getOrientation(result));
+        assertTrue(endsWith(result, SCAN));
+    }
+
+    @Test
+    public void entryAddedToExistingIfd() {
+        for (boolean littleEndian : new boolean[]{false, true}) {
+            byte[] jpeg = jpeg(exif(littleEndian, TAG_MAKE, TAG_SOFTWARE));
+            assertEquals(0, Exif.getOrientationTag(jpeg));
+            byte[] result = Exif.setOrientation(jpeg, Exif.ORIENTATION_TRANSPOSE);
+            assertEquals(Exif.ORIENTATION_TRANSPOSE, Exif.getOrientationTag(result));
+            assertEquals(jpeg.length + 2 + 3 * 12 + 4, result.length);
+            //再次写入时原地修改
+            assertSame(result, Exif.setOrientation(result, Exif.ORIENTATION_NORMAL));
+            assertEquals(0, Exif.getOrientation(result));
+            assertTrue(endsWith(result, SCAN));
+        }
+    }
+
+    @Test
+    public void corruptExifUntouched() {
+        byte[] app1 = exif(false, TAG_MAKE);
+        //字节序既不是II也不是MM
+        app1[10] = 'X';
+        app1[11] = 'X';
+        checkUntouched(jpeg(app1));
+
+        //IFD0的偏移超出APP1
+        app1 = exif(true, TAG_MAKE);
+        app1[14] = (byte) 0xF0;
+        checkUntouched(jpeg(app1));
+
+        //APP1的长度超出文件
+        app1 = exif(false, TAG_MAKE);
+        app1[2] = 0x7F;
+        checkUntouched(jpeg(app1));
+    }
+
+    @Test
+    public void notJpegRejected() {
+        assertNull(Exif.setOrientation(new byte[]{0x12, 0x34, 0x56, 0x78, 0x00}, Exif.ORIENTATION_ROTATE_90));
+        assertNull(Exif.setOrientation((byte[]) null, Exif.ORIENTATION_ROTATE_90));
+    }
+
+    @Test
+    public void fileRoundTrip() throws IOException {
+        File patched = write(jpeg(exif(false, TAG_ORIENTATION)));
+        long length = patched.length();
+        assertTrue(Exif.setOrientation(patched, Exif.ORIENTATION_ROTATE_90));
+        assertEquals(length, patched.length());
+        assertEquals(90, Exif.getOrientation(read(patched)));
+
+        File inserted = write(jpeg(jfif()));
+        assertTrue(Exif.setOrientation(inserted.getPath(), Exif.ORIENTATION_ROTATE_270));
+        byte[] result = read(inserted);
+        assertEquals(270, Exif.getOrientation(result));
+        assertTrue(endsWith(result, SCAN));
+        assertFalse(new File(inserted.getPath() + ".exif").exists());
+    }
+
+    @Test
+    public void corruptFileUntouched() throws IOException {
+        byte[] app1 = exif(false, TAG_MAKE);
+        app1[10] = 'X';
+        byte[] jpeg = jpeg(app1);
+        File file = write(jpeg);
+        assertFalse(Exif.setOrientation(file, Exif.ORIENTATION_ROTATE_90));
+        assertArrayEquals(jpeg, read(file));
+    }
+
+    @Test
+    public void degrees() {
+        assertEquals(0, Exif.toDegrees(Exif.ORIENTATION_NORMAL));
+        assertEquals(0, Exif.toDegrees(Exif.ORIENTATION_FLIP_HORIZONTAL));
+        assertEquals(90, Exif.toDegrees(Exif.ORIENTATION_ROTATE_90));
+        assertEquals(90, Exif.toDegrees(Exif.ORIENTATION_TRANSVERSE));
+        assertEquals(180, Exif.toDegrees(Exif.ORIENTATION_ROTATE_180));
+        assertEquals(180, Exif.toDegrees(Exif.ORIENTATION_FLIP_VERTICAL));
+        assertEquals(270, Exif.toDegrees(Exif.ORIENTATION_ROTATE_270));
+        assertEquals(270, Exif.toDegrees(Exif.ORIENTATION_TRANSPOSE));
+    }
+
+    private static void checkUntouched(byte[] jpeg) {
+        byte[] before = jpeg.clone();
+        assertNull(Exif.setOrientation(jpeg, Exif.ORIENTATION_ROTATE_90));
+        assertArrayEquals(before, jpeg);
+    }
+
+    /**
+     * SOI + segments + 扫描数据 + EOI
+     */
+    private static byte[] jpeg(byte[]... segments) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        for (byte[] segment : segments) {
+            out.write(segment, 0, segment.length);
+        }
+        out.write(SCAN, 0, SCAN.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] jfif() {
+        return new byte[]{(byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0};
+    }
+
+    /**
+     * 只有IFD0的Exif APP1，方向的值为1，其他标签的值为0
+     */
+    private static byte[] exif(boolean littleEndian, int... tags) {
+        int tiffLength = 8 + 2 + tags.length * 12 + 4;
+        byte[] app1 = new byte[10 + tiffLength];
+        put(app1, 0, 2, 0xFFE1, false);
+        put(app1, 2, 2, app1.length - 2, false);
+        put(app1, 4, 4, 0x45786966, false);
+        put(app1, 10, 4, littleEndian ? 0x49492A00 : 0x4D4D002A, false);
+        put(app1, 14, 4, 8, littleEndian);
+        put(app1, 18, 2, tags.length, littleEndian);
+        for (int i = 0; i < tags.length; i++) {
+            int entry = 20 + i * 12;
+            put(app1, entry, 2, tags[i], littleEndian);
+            put(app1, entry + 2, 2, 3, littleEndian);
+            put(app1, entry + 4, 4, 1, littleEndian);
+            put(app1, entry + 8, 2, tags[i] == TAG_ORIENTATION ? Exif.ORIENTATION_NORMAL : 0, littleEndian);
+        }
+        return app1;
+    }
+
+    private static void put(byte[] bytes, int offset, int length, int value, boolean littleEndian) {
+        for (int i = 0; i < length; i++) {
+            int shift = littleEndian ? i * 8 : (length - 1 - i) * 8;
+            bytes[offset + i] = (byte) (value >>> shift);
+        }
+    }
+
+    private static boolean endsWith(byte[] bytes, byte[] suffix) {
+        return bytes.length >= suffix.length
+                && Arrays.equals(Arrays.copyOfRange(bytes, bytes.length - suffix.length, bytes.length), suffix);
+    }
+
+    private File write(byte[] jpeg) throws IOException {
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(jpeg);
+        }
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.google.android.cameraview.helper;
+
+import com.google.android.cameraview.compress.core.JpegEncoder;
+import com.google.android.cameraview.compress.core.PixelBuffer;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @fileName JpegTransformTest
+ * @describe 用JDK的解码器对比：无损变换后的JPEG解码结果，应该和原图解码后按同样方式移动像素的结果一致
+ * <p>
+ * 样图在测试中生成：4:4:4用核心编码器，4:2:0和渐进式用ImageIO。IDCT的舍入和色度插值在块的方向改变后不完全相同，
+ * 只允许很小的误差，方向错一点都会远远超出
+ */
+public class JpegTransformTest {
+    //单个像素每个通道允许的最大误差和平均误差
+    private static final int MAX_ERROR = 12;
+    private static final double MEAN_ERROR = 1.5;
+
+    @Test
+    public void exifOrientations444() throws IOException {
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            checkOrientation(encode444(48, 32), orientation, 8);
+        }
+    }
+
+    @Test
+    public void exifOrientations420() throws IOException {
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            checkOrientation(encode420(64, 48), orientation, 16);
+        }
+    }
+
+    /**
+     * 宽高都不是MCU的整数倍，翻转方向上不足一个MCU的边缘被裁掉
+     */
+    @Test
+    public void unalignedSizes() throws IOException {
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            checkOrientation(encode444(45, 29), orientation, 8);
+            checkOrientation(encode420(53, 37), orientation, 16);
+        }
+    }
+
+    @Test
+    public void orientationResetToNormal() throws IOException {
+        byte[] jpeg = Exif.setOrientation(encode444(48, 32), Exif.ORIENTATION_ROTATE_90);
+        byte[] result = JpegTransform.applyExifOrientation(jpeg);
+        assertEquals(Exif.ORIENTATION_NORMAL, Exif.getOrientationTag(result));
+        BufferedImage image = decode(result);
+        assertEquals(32, image.getWidth());
+        assertEquals(48, image.getHeight());
+    }
+
+    @Test
+    public void normalOrientationUnchanged() throws IOException {
+        byte[] jpeg = Exif.setOrientation(encode444(48, 32), Exif.ORIENTATION_NORMAL);
+        assertSame(jpeg, JpegTransform.applyExifOrientation(jpeg));
+    }
+
+    @Test(expected = IOException.class)
+    public void progressiveRejected() throws IOException {
+        JpegTransform.transform(encodeProgressive(64, 48), JpegTransform.TRANSFORM_ROTATE_90);
+    }
+
+    @Test(expected = IOException.class)
+    public void progressiveExifRejected() throws IOException {
+        JpegTransform.applyExifOrientation(Exif.setOrientation(encodeProgressive(64, 48), Exif.ORIENTATION_ROTATE_180));
+    }
+
+    @Test(expected = IOException.class)
+    public void notJpegRejected() throws IOException {
+        JpegTransform.transform(new byte[]{1, 2, 3, 4}, JpegTransform.TRANSFORM_ROTATE_90);
+    }
+
+    /**
+     * @param mcu MCU的边长，4:4:4是8，4:2:0是16
+     */
+    private static void checkOrientation(byte[] source, int orientation, int mcu) throws IOException {
+        BufferedImage original = decode(source);
+        byte[] result = JpegTransform.applyExifOrientation(Exif.setOrientation(source, orientation));
+        BufferedImage actual = decode(result);
+
+        boolean transpose = orientation >= Exif.ORIENTATION_TRANSPOSE;
+        boolean flipX = orientation == Exif.ORIENTATION_FLIP_HORIZONTAL || orientation == Exif.ORIENTATION_ROTATE_180
+                || orientation == Exif.ORIENTATION_ROTATE_90 || orientation == Exif.ORIENTATION_TRANSVERSE;
+        boolean flipY = orientation == Exif.ORIENTATION_FLIP_VERTICAL || orientation == Exif.ORIENTATION_ROTATE_180
+                || orientation == Exif.ORIENTATION_ROTATE_270 || orientation == Exif.ORIENTATION_TRANSVERSE;
+        //输出坐标中翻转的方向裁成MCU的整数倍，裁掉的是原图右边和下边的部分
+        int width = transpose ? original.getHeight() : original.getWidth();
+        int height = transpose ? original.getWidth() : original.getHeight();
+        if (flipX) {
+            width = width / mcu * mcu;
+        }
+        if (flipY) {
+            height = height / mcu * mcu;
+        }
+        String name = "orientation " + orientation + ", " + original.getWidth() + "x" + original.getHeight();
+        assertEquals(name, width, actual.getWidth());
+        assertEquals(name, height, actual.getHeight());
+
+        long total = 0;
+        int max = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sx = flipX ? width - 1 - x : x;
+                int sy = flipY ? height - 1 - y : y;
+                int expected = transpose ? original.getRGB(sy, sx) : original.getRGB(sx, sy);
+                int pixel = actual.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int error = Math.abs(((expected >> shift) & 0xFF) - ((pixel >> shift) & 0xFF));
+                    total += error;
+                    max = Math.max(max, error);
+                }
+            }
+        }
+        double mean = (double) total / (width * height * 3);
+        assertTrue(name + ", max error " + max, max <= MAX_ERROR);
+        assertTrue(name + ", mean error " + mean, mean <= MEAN_ERROR);
+    }
+
+    /**
+     * 渐变加上几个色块，任何方向的移动都能看出来
+     */
+    private static BufferedImage sample(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / width;
+                int g = y * 255 / height;
+                int b = (x < width / 3 && y < height / 2) ? 230 : 40;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode444(int width, int height) throws IOException {
+        BufferedImage image = sample(width, height);
+        PixelBuffer pixels = new PixelBuffer(width, height, image.getRGB(0, 0, width, height, null, 0, width));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JpegEncoder(95, false).encode(pixels, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * JDK的编码器对彩色图片默认是4:2:0
+     */
+    private static byte[] encode420(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(sample(width, height), "jpg", out);
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeProgressive(int width, int height) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(sample(width, height), null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+}